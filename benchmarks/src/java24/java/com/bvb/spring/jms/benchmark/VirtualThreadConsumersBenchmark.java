@@ -0,0 +1,175 @@
+package com.bvb.spring.jms.benchmark;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.activemq.ActiveMQConnectionFactory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.core.task.SimpleAsyncTaskExecutor;
+import org.springframework.jms.listener.DefaultMessageListenerContainer;
+import org.springframework.jms.listener.adapter.MessageListenerAdapter;
+
+import com.bvb.spring.jms.listener.BackoffDefaultMessageListeningContainer;
+import com.bvb.spring.jms.listener.virtual.VirtualThreadContainers;
+
+/**
+ * Throughput and footprint of the {@link BackoffDefaultMessageListeningContainer} with thousands of consumers, run on
+ * platform threads against virtual threads.  Each invocation sends a batch of messages and waits for all of them to be
+ * consumed, most consumers sit idle in a receive as they would on a quiet queue.
+ * <p>
+ * Once every consumer has started the heap in use, the live platform threads and the resident set size of the process are
+ * printed, run with {@code -prof gc} for the allocation rate while consuming.  Only built with the {@code java24} profile.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 10)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class VirtualThreadConsumersBenchmark
+{
+    private static final String QUEUE = "benchmark.virtual.queue";
+    private static final int BATCH = 1000;
+    private static final long RECEIVE_TIMEOUT_MS = 1000;
+    private static final long AWAIT_TIMEOUT_MS = TimeUnit.SECONDS.toMillis(60);
+    private static final long MEGABYTE = 1024 * 1024;
+    
+    public enum ThreadType
+    {
+        PLATFORM, VIRTUAL
+    }
+    
+    @Param({"1000", "10000"})
+    public int consumers;
+    
+    @Param({"PLATFORM", "VIRTUAL"})
+    public ThreadType threadType;
+    
+    private EmbeddedBroker broker;
+    private BenchmarkListener listener;
+    private MessageSender sender;
+    private BackoffDefaultMessageListeningContainer container;
+    
+    @Setup(Level.Trial)
+    public void setUp() throws InterruptedException
+    {
+        broker = new EmbeddedBroker();
+        broker.start();
+        // a prefetch of one stops the first consumers to start from taking every message
+        ActiveMQConnectionFactory connectionFactory = new ActiveMQConnectionFactory(broker.getConnectionUrl()
+            + "&jms.prefetchPolicy.all=1");
+        
+        listener = new BenchmarkListener();
+        MessageListenerAdapter adapter = new MessageListenerAdapter(listener);
+        adapter.setDefaultListenerMethod(BenchmarkListener.LISTENER_METHOD);
+        
+        String name = "Benchmark-" + threadType;
+        container = new BackoffDefaultMessageListeningContainer();
+        container.setBeanName(name);
+        container.setConnectionFactory(connectionFactory);
+        container.setDestinationName(QUEUE);
+        container.setSessionTransacted(true);
+        container.setCacheLevel(DefaultMessageListenerContainer.CACHE_CONSUMER);
+        container.setReceiveTimeout(RECEIVE_TIMEOUT_MS);
+        container.setConcurrentConsumers(consumers);
+        container.setMessageListener(adapter);
+        if (threadType == ThreadType.VIRTUAL)
+        {
+            VirtualThreadContainers.configure(container, name);
+        }
+        else
+        {
+            container.setTaskExecutor(new SimpleAsyncTaskExecutor(name + "-"));
+        }
+        container.afterPropertiesSet();
+        container.start();
+        awaitConsumersStarted();
+        printFootprint();
+        
+        sender = new MessageSender(connectionFactory, QUEUE);
+    }
+    
+    private void awaitConsumersStarted() throws InterruptedException
+    {
+        long deadline = System.currentTimeMillis() + AWAIT_TIMEOUT_MS;
+        while (container.getActiveConsumerCount() < consumers)
+        {
+            if (System.currentTimeMillis() > deadline)
+            {
+                throw new IllegalStateException(String.format("Consumers not started within: [%d ms], active: [%d]",
+                    AWAIT_TIMEOUT_MS, container.getActiveConsumerCount()));
+            }
+            Thread.sleep(100);
+        }
+    }
+    
+    private void printFootprint()
+    {
+        System.gc();
+        long heapUsed = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+        int platformThreads = ManagementFactory.getThreadMXBean().getThreadCount();
+        System.out.println(String.format("Footprint [%s x %d]: heap used: [%d MB], platform threads: [%d], RSS: [%s]",
+            threadType, consumers, heapUsed / MEGABYTE, platformThreads, readResidentSetSize()));
+    }
+    
+    /**
+     * Read the resident set size from {@code /proc}, it includes the thread stacks which the heap figure does not.
+     * @return the resident set size, or {@code n/a} where there is no {@code /proc}.
+     */
+    private static String readResidentSetSize()
+    {
+        try
+        {
+            for (String line : Files.readAllLines(Paths.get("/proc/self/status"), StandardCharsets.US_ASCII))
+            {
+                if (line.startsWith("VmRSS:"))
+                {
+                    return line.substring("VmRSS:".length()).trim();
+                }
+            }
+        }
+        catch (IOException ex)
+        {
+            /* Not Linux */
+        }
+        return "n/a";
+    }
+    
+    @TearDown(Level.Trial)
+    public void tearDown()
+    {
+        sender.close();
+        container.stop();
+        container.shutdown();
+        broker.stop();
+    }
+    
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public void consume() throws InterruptedException
+    {
+        listener.expect(BATCH);
+        for (int i = 0; i < BATCH; i++)
+        {
+            sender.send("virtual");
+        }
+        listener.await(AWAIT_TIMEOUT_MS);
+    }
+}
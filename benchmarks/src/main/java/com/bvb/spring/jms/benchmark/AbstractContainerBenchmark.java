@@ -0,0 +1,105 @@
+package com.bvb.spring.jms.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import javax.jms.ConnectionFactory;
+
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.springframework.jms.listener.DefaultMessageListenerContainer;
+import org.springframework.jms.listener.adapter.MessageListenerAdapter;
+import org.springframework.util.ErrorHandler;
+
+/**
+ * Starts an embedded broker and a container consuming from a single queue for the life of a trial.  The container is
+ * configured the same way regardless of its type so that any difference measured is the overhead of the container itself.
+ */
+@State(Scope.Benchmark)
+public abstract class AbstractContainerBenchmark
+{
+    protected static final String QUEUE = "benchmark.queue";
+    protected static final long AWAIT_TIMEOUT_MS = TimeUnit.SECONDS.toMillis(30);
+    private static final long RECEIVE_TIMEOUT_MS = 100;
+    
+    @Param({"1", "4"})
+    public int concurrency;
+    
+    protected EmbeddedBroker broker;
+    protected BenchmarkListener listener;
+    protected MessageSender sender;
+    protected DefaultMessageListenerContainer container;
+    
+    @Setup(Level.Trial)
+    public void setUp()
+    {
+        broker = new EmbeddedBroker();
+        broker.start();
+        ConnectionFactory connectionFactory = broker.buildConnectionFactory();
+        
+        listener = new BenchmarkListener();
+        container = buildContainer(connectionFactory);
+        configure(container);
+        container.afterPropertiesSet();
+        container.start();
+        
+        sender = new MessageSender(connectionFactory, QUEUE);
+    }
+    
+    @TearDown(Level.Trial)
+    public void tearDown()
+    {
+        sender.close();
+        container.stop();
+        container.shutdown();
+        broker.stop();
+    }
+    
+    /**
+     * The container type to measure.
+     * @return the container type.
+     */
+    protected abstract ContainerType getContainerType();
+    
+    /**
+     * Benchmarks can override this to apply any extra configuration before the container is started.
+     * @param container the container to configure.
+     */
+    protected void configure(DefaultMessageListenerContainer container)
+    {
+        /* No extra configuration by default */
+    }
+    
+    private DefaultMessageListenerContainer buildContainer(ConnectionFactory connectionFactory)
+    {
+        MessageListenerAdapter adapter = new MessageListenerAdapter(listener);
+        adapter.setDefaultListenerMethod(BenchmarkListener.LISTENER_METHOD);
+        
+        DefaultMessageListenerContainer result = getContainerType().create();
+        result.setBeanName("Benchmark-" + getContainerType());
+        result.setConnectionFactory(connectionFactory);
+        result.setDestinationName(QUEUE);
+        result.setSessionTransacted(true);
+        result.setCacheLevel(DefaultMessageListenerContainer.CACHE_CONSUMER);
+        result.setReceiveTimeout(RECEIVE_TIMEOUT_MS);
+        result.setConcurrentConsumers(concurrency);
+        result.setMessageListener(adapter);
+        result.setErrorHandler(new IgnoringErrorHandler());
+        return result;
+    }
+    
+    /**
+     * Stops the container logging every induced failure, which would otherwise be measured along with the container.
+     */
+    private static class IgnoringErrorHandler implements ErrorHandler
+    {
+        @Override
+        public void handleError(Throwable t)
+        {
+            /* Failures are expected by the benchmarks */
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package com.bvb.spring.jms.benchmark;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import com.bvb.spring.jms.listener.config.PauseConfig;
+import com.bvb.spring.jms.listener.exception.PauseConsumptionException;
+
+/**
+ * The delegate invoked by the containers under test.  Benchmarks state how many messages they expect to be delivered and
+ * then wait on the returned latch, they can also ask for the next message to fail with a {@link PauseConsumptionException}.
+ */
+public class BenchmarkListener
+{
+    public static final String LISTENER_METHOD = "onMessage";
+    
+    private volatile CountDownLatch latch = new CountDownLatch(0);
+    private final AtomicReference<PauseConfig> pauseOnNext = new AtomicReference<PauseConfig>();
+    
+    public void onMessage(String text)
+    {
+        PauseConfig config = pauseOnNext.getAndSet(null);
+        if (config != null)
+        {
+            throw new PauseConsumptionException(config, new IllegalStateException("Pause requested by benchmark"));
+        }
+        latch.countDown();
+    }
+    
+    /**
+     * Expect a number of messages to be delivered successfully.
+     * @param count the number of messages expected.
+     */
+    public void expect(int count)
+    {
+        latch = new CountDownLatch(count);
+    }
+    
+    /**
+     * Wait for the expected messages to arrive.
+     * @param timeoutMs the maximum time to wait in milliseconds.
+     * @throws IllegalStateException if the messages do not arrive within the timeout.
+     */
+    public void await(long timeoutMs) throws InterruptedException
+    {
+        if (!latch.await(timeoutMs, TimeUnit.MILLISECONDS))
+        {
+            throw new IllegalStateException(String.format("Expected messages not delivered within: [%d ms], remaining: [%d]",
+                timeoutMs, latch.getCount()));
+        }
+    }
+    
+    /**
+     * The next message delivered will throw a {@link PauseConsumptionException} with the config provided.
+     * @param config the config to throw with.
+     */
+    public void pauseOnNextMessage(PauseConfig config)
+    {
+        pauseOnNext.set(config);
+    }
+}
@@ -0,0 +1,36 @@
+package com.bvb.spring.jms.benchmark;
+
+import org.springframework.jms.listener.DefaultMessageListenerContainer;
+
+import com.bvb.spring.jms.listener.BackoffDefaultMessageListeningContainer;
+
+/**
+ * The containers that can be benchmarked against each other.
+ */
+public enum ContainerType
+{
+    /**
+     * The Spring {@link DefaultMessageListenerContainer}, used as the baseline.
+     */
+    PLAIN
+    {
+        @Override
+        DefaultMessageListenerContainer create()
+        {
+            return new DefaultMessageListenerContainer();
+        }
+    },
+    /**
+     * The {@link BackoffDefaultMessageListeningContainer} with no keep alive service.
+     */
+    BACKOFF
+    {
+        @Override
+        DefaultMessageListenerContainer create()
+        {
+            return new BackoffDefaultMessageListeningContainer();
+        }
+    };
+    
+    abstract DefaultMessageListenerContainer create();
+}
@@ -0,0 +1,91 @@
+package com.bvb.spring.jms.benchmark;
+
+import javax.jms.ConnectionFactory;
+
+import org.apache.activemq.ActiveMQConnectionFactory;
+import org.apache.activemq.RedeliveryPolicy;
+import org.apache.activemq.broker.BrokerService;
+import org.springframework.jms.connection.CachingConnectionFactory;
+
+/**
+ * A non persistent ActiveMQ broker that lives inside the benchmark JVM and is reached over the {@code vm://} transport, so
+ * that the numbers measured are the cost of the containers rather than the network.
+ */
+public class EmbeddedBroker
+{
+    private static final String BROKER_NAME = "benchmark";
+    private static final int SESSION_CACHE_SIZE = 50;
+    
+    private BrokerService broker;
+    
+    public void start()
+    {
+        broker = new BrokerService();
+        broker.setBrokerName(BROKER_NAME);
+        broker.setPersistent(false);
+        broker.setUseJmx(false);
+        broker.setUseShutdownHook(false);
+        try
+        {
+            broker.start();
+            broker.waitUntilStarted();
+        }
+        catch (Exception ex)
+        {
+            throw new RuntimeException(ex);
+        }
+    }
+    
+    public String getConnectionUrl()
+    {
+        return "vm://" + BROKER_NAME + "?create=false";
+    }
+    
+    /**
+     * Build a connection factory for the broker.  Redelivery is immediate so that a rolled back message does not add the
+     * broker redelivery delay to the time being measured.
+     * @return the connection factory.
+     */
+    public ConnectionFactory buildConnectionFactory()
+    {
+        return buildConnectionFactory(true);
+    }
+    
+    /**
+     * Build a connection factory for the broker, as {@link #buildConnectionFactory()}.
+     * @param cacheConsumers whether the factory caches the message consumers.  A consumer cached by the factory keeps the
+     * messages prefetched to it when the container closes it, so over a long run with pauses and throttling some messages
+     * are left on consumers no container is receiving from.
+     * @return the connection factory.
+     */
+    public ConnectionFactory buildConnectionFactory(boolean cacheConsumers)
+    {
+        ActiveMQConnectionFactory amqFactory = new ActiveMQConnectionFactory(getConnectionUrl());
+        RedeliveryPolicy redeliveryPolicy = new RedeliveryPolicy();
+        redeliveryPolicy.setInitialRedeliveryDelay(0);
+        redeliveryPolicy.setMaximumRedeliveries(RedeliveryPolicy.NO_MAXIMUM_REDELIVERIES);
+        amqFactory.setRedeliveryPolicy(redeliveryPolicy);
+        CachingConnectionFactory cachingFactory = new CachingConnectionFactory();
+        cachingFactory.setTargetConnectionFactory(amqFactory);
+        cachingFactory.setSessionCacheSize(SESSION_CACHE_SIZE);
+        cachingFactory.setCacheConsumers(cacheConsumers);
+        return cachingFactory;
+    }
+    
+    public void stop()
+    {
+        if (broker != null)
+        {
+            try
+            {
+                broker.stop();
+                broker.waitUntilStopped();
+            }
+            catch (Exception ex)
+            {
+                throw new RuntimeException(ex);
+            }
+            broker = null;
+        }
+    }
+}
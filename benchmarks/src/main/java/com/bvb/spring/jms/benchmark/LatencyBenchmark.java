@@ -0,0 +1,40 @@
+package com.bvb.spring.jms.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Per message latency, from send until the listener has been invoked, sampled so that JMH reports the percentiles.
+ */
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 10)
+@Fork(value = 1, jvmArgsAppend = "-Xmx512m")
+public class LatencyBenchmark extends AbstractContainerBenchmark
+{
+    @Param({"PLAIN", "BACKOFF"})
+    public ContainerType containerType;
+    
+    @Override
+    protected ContainerType getContainerType()
+    {
+        return containerType;
+    }
+    
+    @Benchmark
+    public void sendAndConsume() throws InterruptedException
+    {
+        listener.expect(1);
+        sender.send("latency");
+        listener.await(AWAIT_TIMEOUT_MS);
+    }
+}
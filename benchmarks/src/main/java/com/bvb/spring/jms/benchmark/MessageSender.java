@@ -0,0 +1,56 @@
+package com.bvb.spring.jms.benchmark;
+
+import javax.jms.Connection;
+import javax.jms.ConnectionFactory;
+import javax.jms.DeliveryMode;
+import javax.jms.JMSException;
+import javax.jms.MessageProducer;
+import javax.jms.Session;
+
+import org.springframework.jms.support.JmsUtils;
+
+/**
+ * Sends text messages to a queue, keeping the connection, session and producer open for the life of the sender so the
+ * cost of sending stays constant across the containers being compared.
+ */
+public class MessageSender
+{
+    private final Connection connection;
+    private final Session session;
+    private final MessageProducer producer;
+    
+    public MessageSender(ConnectionFactory connectionFactory, String queue)
+    {
+        try
+        {
+            connection = connectionFactory.createConnection();
+            connection.start();
+            session = connection.createSession(false, Session.AUTO_ACKNOWLEDGE);
+            producer = session.createProducer(session.createQueue(queue));
+            producer.setDeliveryMode(DeliveryMode.NON_PERSISTENT);
+        }
+        catch (JMSException ex)
+        {
+            throw JmsUtils.convertJmsAccessException(ex);
+        }
+    }
+    
+    public void send(String text)
+    {
+        try
+        {
+            producer.send(session.createTextMessage(text));
+        }
+        catch (JMSException ex)
+        {
+            throw JmsUtils.convertJmsAccessException(ex);
+        }
+    }
+    
+    public void close()
+    {
+        JmsUtils.closeMessageProducer(producer);
+        JmsUtils.closeSession(session);
+        JmsUtils.closeConnection(connection);
+    }
+}
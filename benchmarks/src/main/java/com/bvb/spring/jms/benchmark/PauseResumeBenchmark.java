@@ -0,0 +1,71 @@
+package com.bvb.spring.jms.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.jms.listener.DefaultMessageListenerContainer;
+
+import com.bvb.spring.jms.listener.BackoffDefaultMessageListeningContainer;
+import com.bvb.spring.jms.listener.config.PauseConfig;
+import com.bvb.spring.jms.listener.config.PauseConfigBuilder;
+
+/**
+ * Time to resume after a {@link com.bvb.spring.jms.listener.exception.PauseConsumptionException}.  Each operation sends a
+ * message whose listener throws the exception, which stops the container and rolls the message back.  The operation ends when
+ * the keep alive has restarted the container and the message has been redelivered, so the time reported is the full
+ * {@code stopDmlc}, keep alive, {@code startDmlc} cycle.  Subtract {@code delayMs} for the overhead of the container.
+ * <p>
+ * A hard pause stops the DMLC and restarts it, a {@code softPause} parks the consumers on a gate with their sessions and
+ * consumers left open and wakes them, so the difference between the two is the cost of resuming a stopped DMLC.
+ */
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 5, time = 10)
+@Fork(value = 1, jvmArgsAppend = "-Xmx512m")
+public class PauseResumeBenchmark extends AbstractContainerBenchmark
+{
+    @Param({"10", "100"})
+    public long delayMs;
+    
+    @Param({"false", "true"})
+    public boolean softPause;
+    
+    private PauseConfig pauseConfig;
+    
+    @Setup(Level.Trial)
+    public void setUpPauseConfig()
+    {
+        pauseConfig = PauseConfigBuilder.newBuilder().withDelayConsumptionForXMs(delayMs).build();
+    }
+    
+    @Override
+    protected ContainerType getContainerType()
+    {
+        return ContainerType.BACKOFF;
+    }
+    
+    @Override
+    protected void configure(DefaultMessageListenerContainer container)
+    {
+        ((BackoffDefaultMessageListeningContainer) container).setSoftPause(softPause);
+    }
+    
+    @Benchmark
+    public void pauseAndResume() throws InterruptedException
+    {
+        listener.expect(1);
+        listener.pauseOnNextMessage(pauseConfig);
+        sender.send("pause");
+        listener.await(AWAIT_TIMEOUT_MS);
+    }
+}
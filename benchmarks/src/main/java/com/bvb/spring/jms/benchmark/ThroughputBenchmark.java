@@ -0,0 +1,48 @@
+package com.bvb.spring.jms.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Steady state throughput in messages per second of the {@link ContainerType#BACKOFF} container compared against the plain
+ * {@link ContainerType#PLAIN} DMLC.  Each invocation sends a batch of messages and waits for all of them to be consumed.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 10)
+@Fork(value = 1, jvmArgsAppend = "-Xmx512m")
+public class ThroughputBenchmark extends AbstractContainerBenchmark
+{
+    private static final int BATCH = 1000;
+    
+    @Param({"PLAIN", "BACKOFF"})
+    public ContainerType containerType;
+    
+    @Override
+    protected ContainerType getContainerType()
+    {
+        return containerType;
+    }
+    
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public void consume() throws InterruptedException
+    {
+        listener.expect(BATCH);
+        for (int i = 0; i < BATCH; i++)
+        {
+            sender.send("throughput");
+        }
+        listener.await(AWAIT_TIMEOUT_MS);
+    }
+}
@@ -0,0 +1,59 @@
+package com.bvb.spring.jms.benchmark.soak;
+
+import com.bvb.spring.jms.listener.config.PauseConfig;
+import com.bvb.spring.jms.listener.keepalive.KeepAliveResponse;
+import com.bvb.spring.jms.listener.keepalive.KeepAliveService;
+
+/**
+ * A keep alive that fails through outages of the upstream on a fixed schedule, an outage of the given length every interval
+ * from the start of the run.  The start and end of each outage are given to the {@link SoakReport} so the time the container
+ * took to detect it and to resume after it can be measured.
+ */
+public class ChaosKeepAliveService implements KeepAliveService
+{
+    private final long startMs;
+    private final long outageEveryMs;
+    private final long outageForMs;
+    private final PauseConfig outageConfig;
+    private final SoakReport report;
+    private long lastOutage = 0;
+    
+    /**
+     * Create the keep alive.
+     * @param startMs the start of the run, the first outage begins one interval after it.
+     * @param outageEveryMs the interval between the start of each outage, {@code 0} for no outages.
+     * @param outageForMs the length of each outage.
+     * @param outageConfig the config the keep alive fails with during an outage.
+     * @param report the report of the run.
+     */
+    public ChaosKeepAliveService(long startMs, long outageEveryMs, long outageForMs, PauseConfig outageConfig,
+        SoakReport report)
+    {
+        this.startMs = startMs;
+        this.outageEveryMs = outageEveryMs;
+        this.outageForMs = outageForMs;
+        this.outageConfig = outageConfig;
+        this.report = report;
+    }
+    
+    @Override
+    public synchronized KeepAliveResponse keepAlive()
+    {
+        if (outageEveryMs > 0 && report.isInjectingFaults())
+        {
+            long now = System.currentTimeMillis();
+            long outage = (now - startMs) / outageEveryMs;
+            long outageStartMs = startMs + outage * outageEveryMs;
+            if (outage > 0 && now < outageStartMs + outageForMs)
+            {
+                if (outage != lastOutage)
+                {
+                    lastOutage = outage;
+                    report.faultInjected("outage", outageStartMs, outageStartMs + outageForMs);
+                }
+                return new KeepAliveResponse(false, outageConfig);
+            }
+        }
+        return new KeepAliveResponse(true);
+    }
+}
@@ -0,0 +1,92 @@
+package com.bvb.spring.jms.benchmark.soak;
+
+import java.util.Random;
+
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.MessageListener;
+import javax.jms.TextMessage;
+
+import com.bvb.spring.jms.listener.config.PauseConfig;
+import com.bvb.spring.jms.listener.exception.PauseConsumptionException;
+
+/**
+ * The listener of a soak run.  Every message takes the listener latency plus a random jitter, as a call downstream would,
+ * and on a fixed schedule the next message throws a {@link PauseConsumptionException} so the container pauses and the message
+ * is rolled back.  Every delivery is given to the {@link SoakReport} to find the messages lost and redelivered.
+ */
+public class FaultInjectingListener implements MessageListener
+{
+    private final long latencyMs;
+    private final long jitterMs;
+    private final long pauseEveryMs;
+    private final PauseConfig pauseConfig;
+    private final SoakReport report;
+    private final Random random = new Random();
+    private long nextPauseMs;
+    
+    /**
+     * Create the listener.
+     * @param startMs the start of the run, the first pause is one interval after it.
+     * @param latencyMs the latency added to every message.
+     * @param jitterMs the most random latency added on top.
+     * @param pauseEveryMs the interval between the pauses, {@code 0} for no pauses.
+     * @param pauseConfig the config thrown with.
+     * @param report the report of the run.
+     */
+    public FaultInjectingListener(long startMs, long latencyMs, long jitterMs, long pauseEveryMs, PauseConfig pauseConfig,
+        SoakReport report)
+    {
+        this.latencyMs = latencyMs;
+        this.jitterMs = jitterMs;
+        this.pauseEveryMs = pauseEveryMs;
+        this.pauseConfig = pauseConfig;
+        this.report = report;
+        this.nextPauseMs = startMs + pauseEveryMs;
+    }
+    
+    @Override
+    public void onMessage(Message message)
+    {
+        if (pauseDue())
+        {
+            long now = System.currentTimeMillis();
+            report.faultInjected("pause", now, now + pauseConfig.getDelayConsumptionForMs());
+            throw new PauseConsumptionException(pauseConfig, new IllegalStateException("Pause injected by soak run"));
+        }
+        sleep(latencyMs + ((jitterMs > 0) ? (long) (random.nextDouble() * jitterMs) : 0));
+        try
+        {
+            report.delivered(Long.parseLong(((TextMessage) message).getText()), message.getJMSRedelivered());
+        }
+        catch (JMSException ex)
+        {
+            throw new IllegalStateException("Unable to read the soak message", ex);
+        }
+    }
+    
+    private synchronized boolean pauseDue()
+    {
+        if (pauseEveryMs > 0 && report.isInjectingFaults() && System.currentTimeMillis() >= nextPauseMs)
+        {
+            nextPauseMs += pauseEveryMs;
+            return true;
+        }
+        return false;
+    }
+    
+    private static void sleep(long ms)
+    {
+        if (ms > 0)
+        {
+            try
+            {
+                Thread.sleep(ms);
+            }
+            catch (InterruptedException ex)
+            {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
@@ -0,0 +1,145 @@
+package com.bvb.spring.jms.benchmark.soak;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The settings of a soak run, read from {@code soak.*} system properties so a run can be changed from the command line, for
+ * example {@code -Dsoak.durationMinutes=480 -Dsoak.ratePerSecond=500}.  A fault is disabled by setting its interval to 0.
+ */
+public class SoakConfig
+{
+    private static final String PREFIX = "soak.";
+    
+    private final long durationMs;
+    private final int ratePerSecond;
+    private final int concurrency;
+    private final long keepAliveIntervalMs;
+    private final long outageEveryMs;
+    private final long outageForMs;
+    private final long pauseEveryMs;
+    private final long pauseForMs;
+    private final long listenerLatencyMs;
+    private final long listenerJitterMs;
+    private final long rampUpMs;
+    private final long reportEveryMs;
+    private final long drainTimeoutMs;
+    private final int maxThreadGrowth;
+    private final boolean softPause;
+    
+    private SoakConfig()
+    {
+        durationMs = TimeUnit.MINUTES.toMillis(getLong("durationMinutes", 60));
+        ratePerSecond = (int) getLong("ratePerSecond", 200);
+        concurrency = (int) getLong("concurrency", 4);
+        keepAliveIntervalMs = getLong("keepAliveIntervalMs", 1000);
+        outageEveryMs = TimeUnit.SECONDS.toMillis(getLong("outageEverySeconds", 300));
+        outageForMs = TimeUnit.SECONDS.toMillis(getLong("outageForSeconds", 20));
+        pauseEveryMs = TimeUnit.SECONDS.toMillis(getLong("pauseEverySeconds", 120));
+        pauseForMs = getLong("pauseForMs", 2000);
+        listenerLatencyMs = getLong("listenerLatencyMs", 2);
+        listenerJitterMs = getLong("listenerJitterMs", 3);
+        rampUpMs = TimeUnit.SECONDS.toMillis(getLong("rampUpSeconds", 10));
+        reportEveryMs = TimeUnit.SECONDS.toMillis(getLong("reportEverySeconds", 60));
+        drainTimeoutMs = TimeUnit.SECONDS.toMillis(getLong("drainTimeoutSeconds", 120));
+        maxThreadGrowth = (int) getLong("maxThreadGrowth", 10);
+        softPause = Boolean.getBoolean(PREFIX + "softPause");
+    }
+    
+    public static SoakConfig fromSystemProperties()
+    {
+        return new SoakConfig();
+    }
+    
+    private static long getLong(String name, long defaultValue)
+    {
+        return Long.getLong(PREFIX + name, defaultValue);
+    }
+    
+    public long getDurationMs()
+    {
+        return durationMs;
+    }
+    
+    public int getRatePerSecond()
+    {
+        return ratePerSecond;
+    }
+    
+    public int getConcurrency()
+    {
+        return concurrency;
+    }
+    
+    public long getKeepAliveIntervalMs()
+    {
+        return keepAliveIntervalMs;
+    }
+    
+    public long getOutageEveryMs()
+    {
+        return outageEveryMs;
+    }
+    
+    public long getOutageForMs()
+    {
+        return outageForMs;
+    }
+    
+    public long getPauseEveryMs()
+    {
+        return pauseEveryMs;
+    }
+    
+    public long getPauseForMs()
+    {
+        return pauseForMs;
+    }
+    
+    public long getListenerLatencyMs()
+    {
+        return listenerLatencyMs;
+    }
+    
+    public long getListenerJitterMs()
+    {
+        return listenerJitterMs;
+    }
+    
+    /**
+     * Get how long after each resume the throughput is measured as the ramp up, also the time the throttle takes to relax.
+     * @return the ramp up in milliseconds.
+     */
+    public long getRampUpMs()
+    {
+        return rampUpMs;
+    }
+    
+    public long getReportEveryMs()
+    {
+        return reportEveryMs;
+    }
+    
+    public long getDrainTimeoutMs()
+    {
+        return drainTimeoutMs;
+    }
+    
+    public int getMaxThreadGrowth()
+    {
+        return maxThreadGrowth;
+    }
+    
+    public boolean isSoftPause()
+    {
+        return softPause;
+    }
+    
+    @Override
+    public String toString()
+    {
+        return String.format("durationMs=%d, ratePerSecond=%d, concurrency=%d, keepAliveIntervalMs=%d, outageEveryMs=%d, "
+            + "outageForMs=%d, pauseEveryMs=%d, pauseForMs=%d, listenerLatencyMs=%d+%d, rampUpMs=%d, softPause=%s", durationMs,
+            ratePerSecond, concurrency, keepAliveIntervalMs, outageEveryMs, outageForMs, pauseEveryMs, pauseForMs,
+            listenerLatencyMs, listenerJitterMs, rampUpMs, softPause);
+    }
+}
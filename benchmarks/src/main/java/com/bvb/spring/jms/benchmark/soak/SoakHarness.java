@@ -0,0 +1,205 @@
+package com.bvb.spring.jms.benchmark.soak;
+
+import java.util.concurrent.TimeUnit;
+
+import javax.jms.ConnectionFactory;
+
+import org.springframework.jms.listener.DefaultMessageListenerContainer;
+import org.springframework.util.ErrorHandler;
+
+import com.bvb.spring.jms.benchmark.EmbeddedBroker;
+import com.bvb.spring.jms.benchmark.MessageSender;
+import com.bvb.spring.jms.listener.BackoffDefaultMessageListeningContainer;
+import com.bvb.spring.jms.listener.config.PauseConfig;
+import com.bvb.spring.jms.listener.config.PauseConfigBuilder;
+
+/**
+ * Runs a container against the embedded broker for a long period while injecting faults, to validate a release.  Messages
+ * are sent at a steady rate while a {@link ChaosKeepAliveService} takes the upstream down on a schedule and a
+ * {@link FaultInjectingListener} adds latency and pauses the container on another, each fault throttling the container as
+ * it resumes.  Once the run is over the faults stop, the backlog is drained and the {@link SoakReport} is printed.  The exit
+ * status is {@code 1} if a message was lost or processed twice or the threads grew by more than allowed.
+ * <pre>
+ * java -cp benchmarks/target/benchmarks.jar -Dsoak.durationMinutes=60 com.bvb.spring.jms.benchmark.soak.SoakHarness
+ * </pre>
+ * See {@link SoakConfig} for the settings.
+ */
+public class SoakHarness
+{
+    private static final String QUEUE = "soak.queue";
+    private static final long RECEIVE_TIMEOUT_MS = 100;
+    private static final long SAMPLE_EVERY_MS = 1000;
+    
+    private final SoakConfig config;
+    private final SoakReport report;
+    
+    public SoakHarness(SoakConfig config)
+    {
+        this.config = config;
+        this.report = new SoakReport(config.getRampUpMs());
+    }
+    
+    public static void main(String[] args) throws InterruptedException
+    {
+        SoakConfig config = SoakConfig.fromSystemProperties();
+        System.out.println("Soak run: " + config);
+        System.exit(new SoakHarness(config).run() ? 0 : 1);
+    }
+    
+    /**
+     * Run the soak.
+     * @return {@code true} if the run passed.
+     */
+    public boolean run() throws InterruptedException
+    {
+        EmbeddedBroker broker = new EmbeddedBroker();
+        broker.start();
+        // the container caches its own consumers
+        ConnectionFactory connectionFactory = broker.buildConnectionFactory(false);
+        long startMs = System.currentTimeMillis();
+        BackoffDefaultMessageListeningContainer container = buildContainer(connectionFactory, startMs);
+        container.afterPropertiesSet();
+        container.start();
+        report.baseline();
+        
+        Producer producer = new Producer(new MessageSender(connectionFactory, QUEUE));
+        Thread producerThread = new Thread(producer, "Soak-Producer");
+        producerThread.start();
+        long endMs = startMs + config.getDurationMs();
+        long nextReportMs = startMs + config.getReportEveryMs();
+        while (System.currentTimeMillis() < endMs)
+        {
+            Thread.sleep(SAMPLE_EVERY_MS);
+            report.sample();
+            if (System.currentTimeMillis() >= nextReportMs)
+            {
+                System.out.println(report.progress());
+                nextReportMs += config.getReportEveryMs();
+            }
+        }
+        producer.stop();
+        producerThread.join();
+        
+        report.stopInjectingFaults();
+        boolean drained = drain(producer.getSent());
+        report.end();
+        container.stop();
+        container.shutdown();
+        broker.stop();
+        
+        System.out.println(report.summary());
+        boolean passed = drained && report.passed(config.getMaxThreadGrowth());
+        System.out.println(passed ? "Soak run PASSED" : "Soak run FAILED");
+        return passed;
+    }
+    
+    private boolean drain(long sent) throws InterruptedException
+    {
+        long drainUntilMs = System.currentTimeMillis() + config.getDrainTimeoutMs();
+        while (report.getDistinctDelivered() < sent)
+        {
+            if (System.currentTimeMillis() >= drainUntilMs)
+            {
+                System.out.println(String.format("Backlog not drained within: [%d ms]", config.getDrainTimeoutMs()));
+                return false;
+            }
+            Thread.sleep(SAMPLE_EVERY_MS);
+            report.sample();
+        }
+        return true;
+    }
+    
+    private BackoffDefaultMessageListeningContainer buildContainer(ConnectionFactory connectionFactory, long startMs)
+    {
+        // every fault throttles the container to one consumer as it resumes, relaxed over the ramp up
+        PauseConfigBuilder throttle = PauseConfigBuilder.newBuilder().withThrottleMaxConcurrency(1)
+            .withThrottleDeliveryForXMs(config.getRampUpMs())
+            .withThrottleRelaxEveryXMs(SAMPLE_EVERY_MS);
+        PauseConfig outageConfig = throttle.build();
+        PauseConfig pauseConfig = throttle.withDelayConsumptionForXMs(config.getPauseForMs()).build();
+        
+        BackoffDefaultMessageListeningContainer result = new BackoffDefaultMessageListeningContainer();
+        result.setBeanName("Soak");
+        result.setConnectionFactory(connectionFactory);
+        result.setDestinationName(QUEUE);
+        result.setSessionTransacted(true);
+        result.setCacheLevel(DefaultMessageListenerContainer.CACHE_CONSUMER);
+        result.setReceiveTimeout(RECEIVE_TIMEOUT_MS);
+        result.setConcurrentConsumers(config.getConcurrency());
+        result.setSoftPause(config.isSoftPause());
+        result.setKeepAliveInterval(config.getKeepAliveIntervalMs());
+        result.setKeepAliveService(new ChaosKeepAliveService(startMs, config.getOutageEveryMs(), config.getOutageForMs(),
+            outageConfig, report));
+        result.setMessageListener(new FaultInjectingListener(startMs, config.getListenerLatencyMs(),
+            config.getListenerJitterMs(), config.getPauseEveryMs(), pauseConfig, report));
+        result.registerObserver(report);
+        result.setErrorHandler(new IgnoringErrorHandler());
+        return result;
+    }
+    
+    /**
+     * Sends the messages at the steady rate, each carrying its sequence number.
+     */
+    private class Producer implements Runnable
+    {
+        private final MessageSender sender;
+        private volatile boolean running = true;
+        private volatile long sent;
+        
+        Producer(MessageSender sender)
+        {
+            this.sender = sender;
+        }
+        
+        @Override
+        public void run()
+        {
+            long startNanos = System.nanoTime();
+            long intervalNanos = TimeUnit.SECONDS.toNanos(1) / config.getRatePerSecond();
+            try
+            {
+                while (running)
+                {
+                    long sleepNanos = startNanos + sent * intervalNanos - System.nanoTime();
+                    if (sleepNanos > 0)
+                    {
+                        TimeUnit.NANOSECONDS.sleep(sleepNanos);
+                    }
+                    sender.send(Long.toString(sent));
+                    sent++;
+                    report.sent(sent);
+                }
+            }
+            catch (InterruptedException ex)
+            {
+                Thread.currentThread().interrupt();
+            }
+            finally
+            {
+                sender.close();
+            }
+        }
+        
+        void stop()
+        {
+            running = false;
+        }
+        
+        long getSent()
+        {
+            return sent;
+        }
+    }
+    
+    /**
+     * The injected pauses are expected, only log the container failures the run did not cause.
+     */
+    private static class IgnoringErrorHandler implements ErrorHandler
+    {
+        @Override
+        public void handleError(Throwable t)
+        {
+            /* Failures are expected by the soak run */
+        }
+    }
+}
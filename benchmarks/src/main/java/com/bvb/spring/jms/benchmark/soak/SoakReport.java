@@ -0,0 +1,263 @@
+package com.bvb.spring.jms.benchmark.soak;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import com.bvb.spring.jms.listener.DmlcStartObserver;
+import com.bvb.spring.jms.listener.config.PauseConfig;
+
+/**
+ * Collects what a soak run measures.  As an observer of the container it sees each pause and resume, which against the start
+ * and end of the fault injected give the time to detect and the time to resume.  The throughput over the ramp up after each
+ * resume is the messages delivered in it.  Every message sent carries its sequence number, so the messages never delivered
+ * are lost and those delivered more than once are duplicates.  The threads and heap are taken once the container has started
+ * and again once the backlog is drained, the growth between them is what a leak would show as.
+ */
+public class SoakReport implements DmlcStartObserver
+{
+    private final long rampUpMs;
+    private final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+    private final MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+    private final BitSet seen = new BitSet();
+    private final List<Long> detectMs = new ArrayList<Long>();
+    private final List<Long> resumeMs = new ArrayList<Long>();
+    private final List<Double> rampUpPerSecond = new ArrayList<Double>();
+    private volatile boolean injectingFaults = true;
+    private long sent;
+    private long delivered;
+    private long distinct;
+    private long duplicates;
+    private long redelivered;
+    private int outages;
+    private int pauses;
+    private long faultStartMs;
+    private long faultClearsMs;
+    private boolean faultDetected;
+    private long rampStartMs;
+    private long rampStartDelivered;
+    private int baselineThreads;
+    private int peakThreads;
+    private int endThreads;
+    private long baselineHeap;
+    private long endHeap;
+    
+    /**
+     * Create the report.
+     * @param rampUpMs how long after each resume the throughput is measured.
+     */
+    public SoakReport(long rampUpMs)
+    {
+        this.rampUpMs = rampUpMs;
+    }
+    
+    /**
+     * Take the threads and heap the growth is measured from, once the container has started.
+     */
+    public void baseline()
+    {
+        baselineThreads = threads.getThreadCount();
+        peakThreads = baselineThreads;
+        baselineHeap = usedHeapAfterGc();
+    }
+    
+    /**
+     * Take the threads and heap at the end of the run, once the backlog is drained.
+     */
+    public void end()
+    {
+        endThreads = threads.getThreadCount();
+        endHeap = usedHeapAfterGc();
+    }
+    
+    private long usedHeapAfterGc()
+    {
+        System.gc();
+        return memory.getHeapMemoryUsage().getUsed();
+    }
+    
+    public boolean isInjectingFaults()
+    {
+        return injectingFaults;
+    }
+    
+    /**
+     * Stop injecting faults, so the backlog can drain.
+     */
+    public void stopInjectingFaults()
+    {
+        injectingFaults = false;
+    }
+    
+    /**
+     * A fault has been injected.  A fault injected while another is still being recovered from extends it.
+     * @param type {@code outage} or {@code pause}.
+     * @param startMs when the fault started.
+     * @param clearsAtMs when the fault clears and the container may resume.
+     */
+    public synchronized void faultInjected(String type, long startMs, long clearsAtMs)
+    {
+        if ("outage".equals(type))
+        {
+            outages++;
+        }
+        else
+        {
+            pauses++;
+        }
+        if (faultStartMs == 0)
+        {
+            faultStartMs = startMs;
+            faultDetected = false;
+        }
+        faultClearsMs = Math.max(faultClearsMs, clearsAtMs);
+    }
+    
+    public synchronized void sent(long count)
+    {
+        sent = count;
+    }
+    
+    /**
+     * A message has been delivered to the listener and processed.
+     * @param sequence the sequence number of the message.
+     * @param jmsRedelivered whether the broker marked it as redelivered.
+     */
+    public synchronized void delivered(long sequence, boolean jmsRedelivered)
+    {
+        delivered++;
+        if (jmsRedelivered)
+        {
+            redelivered++;
+        }
+        if (seen.get((int) sequence))
+        {
+            duplicates++;
+        }
+        else
+        {
+            seen.set((int) sequence);
+            distinct++;
+        }
+    }
+    
+    @Override
+    public void stopped()
+    {
+        stopped(null);
+    }
+    
+    @Override
+    public synchronized void stopped(PauseConfig config)
+    {
+        if (faultStartMs != 0 && !faultDetected)
+        {
+            faultDetected = true;
+            detectMs.add(System.currentTimeMillis() - faultStartMs);
+        }
+    }
+    
+    @Override
+    public synchronized void running()
+    {
+        long now = System.currentTimeMillis();
+        if (faultDetected)
+        {
+            resumeMs.add(Math.max(0, now - faultClearsMs));
+            faultStartMs = 0;
+            faultClearsMs = 0;
+            faultDetected = false;
+            rampStartMs = now;
+            rampStartDelivered = delivered;
+        }
+    }
+    
+    /**
+     * Sample the threads and close the ramp up once it has run its length, called once a second.
+     */
+    public synchronized void sample()
+    {
+        peakThreads = Math.max(peakThreads, threads.getThreadCount());
+        long now = System.currentTimeMillis();
+        if (rampStartMs != 0 && now - rampStartMs >= rampUpMs)
+        {
+            double seconds = (now - rampStartMs) / (double) TimeUnit.SECONDS.toMillis(1);
+            rampUpPerSecond.add((delivered - rampStartDelivered) / seconds);
+            rampStartMs = 0;
+        }
+    }
+    
+    public synchronized long getDistinctDelivered()
+    {
+        return distinct;
+    }
+    
+    public synchronized long getLost()
+    {
+        return sent - distinct;
+    }
+    
+    /**
+     * Whether the run passed: no message lost or processed twice and the threads grew by no more than the most allowed.
+     * @param maxThreadGrowth the most threads allowed to be added over the run.
+     * @return {@code true} if the run passed.
+     */
+    public synchronized boolean passed(int maxThreadGrowth)
+    {
+        return getLost() == 0 && duplicates == 0 && endThreads - baselineThreads <= maxThreadGrowth;
+    }
+    
+    /**
+     * A line on the progress of the run.
+     * @return the line.
+     */
+    public synchronized String progress()
+    {
+        return String.format("sent=%d delivered=%d redelivered=%d duplicates=%d outages=%d pauses=%d threads=%d "
+            + "heapUsedMb=%d", sent, delivered, redelivered, duplicates, outages, pauses, threads.getThreadCount(),
+            memory.getHeapMemoryUsage().getUsed() >> 20);
+    }
+    
+    /**
+     * The summary of the run.
+     * @return the summary, over several lines.
+     */
+    public synchronized String summary()
+    {
+        StringBuilder result = new StringBuilder();
+        result.append(String.format("Messages: sent=%d delivered=%d lost=%d duplicates=%d redelivered=%d%n", sent, delivered,
+            getLost(), duplicates, redelivered));
+        result.append(String.format("Faults: outages=%d pauses=%d%n", outages, pauses));
+        result.append(String.format("Time to detect ms: %s%n", describe(detectMs)));
+        result.append(String.format("Time to resume ms: %s%n", describe(resumeMs)));
+        result.append(String.format("Ramp up msgs/sec over %d ms: %s%n", rampUpMs, describe(rampUpPerSecond)));
+        result.append(String.format("Threads: baseline=%d peak=%d end=%d growth=%d%n", baselineThreads, peakThreads, endThreads,
+            endThreads - baselineThreads));
+        result.append(String.format("Heap used after GC MB: baseline=%d end=%d growth=%d", baselineHeap >> 20, endHeap >> 20,
+            (endHeap - baselineHeap) >> 20));
+        return result.toString();
+    }
+    
+    private static <T extends Number & Comparable<T>> String describe(List<T> values)
+    {
+        if (values.isEmpty())
+        {
+            return "none";
+        }
+        List<T> sorted = new ArrayList<T>(values);
+        Collections.sort(sorted);
+        double total = 0;
+        for (T value : sorted)
+        {
+            total += value.doubleValue();
+        }
+        return String.format("count=%d min=%.1f mean=%.1f p90=%.1f max=%.1f", sorted.size(), sorted.get(0).doubleValue(),
+            total / sorted.size(), sorted.get((int) Math.ceil(sorted.size() * 0.9) - 1).doubleValue(),
+            sorted.get(sorted.size() - 1).doubleValue());
+    }
+}
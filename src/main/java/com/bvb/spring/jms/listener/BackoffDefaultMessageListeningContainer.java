@@ -1,21 +1,59 @@
 package com.bvb.spring.jms.listener;
 
+import java.lang.management.ManagementFactory;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.jms.Destination;
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.MessageConsumer;
+import javax.jms.Queue;
+import javax.jms.Session;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
 
 import org.springframework.jms.listener.DefaultMessageListenerContainer;
+import org.springframework.scheduling.TaskScheduler;
 import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
+import com.bvb.spring.jms.listener.breaker.CircuitBreaker;
 import com.bvb.spring.jms.listener.config.PauseConfig;
+import com.bvb.spring.jms.listener.config.PauseConfigBuilder;
+import com.bvb.spring.jms.listener.dedupe.MessageIdDedupeCache;
+import com.bvb.spring.jms.listener.depth.QueueDepthProbe;
 import com.bvb.spring.jms.listener.exception.PauseConsumptionException;
+import com.bvb.spring.jms.listener.keepalive.AdaptiveKeepAliveInterval;
+import com.bvb.spring.jms.listener.keepalive.AsyncKeepAliveService;
 import com.bvb.spring.jms.listener.keepalive.KeepAliveManager;
 import com.bvb.spring.jms.listener.keepalive.KeepAliveResponse;
 import com.bvb.spring.jms.listener.keepalive.KeepAliveService;
-import com.bvb.spring.jms.listener.throttler.FixedRateThrottlerCounter;
+import com.bvb.spring.jms.listener.metrics.BackoffContainerStats;
+import com.bvb.spring.jms.listener.metrics.ContainerMetrics;
+import com.bvb.spring.jms.listener.scheduling.HashedWheelTaskScheduler;
+import com.bvb.spring.jms.listener.state.ThrottleState;
+import com.bvb.spring.jms.listener.state.ThrottleStateStore;
+import com.bvb.spring.jms.listener.throttler.ConcurrencyController;
+import com.bvb.spring.jms.listener.throttler.FixedRateConcurrencyController;
+import com.bvb.spring.jms.listener.throttler.LatencyTargetAutoscaler;
+import com.bvb.spring.jms.listener.throttler.MessageRateLimiter;
+import com.bvb.spring.jms.listener.throttler.PriorityThrottle;
+import com.bvb.spring.jms.listener.throttler.RateThrottlerCounter;
+import com.bvb.spring.jms.listener.throttler.ThrottlerCounter;
+import com.bvb.spring.jms.listener.utils.Clock;
 import com.bvb.spring.jms.listener.utils.DateUtils;
 import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
 
 /**
  * This class extends the {@link DefaultMessageListenerContainer} so that it is possible for users of it to provide a keep
@@ -24,28 +62,122 @@ import com.google.common.base.Preconditions;
  * to implement the keep alive service, which allows them to identify how long before the next keep alive should be called
  * and whether the container can now start or stop.
  * On top of these features the PDMLC can also receive a specific runtime exception thrown by the listener which allows
- * it to take action to throttle the consumption of messages into the gateway.  Due to the design of the DMLC it has not
- * been possible to add code that would throttle consumption at a fixed rate.
+ * it to take action to throttle the consumption of messages into the gateway, either by limiting the concurrent consumers
+ * or the rate in messages per second.  The rate is limited by a token bucket that each consumer takes a permit from before
+ * it receives a message, the container can also be given a permanent max rate with {@link #setMaxMessagesPerSecond(double)}.
+ * The listener may be a {@link BatchMessageListener}, which receives up to {@link #setBatchSize(int)} messages in one
+ * transaction, the container must then be session transacted or have a transaction manager.
+ * The container always records {@link ContainerMetrics}, which can be exposed over JMX with {@link #setRegisterMBean(boolean)}.
+ * How far consumption is throttled and how it grows back is decided by the {@link ConcurrencyController}, by default a
+ * {@link FixedRateConcurrencyController}.
+ * While throttled a {@link PriorityThrottle} can narrow consumption to the high priority messages, widening it again in
+ * stages as the throttling relaxes.
+ * In place of a fixed concurrency a {@link LatencyTargetAutoscaler} can scale the consumers to keep the listener latency
+ * under a target, any throttle caps it.
+ * A {@link QueueDepthProbe} can instead scale the consumers to the depth of the queue, ahead of a backlog reaching them.
+ * The keep alive and throttle relax tasks run on a {@link TaskScheduler}, by default one of two threads owned by the
+ * container.  Containers whose tasks do not block can share a few threads with the
+ * {@link HashedWheelTaskScheduler#getSharedInstance() shared timer wheel}, given with {@link #setTaskScheduler(TaskScheduler)}.
+ * The time the tasks are scheduled from is told by a {@link Clock}, so tests can run the container in virtual time with a
+ * {@link com.bvb.spring.jms.listener.scheduling.VirtualTimeTaskScheduler}.
+ * Containers that depend on the same upstream can share one keep alive and be paused and resumed together by joining a
+ * {@link DependencyGroup}.
+ * Listeners that do not throw {@link PauseConsumptionException} themselves can still pause consumption through a
+ * {@link CircuitBreaker} over their failure and slow call rates.
+ * Pausing stops the DMLC unless {@link #setSoftPause(boolean) soft pause} is set, when the consumers are parked with their
+ * sessions and message consumers kept open.  With {@link #setParkOnPause(boolean) park on pause} the message that caused a
+ * pause is held in its transaction and retried first on resume rather than rolled back.
+ * A {@link MessageIdDedupeCache} in front of the listener acknowledges duplicate deliveries without invoking it.
+ * A container can be one lane of a {@link LanePartitionedContainer}, which partitions consumption by a message property so
+ * that a failing key pauses only its own lane.
+ * With a {@link ThrottleStateStore} the pause and throttling are kept across restarts, a restarted container carries on
+ * paused or throttled rather than starting at full capacity.
+ * The same container on every node of a fleet can be paused together through a {@link FleetControlChannel}, so only one node
+ * has to find a failure.
+ * Containers in one JVM can share a fixed number of consumers through a {@link ConsumerBudget}, the share of a paused
+ * container is lent to the busy ones.
  *
  */
 public class BackoffDefaultMessageListeningContainer extends DefaultMessageListenerContainer
 {
-    private static final int KEEP_ALIVE_THEAD_COUNT = 2;
+    private static final int OWNED_SCHEDULER_THREAD_COUNT = 2;
+    public static final int DEFAULT_BATCH_SIZE = 10;
+    public static final long DEFAULT_BATCH_LINGER_MS = 100;
+    public static final String MBEAN_DOMAIN = "com.bvb.spring.jms";
+    public static final long DEFAULT_KEEP_ALIVE_TIMEOUT_MS = TimeUnit.SECONDS.toMillis(10);
+    public static final long DEFAULT_MAX_PARK_MS = TimeUnit.MINUTES.toMillis(5);
+    private static final long PARK_POLL_INTERVAL_MS = 100;
     public static long MIN_THROTTLE_TIME_MS = TimeUnit.MINUTES.toMillis(2);
+    /**
+     * @deprecated the relaxer now runs at the relax interval of the {@link PauseConfig}, this is no longer used.
+     */
+    @Deprecated
     public static long THROTTLE_LESSEN_PERIOD_MS = TimeUnit.SECONDS.toMillis(60);
     
     private boolean initiallyNotRunning = false;
+    private boolean softPause = false;
+    private boolean parkOnPause = false;
+    private long maxParkMs = DEFAULT_MAX_PARK_MS;
+    private final AtomicInteger parkedConsumers = new AtomicInteger();
+    private final ThreadLocal<PauseConsumptionException> parkedPause = new ThreadLocal<PauseConsumptionException>();
+    private MessageIdDedupeCache dedupeCache;
+    private final ThreadLocal<List<String>> uncommittedIds = new ThreadLocal<List<String>>();
+    private final ConsumptionGate gate = new ConsumptionGate();
     private Object throttlingLock = new Object();
     private Object taskSchedulerLock = new Object();
     private KeepAliveService keepAliveService;
-    private ThreadPoolTaskScheduler scheduler;
+    private DependencyGroup dependencyGroup;
+    private FleetControlChannel fleetControlChannel;
+    private ConsumerBudget consumerBudget;
+    private int consumerBudgetWeight = 1;
+    private volatile int budgetMaxConsumers = Integer.MAX_VALUE;
+    private int requestedConcurrentConsumers;
+    private int requestedMaxConcurrentConsumers;
+    private final AtomicBoolean budgetRebalanceRequested = new AtomicBoolean(false);
+    private final AtomicBoolean fleetPausePublished = new AtomicBoolean(false);
+    private LanePartitionedContainer laneOwner;
+    private String laneKey;
+    private AsyncKeepAliveService asyncKeepAliveService;
+    private long keepAliveTimeoutMs = DEFAULT_KEEP_ALIVE_TIMEOUT_MS;
+    private PauseConfig keepAliveTimeoutPauseConfig = new PauseConfig();
+    private final AtomicBoolean keepAliveInFlight = new AtomicBoolean(false);
+    private CircuitBreaker circuitBreaker;
+    private PriorityThrottle priorityThrottle;
+    private LatencyTargetAutoscaler autoscaler;
+    private ScheduledFuture<?> autoscaleTask;
+    private QueueDepthProbe depthProbe;
+    private ScheduledFuture<?> depthProbeTask;
+    private AdaptiveKeepAliveInterval adaptiveKeepAliveInterval;
+    private TaskScheduler taskScheduler;
+    private TaskScheduler scheduler;
+    private ThreadPoolTaskScheduler ownedScheduler;
+    private Clock clock;
     private KeepAliveManager keepAliveManager;
     private long keepAliveIntervalMs = TimeUnit.SECONDS.toMillis(15);
     private ScheduledFuture<?> taskThrottleRelease;
+    private ThrottlingRelaxerRunnable throttleRelaxer;
+    private long throttleEndsAtMs;
+    private long throttleRelaxEveryMs;
+    private volatile long pausedUntilMs;
+    private ThrottleStateStore throttleStateStore;
+    private final AtomicBoolean stateSaveRequested = new AtomicBoolean(false);
     private int actualFullconcurrentConsumers;
     private int actualFullmaxConcurrentConsumers;
+    private int outageMaxConcurrentConsumers;
     private volatile boolean stoppingFromExternalCall = false;
-    private List<DmlcStartObserver> observers = new ArrayList<DmlcStartObserver>();
+    private final DmlcObserverDispatcher observers = new DmlcObserverDispatcher();
+    private ConcurrencyController concurrencyController = new FixedRateConcurrencyController();
+    private final MessageRateLimiter rateLimiter = new MessageRateLimiter();
+    private double maxMessagesPerSecond = RateThrottlerCounter.UNLIMITED;
+    private long receiveTimeout = DEFAULT_RECEIVE_TIMEOUT;
+    private int batchSize = DEFAULT_BATCH_SIZE;
+    private long batchLingerMs = DEFAULT_BATCH_LINGER_MS;
+    private final ThreadLocal<List<Message>> currentBatch = new ThreadLocal<List<Message>>();
+    private final ContainerMetrics metrics = new ContainerMetrics();
+    private long metricsWindowMs = ContainerMetrics.DEFAULT_WINDOW_MS;
+    private ScheduledFuture<?> metricsWindowTask;
+    private boolean registerMBean = false;
+    private ObjectName mbeanName;
 
     /**
      * Returns whether the DMLC is set to initially not start consuming messages until the keep alive returns success.
@@ -67,6 +199,80 @@ public class BackoffDefaultMessageListeningContainer extends DefaultMessageListe
         this.initiallyNotRunning = initiallyStopped;
     }
     
+    /**
+     * Set whether pausing consumption leaves the DMLC running with its consumers parked on a gate rather than stopping it.
+     * The sessions and message consumers stay open while paused so resuming only wakes the consumers, with no invokers
+     * rescheduled, consumers re-created or prefetch redistributed by the broker.  This suits short delays, any messages
+     * already prefetched by a parked consumer wait in it until consumption resumes.  An external {@link #stop()} always
+     * stops the DMLC.
+     * @param softPause {@code true} to soft pause.  Defaults to {@code false}.
+     */
+    public void setSoftPause(boolean softPause)
+    {
+        this.softPause = softPause;
+    }
+    
+    /**
+     * Set whether the message that caused a pause is parked rather than rolled back.  The consumer that received it handles
+     * the {@link PauseConsumptionException} and then holds the message in its transaction until consumption resumes, when
+     * the listener is invoked with it again ahead of any other message.  The broker does not redeliver it, so its
+     * redelivery count does not grow with each outage and transient outages do not push it to the DLQ.  If consumption
+     * has not resumed within the {@link #setMaxParkMs(long) max park time}, or the container is stopped, the transaction is
+     * rolled back as usual.  Needs a session transacted container without a transaction manager, one message per
+     * consumer is parked so the buffer is bounded by the consumers.
+     * @param parkOnPause {@code true} to park.  Defaults to {@code false}.
+     */
+    public void setParkOnPause(boolean parkOnPause)
+    {
+        this.parkOnPause = parkOnPause;
+    }
+    
+    /**
+     * Set the longest a message is parked before its transaction is rolled back and it is left to the broker to redeliver.
+     * @param maxParkMs the time in milliseconds, greater than 0.  Defaults to 5 minutes.
+     */
+    public void setMaxParkMs(long maxParkMs)
+    {
+        Preconditions.checkArgument(maxParkMs > 0, "maxParkMs must be greater than 0");
+        this.maxParkMs = maxParkMs;
+    }
+    
+    /**
+     * Set a cache of the ids of the messages processed, in front of the listener.  A message whose {@code JMSMessageID} is
+     * in the cache, such as one redelivered after a pause or a rollback once the listener had processed it, is acknowledged
+     * without the listener being invoked.  The id is added only once the listener returns normally and the session is
+     * committed, or with a transaction manager once the transaction commits, so a message whose listener failed or whose
+     * commit was rolled back is always delivered again.  Duplicates in a batch are removed before the batch listener is invoked.
+     * @param dedupeCache the cache, which must not be shared with a container consuming a different destination.
+     */
+    public void setDedupeCache(MessageIdDedupeCache dedupeCache)
+    {
+        this.dedupeCache = dedupeCache;
+    }
+    
+    public MessageIdDedupeCache getDedupeCache()
+    {
+        return dedupeCache;
+    }
+    
+    /**
+     * Get the number of consumers holding a parked message until consumption resumes.
+     * @return the number of parked consumers.
+     */
+    public int getParkedConsumerCount()
+    {
+        return parkedConsumers.get();
+    }
+    
+    /**
+     * Returns whether the DMLC is consuming messages, it is running and not soft paused.
+     * @return {@code true} if consuming, otherwise {@code false}.
+     */
+    public boolean isConsuming()
+    {
+        return isRunning() && gate.isOpen();
+    }
+    
     /**
      * Set the keep alive service.  This service will be called based on the keep alive interval to identify whether the
      * connection or upstream services are active.  If they are not then consumption of messages can be throttled or stopped.
@@ -77,312 +283,1678 @@ public class BackoffDefaultMessageListeningContainer extends DefaultMessageListe
         this.keepAliveService = keepAliveService;
     }
     
-    @Override
-    public void start()
+    /**
+     * Set an asynchronous keep alive service, used in place of the keep alive service.  The keep alive does not wait on the
+     * service, the response is acted on when it arrives.  If it does not arrive within the
+     * {@link #setKeepAliveTimeoutMs(long) timeout} the keep alive is treated as a failure and consumption is stopped with the
+     * {@link #setKeepAliveTimeoutPauseConfig(PauseConfig) timeout config}.  A keep alive is skipped while the previous one is
+     * still in flight.
+     * @param asyncKeepAliveService the service to use.
+     */
+    public void setAsyncKeepAliveService(AsyncKeepAliveService asyncKeepAliveService)
     {
-        stoppingFromExternalCall = false;
-        if (!initiallyNotRunning)
-        {
-            startDmlc();
-        }
-        // start the keep alive thread and build the task scheduler, if not already done.
-        startKeepAliveAndBuildTaskScheduler();
+        this.asyncKeepAliveService = asyncKeepAliveService;
     }
     
-    @Override
-    public void stop()
+    /**
+     * Set how long to wait for the response of the asynchronous keep alive service.
+     * @param keepAliveTimeoutMs the timeout in milliseconds.  Defaults to 10 seconds.
+     */
+    public void setKeepAliveTimeoutMs(long keepAliveTimeoutMs)
     {
-        doTaskStop();
-        super.stop();
+        Preconditions.checkArgument(keepAliveTimeoutMs > 0, "keepAliveTimeoutMs must be greater than 0");
+        this.keepAliveTimeoutMs = keepAliveTimeoutMs;
     }
     
-    @Override
-    public void shutdown()
+    public long getKeepAliveTimeoutMs()
     {
-        doTaskStop();
-        stopTaskScheduler();
-        super.shutdown();
+        return keepAliveTimeoutMs;
     }
     
-    private void doTaskStop()
+    /**
+     * Set the config used to stop consumption when the asynchronous keep alive times out or fails with an exception.
+     * @param keepAliveTimeoutPauseConfig the config.  Defaults to an empty config, which stops consumption until the next
+     * successful keep alive.
+     * @throws NullPointerException if the config is null.
+     */
+    public void setKeepAliveTimeoutPauseConfig(PauseConfig keepAliveTimeoutPauseConfig)
     {
-        stoppingFromExternalCall = true;
-        if (keepAliveManager != null)
-        {
-            keepAliveManager.stop();
-        }
-        cancelThrottleTask();
-        notifyObserversStop(null);
+        this.keepAliveTimeoutPauseConfig = Preconditions.checkNotNull(keepAliveTimeoutPauseConfig);
     }
     
-    private void notifyObserversStop(PauseConfig config)
+    /**
+     * Set a circuit breaker over the listener invocations.  When the failure rate or slow call rate of the listener crosses
+     * the thresholds of the breaker consumption is paused with the pause config of the breaker, as if the listener had thrown
+     * a {@link PauseConsumptionException}, and the breaker half opens when the keep alive next starts the container.
+     * @param circuitBreaker the breaker, which must not be shared with another container.
+     */
+    public void setCircuitBreaker(CircuitBreaker circuitBreaker)
     {
-        for (DmlcStartObserver o : observers)
-        {
-            if (config == null)
-            {
-                o.stopped();
-            }
-            else
-            {
-                o.stopped(config);
-            }
-        }
+        this.circuitBreaker = circuitBreaker;
     }
     
-    private void notifyObserversRunning()
+    public CircuitBreaker getCircuitBreaker()
     {
-        for (DmlcStartObserver o : observers)
-        {
-            o.running();
-        }
+        return circuitBreaker;
     }
     
     /**
-     * Add an observer who will get notified when the BDMLC stops or starts.
-     * @param observer the observer to add.
-     * @throws NullPointerException if the observer is null.
+     * Set a priority throttle, so that while consumption is throttled only the messages of the min priority of the throttle
+     * or above are consumed and the low priority backlog waits on the destination.  The min priority is lowered in stages as
+     * the throttling relaxes and the normal selector is restored when it is fully relaxed.  Not applied to topics.
+     * @param priorityThrottle the throttle, which must not be shared with another container.  Must be set before the
+     * container is initialized.
      */
-    public void setObserver(DmlcStartObserver observer)
+    public void setPriorityThrottle(PriorityThrottle priorityThrottle)
     {
-        registerObserver(observer);
+        this.priorityThrottle = priorityThrottle;
     }
     
-    /**
-     * Add an observer who will get notified when the BDMLC stops or starts.
-     * @param observer the observer to add.
-     * @throws NullPointerException if the observer is null.
-     */
-    public void registerObserver(DmlcStartObserver observer)
+    public PriorityThrottle getPriorityThrottle()
     {
-        Preconditions.checkNotNull(observer);
-        observers.add(observer);
+        return priorityThrottle;
     }
     
     /**
-     * Remove an observer.
-     * @param observer the observer to remove.
+     * Set an autoscaler that adjusts the consumers once every sample interval to keep the listener latency under its target,
+     * within its bounds.  While consumption is throttled the throttle decides the consumers and the autoscaler holds.
+     * @param autoscaler the autoscaler, which must not be shared with another container.
      */
-    public void unRegisterObserver(DmlcStartObserver observer)
+    public void setLatencyTargetAutoscaler(LatencyTargetAutoscaler autoscaler)
     {
-        observers.remove(observer);
+        this.autoscaler = autoscaler;
     }
     
-    @Override
-    public void stop(Runnable callback)
+    public LatencyTargetAutoscaler getLatencyTargetAutoscaler()
     {
-        doTaskStop();
-        super.stop(callback);
+        return autoscaler;
     }
     
-    @Override
-    public void setConcurrentConsumers(int concurrentConsumers)
+    /**
+     * Set a probe that samples the depth of the queue once every sample interval and scales the concurrent consumers to the
+     * backlog, within its bounds.  While consumption is throttled the throttle decides the consumers and the probe holds.
+     * Cannot be used along with a {@link LatencyTargetAutoscaler} or on a topic.
+     * @param depthProbe the probe.
+     */
+    public void setQueueDepthProbe(QueueDepthProbe depthProbe)
     {
-        super.setConcurrentConsumers(concurrentConsumers);
-        updateConcurrency();
+        this.depthProbe = depthProbe;
     }
     
-    @Override
-    public void setConcurrency(String concurrency)
+    public QueueDepthProbe getQueueDepthProbe()
     {
-        super.setConcurrency(concurrency);
-        updateConcurrency();
+        return depthProbe;
     }
     
-    @Override
-    public void setMaxConcurrentConsumers(int count)
+    /**
+     * Set the group of containers sharing an upstream dependency that this container belongs to.  The keep alive of the
+     * group is used in place of the keep alive service of the container and the container is paused and resumed along with
+     * the rest of the group.  The container is a member while it is started.
+     * @param dependencyGroup the group to join.
+     */
+    public void setDependencyGroup(DependencyGroup dependencyGroup)
     {
-        super.setMaxConcurrentConsumers(count);
-        updateConcurrency();
+        this.dependencyGroup = dependencyGroup;
     }
     
-    @Override
-    protected void handleListenerException(Throwable ex)
+    public DependencyGroup getDependencyGroup()
     {
-        // if this is an exception indicating some back-off or keep alive is required
-        if (ex.getCause() instanceof PauseConsumptionException)
-        {
-            handlePauseConsumptionException((PauseConsumptionException) ex.getCause());
-        }
-        super.handleListenerException(ex);
+        return dependencyGroup;
     }
     
-    protected void handlePauseConsumptionException(PauseConsumptionException ex)
+    /**
+     * Set the control channel shared with the same container on the other nodes of the fleet, matched by bean name.  When
+     * this container pauses because its listener threw a {@link PauseConsumptionException} or its circuit breaker opened,
+     * it publishes the pause so the other nodes pause as well, and publishes a resume once it next resumes.  The pauses,
+     * throttles and resumes published by the other nodes are applied to this container, except that a resume does not end a
+     * pause caused in this JVM, which lasts until the keep alive succeeds.  The container is subscribed while
+     * it is started.
+     * @param fleetControlChannel the channel of this node.
+     */
+    public void setFleetControlChannel(FleetControlChannel fleetControlChannel)
     {
-        // Stop the DMLC and throttle the consumption if required
-        stopDmlc(ex.getConfig());
-        logger.warn(String.format("Gateway->Stopped.  Gateway message listener returned PauseConsumption with config: [%s]",
-            ex.getConfig().toString()));
+        this.fleetControlChannel = fleetControlChannel;
     }
     
-    protected void setThrottledMaxConcurrentConsumers(int count)
+    public FleetControlChannel getFleetControlChannel()
     {
-        super.setMaxConcurrentConsumers(count);
+        return fleetControlChannel;
     }
     
-    protected void setThrottledConcurrentConsumers(int count)
+    /**
+     * Set the budget of consumers shared with other containers in the JVM.  The max concurrent consumers set on this
+     * container is then what it asks of the budget, and it is given its weighted share while the other containers are
+     * busy.  The share of a container that is paused, or throttled below it, is lent to the busy containers and taken back
+     * when it resumes or relaxes.  An autoscaler or a queue depth probe still decides the consumers of this container, but
+     * never more than its share.
+     * @param consumerBudget the budget.
+     */
+    public void setConsumerBudget(ConsumerBudget consumerBudget)
     {
-        super.setConcurrentConsumers(count);
+        this.consumerBudget = consumerBudget;
     }
     
-    protected void updateConcurrency()
+    public ConsumerBudget getConsumerBudget()
     {
-        actualFullconcurrentConsumers = getConcurrentConsumers();
-        actualFullmaxConcurrentConsumers = getMaxConcurrentConsumers();
+        return consumerBudget;
     }
     
-    protected void startDmlc()
+    /**
+     * Set the weight of this container in the consumer budget, a container of weight 2 is given twice the share of one of
+     * weight 1.
+     * @param consumerBudgetWeight the weight, at least 1.  Defaults to 1.
+     */
+    public void setConsumerBudgetWeight(int consumerBudgetWeight)
     {
-        if (!isRunning())
-        {
-            super.start();
-            notifyObserversRunning();
-        }
+        Preconditions.checkArgument(consumerBudgetWeight > 0, "consumerBudgetWeight must be at least 1");
+        this.consumerBudgetWeight = consumerBudgetWeight;
     }
     
-    protected void stopDmlc(PauseConfig config)
+    public int getConsumerBudgetWeight()
+    {
+        return consumerBudgetWeight;
+    }
+    
+    /*
+     * The consumers asked of the budget: none while paused, otherwise the max set.  A throttled container asks for the max it
+     * relaxes back to rather than its throttled max, or the budget would cap each relax step at the max it has already.
+     */
+    int getBudgetDemand()
     {
-        if (isRunning())
+        if (!isConsuming())
         {
-            super.stop();
-            notifyObserversStop(config);
+            return 0;
         }
-        if (config != null)
+        synchronized (throttlingLock)
         {
-            // throttle if returned in the response
-            throttleConsumers(config);
-            // set the next keep alive, if asked to
-            keepAliveManager.rescheduleAlways(config.getDelayConsumptionForMs());
+            return (taskThrottleRelease == null) ? requestedMaxConcurrentConsumers : actualFullmaxConcurrentConsumers;
         }
     }
     
-    private void throttleConsumers(PauseConfig config)
+    /*
+     * Called by the budget with the consumers this container may use, a throttle relaxes no further than this.  The consumers
+     * of an autoscaled or depth probed container are only cut to the allowance, they grow back as the scaler decides.
+     */
+    void applyBudget(int allowance)
     {
-        if (config.isThrottled())
+        synchronized (throttlingLock)
         {
-            synchronized (throttlingLock)
+            budgetMaxConsumers = Math.max(1, allowance);
+            int max = Math.min(requestedMaxConcurrentConsumers, budgetMaxConsumers);
+            boolean throttled = taskThrottleRelease != null;
+            boolean scaled = autoscaler != null || depthProbe != null;
+            if (!throttled)
             {
-                int currentMax = getMaxConcurrentConsumers();
-                PauseConfig configToUse = new PauseConfig(currentMax, config);
-                int maxConsumers = configToUse.getThrottleMaxConcurrent();
-                // start a timer to release the throttling after a period of time
-                startThrottlingReleaseTask(configToUse);
-                int currentConcurrent = getConcurrentConsumers();
-                if (currentConcurrent > maxConsumers)
+                // a later throttle relaxes back to the budgeted consumers
+                actualFullconcurrentConsumers = Math.min(scaled ? actualFullconcurrentConsumers : requestedConcurrentConsumers,
+                    max);
+                actualFullmaxConcurrentConsumers = scaled ? Math.min(actualFullmaxConcurrentConsumers, max) : max;
+            }
+            int current = getMaxConcurrentConsumers();
+            if (current > max || (!throttled && !scaled && current < max))
+            {
+                logger.info(String.format("Consumer budget [%s] moving max consumers from: [%s] to [%s]",
+                    consumerBudget.getName(), current, max));
+                if (getConcurrentConsumers() > max)
+                {
+                    setThrottledConcurrentConsumers(max);
+                }
+                else if (!throttled)
                 {
-                    setThrottledConcurrentConsumers(maxConsumers);
+                    setThrottledConcurrentConsumers(actualFullconcurrentConsumers);
                 }
-                setThrottledMaxConcurrentConsumers(maxConsumers);
+                setThrottledMaxConcurrentConsumers(max);
             }
         }
     }
     
     /*
-     * Needs to be synchronized with the throttling lock object.
+     * The containers of the fleet are matched by bean name.
      */
-    private void startThrottlingReleaseTask(PauseConfig config)
+    String getFleetMemberName()
     {
-        cancelThrottleTask();
-        scheduleThrottlingRelaxTask(config);
+        return getBeanName();
     }
-
-    private void scheduleThrottlingRelaxTask(PauseConfig config)
+    
+    /*
+     * Called by the partitioned container that owns this container as one of its lanes, the key is null for the default lane.
+     */
+    void joinLane(LanePartitionedContainer owner, String key)
     {
-        // When stopping do not reschedule any tasks
-        if (!stoppingFromExternalCall)
-        {
-            // schedule another task
-            int target = actualFullmaxConcurrentConsumers;
-            FixedRateThrottlerCounter counter = new FixedRateThrottlerCounter(target, config);
-            // schedule to run in the future when the first throttling relax interval occurs
-            taskThrottleRelease = 
-                    scheduler.scheduleWithFixedDelay(new ThrottlingRelaxerRunnable(counter), 
-                        DateUtils.getNowPlusMs(config.getThrottleRelaxIntervalMs()), THROTTLE_LESSEN_PERIOD_MS);
-        }
+        this.laneOwner = owner;
+        this.laneKey = key;
     }
-
-    private void cancelThrottleTask()
+    
+    /**
+     * Get the key of the lane this container consumes for, when it is a lane of a {@link LanePartitionedContainer}.
+     * @return the lane key, or {@code null} if it is the default lane or not a lane.
+     */
+    public String getLaneKey()
     {
-        synchronized(throttlingLock)
-        {
-            if (taskThrottleRelease != null)
-            {
-                // cancel existing task
-                taskThrottleRelease.cancel(false);
-                taskThrottleRelease = null;
-            }
-        }
+        return laneKey;
     }
     
-    private void startKeepAliveAndBuildTaskScheduler()
+    /**
+     * Set the controller that decides how far to throttle the concurrent consumers and how they grow back.  Defaults to a
+     * {@link FixedRateConcurrencyController}.
+     * @param concurrencyController the controller to use.
+     * @throws NullPointerException if the controller is null.
+     */
+    public void setConcurrencyController(ConcurrencyController concurrencyController)
     {
-        synchronized (taskSchedulerLock)
-        {
-            if (scheduler == null)
-            {
-                this.scheduler = buildScheduler(KEEP_ALIVE_THEAD_COUNT);
-                keepAliveManager = new KeepAliveManager(scheduler, new KeepAliveRunnable(), keepAliveIntervalMs);
-            }
-            keepAliveManager.start();
-        }
+        this.concurrencyController = Preconditions.checkNotNull(concurrencyController);
     }
     
-    private synchronized void stopTaskScheduler()
+    /**
+     * Set the max messages per second consumed across all the consumers of the container.  When the rate is throttled it
+     * is relaxed back to this value.
+     * @param maxMessagesPerSecond the max rate, greater than 0.  Defaults to {@link RateThrottlerCounter#UNLIMITED}.
+     * @throws IllegalArgumentException if the rate is not greater than 0.
+     */
+    public void setMaxMessagesPerSecond(double maxMessagesPerSecond)
     {
-        synchronized (taskSchedulerLock)
-        {
-            if (scheduler != null)
-            {
-                scheduler.shutdown();
-                scheduler = null;
-            }
-        }
+        Preconditions.checkArgument(maxMessagesPerSecond > 0, "maxMessagesPerSecond must be greater than 0");
+        this.maxMessagesPerSecond = maxMessagesPerSecond;
+        rateLimiter.setRate(maxMessagesPerSecond);
     }
     
-    private ThreadPoolTaskScheduler buildScheduler(int poolSize)
+    /**
+     * Get the max messages per second consumed across all the consumers of the container when not throttled.
+     * @return the max rate, {@link RateThrottlerCounter#UNLIMITED} if there is no limit.
+     */
+    public double getMaxMessagesPerSecond()
     {
-        ThreadPoolTaskScheduler scheduler = new ThreadPoolTaskScheduler();
-        scheduler.setThreadNamePrefix(this.getBeanName() + "-KeepAlive");
-        scheduler.setPoolSize(poolSize);
-        scheduler.initialize();
-        return scheduler;
+        return maxMessagesPerSecond;
     }
     
     /**
-     * Get the keep alive interval in milliseconds.  This is in the interval between keep alive runs, where the keep alive
-     * service returns whether the gateway can continue with normal operation.
-     * @return the keep alive interval.
+     * Get the current max messages per second, which is lower than {@link #getMaxMessagesPerSecond()} while throttled.
+     * @return the current max rate, {@link RateThrottlerCounter#UNLIMITED} if there is no limit.
      */
-    public long getKeepAliveInterval()
+    public double getCurrentMaxMessagesPerSecond()
     {
-        if (keepAliveManager != null)
+        return rateLimiter.getRate();
+    }
+    
+    /**
+     * Set the max number of messages passed to a {@link BatchMessageListener} in one batch.
+     * @param batchSize the max batch size, at least 1.  Defaults to {@link #DEFAULT_BATCH_SIZE}.
+     * @throws IllegalArgumentException if the batch size is less than 1.
+     */
+    public void setBatchSize(int batchSize)
+    {
+        Preconditions.checkArgument(batchSize > 0, "batchSize must be at least 1");
+        this.batchSize = batchSize;
+    }
+    
+    /**
+     * Get the max number of messages passed to a {@link BatchMessageListener} in one batch.
+     * @return the max batch size.
+     */
+    public int getBatchSize()
+    {
+        return batchSize;
+    }
+    
+    /**
+     * Set how long to wait for further messages to fill a batch once the first message of the batch has been received.
+     * @param batchLingerMs the time to wait in milliseconds, {@code 0} to only take messages already available.  Defaults
+     * to {@link #DEFAULT_BATCH_LINGER_MS}.
+     * @throws IllegalArgumentException if the linger time is negative.
+     */
+    public void setBatchLingerMs(long batchLingerMs)
+    {
+        Preconditions.checkArgument(batchLingerMs >= 0, "batchLingerMs cannot be negative");
+        this.batchLingerMs = batchLingerMs;
+    }
+    
+    /**
+     * Get how long to wait for further messages to fill a batch.
+     * @return the time to wait in milliseconds.
+     */
+    public long getBatchLingerMs()
+    {
+        return batchLingerMs;
+    }
+    
+    @Override
+    protected void checkMessageListener(Object messageListener)
+    {
+        if (!(messageListener instanceof BatchMessageListener))
         {
-            return keepAliveManager.getKeepAliveInterval();
+            super.checkMessageListener(messageListener);
         }
-        else
+    }
+    
+    @Override
+    protected void validateConfiguration()
+    {
+        super.validateConfiguration();
+        if (isBatchListener() && !isSessionTransacted() && getTransactionManager() == null)
         {
-            return keepAliveIntervalMs;
+            throw new IllegalArgumentException("A BatchMessageListener requires 'sessionTransacted' or a 'transactionManager'");
         }
     }
-
+    
+    private boolean isBatchListener()
+    {
+        return getMessageListener() instanceof BatchMessageListener;
+    }
+    
     /**
-     * Set the keep alive interval in milliseconds.
-     * @param keepAliveIntervalMs the interval to set in milliseconds.
+     * Set whether to register an MBean exposing the {@link ContainerMetrics} and throttling state of the container with the
+     * platform MBean server.  It is registered when the container is initialized under the {@link #MBEAN_DOMAIN} domain
+     * and the bean name of the container.
+     * @param registerMBean {@code true} to register the MBean.  Defaults to {@code false}.
      */
-    public void setKeepAliveInterval(long keepAliveIntervalMs)
+    public void setRegisterMBean(boolean registerMBean)
     {
-        this.keepAliveIntervalMs = keepAliveIntervalMs;
+        this.registerMBean = registerMBean;
     }
-
-    class KeepAliveRunnable implements Runnable
+    
+    /**
+     * Set the length of the window the message rate and latency percentiles of the {@link ContainerMetrics} are taken over.
+     * While the {@link #setRegisterMBean(boolean) MBean} is registered the window is closed on the task scheduler, otherwise
+     * it is left to whoever reads the metrics to call {@link ContainerMetrics#rollWindow()}.
+     * @param metricsWindowMs the window in milliseconds, greater than 0.  Defaults to
+     * {@link ContainerMetrics#DEFAULT_WINDOW_MS}.
+     */
+    public void setMetricsWindowMs(long metricsWindowMs)
     {
-
-        @Override
-        public void run()
-        {
-            // default to always starting the DMLC if there is no keep alive service defined
+        Preconditions.checkArgument(metricsWindowMs > 0, "metricsWindowMs must be greater than 0");
+        this.metricsWindowMs = metricsWindowMs;
+    }
+    
+    /**
+     * Get the metrics recorded by the container.
+     * @return the metrics.
+     */
+    public ContainerMetrics getMetrics()
+    {
+        return metrics;
+    }
+    
+    /**
+     * Is the consumption currently throttled, by either concurrency or rate, and being relaxed.
+     * @return {@code true} if throttled, otherwise {@code false}.
+     */
+    public boolean isThrottled()
+    {
+        synchronized (throttlingLock)
+        {
+            return taskThrottleRelease != null;
+        }
+    }
+    
+    @Override
+    public void initialize()
+    {
+        super.initialize();
+        metrics.setClock(getClock());
+        if (depthProbe != null)
+        {
+            Preconditions.checkState(!isPubSubDomain(), "A queue depth probe cannot be used on a topic");
+            Preconditions.checkState(autoscaler == null, "A queue depth probe cannot be used along with an autoscaler");
+        }
+        if (fleetControlChannel != null)
+        {
+            Preconditions.checkState(getBeanName() != null, "A bean name is needed to join a fleet control channel");
+        }
+        if (parkOnPause)
+        {
+            Preconditions.checkState(isSessionTransacted() && getTransactionManager() == null,
+                "Parking on pause needs a session transacted container without a transaction manager");
+        }
+        if (registerMBean)
+        {
+            registerMBean();
+        }
+    }
+    
+    private void registerMBean()
+    {
+        try
+        {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            String beanName = (getBeanName() == null) ? String.valueOf(System.identityHashCode(this)) : getBeanName();
+            ObjectName name = new ObjectName(String.format("%s:type=%s,name=%s", MBEAN_DOMAIN, getClass().getSimpleName(),
+                ObjectName.quote(beanName)));
+            server.registerMBean(new BackoffContainerStats(this), name);
+            mbeanName = name;
+        }
+        catch (JMException ex)
+        {
+            logger.warn("Unable to register the container MBean, metrics will not be available over JMX", ex);
+        }
+    }
+    
+    private void unregisterMBean()
+    {
+        if (mbeanName != null)
+        {
+            try
+            {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(mbeanName);
+            }
+            catch (JMException ex)
+            {
+                logger.warn("Unable to unregister the container MBean", ex);
+            }
+            mbeanName = null;
+        }
+    }
+    
+    @Override
+    public void setReceiveTimeout(long receiveTimeout)
+    {
+        super.setReceiveTimeout(receiveTimeout);
+        this.receiveTimeout = receiveTimeout;
+    }
+    
+    @Override
+    public void start()
+    {
+        stoppingFromExternalCall = false;
+        if (dependencyGroup != null)
+        {
+            dependencyGroup.register(this);
+        }
+        // carry on from the state saved before the restart, throttling before any consumers are started
+        long pausedForMs = restoreThrottleState();
+        if (!initiallyNotRunning && pausedForMs == 0)
+        {
+            startDmlc();
+        }
+        resolveTaskScheduler();
+        startAutoscaler();
+        startDepthProbe();
+        startMetricsWindow();
+        if (fleetControlChannel != null)
+        {
+            fleetControlChannel.register(this);
+        }
+        if (consumerBudget != null)
+        {
+            consumerBudget.register(this);
+        }
+        // the keep alive is started last, so its immediate first run comes once the container has started
+        startKeepAlive(pausedForMs);
+    }
+    
+    @Override
+    public void stop()
+    {
+        doTaskStop();
+        super.stop();
+    }
+    
+    @Override
+    public void shutdown()
+    {
+        doTaskStop();
+        releaseTaskScheduler();
+        observers.shutdown();
+        unregisterMBean();
+        if (throttleStateStore != null)
+        {
+            throttleStateStore.close();
+        }
+        super.shutdown();
+    }
+    
+    @Override
+    public void setBeanName(String beanName)
+    {
+        super.setBeanName(beanName);
+        observers.setThreadNamePrefix(beanName + "-Observer-");
+    }
+    
+    private void doTaskStop()
+    {
+        stoppingFromExternalCall = true;
+        if (dependencyGroup != null)
+        {
+            dependencyGroup.unRegister(this);
+        }
+        if (fleetControlChannel != null)
+        {
+            fleetControlChannel.unRegister(this);
+        }
+        if (consumerBudget != null)
+        {
+            consumerBudget.unRegister(this);
+        }
+        if (keepAliveManager != null)
+        {
+            keepAliveManager.stop();
+        }
+        cancelThrottleTask();
+        cancelAutoscaler();
+        cancelDepthProbe();
+        cancelMetricsWindow();
+        notifyObserversStop(null);
+    }
+    
+    private void notifyObserversStop(PauseConfig config)
+    {
+        observers.stopped(config);
+    }
+    
+    private void notifyObserversRunning()
+    {
+        observers.running();
+    }
+    
+    /**
+     * Set the max number of notifications that can be pending for a single observer before the overflow policy is applied.
+     * Observers are notified asynchronously so that a slow observer does not hold up the container.
+     * @param capacity the capacity, at least 1.  Defaults to {@link DmlcObserverDispatcher#DEFAULT_QUEUE_CAPACITY}.
+     */
+    public void setObserverQueueCapacity(int capacity)
+    {
+        observers.setQueueCapacity(capacity);
+    }
+    
+    /**
+     * Set what happens to the pending notifications of an observer that has fallen behind.
+     * @param overflowPolicy the policy.  Defaults to {@link ObserverOverflowPolicy#COALESCE}.
+     */
+    public void setObserverOverflowPolicy(ObserverOverflowPolicy overflowPolicy)
+    {
+        observers.setOverflowPolicy(overflowPolicy);
+    }
+    
+    /**
+     * Set the number of threads used to notify observers, must be set before the container is started.
+     * @param threadCount the number of threads, at least 1.  Defaults to {@link DmlcObserverDispatcher#DEFAULT_THREAD_COUNT}.
+     */
+    public void setObserverThreadCount(int threadCount)
+    {
+        observers.setThreadCount(threadCount);
+    }
+    
+    /**
+     * Add an observer who will get notified when the BDMLC stops or starts.
+     * @param observer the observer to add.
+     * @throws NullPointerException if the observer is null.
+     */
+    public void setObserver(DmlcStartObserver observer)
+    {
+        registerObserver(observer);
+    }
+    
+    /**
+     * Add an observer who will get notified when the BDMLC stops or starts.
+     * @param observer the observer to add.
+     * @throws NullPointerException if the observer is null.
+     */
+    public void registerObserver(DmlcStartObserver observer)
+    {
+        observers.register(observer);
+    }
+    
+    /**
+     * Remove an observer.
+     * @param observer the observer to remove.
+     */
+    public void unRegisterObserver(DmlcStartObserver observer)
+    {
+        observers.unRegister(observer);
+    }
+    
+    @Override
+    public void stop(Runnable callback)
+    {
+        doTaskStop();
+        super.stop(callback);
+    }
+    
+    @Override
+    public void setConcurrentConsumers(int concurrentConsumers)
+    {
+        super.setConcurrentConsumers(concurrentConsumers);
+        updateConcurrency();
+    }
+    
+    @Override
+    public void setConcurrency(String concurrency)
+    {
+        super.setConcurrency(concurrency);
+        updateConcurrency();
+    }
+    
+    @Override
+    public void setMaxConcurrentConsumers(int count)
+    {
+        super.setMaxConcurrentConsumers(count);
+        updateConcurrency();
+    }
+    
+    @Override
+    protected MessageConsumer createConsumer(Session session, Destination destination) throws JMSException
+    {
+        if (priorityThrottle == null || isPubSubDomain())
+        {
+            return super.createConsumer(session, destination);
+        }
+        return new PrioritySelectingConsumer(session, destination, getMessageSelector(), priorityThrottle);
+    }
+    
+    @Override
+    protected Message receiveMessage(MessageConsumer consumer) throws JMSException
+    {
+        // park here while soft paused, returning nothing lets the invoker check whether the DMLC has been stopped
+        if (!gate.await(receiveTimeout))
+        {
+            return null;
+        }
+        // take a permit before receiving, so a rate throttled consumer waits here rather than holding a received message
+        if (!rateLimiter.tryAcquire(receiveTimeout))
+        {
+            return null;
+        }
+        Message message = super.receiveMessage(consumer);
+        if (message != null)
+        {
+            metrics.messageReceived(message);
+            if (isBatchListener())
+            {
+                currentBatch.set(receiveRestOfBatch(consumer, message));
+            }
+        }
+        return message;
+    }
+    
+    /*
+     * All the messages are received by the same consumer on the same session, so the whole batch is committed or rolled back
+     * by the container as if it were the first message alone.
+     */
+    private List<Message> receiveRestOfBatch(MessageConsumer consumer, Message first) throws JMSException
+    {
+        List<Message> batch = new ArrayList<Message>(batchSize);
+        batch.add(first);
+        long lingerUntil = System.currentTimeMillis() + batchLingerMs;
+        while (batch.size() < batchSize && gate.isOpen())
+        {
+            long remainingMs = lingerUntil - System.currentTimeMillis();
+            if (!rateLimiter.tryAcquire(Math.max(remainingMs, 0)))
+            {
+                break;
+            }
+            Message next = (remainingMs > 0) ? consumer.receive(remainingMs) : consumer.receiveNoWait();
+            if (next == null)
+            {
+                break;
+            }
+            metrics.messageReceived(next);
+            batch.add(next);
+        }
+        return batch;
+    }
+    
+    private void invokeBatchListener(BatchMessageListener listener, Message message) throws JMSException
+    {
+        List<Message> batch = currentBatch.get();
+        currentBatch.remove();
+        if (batch == null)
+        {
+            batch = Collections.singletonList(message);
+        }
+        listener.onMessages(Collections.unmodifiableList(batch));
+    }
+    
+    @Override
+    protected void invokeListener(Session session, Message message) throws JMSException
+    {
+        uncommittedIds.remove();
+        if (dedupeCache != null && removeDuplicates(message))
+        {
+            return;
+        }
+        List<Message> batch = currentBatch.get();
+        if (parkOnPause)
+        {
+            invokeListenerParkingOnPause(session, message, batch);
+        }
+        else
+        {
+            invokeListenerOnce(session, message);
+        }
+        if (dedupeCache != null)
+        {
+            addProcessedOnCommit(message, batch);
+        }
+    }
+    
+    /*
+     * Adds the ids processed by the listener to the dedupe cache once the session has been committed.
+     */
+    @Override
+    protected void commitIfNecessary(Session session, Message message) throws JMSException
+    {
+        List<String> ids = uncommittedIds.get();
+        uncommittedIds.remove();
+        super.commitIfNecessary(session, message);
+        if (ids != null)
+        {
+            addProcessed(ids);
+        }
+    }
+    
+    /*
+     * Returns true if there is nothing left to deliver, the message or every message of the batch has been processed before.
+     */
+    private boolean removeDuplicates(Message message) throws JMSException
+    {
+        List<Message> batch = currentBatch.get();
+        if (batch == null)
+        {
+            String id = message.getJMSMessageID();
+            if (id != null && dedupeCache.isDuplicate(id))
+            {
+                logger.debug(String.format("Skipping duplicate message: [%s]", id));
+                return true;
+            }
+            return false;
+        }
+        List<Message> fresh = new ArrayList<Message>(batch.size());
+        for (Message candidate : batch)
+        {
+            String id = candidate.getJMSMessageID();
+            if (id == null || !dedupeCache.isDuplicate(id))
+            {
+                fresh.add(candidate);
+            }
+        }
+        if (fresh.isEmpty())
+        {
+            currentBatch.remove();
+            logger.debug(String.format("Skipping batch of: [%d] duplicate messages", batch.size()));
+            return true;
+        }
+        currentBatch.set(fresh);
+        return false;
+    }
+    
+    /*
+     * A rollback after the listener returns must deliver the messages again, so the ids wait for the commit of the
+     * transaction, or of the session without a transaction manager.
+     */
+    private void addProcessedOnCommit(Message message, List<Message> batch) throws JMSException
+    {
+        final List<String> ids = new ArrayList<String>();
+        for (Message processed : (batch == null) ? Collections.singletonList(message) : batch)
+        {
+            String id = processed.getJMSMessageID();
+            if (id != null)
+            {
+                ids.add(id);
+            }
+        }
+        if (TransactionSynchronizationManager.isSynchronizationActive())
+        {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter()
+            {
+                @Override
+                public void afterCommit()
+                {
+                    addProcessed(ids);
+                }
+            });
+        }
+        else
+        {
+            uncommittedIds.set(ids);
+        }
+    }
+    
+    private void addProcessed(List<String> ids)
+    {
+        for (String id : ids)
+        {
+            dedupeCache.add(id);
+        }
+    }
+    
+    private void invokeListenerParkingOnPause(Session session, Message message, List<Message> batch) throws JMSException
+    {
+        parkedPause.remove();
+        while (true)
+        {
+            try
+            {
+                invokeListenerOnce(session, message);
+                return;
+            }
+            catch (RuntimeException ex)
+            {
+                PauseConsumptionException pauseException = findPauseConsumptionException(ex);
+                if (pauseException == null || !park(pauseException))
+                {
+                    throw ex;
+                }
+                // retry the same message, or batch, in the same transaction
+                currentBatch.set(batch);
+            }
+        }
+    }
+    
+    /*
+     * Pauses and holds the consumer, with its message and transaction, until consumption resumes.  Returns false if it did not
+     * resume in time, or the container was stopped, and the pause is then not handled again by the listener exception.
+     */
+    private boolean park(PauseConsumptionException ex)
+    {
+        String key = ex.getLaneKey();
+        if (laneOwner != null && key != null && !key.equals(laneKey))
+        {
+            // another lane is paused, the message is not held back on this one
+            return false;
+        }
+        parkedPause.set(ex);
+        handlePauseConsumptionException(ex);
+        parkedConsumers.incrementAndGet();
+        try
+        {
+            long parkUntilMs = getClock().currentTimeMillis() + maxParkMs;
+            logger.info(String.format("Parking message until consumption resumes, for at most: [%d ms]", maxParkMs));
+            while (!stoppingFromExternalCall && getClock().currentTimeMillis() < parkUntilMs)
+            {
+                if (gate.await(receiveTimeout) && isRunning())
+                {
+                    logger.info("Consumption resumed, replaying parked message");
+                    parkedPause.remove();
+                    return true;
+                }
+                if (gate.isOpen())
+                {
+                    // stopped rather than soft paused
+                    Thread.sleep(PARK_POLL_INTERVAL_MS);
+                }
+            }
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+        finally
+        {
+            parkedConsumers.decrementAndGet();
+        }
+        logger.warn("Consumption did not resume while parked, rolling back the parked message");
+        return false;
+    }
+    
+    private void invokeListenerOnce(Session session, Message message) throws JMSException
+    {
+        long start = System.nanoTime();
+        boolean success = false;
+        try
+        {
+            Object listener = getMessageListener();
+            if (listener instanceof BatchMessageListener)
+            {
+                invokeBatchListener((BatchMessageListener) listener, message);
+            }
+            else
+            {
+                super.invokeListener(session, message);
+            }
+            success = true;
+        }
+        finally
+        {
+            long duration = System.nanoTime() - start;
+            metrics.listenerCompleted(duration, success);
+            if (success)
+            {
+                concurrencyController.listenerSucceeded(duration);
+                if (circuitBreaker != null && circuitBreaker.recordSuccess(duration))
+                {
+                    tripCircuitBreaker();
+                }
+            }
+            else
+            {
+                concurrencyController.listenerFailed(duration);
+            }
+        }
+    }
+    
+    @Override
+    protected void handleListenerException(Throwable ex)
+    {
+        // if this is an exception indicating some back-off or keep alive is required
+        PauseConsumptionException pauseException = findPauseConsumptionException(ex);
+        if (pauseException != null && pauseException == parkedPause.get())
+        {
+            // already handled when the message was parked
+            parkedPause.remove();
+        }
+        else if (pauseException != null)
+        {
+            handlePauseConsumptionException(pauseException);
+        }
+        else if (circuitBreaker != null && circuitBreaker.recordFailure())
+        {
+            tripCircuitBreaker();
+        }
+        super.handleListenerException(ex);
+    }
+    
+    /*
+     * Listeners invoked through an adapter have their exceptions wrapped, others, such as a BatchMessageListener, do not.
+     */
+    private static PauseConsumptionException findPauseConsumptionException(Throwable ex)
+    {
+        if (ex instanceof PauseConsumptionException)
+        {
+            return (PauseConsumptionException) ex;
+        }
+        return (ex.getCause() instanceof PauseConsumptionException) ? (PauseConsumptionException) ex.getCause() : null;
+    }
+    
+    protected void handlePauseConsumptionException(PauseConsumptionException ex)
+    {
+        String key = ex.getLaneKey();
+        if (laneOwner != null && key != null && !key.equals(laneKey))
+        {
+            // another lane is to be paused, this one carries on
+            laneOwner.pauseLane(key, ex.getConfig());
+            return;
+        }
+        // Stop the DMLC, or every DMLC in the group, and throttle the consumption if required
+        pauseConsumption(ex.getConfig());
+        publishFleetPause(ex.getConfig());
+        logger.warn(String.format("Gateway->Stopped.  Gateway message listener returned PauseConsumption with config: [%s]",
+            ex.getConfig().toString()));
+    }
+    
+    protected void tripCircuitBreaker()
+    {
+        pauseConsumption(circuitBreaker.getPauseConfig());
+        publishFleetPause(circuitBreaker.getPauseConfig());
+        logger.warn(String.format("Gateway->Stopped.  Circuit breaker opened, listener failing or slow, using config: [%s]",
+            circuitBreaker.getPauseConfig()));
+    }
+    
+    /*
+     * Called by the partitioned container to pause this lane.
+     */
+    void pauseLane(PauseConfig config)
+    {
+        pauseConsumption(config);
+    }
+    
+    /*
+     * Publishes only the first pause until this container resumes, so many consumers failing at once publish once.
+     */
+    private void publishFleetPause(PauseConfig config)
+    {
+        if (fleetControlChannel != null && fleetPausePublished.compareAndSet(false, true))
+        {
+            publishFleetCommand(FleetControlChannel.Command.PAUSE, config);
+        }
+    }
+    
+    /*
+     * Published from the task scheduler so a consumer does not wait on the broker.
+     */
+    private void publishFleetCommand(FleetControlChannel.Command command, PauseConfig config)
+    {
+        TaskScheduler current = scheduler;
+        if (current != null)
+        {
+            current.schedule(new FleetPublishRunnable(command, config), DateUtils.getNowPlusMs(getClock(), 0));
+        }
+    }
+    
+    /*
+     * Called by the fleet control channel with a command published by another node, which is never published again.
+     */
+    void applyFleetCommand(FleetControlChannel.Command command, PauseConfig config)
+    {
+        if (stoppingFromExternalCall)
+        {
+            return;
+        }
+        if (command == FleetControlChannel.Command.PAUSE)
+        {
+            if (dependencyGroup != null)
+            {
+                dependencyGroup.pauseRemotely(config);
+            }
+            else
+            {
+                stopDmlc(config);
+            }
+            logger.warn(String.format("Gateway->Stopped.  Paused by fleet control with config: [%s]", config));
+        }
+        else if (command == FleetControlChannel.Command.THROTTLE)
+        {
+            throttleConsumers(config);
+            consumptionChanged();
+        }
+        else if (command == FleetControlChannel.Command.RESUME)
+        {
+            applyFleetResume();
+        }
+    }
+    
+    /*
+     * A pause this container caused lasts until its own keep alive succeeds, in a group the group decides.
+     */
+    private void applyFleetResume()
+    {
+        if (fleetPausePublished.get())
+        {
+            logger.info("Ignoring resume by fleet control, this container paused itself and has not yet resumed");
+        }
+        else if (dependencyGroup != null)
+        {
+            dependencyGroup.resumeRemotely();
+        }
+        else
+        {
+            startDmlc();
+        }
+    }
+    
+    private void pauseConsumption(PauseConfig config)
+    {
+        if (dependencyGroup != null)
+        {
+            dependencyGroup.pause(config);
+        }
+        else
+        {
+            stopDmlc(config);
+        }
+    }
+    
+    protected void setThrottledMaxConcurrentConsumers(int count)
+    {
+        super.setMaxConcurrentConsumers(count);
+    }
+    
+    protected void setThrottledConcurrentConsumers(int count)
+    {
+        super.setConcurrentConsumers(count);
+    }
+    
+    protected void updateConcurrency()
+    {
+        actualFullconcurrentConsumers = getConcurrentConsumers();
+        actualFullmaxConcurrentConsumers = getMaxConcurrentConsumers();
+        requestedConcurrentConsumers = actualFullconcurrentConsumers;
+        requestedMaxConcurrentConsumers = actualFullmaxConcurrentConsumers;
+    }
+    
+    protected void startDmlc()
+    {
+        if (resumeConsumers())
+        {
+            synchronized (throttlingLock)
+            {
+                // the outage is over, the next throttle cuts from the max as it is then
+                outageMaxConcurrentConsumers = 0;
+            }
+            metrics.resumed();
+            if (circuitBreaker != null)
+            {
+                circuitBreaker.halfOpen();
+            }
+            pausedUntilMs = 0;
+            notifyObserversRunning();
+            consumptionChanged();
+            if (fleetPausePublished.compareAndSet(true, false))
+            {
+                publishFleetCommand(FleetControlChannel.Command.RESUME, null);
+            }
+        }
+    }
+    
+    /*
+     * Called by the dependency group when its keep alive succeeds, unless the container has been stopped since.
+     */
+    void resumeFromGroup()
+    {
+        if (!stoppingFromExternalCall)
+        {
+            startDmlc();
+        }
+    }
+    
+    protected void stopDmlc(PauseConfig config)
+    {
+        if (pauseConsumers())
+        {
+            metrics.paused();
+            notifyObserversStop(config);
+        }
+        if (config != null)
+        {
+            // throttle if returned in the response
+            throttleConsumers(config);
+            // set the next keep alive, if asked to or backing off
+            keepAliveManager.rescheduleAfterFailure(config.getDelayConsumptionForMs());
+        }
+        if (!isConsuming())
+        {
+            // paused until the next keep alive at the earliest
+            pausedUntilMs = getClock().currentTimeMillis() + keepAliveManager.getKeepAliveInterval();
+            consumptionChanged();
+        }
+    }
+    
+    /*
+     * A soft pause closes the gate with the DMLC left running, otherwise the DMLC is stopped.
+     */
+    private boolean pauseConsumers()
+    {
+        if (!isRunning())
+        {
+            return false;
+        }
+        if (softPause)
+        {
+            return gate.close();
+        }
+        super.stop();
+        return true;
+    }
+    
+    private boolean resumeConsumers()
+    {
+        if (!isRunning())
+        {
+            // open the gate first in case the DMLC was stopped externally while soft paused
+            gate.open();
+            super.start();
+            return true;
+        }
+        return gate.open();
+    }
+    
+    private void throttleConsumers(PauseConfig config)
+    {
+        if (config.isThrottled())
+        {
+            synchronized (throttlingLock)
+            {
+                // carry on relaxing whatever this config does not throttle
+                ThrottlerCounter counter = (throttleRelaxer == null) ? null : throttleRelaxer.counter;
+                RateThrottlerCounter rateCounter = (throttleRelaxer == null) ? null : throttleRelaxer.rateCounter;
+                if (config.isConcurrencyThrottled())
+                {
+                    counter = throttleConcurrency(config);
+                }
+                if (config.isRateThrottled())
+                {
+                    rateCounter = throttleRate(config);
+                }
+                // start a timer to release the throttling after a period of time
+                startThrottlingReleaseTask(config, new ThrottlingRelaxerRunnable(counter, rateCounter));
+            }
+        }
+    }
+    
+    /*
+     * Every throttle of one outage is cut from the max before the outage, so many consumers failing together, or a keep alive
+     * failing again while paused, cut the consumers once rather than once for each.
+     */
+    private ThrottlerCounter throttleConcurrency(PauseConfig config)
+    {
+        int currentMax = getMaxConcurrentConsumers();
+        if (outageMaxConcurrentConsumers > 0)
+        {
+            currentMax = outageMaxConcurrentConsumers;
+        }
+        else if (!isConsuming())
+        {
+            outageMaxConcurrentConsumers = currentMax;
+        }
+        ThrottlerCounter counter = concurrencyController.throttle(currentMax, actualFullmaxConcurrentConsumers, config);
+        int maxConsumers = counter.get();
+        int currentConcurrent = getConcurrentConsumers();
+        if (currentConcurrent > maxConsumers)
+        {
+            setThrottledConcurrentConsumers(maxConsumers);
+        }
+        setThrottledMaxConcurrentConsumers(maxConsumers);
+        return counter;
+    }
+    
+    private RateThrottlerCounter throttleRate(PauseConfig config)
+    {
+        RateThrottlerCounter counter = new RateThrottlerCounter(rateLimiter.getRate(), maxMessagesPerSecond, config);
+        rateLimiter.setRate(counter.get());
+        return counter;
+    }
+    
+    /*
+     * Needs to be synchronized with the throttling lock object.
+     */
+    private void startThrottlingReleaseTask(PauseConfig config, ThrottlingRelaxerRunnable relaxer)
+    {
+        cancelThrottleTask();
+        scheduleThrottlingRelaxTask(config, relaxer);
+    }
+
+    private void scheduleThrottlingRelaxTask(PauseConfig config, ThrottlingRelaxerRunnable relaxer)
+    {
+        // When stopping do not reschedule any tasks
+        if (!stoppingFromExternalCall)
+        {
+            // schedule to run in the future when the first throttling relax interval occurs, then at each interval after
+            throttleRelaxer = relaxer;
+            long relaxIntervalMs = config.getThrottleRelaxIntervalMs();
+            throttleEndsAtMs = getClock().currentTimeMillis() + config.getThrottleDeliveryForPeriodMs();
+            throttleRelaxEveryMs = relaxIntervalMs;
+            taskThrottleRelease = scheduler.scheduleWithFixedDelay(relaxer, DateUtils.getNowPlusMs(getClock(), relaxIntervalMs),
+                relaxIntervalMs);
+            if (priorityThrottle != null)
+            {
+                priorityThrottle.engage();
+                logger.info(String.format("Throttling consumption to min priority: [%s]",
+                    priorityThrottle.getCurrentMinPriority()));
+            }
+        }
+    }
+
+    private void cancelThrottleTask()
+    {
+        synchronized(throttlingLock)
+        {
+            if (taskThrottleRelease != null)
+            {
+                // cancel existing task
+                taskThrottleRelease.cancel(false);
+                taskThrottleRelease = null;
+                throttleRelaxer = null;
+                if (priorityThrottle != null)
+                {
+                    priorityThrottle.release();
+                }
+                consumptionChanged();
+            }
+        }
+    }
+    
+    /*
+     * Loads the saved state, throttling as it was and returning how much longer consumption stays paused, 0 if not paused.
+     */
+    private long restoreThrottleState()
+    {
+        ThrottleState state = (throttleStateStore == null) ? null : throttleStateStore.load();
+        if (state == null)
+        {
+            return 0;
+        }
+        long now = getClock().currentTimeMillis();
+        if (state.isThrottled(now))
+        {
+            PauseConfigBuilder builder = PauseConfigBuilder.newBuilder()
+                .withThrottleDeliveryForXMs(state.getThrottleEndsAtMs() - now)
+                .withThrottleRelaxEveryXMs(state.getThrottleRelaxEveryMs());
+            if (state.getThrottledMaxConsumers() > 0)
+            {
+                builder.withThrottleMaxConcurrency(state.getThrottledMaxConsumers());
+            }
+            if (state.getThrottledRatePerSecond() > 0)
+            {
+                builder.withThrottleMaxRatePerSecond(state.getThrottledRatePerSecond());
+            }
+            PauseConfig config = builder.build();
+            logger.info(String.format("Restoring throttling saved before restart: [%s]", config));
+            resolveTaskScheduler();
+            throttleConsumers(config);
+        }
+        if (state.isPaused(now))
+        {
+            pausedUntilMs = state.getPausedUntilMs();
+            logger.info(String.format("Restoring pause saved before restart, consumption paused for: [%d ms]",
+                pausedUntilMs - now));
+            return pausedUntilMs - now;
+        }
+        return 0;
+    }
+    
+    /*
+     * Called whenever consumption is paused, resumed or its throttling changes.
+     */
+    private void consumptionChanged()
+    {
+        requestStateSave();
+        requestBudgetRebalance();
+    }
+    
+    /*
+     * The budget is rebalanced on the task scheduler, so no lock of this container is held while the budget takes the locks
+     * of the other members.
+     */
+    private void requestBudgetRebalance()
+    {
+        if (consumerBudget != null && !stoppingFromExternalCall && budgetRebalanceRequested.compareAndSet(false, true))
+        {
+            TaskScheduler current = scheduler;
+            if (current == null)
+            {
+                budgetRebalanceRequested.set(false);
+                return;
+            }
+            current.schedule(new BudgetRebalanceRunnable(), DateUtils.getNowPlusMs(getClock(), 0));
+        }
+    }
+    
+    /*
+     * The state is saved on the task scheduler, so a consumer that pauses consumption never waits on the store.  Requests
+     * made while a save is pending are coalesced into it, the save takes the state at the time it runs.  Nothing is saved
+     * while stopping externally so the state before the stop is kept for the restart.
+     */
+    private void requestStateSave()
+    {
+        if (throttleStateStore != null && !stoppingFromExternalCall && stateSaveRequested.compareAndSet(false, true))
+        {
+            TaskScheduler current = scheduler;
+            if (current == null)
+            {
+                stateSaveRequested.set(false);
+                return;
+            }
+            current.schedule(new StateSaveRunnable(), DateUtils.getNowPlusMs(getClock(), 0));
+        }
+    }
+    
+    private ThrottleState getThrottleState()
+    {
+        synchronized (throttlingLock)
+        {
+            int maxConsumers = 0;
+            double ratePerSecond = 0;
+            long endsAtMs = 0;
+            if (throttleRelaxer != null)
+            {
+                maxConsumers = (throttleRelaxer.counter == null) ? 0 : throttleRelaxer.counter.get();
+                ratePerSecond = (throttleRelaxer.rateCounter == null) ? 0 : throttleRelaxer.rateCounter.get();
+                endsAtMs = throttleEndsAtMs;
+            }
+            return new ThrottleState(getClock().currentTimeMillis(), pausedUntilMs, maxConsumers, ratePerSecond, endsAtMs,
+                throttleRelaxEveryMs);
+        }
+    }
+    
+    private void startKeepAlive(long initialDelayMs)
+    {
+        synchronized (taskSchedulerLock)
+        {
+            if (initialDelayMs > 0)
+            {
+                keepAliveManager.startAfter(initialDelayMs);
+            }
+            else
+            {
+                keepAliveManager.start();
+            }
+        }
+    }
+    
+    private void resolveTaskScheduler()
+    {
+        synchronized (taskSchedulerLock)
+        {
+            if (scheduler == null)
+            {
+                this.scheduler = (taskScheduler == null) ? buildOwnedScheduler() : taskScheduler;
+                keepAliveManager = new KeepAliveManager(scheduler, new KeepAliveRunnable(), keepAliveIntervalMs, getClock());
+                keepAliveManager.setAdaptiveInterval(adaptiveKeepAliveInterval);
+            }
+        }
+    }
+    
+    private void startAutoscaler()
+    {
+        synchronized (taskSchedulerLock)
+        {
+            if (autoscaler != null && autoscaleTask == null)
+            {
+                long intervalMs = autoscaler.getSampleIntervalMs();
+                autoscaleTask = scheduler.scheduleWithFixedDelay(new AutoscalerRunnable(),
+                    DateUtils.getNowPlusMs(getClock(), intervalMs), intervalMs);
+            }
+        }
+    }
+    
+    private void cancelAutoscaler()
+    {
+        synchronized (taskSchedulerLock)
+        {
+            if (autoscaleTask != null)
+            {
+                autoscaleTask.cancel(false);
+                autoscaleTask = null;
+            }
+        }
+    }
+    
+    private void startDepthProbe()
+    {
+        synchronized (taskSchedulerLock)
+        {
+            if (depthProbe != null && depthProbeTask == null)
+            {
+                long intervalMs = depthProbe.getSampleIntervalMs();
+                depthProbeTask = scheduler.scheduleWithFixedDelay(new DepthProbeRunnable(),
+                    DateUtils.getNowPlusMs(getClock(), intervalMs), intervalMs);
+            }
+        }
+    }
+    
+    private void cancelDepthProbe()
+    {
+        synchronized (taskSchedulerLock)
+        {
+            if (depthProbeTask != null)
+            {
+                depthProbeTask.cancel(false);
+                depthProbeTask = null;
+            }
+        }
+    }
+    
+    /*
+     * Only the MBean reads the windowed metrics, so without it no task is added to the scheduler.
+     */
+    private void startMetricsWindow()
+    {
+        synchronized (taskSchedulerLock)
+        {
+            if (registerMBean && metricsWindowTask == null)
+            {
+                metricsWindowTask = scheduler.scheduleAtFixedRate(new MetricsWindowRunnable(),
+                    DateUtils.getNowPlusMs(getClock(), metricsWindowMs), metricsWindowMs);
+            }
+        }
+    }
+    
+    private void cancelMetricsWindow()
+    {
+        synchronized (taskSchedulerLock)
+        {
+            if (metricsWindowTask != null)
+            {
+                metricsWindowTask.cancel(false);
+                metricsWindowTask = null;
+            }
+        }
+    }
+    
+    /*
+     * The name of the queue to probe, without any destination options such as the ActiveMQ ?consumer.prefetchSize=0.
+     */
+    private String getProbedQueueName() throws JMSException
+    {
+        String name = getDestinationName();
+        if (name == null && getDestination() instanceof Queue)
+        {
+            name = ((Queue) getDestination()).getQueueName();
+        }
+        if (name != null && name.indexOf('?') >= 0)
+        {
+            name = name.substring(0, name.indexOf('?'));
+        }
+        return name;
+    }
+    
+    /*
+     * Built when no scheduler is given, so a keep alive blocked on a slow upstream only holds up the tasks of this container.
+     */
+    private TaskScheduler buildOwnedScheduler()
+    {
+        ownedScheduler = new ThreadPoolTaskScheduler();
+        ownedScheduler.setThreadNamePrefix(getBeanName() + "-KeepAlive");
+        ownedScheduler.setPoolSize(OWNED_SCHEDULER_THREAD_COUNT);
+        ownedScheduler.initialize();
+        return ownedScheduler;
+    }
+    
+    /*
+     * A scheduler that was injected is owned by whoever injected it, so it is only released, its tasks have already been
+     * cancelled.
+     */
+    private synchronized void releaseTaskScheduler()
+    {
+        synchronized (taskSchedulerLock)
+        {
+            if (ownedScheduler != null)
+            {
+                ownedScheduler.shutdown();
+                ownedScheduler = null;
+            }
+            scheduler = null;
+        }
+    }
+    
+    /**
+     * Set the scheduler used to run the keep alive and throttle relax tasks.  It is not shut down with the container.  If not
+     * set the container builds a scheduler of its own, shut down with the container.  Containers whose keep alive does not
+     * block can share the {@link HashedWheelTaskScheduler#getSharedInstance() shared timer wheel}.
+     * @param taskScheduler the scheduler.
+     */
+    public void setTaskScheduler(TaskScheduler taskScheduler)
+    {
+        this.taskScheduler = taskScheduler;
+    }
+    
+    /**
+     * Set the clock the keep alive and throttle relax tasks are scheduled from and the pauses are timed by.  It must tell the
+     * time of the task scheduler.  If not set and the task scheduler is itself a {@link Clock}, such as a
+     * {@link com.bvb.spring.jms.listener.scheduling.VirtualTimeTaskScheduler}, its time is used, otherwise the system clock.
+     * @param clock the clock.
+     */
+    public void setClock(Clock clock)
+    {
+        this.clock = clock;
+    }
+    
+    /**
+     * Set the store the pause and throttling are kept in across restarts, such as a {@link
+     * com.bvb.spring.jms.listener.state.MappedFileThrottleStateStore} for the bean name of the container.  On start the
+     * container carries on from the saved state, paused until the saved deadline with the first keep alive held until then,
+     * and throttled to the saved max relaxing over what is left of the throttle period.  The state is saved from the task
+     * scheduler whenever consumption is paused, resumed or the throttling relaxed, never on a consumer.  The store is closed
+     * when the container is shut down.
+     * @param throttleStateStore the store, which must not be shared with another container.
+     */
+    public void setThrottleStateStore(ThrottleStateStore throttleStateStore)
+    {
+        this.throttleStateStore = throttleStateStore;
+    }
+    
+    public Clock getClock()
+    {
+        if (clock != null)
+        {
+            return clock;
+        }
+        return (taskScheduler instanceof Clock) ? (Clock) taskScheduler : Clock.SYSTEM;
+    }
+    
+    /**
+     * Get the keep alive interval in milliseconds.  This is in the interval between keep alive runs, where the keep alive
+     * service returns whether the gateway can continue with normal operation.
+     * @return the keep alive interval.
+     */
+    public long getKeepAliveInterval()
+    {
+        if (keepAliveManager != null)
+        {
+            return keepAliveManager.getKeepAliveInterval();
+        }
+        else
+        {
+            return keepAliveIntervalMs;
+        }
+    }
+
+    /**
+     * Set the keep alive interval in milliseconds.
+     * @param keepAliveIntervalMs the interval to set in milliseconds.
+     */
+    public void setKeepAliveInterval(long keepAliveIntervalMs)
+    {
+        this.keepAliveIntervalMs = keepAliveIntervalMs;
+    }
+    
+    /**
+     * Set an adaptive keep alive interval, which backs the interval off with jitter while the keep alive keeps failing and
+     * stretches it while the keep alive keeps succeeding.  Without one the intervals in the responses and pause configs are
+     * used as given.
+     * @param adaptiveKeepAliveInterval the adaptive interval, which must not be shared with another container.
+     */
+    public void setAdaptiveKeepAliveInterval(AdaptiveKeepAliveInterval adaptiveKeepAliveInterval)
+    {
+        this.adaptiveKeepAliveInterval = adaptiveKeepAliveInterval;
+    }
+    
+    private boolean processKeepAliveResponse(KeepAliveResponse response)
+    {
+        if (response == null)
+        {
+            logger.warn("Keep alive service returned null which is not permitted, ignoring result");
+        }
+        else if (response.isSuccess())
+        {
+            // only restart the scheduling if the new value is different from the old
+            keepAliveManager.rescheduleAfterSuccess(response.getPauseConfig().getDelayConsumptionForMs());
+            return true;
+        }
+        else
+        {
+            logger.warn(String.format("Keep alive service return failure, stopping message consumption.  Using settings "
+                    + "from KeepAliveResponse: [%s]", response.toString()));
+            stopDmlc(response.getPauseConfig());
+        }
+        return false;
+    }
+
+    class KeepAliveRunnable implements Runnable
+    {
+
+        @Override
+        public void run()
+        {
+            // default to always starting the DMLC if there is no keep alive service defined
             boolean start = true;
-            if (keepAliveService != null)
+            if (dependencyGroup != null)
+            {
+                start = processByGroup();
+            }
+            else if (asyncKeepAliveService != null)
+            {
+                start = processByAsyncService();
+            }
+            else if (keepAliveService != null)
             {
                 start = processByService();
             }
@@ -395,48 +1967,402 @@ public class BackoffDefaultMessageListeningContainer extends DefaultMessageListe
         
         private boolean processByService()
         {
-            KeepAliveResponse response = keepAliveService.keepAlive();
+            return processKeepAliveResponse(keepAliveService.keepAlive());
+        }
+        
+        /*
+         * Always returns false, the DMLC is started when the response arrives.
+         */
+        private boolean processByAsyncService()
+        {
+            // never overlap keep alives, the previous one is still waiting on its response or timeout
+            if (!keepAliveInFlight.compareAndSet(false, true))
+            {
+                logger.debug("Previous async keep alive still in flight, skipping");
+                return false;
+            }
+            ListenableFuture<KeepAliveResponse> future;
+            try
+            {
+                future = asyncKeepAliveService.keepAlive();
+            }
+            catch (RuntimeException ex)
+            {
+                future = Futures.immediateFailedFuture(ex);
+            }
+            new AsyncKeepAlive(future).start();
+            return false;
+        }
+        
+        private boolean processByGroup()
+        {
+            // the group pauses and resumes all of its members when it calls the service, only the interval is handled here
+            KeepAliveResponse response = dependencyGroup.keepAlive();
             if (response == null)
             {
                 logger.warn("Keep alive service returned null which is not permitted, ignoring result");
             }
             else if (response.isSuccess())
             {
-                // only restart the scheduling if the new value is different from the old
-                keepAliveManager.rescheduleIfDifferent(response.getPauseConfig().getDelayConsumptionForMs());
-                return true;
-            }
-            else
-            {
-                logger.warn(String.format("Keep alive service return failure, stopping message consumption.  Using settings "
-                        + "from KeepAliveResponse: [%s]", response.toString()));
-                stopDmlc(response.getPauseConfig());
+                keepAliveManager.rescheduleAfterSuccess(response.getPauseConfig().getDelayConsumptionForMs());
+                // a success from before the group was paused does not start this member on its own
+                return !dependencyGroup.isPaused();
             }
             return false;
         }
 
     }
     
+    /**
+     * An asynchronous keep alive in flight, completed by whichever comes first of the response and the timeout.
+     */
+    private class AsyncKeepAlive implements FutureCallback<KeepAliveResponse>, Runnable
+    {
+        private final ListenableFuture<KeepAliveResponse> future;
+        private final AtomicBoolean completed = new AtomicBoolean(false);
+        private volatile ScheduledFuture<?> timeoutTask;
+        
+        AsyncKeepAlive(ListenableFuture<KeepAliveResponse> future)
+        {
+            this.future = future;
+        }
+        
+        void start()
+        {
+            TaskScheduler current = scheduler;
+            if (current != null)
+            {
+                timeoutTask = current.schedule(this, DateUtils.getNowPlusMs(getClock(), keepAliveTimeoutMs));
+            }
+            Futures.addCallback(future, this);
+        }
+        
+        /*
+         * The timeout.
+         */
+        @Override
+        public void run()
+        {
+            if (complete())
+            {
+                try
+                {
+                    future.cancel(true);
+                    logger.warn(String.format("Async keep alive did not respond within: [%d ms], stopping message "
+                        + "consumption.  Using settings: [%s]", keepAliveTimeoutMs, keepAliveTimeoutPauseConfig));
+                    stopUnlessStoppedExternally(keepAliveTimeoutPauseConfig);
+                }
+                finally
+                {
+                    keepAliveInFlight.set(false);
+                }
+            }
+        }
+        
+        @Override
+        public void onSuccess(KeepAliveResponse response)
+        {
+            if (complete())
+            {
+                try
+                {
+                    if (!stoppingFromExternalCall && processKeepAliveResponse(response))
+                    {
+                        startDmlc();
+                    }
+                }
+                finally
+                {
+                    keepAliveInFlight.set(false);
+                }
+            }
+        }
+        
+        @Override
+        public void onFailure(Throwable t)
+        {
+            if (complete())
+            {
+                try
+                {
+                    logger.warn(String.format("Async keep alive failed, stopping message consumption.  Using settings: [%s]",
+                        keepAliveTimeoutPauseConfig), t);
+                    stopUnlessStoppedExternally(keepAliveTimeoutPauseConfig);
+                }
+                finally
+                {
+                    keepAliveInFlight.set(false);
+                }
+            }
+        }
+        
+        private boolean complete()
+        {
+            if (!completed.compareAndSet(false, true))
+            {
+                return false;
+            }
+            ScheduledFuture<?> task = timeoutTask;
+            if (task != null)
+            {
+                task.cancel(false);
+            }
+            return true;
+        }
+        
+        private void stopUnlessStoppedExternally(PauseConfig config)
+        {
+            if (!stoppingFromExternalCall)
+            {
+                stopDmlc(config);
+            }
+        }
+    }
+    
+    private class AutoscalerRunnable implements Runnable
+    {
+        @Override
+        public void run()
+        {
+            // sample on every run so each decision is made on a single interval
+            int current = getMaxConcurrentConsumers();
+            int next = autoscaler.nextConsumers(current, metrics.getListenerLatencyMicros(), metrics.getMessagesReceived());
+            // never scale past the share of the consumer budget
+            next = Math.min(next, budgetMaxConsumers);
+            if (next == current || !isConsuming())
+            {
+                return;
+            }
+            synchronized (throttlingLock)
+            {
+                if (taskThrottleRelease != null)
+                {
+                    logger.trace("Autoscaler running, but consumption is throttled");
+                    return;
+                }
+                logger.info(String.format("Autoscaling max consumers from: [%s] to [%s], listener latency p%s: [%s us]", current,
+                    next, autoscaler.getPercentile(), autoscaler.getLastLatencyMicros()));
+                if (next < current)
+                {
+                    setThrottledConcurrentConsumers(Math.min(getConcurrentConsumers(), next));
+                }
+                setThrottledMaxConcurrentConsumers(next);
+                // a later throttle relaxes back to the autoscaled consumers
+                actualFullconcurrentConsumers = getConcurrentConsumers();
+                actualFullmaxConcurrentConsumers = next;
+            }
+        }
+    }
+    
+    private class DepthProbeRunnable implements Runnable
+    {
+        @Override
+        public void run()
+        {
+            if (!isConsuming())
+            {
+                return;
+            }
+            int current = getConcurrentConsumers();
+            int next;
+            try
+            {
+                next = depthProbe.nextConsumers(getProbedQueueName(), current);
+            }
+            catch (JMSException ex)
+            {
+                logger.warn("Unable to probe the queue depth, the consumers are left as they are", ex);
+                return;
+            }
+            // never scale past the share of the consumer budget
+            next = Math.min(next, budgetMaxConsumers);
+            if (next == current)
+            {
+                return;
+            }
+            synchronized (throttlingLock)
+            {
+                if (taskThrottleRelease != null)
+                {
+                    logger.trace("Depth probe running, but consumption is throttled");
+                    return;
+                }
+                logger.info(String.format("Scaling concurrent consumers from: [%s] to [%s] for queue depth: [%s]", current, next,
+                    depthProbe.getLastDepth()));
+                if (next > getMaxConcurrentConsumers())
+                {
+                    setThrottledMaxConcurrentConsumers(next);
+                }
+                setThrottledConcurrentConsumers(next);
+                // a later throttle relaxes back to the scaled consumers, the max asked of the budget is left as set
+                actualFullconcurrentConsumers = next;
+                actualFullmaxConcurrentConsumers = getMaxConcurrentConsumers();
+                requestedConcurrentConsumers = next;
+                requestedMaxConcurrentConsumers = Math.max(requestedMaxConcurrentConsumers, actualFullmaxConcurrentConsumers);
+                if (next > current)
+                {
+                    // the DMLC only adds consumers as messages are received, start one now rather than wait
+                    scheduleNewInvokerIfAppropriate();
+                }
+            }
+        }
+    }
+    
+    private class MetricsWindowRunnable implements Runnable
+    {
+        @Override
+        public void run()
+        {
+            metrics.rollWindow();
+        }
+    }
+    
+    private class FleetPublishRunnable implements Runnable
+    {
+        private final FleetControlChannel.Command command;
+        private final PauseConfig config;
+        
+        FleetPublishRunnable(FleetControlChannel.Command command, PauseConfig config)
+        {
+            this.command = command;
+            this.config = config;
+        }
+        
+        @Override
+        public void run()
+        {
+            try
+            {
+                fleetControlChannel.publish(getBeanName(), command, config);
+            }
+            catch (RuntimeException ex)
+            {
+                logger.warn(String.format("Unable to publish fleet command: [%s], the other nodes will find the failure "
+                    + "themselves", command), ex);
+            }
+        }
+    }
+    
+    private class BudgetRebalanceRunnable implements Runnable
+    {
+        @Override
+        public void run()
+        {
+            budgetRebalanceRequested.set(false);
+            consumerBudget.rebalance();
+        }
+    }
+    
+    private class StateSaveRunnable implements Runnable
+    {
+        @Override
+        public void run()
+        {
+            stateSaveRequested.set(false);
+            if (!stoppingFromExternalCall)
+            {
+                try
+                {
+                    throttleStateStore.save(getThrottleState());
+                }
+                catch (RuntimeException ex)
+                {
+                    logger.warn("Unable to save the throttle state, a restart will begin at full capacity", ex);
+                }
+            }
+        }
+    }
+    
     public class ThrottlingRelaxerRunnable implements Runnable
     {
-        private final FixedRateThrottlerCounter counter;
+        private final ThrottlerCounter counter;
+        private final RateThrottlerCounter rateCounter;
+        private final int startMax;
+        
+        public ThrottlingRelaxerRunnable(ThrottlerCounter counter)
+        {
+            this(counter, null);
+        }
         
-        public ThrottlingRelaxerRunnable(FixedRateThrottlerCounter counter)
+        public ThrottlingRelaxerRunnable(ThrottlerCounter counter, RateThrottlerCounter rateCounter)
         {
             this.counter = counter;
+            this.rateCounter = rateCounter;
+            this.startMax = (counter == null) ? 0 : counter.get();
         }
 
         @Override
         public void run()
         {
-            // if we are not running then don't increase any concurrent consumers
-            if (!isRunning())
+            // if we are not consuming then don't increase any concurrent consumers
+            if (!isConsuming())
             {
                 logger.trace("Throttling relaxer running, but DMLC is not running");
                 return;
             }
+            boolean concurrencyDone = (counter == null) || relaxConcurrency();
+            boolean rateDone = (rateCounter == null) || relaxRate();
+            if (concurrencyDone && rateDone)
+            {
+                logger.info("Cancelling Throttler relaxer task as throttling is fully relaxed");
+                cancelThrottleTask();
+                return;
+            }
+            if (priorityThrottle != null)
+            {
+                relaxPriority();
+            }
+            consumptionChanged();
+        }
+        
+        /*
+         * The priority relaxes as far as the slowest of the concurrency and the rate.
+         */
+        private void relaxPriority()
+        {
+            double progress = 1;
+            if (counter != null && !counter.isDone() && actualFullmaxConcurrentConsumers > startMax)
+            {
+                progress = (double) (counter.get() - startMax) / (actualFullmaxConcurrentConsumers - startMax);
+            }
+            if (rateCounter != null)
+            {
+                progress = Math.min(progress, rateCounter.getProgress());
+            }
+            int previous = priorityThrottle.getCurrentMinPriority();
+            priorityThrottle.relax(progress);
+            int current = priorityThrottle.getCurrentMinPriority();
+            if (current != previous)
+            {
+                logger.info(String.format("Relaxing throttling, lowering min priority from: [%s] to [%s]", previous, current));
+            }
+        }
+        
+        private boolean relaxConcurrency()
+        {
+            if (counter.isDone())
+            {
+                return true;
+            }
+            int previous = counter.get();
             int newMax = counter.incrementAndGet();
+            if (newMax == previous && !counter.isDone())
+            {
+                logger.info(String.format("Throttler relaxer running but counter holding max at: [%s]", newMax));
+                return false;
+            }
             int current = getMaxConcurrentConsumers();
+            // never relax past the share of the consumer budget, but hold rather than finish while it is lent elsewhere
+            if (newMax > budgetMaxConsumers && !counter.isDone())
+            {
+                newMax = budgetMaxConsumers;
+                if (newMax <= current)
+                {
+                    logger.info(String.format("Throttler relaxer running but consumer budget holding max at: [%s]", current));
+                    return false;
+                }
+            }
+            newMax = Math.min(newMax, budgetMaxConsumers);
             boolean done = false;
             if (newMax > current)
             {
@@ -453,9 +2379,22 @@ public class BackoffDefaultMessageListeningContainer extends DefaultMessageListe
             if (done || counter.isDone())
             {
                 int max = (newMax > current) ? newMax : current;
-                logger.info(String.format("Cancelling Throttler relaxer task as old max re-instated or passed: [%s]", max));
-                cancelThrottleTask();
+                logger.info(String.format("Throttler relaxer old max re-instated or passed: [%s]", max));
+                return true;
+            }
+            return false;
+        }
+        
+        private boolean relaxRate()
+        {
+            if (rateCounter.isDone())
+            {
+                return true;
             }
+            double newRate = rateCounter.incrementAndGet();
+            logger.info(String.format("Relaxing throttling, growing max rate to: [%s] per second", newRate));
+            rateLimiter.setRate(newRate);
+            return rateCounter.isDone();
         }
 
     }
@@ -0,0 +1,23 @@
+package com.bvb.spring.jms.listener;
+
+import java.util.List;
+
+import javax.jms.JMSException;
+import javax.jms.Message;
+
+/**
+ * A listener for a {@link BackoffDefaultMessageListeningContainer} that receives the messages in batches.  Each batch holds
+ * up to the batch size of the container, or fewer if no more messages arrived within the linger time, and is received within
+ * one transacted session that is committed once after the listener returns.  If the listener throws an exception the whole
+ * batch is rolled back, a {@link com.bvb.spring.jms.listener.exception.PauseConsumptionException} is handled in the same way
+ * as for a single message.
+ */
+public interface BatchMessageListener
+{
+    /**
+     * Called with the next batch of messages.
+     * @param messages the messages received, never empty and in the order received.
+     * @throws JMSException if the messages cannot be processed, the batch will be rolled back.
+     */
+    void onMessages(List<Message> messages) throws JMSException;
+}
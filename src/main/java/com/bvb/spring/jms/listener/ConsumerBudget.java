@@ -0,0 +1,153 @@
+package com.bvb.spring.jms.listener;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import com.google.common.base.Objects;
+import com.google.common.base.Preconditions;
+
+/**
+ * A fixed number of consumers shared by several {@link BackoffDefaultMessageListeningContainer}s in one JVM, so the threads
+ * and connections they use together are bounded by the budget rather than the sum of the max of each.  Each container asks
+ * for the max concurrent consumers set on it and is given a share by weight.  The budget is divided by weighted max-min
+ * fairness: no container is given more than it asks for, and what one does not use is shared among the rest by weight.
+ * <p>
+ * A paused container asks for nothing, so its share is lent to the busy containers.  A throttled container asks for the max
+ * it relaxes back to and holds its relaxing while that is lent elsewhere.  When a container resumes the budget is divided
+ * again and the share is taken back, the lenders shrink as their consumers finish their current receive.  A paused
+ * container is held to its own weighted share of the whole budget, so it never resumes with more.
+ * <p>
+ * A container joins the budget with {@link BackoffDefaultMessageListeningContainer#setConsumerBudget(ConsumerBudget)} and is
+ * a member while it is started.  The budget should be at least the number of containers, each is always given one consumer.
+ */
+public class ConsumerBudget
+{
+    protected final Log logger = LogFactory.getLog(getClass());
+
+    private final String name;
+    private final int totalConsumers;
+    private final CopyOnWriteArrayList<BackoffDefaultMessageListeningContainer> members =
+        new CopyOnWriteArrayList<BackoffDefaultMessageListeningContainer>();
+
+    /**
+     * Create a budget.
+     * @param name the name of the budget, used in logging.
+     * @param totalConsumers the consumers shared by the containers, at least 1.
+     */
+    public ConsumerBudget(String name, int totalConsumers)
+    {
+        this.name = Preconditions.checkNotNull(name);
+        Preconditions.checkArgument(totalConsumers > 0, "totalConsumers must be at least 1");
+        this.totalConsumers = totalConsumers;
+    }
+
+    public String getName()
+    {
+        return name;
+    }
+
+    public int getTotalConsumers()
+    {
+        return totalConsumers;
+    }
+
+    /**
+     * Get the number of containers sharing the budget.
+     * @return the number of members.
+     */
+    public int getMemberCount()
+    {
+        return members.size();
+    }
+
+    void register(BackoffDefaultMessageListeningContainer container)
+    {
+        members.addIfAbsent(container);
+        rebalance();
+    }
+
+    void unRegister(BackoffDefaultMessageListeningContainer container)
+    {
+        members.remove(container);
+        rebalance();
+    }
+
+    /**
+     * Divide the budget between the members by what each asks for now.
+     */
+    synchronized void rebalance()
+    {
+        List<BackoffDefaultMessageListeningContainer> current = members;
+        int size = current.size();
+        if (size == 0)
+        {
+            return;
+        }
+        BackoffDefaultMessageListeningContainer[] containers =
+            current.toArray(new BackoffDefaultMessageListeningContainer[size]);
+        int[] demands = new int[containers.length];
+        int[] weights = new int[containers.length];
+        int totalWeight = 0;
+        for (int i = 0; i < containers.length; i++)
+        {
+            demands[i] = containers[i].getBudgetDemand();
+            weights[i] = containers[i].getConsumerBudgetWeight();
+            totalWeight += weights[i];
+        }
+        int[] allowances = allocate(totalConsumers, demands, weights);
+        for (int i = 0; i < containers.length; i++)
+        {
+            // an idle member is held to its own share so it cannot resume with more
+            int allowance = (demands[i] == 0) ? (int) ((long) totalConsumers * weights[i] / totalWeight) : allowances[i];
+            containers[i].applyBudget(allowance);
+        }
+        if (logger.isDebugEnabled())
+        {
+            logger.debug(String.format("Budget [%s] of [%d] consumers divided as: [%s] for demands: [%s]", name,
+                totalConsumers, Arrays.toString(allowances), Arrays.toString(demands)));
+        }
+    }
+
+    /**
+     * Divide the consumers by weighted max-min fairness, one consumer at a time to the member furthest below its weighted
+     * share that still wants more.
+     * @param total the consumers to divide.
+     * @param demands the consumers each member asks for.
+     * @param weights the weight of each member, at least 1.
+     * @return the consumers given to each member, never more than it asks for.
+     */
+    static int[] allocate(int total, int[] demands, int[] weights)
+    {
+        int[] allowances = new int[demands.length];
+        for (int remaining = total; remaining > 0; remaining--)
+        {
+            int next = -1;
+            for (int i = 0; i < demands.length; i++)
+            {
+                // compare allowance / weight without dividing
+                if (allowances[i] < demands[i] && (next < 0
+                    || (long) allowances[i] * weights[next] < (long) allowances[next] * weights[i]))
+                {
+                    next = i;
+                }
+            }
+            if (next < 0)
+            {
+                break;
+            }
+            allowances[next]++;
+        }
+        return allowances;
+    }
+
+    @Override
+    public String toString()
+    {
+        return Objects.toStringHelper(this).add("name", name).add("totalConsumers", totalConsumers)
+            .add("members", members.size()).toString();
+    }
+}
@@ -0,0 +1,104 @@
+package com.bvb.spring.jms.listener;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * The gate the consumers of a soft paused container park on before each receive.  While it is closed the consumers wait on
+ * it with their sessions and message consumers still open, opening it wakes them all so consumption resumes without the
+ * invokers being rescheduled or the consumers re-created.  When the gate is open passing it is a single volatile read.
+ */
+class ConsumptionGate
+{
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition opened = lock.newCondition();
+    private volatile boolean open = true;
+
+    /**
+     * Wait for the gate to be open.
+     * @param timeoutMs the max time to wait in milliseconds.
+     * @return {@code true} if the gate is open, {@code false} if it is still closed after the timeout or the wait was
+     * interrupted.
+     */
+    boolean await(long timeoutMs)
+    {
+        if (open)
+        {
+            return true;
+        }
+        long remainingNanos = TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+        lock.lock();
+        try
+        {
+            while (!open)
+            {
+                if (remainingNanos <= 0)
+                {
+                    return false;
+                }
+                remainingNanos = opened.awaitNanos(remainingNanos);
+            }
+            return true;
+        }
+        catch (InterruptedException ex)
+        {
+            Thread.currentThread().interrupt();
+            return open;
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Open the gate, waking every consumer parked on it.
+     * @return {@code true} if the gate was closed.
+     */
+    boolean open()
+    {
+        lock.lock();
+        try
+        {
+            if (open)
+            {
+                return false;
+            }
+            open = true;
+            opened.signalAll();
+            return true;
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Close the gate, consumers park on it before their next receive.
+     * @return {@code true} if the gate was open.
+     */
+    boolean close()
+    {
+        lock.lock();
+        try
+        {
+            if (!open)
+            {
+                return false;
+            }
+            open = false;
+            return true;
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    boolean isOpen()
+    {
+        return open;
+    }
+}
@@ -0,0 +1,316 @@
+package com.bvb.spring.jms.listener;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.util.Assert;
+
+import com.bvb.spring.jms.listener.config.PauseConfig;
+import com.bvb.spring.jms.listener.keepalive.KeepAliveResponse;
+import com.bvb.spring.jms.listener.keepalive.KeepAliveService;
+import com.bvb.spring.jms.listener.utils.Clock;
+import com.google.common.base.Objects;
+import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.SettableFuture;
+
+/**
+ * A named upstream dependency shared by several {@link BackoffDefaultMessageListeningContainer}s.  The containers of a group
+ * share one {@link KeepAliveService}, whichever container runs its keep alive first calls the service and the response is
+ * cached for the {@link #setCacheTtlMs(long) TTL}, so the upstream sees one call per TTL however many containers there
+ * are.  Calls made while another container is already calling the service wait for and use its response.  No lock is held
+ * while the service is called, so a listener pausing the group never waits on the upstream.
+ * <p>
+ * The containers are also paused and resumed together.  A {@link com.bvb.spring.jms.listener.exception.PauseConsumptionException}
+ * thrown by the listener of any member, or a failed keep alive, pauses every member with the same config in one step.  The
+ * next successful keep alive resumes every member at once rather than each on its own schedule.
+ * <p>
+ * A container joins the group with {@link BackoffDefaultMessageListeningContainer#setDependencyGroup(DependencyGroup)} and
+ * its own keep alive service is then ignored.
+ */
+public class DependencyGroup
+{
+    public static final long DEFAULT_CACHE_TTL_MS = 5000;
+
+    protected final Log logger = LogFactory.getLog(getClass());
+
+    private final String name;
+    private final KeepAliveService keepAliveService;
+    private final CopyOnWriteArrayList<BackoffDefaultMessageListeningContainer> members =
+        new CopyOnWriteArrayList<BackoffDefaultMessageListeningContainer>();
+    private final Object inFlightLock = new Object();
+    private final Object pauseLock = new Object();
+    private final AtomicLong pauseCount = new AtomicLong();
+    private long cacheTtlMs = DEFAULT_CACHE_TTL_MS;
+    private Clock clock = Clock.SYSTEM;
+    private volatile CachedResponse cachedResponse;
+    private SettableFuture<KeepAliveResponse> inFlight;
+    private boolean paused = false;
+    private boolean pausedRemotely = false;
+    private PauseConfig pausedWith;
+
+    /**
+     * Create a group.
+     * @param name the name of the dependency, used in logging.
+     * @param keepAliveService the keep alive service used by every member.
+     */
+    public DependencyGroup(String name, KeepAliveService keepAliveService)
+    {
+        this.name = Preconditions.checkNotNull(name);
+        this.keepAliveService = Preconditions.checkNotNull(keepAliveService);
+    }
+
+    public String getName()
+    {
+        return name;
+    }
+
+    /**
+     * Set how long a keep alive response is reused by the members before the service is called again.
+     * @param cacheTtlMs the TTL in milliseconds, {@code 0} to call the service every time unless a call is in progress.
+     * Defaults to {@value #DEFAULT_CACHE_TTL_MS}.
+     */
+    public void setCacheTtlMs(long cacheTtlMs)
+    {
+        Assert.isTrue(cacheTtlMs >= 0, "cacheTtlMs must not be negative");
+        this.cacheTtlMs = cacheTtlMs;
+    }
+
+    public long getCacheTtlMs()
+    {
+        return cacheTtlMs;
+    }
+
+    /**
+     * Set the clock the cached keep alive response expires by.
+     * @param clock the clock.  Defaults to {@link Clock#SYSTEM}.
+     */
+    public void setClock(Clock clock)
+    {
+        this.clock = Preconditions.checkNotNull(clock);
+    }
+
+    void register(BackoffDefaultMessageListeningContainer container)
+    {
+        members.addIfAbsent(container);
+    }
+
+    void unRegister(BackoffDefaultMessageListeningContainer container)
+    {
+        members.remove(container);
+    }
+
+    /**
+     * Get the number of containers in the group.
+     * @return the number of members.
+     */
+    public int getMemberCount()
+    {
+        return members.size();
+    }
+
+    /**
+     * Is the group currently paused.
+     * @return {@code true} if paused, otherwise {@code false}.
+     */
+    public boolean isPaused()
+    {
+        synchronized (pauseLock)
+        {
+            return paused;
+        }
+    }
+
+    /**
+     * Get the keep alive response for the group, calling the service only if the cached response has expired.  When the
+     * service is called a failure pauses every member and a success resumes every member if the group was paused.
+     * @return the response, which may be {@code null} if the service returned {@code null}.
+     */
+    KeepAliveResponse keepAlive()
+    {
+        long now = clock.currentTimeMillis();
+        CachedResponse cached = cachedResponse;
+        if (cached != null && now - cached.cachedAtMs < cacheTtlMs)
+        {
+            return cached.response;
+        }
+        SettableFuture<KeepAliveResponse> call;
+        boolean calling = false;
+        synchronized (inFlightLock)
+        {
+            if (inFlight == null)
+            {
+                inFlight = SettableFuture.create();
+                calling = true;
+            }
+            call = inFlight;
+        }
+        if (!calling)
+        {
+            return Futures.getUnchecked(call);
+        }
+        // a pause while the service is called makes its response stale
+        long pausesBefore = pauseCount.get();
+        KeepAliveResponse response;
+        try
+        {
+            response = keepAliveService.keepAlive();
+        }
+        catch (RuntimeException ex)
+        {
+            completeCall(call, null, ex);
+            throw ex;
+        }
+        boolean stale = pauseCount.get() != pausesBefore;
+        if (!stale)
+        {
+            cachedResponse = new CachedResponse(response, now);
+        }
+        completeCall(call, response, null);
+        if (response != null)
+        {
+            if (response.isSuccess())
+            {
+                if (!stale)
+                {
+                    resume();
+                }
+            }
+            else
+            {
+                logger.warn(String.format("Group [%s] keep alive failed, pausing [%d] containers", name, members.size()));
+                pause(response.getPauseConfig());
+            }
+        }
+        return response;
+    }
+
+    private void completeCall(SettableFuture<KeepAliveResponse> call, KeepAliveResponse response, RuntimeException failure)
+    {
+        synchronized (inFlightLock)
+        {
+            inFlight = null;
+        }
+        if (failure == null)
+        {
+            call.set(response);
+        }
+        else
+        {
+            call.setException(failure);
+        }
+    }
+
+    /**
+     * Pause every member of the group with the config.  Pausing again with the same config while the group is paused does
+     * nothing, so many consumers failing at once pause the group only once.  The cached keep alive response is discarded
+     * so the next keep alive calls the service.
+     * @param config the config to pause with.
+     */
+    void pause(PauseConfig config)
+    {
+        pause(config, false);
+    }
+
+    /**
+     * Pause every member of the group with a config published by another node of the fleet.  Unlike a pause caused in this
+     * JVM it can be ended by a {@link #resumeRemotely() remote resume}.
+     * @param config the config to pause with.
+     */
+    void pauseRemotely(PauseConfig config)
+    {
+        pause(config, true);
+    }
+
+    private void pause(PauseConfig config, boolean remote)
+    {
+        synchronized (pauseLock)
+        {
+            if (paused && Objects.equal(pausedWith, config))
+            {
+                return;
+            }
+            // a pause caused here is never turned into a remote one
+            pausedRemotely = remote && (!paused || pausedRemotely);
+            paused = true;
+            pausedWith = config;
+        }
+        pauseCount.incrementAndGet();
+        cachedResponse = null;
+        logger.warn(String.format("Group [%s] pausing [%d] containers with config: [%s]", name, members.size(), config));
+        for (BackoffDefaultMessageListeningContainer member : members)
+        {
+            member.stopDmlc(config);
+        }
+    }
+
+    private void resume()
+    {
+        synchronized (pauseLock)
+        {
+            if (!paused)
+            {
+                return;
+            }
+            paused = false;
+            pausedRemotely = false;
+            pausedWith = null;
+        }
+        logger.info(String.format("Group [%s] keep alive succeeded, resuming [%d] containers", name, members.size()));
+        resumeMembers();
+    }
+
+    /**
+     * Resume every member of the group for a resume published by another node of the fleet, only if the group was paused by
+     * another node.  A pause caused by a member's listener or keep alive lasts until the group's own keep alive succeeds.
+     * @return {@code true} if the group was resumed.
+     */
+    boolean resumeRemotely()
+    {
+        synchronized (pauseLock)
+        {
+            if (!paused || !pausedRemotely)
+            {
+                return false;
+            }
+            paused = false;
+            pausedRemotely = false;
+            pausedWith = null;
+        }
+        logger.info(String.format("Group [%s] resumed by fleet control, resuming [%d] containers", name, members.size()));
+        resumeMembers();
+        return true;
+    }
+
+    private void resumeMembers()
+    {
+        for (BackoffDefaultMessageListeningContainer member : members)
+        {
+            member.resumeFromGroup();
+        }
+    }
+
+    /**
+     * A response and when it was asked for, replaced as a whole so it is read without a lock.
+     */
+    private static class CachedResponse
+    {
+        private final KeepAliveResponse response;
+        private final long cachedAtMs;
+
+        CachedResponse(KeepAliveResponse response, long cachedAtMs)
+        {
+            this.response = response;
+            this.cachedAtMs = cachedAtMs;
+        }
+    }
+
+    @Override
+    public String toString()
+    {
+        return Objects.toStringHelper(this).add("name", name).add("members", members.size()).add("paused", isPaused())
+            .toString();
+    }
+}
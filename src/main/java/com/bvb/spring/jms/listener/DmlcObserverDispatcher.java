@@ -0,0 +1,287 @@
+package com.bvb.spring.jms.listener;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+
+import com.bvb.spring.jms.listener.config.PauseConfig;
+import com.google.common.base.Preconditions;
+
+/**
+ * Delivers the status changes of a {@link BackoffDefaultMessageListeningContainer} to its {@link DmlcStartObserver}s on a
+ * small pool of threads, so that a slow observer never holds up the thread that paused or restarted the container.  Each
+ * observer has its own bounded queue of pending events which is drained by one thread at a time, so every observer receives
+ * its events in the order they happened.  When an observer falls behind the {@link ObserverOverflowPolicy} decides which
+ * events are dropped.
+ */
+public class DmlcObserverDispatcher
+{
+    public static final int DEFAULT_QUEUE_CAPACITY = 16;
+    public static final int DEFAULT_THREAD_COUNT = 2;
+    
+    protected final Log logger = LogFactory.getLog(getClass());
+    
+    private final CopyOnWriteArrayList<ObserverMailbox> mailboxes = new CopyOnWriteArrayList<ObserverMailbox>();
+    private final Object executorLock = new Object();
+    private ThreadPoolTaskExecutor executor;
+    private String threadNamePrefix = "DmlcObserver-";
+    private volatile int queueCapacity = DEFAULT_QUEUE_CAPACITY;
+    private volatile ObserverOverflowPolicy overflowPolicy = ObserverOverflowPolicy.COALESCE;
+    private int threadCount = DEFAULT_THREAD_COUNT;
+    
+    /**
+     * Add an observer.
+     * @param observer the observer to add.
+     * @throws NullPointerException if the observer is null.
+     */
+    public void register(DmlcStartObserver observer)
+    {
+        Preconditions.checkNotNull(observer);
+        mailboxes.add(new ObserverMailbox(observer));
+    }
+    
+    /**
+     * Remove an observer, any events still pending for it are not delivered.
+     * @param observer the observer to remove.
+     */
+    public void unRegister(DmlcStartObserver observer)
+    {
+        for (ObserverMailbox mailbox : mailboxes)
+        {
+            if (mailbox.observer.equals(observer))
+            {
+                mailboxes.remove(mailbox);
+                return;
+            }
+        }
+    }
+    
+    /**
+     * Notify the observers that the container is running.
+     */
+    public void running()
+    {
+        dispatch(new StatusEvent(true, null));
+    }
+    
+    /**
+     * Notify the observers that the container has stopped.
+     * @param config the config it stopped with, or {@code null} if there is none.
+     */
+    public void stopped(PauseConfig config)
+    {
+        dispatch(new StatusEvent(false, config));
+    }
+    
+    private void dispatch(StatusEvent event)
+    {
+        if (mailboxes.isEmpty())
+        {
+            return;
+        }
+        ThreadPoolTaskExecutor executorToUse = getOrBuildExecutor();
+        for (ObserverMailbox mailbox : mailboxes)
+        {
+            if (mailbox.offer(event))
+            {
+                schedule(executorToUse, mailbox);
+            }
+        }
+    }
+    
+    private void schedule(ThreadPoolTaskExecutor executorToUse, ObserverMailbox mailbox)
+    {
+        try
+        {
+            executorToUse.execute(mailbox);
+        }
+        catch (TaskRejectedException ex)
+        {
+            // shut down while dispatching, the event is left pending for the next dispatch
+            logger.debug("Observer dispatcher shut down while dispatching", ex);
+            mailbox.unschedule();
+        }
+    }
+    
+    private ThreadPoolTaskExecutor getOrBuildExecutor()
+    {
+        synchronized (executorLock)
+        {
+            if (executor == null)
+            {
+                executor = new ThreadPoolTaskExecutor();
+                executor.setThreadNamePrefix(threadNamePrefix);
+                executor.setCorePoolSize(threadCount);
+                executor.setMaxPoolSize(threadCount);
+                executor.setDaemon(true);
+                executor.setWaitForTasksToCompleteOnShutdown(true);
+                executor.initialize();
+            }
+            return executor;
+        }
+    }
+    
+    /**
+     * Shut down the threads once the events already dispatched have been delivered.  The threads are built again if any
+     * further events are dispatched.
+     */
+    public void shutdown()
+    {
+        synchronized (executorLock)
+        {
+            if (executor != null)
+            {
+                executor.shutdown();
+                executor = null;
+            }
+        }
+    }
+    
+    /**
+     * Set the prefix of the names of the delivery threads.
+     * @param threadNamePrefix the prefix.
+     */
+    public void setThreadNamePrefix(String threadNamePrefix)
+    {
+        this.threadNamePrefix = threadNamePrefix;
+    }
+    
+    /**
+     * Set the max number of events pending for a single observer.
+     * @param queueCapacity the capacity, at least 1.  Defaults to {@link #DEFAULT_QUEUE_CAPACITY}.
+     * @throws IllegalArgumentException if the capacity is less than 1.
+     */
+    public void setQueueCapacity(int queueCapacity)
+    {
+        Preconditions.checkArgument(queueCapacity > 0, "queueCapacity must be at least 1");
+        this.queueCapacity = queueCapacity;
+    }
+    
+    /**
+     * Set what happens when the queue of an observer is full.
+     * @param overflowPolicy the policy.  Defaults to {@link ObserverOverflowPolicy#COALESCE}.
+     * @throws NullPointerException if the policy is null.
+     */
+    public void setOverflowPolicy(ObserverOverflowPolicy overflowPolicy)
+    {
+        this.overflowPolicy = Preconditions.checkNotNull(overflowPolicy);
+    }
+    
+    /**
+     * Set the number of threads delivering events, this only takes effect when the threads are next built.
+     * @param threadCount the number of threads, at least 1.  Defaults to {@link #DEFAULT_THREAD_COUNT}.
+     * @throws IllegalArgumentException if the count is less than 1.
+     */
+    public void setThreadCount(int threadCount)
+    {
+        Preconditions.checkArgument(threadCount > 0, "threadCount must be at least 1");
+        this.threadCount = threadCount;
+    }
+    
+    private static final class StatusEvent
+    {
+        private final boolean running;
+        private final PauseConfig config;
+        
+        StatusEvent(boolean running, PauseConfig config)
+        {
+            this.running = running;
+            this.config = config;
+        }
+    }
+    
+    /*
+     * Holds the pending events of an observer, scheduled on the executor at most once at a time.
+     */
+    private class ObserverMailbox implements Runnable
+    {
+        private final DmlcStartObserver observer;
+        private final Deque<StatusEvent> pending = new ArrayDeque<StatusEvent>();
+        private boolean scheduled = false;
+        
+        ObserverMailbox(DmlcStartObserver observer)
+        {
+            this.observer = observer;
+        }
+        
+        /*
+         * Returns true if the mailbox needs to be scheduled to deliver the event.
+         */
+        synchronized boolean offer(StatusEvent event)
+        {
+            if (pending.size() >= queueCapacity)
+            {
+                logger.warn(String.format("Observer: [%s] has fallen behind, applying overflow policy: [%s]", observer,
+                    overflowPolicy));
+                if (overflowPolicy == ObserverOverflowPolicy.COALESCE)
+                {
+                    pending.clear();
+                }
+                else
+                {
+                    pending.poll();
+                }
+            }
+            pending.add(event);
+            if (scheduled)
+            {
+                return false;
+            }
+            scheduled = true;
+            return true;
+        }
+        
+        synchronized void unschedule()
+        {
+            scheduled = false;
+        }
+        
+        private synchronized StatusEvent next()
+        {
+            StatusEvent event = pending.poll();
+            if (event == null)
+            {
+                scheduled = false;
+            }
+            return event;
+        }
+        
+        @Override
+        public void run()
+        {
+            StatusEvent event;
+            while ((event = next()) != null)
+            {
+                deliver(event);
+            }
+        }
+        
+        private void deliver(StatusEvent event)
+        {
+            try
+            {
+                if (event.running)
+                {
+                    observer.running();
+                }
+                else if (event.config == null)
+                {
+                    observer.stopped();
+                }
+                else
+                {
+                    observer.stopped(event.config);
+                }
+            }
+            catch (RuntimeException ex)
+            {
+                logger.warn(String.format("Observer: [%s] threw an exception, ignoring", observer), ex);
+            }
+        }
+    }
+}
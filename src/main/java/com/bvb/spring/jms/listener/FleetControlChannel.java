@@ -0,0 +1,291 @@
+package com.bvb.spring.jms.listener;
+
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import javax.jms.ConnectionFactory;
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.MessageListener;
+import javax.jms.Session;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.jms.core.JmsTemplate;
+import org.springframework.jms.core.MessageCreator;
+import org.springframework.jms.listener.DefaultMessageListenerContainer;
+
+import com.bvb.spring.jms.listener.config.PauseConfig;
+import com.bvb.spring.jms.listener.config.PauseConfigBuilder;
+import com.google.common.base.Objects;
+import com.google.common.base.Preconditions;
+
+/**
+ * A control channel over a JMS topic that the {@link BackoffDefaultMessageListeningContainer}s of a fleet of nodes share, so
+ * a failure seen by one node pauses the same container on every node rather than each finding the failure for itself.  A
+ * container that pauses because its listener threw a {@link com.bvb.spring.jms.listener.exception.PauseConsumptionException}
+ * or its circuit breaker opened publishes a pause with its {@link PauseConfig}, and a resume once it next resumes.  Every
+ * other node applies the commands to its own container of the same bean name, a command is never published again by the
+ * node that applies it.  Pauses, throttles and resumes can also be published by hand, for example by an operator.
+ * <p>
+ * The commands are non-persistent messages with the config held in message properties, a node that is down when one is
+ * published does not see it and relies on its own keep alive.  The topic is subscribed to while at least one container is
+ * registered, a container registers when it starts and leaves when it is stopped.  One channel is used by every container
+ * on a node.
+ */
+public class FleetControlChannel implements MessageListener
+{
+    /**
+     * The commands published on the channel.
+     */
+    public enum Command
+    {
+        /** Pause consumption with the config, throttling as well if it is throttled. */
+        PAUSE,
+        /** Throttle consumption with the config, without pausing. */
+        THROTTLE,
+        /** Resume consumption. */
+        RESUME
+    }
+    
+    public static final String NODE_PROPERTY = "fleetNode";
+    public static final String MEMBER_PROPERTY = "fleetMember";
+    public static final String COMMAND_PROPERTY = "fleetCommand";
+    public static final String DELAY_PROPERTY = "delayConsumptionForMs";
+    public static final String THROTTLE_FOR_PROPERTY = "throttleDeliveryForMs";
+    public static final String RELAX_EVERY_PROPERTY = "throttleRelaxEveryMs";
+    public static final String MAX_CONCURRENT_PROPERTY = "throttleMaxConcurrent";
+    public static final String MAX_RATE_PROPERTY = "throttleMaxRatePerSecond";
+    
+    protected final Log logger = LogFactory.getLog(getClass());
+    
+    private final String topicName;
+    private final String nodeId;
+    private final JmsTemplate jmsTemplate;
+    private final DefaultMessageListenerContainer subscriber;
+    private final CopyOnWriteArrayList<BackoffDefaultMessageListeningContainer> members =
+        new CopyOnWriteArrayList<BackoffDefaultMessageListeningContainer>();
+    private final Object subscriberLock = new Object();
+    private boolean subscriberInitialized = false;
+    
+    /**
+     * Create the channel for this node, with a random node id.
+     * @param connectionFactory the connection factory of the broker the topic is on.
+     * @param topicName the name of the control topic, the same on every node of the fleet.
+     */
+    public FleetControlChannel(ConnectionFactory connectionFactory, String topicName)
+    {
+        this(connectionFactory, topicName, UUID.randomUUID().toString());
+    }
+    
+    /**
+     * Create the channel for this node.
+     * @param connectionFactory the connection factory of the broker the topic is on.
+     * @param topicName the name of the control topic, the same on every node of the fleet.
+     * @param nodeId the id of this node, unique in the fleet, the node ignores the commands it published itself.
+     */
+    public FleetControlChannel(ConnectionFactory connectionFactory, String topicName, String nodeId)
+    {
+        Preconditions.checkNotNull(connectionFactory);
+        this.topicName = Preconditions.checkNotNull(topicName);
+        this.nodeId = Preconditions.checkNotNull(nodeId);
+        this.jmsTemplate = new JmsTemplate(connectionFactory);
+        jmsTemplate.setPubSubDomain(true);
+        jmsTemplate.setDefaultDestinationName(topicName);
+        jmsTemplate.setExplicitQosEnabled(true);
+        jmsTemplate.setDeliveryPersistent(false);
+        this.subscriber = new DefaultMessageListenerContainer();
+        subscriber.setConnectionFactory(connectionFactory);
+        subscriber.setPubSubDomain(true);
+        subscriber.setDestinationName(topicName);
+        // keep the consumer open so no command is missed between receives
+        subscriber.setCacheLevel(DefaultMessageListenerContainer.CACHE_CONSUMER);
+        subscriber.setMessageListener(this);
+        subscriber.setBeanName("FleetControl-" + topicName);
+    }
+    
+    public String getTopicName()
+    {
+        return topicName;
+    }
+    
+    public String getNodeId()
+    {
+        return nodeId;
+    }
+    
+    /**
+     * Get the number of containers registered on this node.
+     * @return the number of members.
+     */
+    public int getMemberCount()
+    {
+        return members.size();
+    }
+    
+    void register(BackoffDefaultMessageListeningContainer container)
+    {
+        members.addIfAbsent(container);
+        synchronized (subscriberLock)
+        {
+            if (!subscriberInitialized)
+            {
+                subscriber.afterPropertiesSet();
+                subscriberInitialized = true;
+            }
+            if (!subscriber.isRunning())
+            {
+                subscriber.start();
+            }
+        }
+    }
+    
+    void unRegister(BackoffDefaultMessageListeningContainer container)
+    {
+        members.remove(container);
+        synchronized (subscriberLock)
+        {
+            if (members.isEmpty() && subscriber.isRunning())
+            {
+                subscriber.stop();
+            }
+        }
+    }
+    
+    /**
+     * Is the channel subscribed to the topic, with its consumer open.
+     * @return {@code true} if subscribed.
+     */
+    public boolean isSubscribed()
+    {
+        return subscriber.isRunning() && subscriber.isRegisteredWithDestination();
+    }
+    
+    /**
+     * Publish a command to the containers of the bean name on every other node.
+     * @param memberName the bean name of the containers.
+     * @param command the command.
+     * @param config the config to pause or throttle with, may be {@code null} to resume.
+     * @throws org.springframework.jms.JmsException if the command cannot be sent.
+     */
+    public void publish(final String memberName, final Command command, final PauseConfig config)
+    {
+        Preconditions.checkNotNull(memberName);
+        Preconditions.checkNotNull(command);
+        Preconditions.checkArgument(config != null || command == Command.RESUME, "A config is needed to pause or throttle");
+        jmsTemplate.send(new MessageCreator()
+        {
+            @Override
+            public Message createMessage(Session session) throws JMSException
+            {
+                Message message = session.createMessage();
+                message.setStringProperty(NODE_PROPERTY, nodeId);
+                message.setStringProperty(MEMBER_PROPERTY, memberName);
+                message.setStringProperty(COMMAND_PROPERTY, command.name());
+                if (config != null)
+                {
+                    writeConfig(message, config);
+                }
+                return message;
+            }
+        });
+        logger.info(String.format("Published fleet command: [%s] for: [%s] with config: [%s]", command, memberName, config));
+    }
+    
+    private static void writeConfig(Message message, PauseConfig config) throws JMSException
+    {
+        if (config.getDelayConsumptionForMs() != null)
+        {
+            message.setLongProperty(DELAY_PROPERTY, config.getDelayConsumptionForMs());
+        }
+        if (config.isThrottled())
+        {
+            message.setLongProperty(THROTTLE_FOR_PROPERTY, config.getThrottleDeliveryForPeriodMs());
+            message.setLongProperty(RELAX_EVERY_PROPERTY, config.getThrottleRelaxIntervalMs());
+        }
+        if (config.isConcurrencyThrottled())
+        {
+            message.setIntProperty(MAX_CONCURRENT_PROPERTY, config.getThrottleMaxConcurrent());
+        }
+        if (config.isRateThrottled())
+        {
+            message.setDoubleProperty(MAX_RATE_PROPERTY, config.getThrottleMaxRatePerSecond());
+        }
+    }
+    
+    /*
+     * The ramp strategy is not carried, a throttle applied from the channel relaxes linearly.
+     */
+    static PauseConfig readConfig(Message message) throws JMSException
+    {
+        PauseConfigBuilder builder = PauseConfigBuilder.newBuilder();
+        if (message.propertyExists(DELAY_PROPERTY))
+        {
+            builder.withDelayConsumptionForXMs(message.getLongProperty(DELAY_PROPERTY));
+        }
+        if (message.propertyExists(THROTTLE_FOR_PROPERTY))
+        {
+            builder.withThrottleDeliveryForXMs(message.getLongProperty(THROTTLE_FOR_PROPERTY));
+            builder.withThrottleRelaxEveryXMs(message.getLongProperty(RELAX_EVERY_PROPERTY));
+        }
+        if (message.propertyExists(MAX_CONCURRENT_PROPERTY))
+        {
+            builder.withThrottleMaxConcurrency(message.getIntProperty(MAX_CONCURRENT_PROPERTY));
+        }
+        if (message.propertyExists(MAX_RATE_PROPERTY))
+        {
+            builder.withThrottleMaxRatePerSecond(message.getDoubleProperty(MAX_RATE_PROPERTY));
+        }
+        return builder.build();
+    }
+    
+    @Override
+    public void onMessage(Message message)
+    {
+        Command command;
+        String memberName;
+        PauseConfig config;
+        try
+        {
+            if (nodeId.equals(message.getStringProperty(NODE_PROPERTY)))
+            {
+                return;
+            }
+            command = Command.valueOf(message.getStringProperty(COMMAND_PROPERTY));
+            memberName = message.getStringProperty(MEMBER_PROPERTY);
+            config = (command == Command.RESUME) ? null : readConfig(message);
+        }
+        catch (JMSException | RuntimeException ex)
+        {
+            logger.warn("Ignoring fleet command that could not be read", ex);
+            return;
+        }
+        for (BackoffDefaultMessageListeningContainer member : members)
+        {
+            if (Objects.equal(memberName, member.getFleetMemberName()))
+            {
+                logger.info(String.format("Applying fleet command: [%s] to: [%s] with config: [%s]", command, memberName,
+                    config));
+                member.applyFleetCommand(command, config);
+            }
+        }
+    }
+    
+    /**
+     * Close the subscription to the topic, for when the node shuts down.
+     */
+    public void shutdown()
+    {
+        synchronized (subscriberLock)
+        {
+            subscriber.shutdown();
+        }
+    }
+    
+    @Override
+    public String toString()
+    {
+        return Objects.toStringHelper(this).add("topicName", topicName).add("nodeId", nodeId).add("members", members.size())
+            .toString();
+    }
+}
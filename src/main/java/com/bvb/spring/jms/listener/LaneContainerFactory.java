@@ -0,0 +1,17 @@
+package com.bvb.spring.jms.listener;
+
+/**
+ * Creates the container for each lane of a {@link LanePartitionedContainer}.  The containers are configured as they would be
+ * on their own, with the connection factory, destination, listener and the keep alive service for the lane, but without a
+ * message selector or a bean name as the partitioned container sets both.  The containers must not be initialised or started.
+ */
+public interface LaneContainerFactory
+{
+    /**
+     * Create the container for a lane.
+     * @param laneKey the value of the lane property the lane consumes, or {@code null} for the default lane which consumes
+     * the messages of every key without a lane of its own.
+     * @return the container, not initialised.
+     */
+    BackoffDefaultMessageListeningContainer createContainer(String laneKey);
+}
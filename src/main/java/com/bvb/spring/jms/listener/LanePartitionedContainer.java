@@ -0,0 +1,406 @@
+package com.bvb.spring.jms.listener;
+
+import java.util.Collections;
+import java.util.Date;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.core.task.SimpleAsyncTaskExecutor;
+import org.springframework.core.task.TaskExecutor;
+import org.springframework.scheduling.TaskScheduler;
+import org.springframework.util.Assert;
+
+import com.bvb.spring.jms.listener.config.PauseConfig;
+import com.bvb.spring.jms.listener.scheduling.HashedWheelTaskScheduler;
+import com.google.common.base.Objects;
+import com.google.common.base.Preconditions;
+
+/**
+ * Partitions the consumption of one destination into lanes keyed by a string message property, such as the partner a
+ * message is for, so that one failing partner pauses only its own lane rather than every consumer of the destination.
+ * <p>
+ * Each lane is a {@link BackoffDefaultMessageListeningContainer} created by the {@link LaneContainerFactory} with a message
+ * selector on its key, so it has its own consumers, keep alive, pausing and throttling.  A default lane consumes the messages
+ * of every key without a lane of its own.  A listener pauses a lane by throwing a
+ * {@link com.bvb.spring.jms.listener.exception.PauseConsumptionException} carrying the lane key, or without a key to pause
+ * the lane it is running in.
+ * <p>
+ * When a key without a lane is paused a lane is created for it, initially stopped with the pause config, and the default
+ * lane is replaced by one whose selector leaves the key out.  The replacement happens on the task scheduler as a container
+ * cannot be shut down from its own consumers, until then the messages of the key are still consumed by the default lane.  The
+ * replaced default lane is stopped and shut down on the {@link #setLaneShutdownExecutor(TaskExecutor) lane shutdown executor}
+ * as waiting for its consumers to finish would hold a scheduler thread and block the lanes being paused or started.
+ * Once there are {@link #setMaxLanes(int) max lanes} or {@link #setDynamicLanes(boolean) dynamic lanes} are off, pausing a key
+ * without a lane pauses the default lane instead.
+ */
+public class LanePartitionedContainer implements SmartLifecycle, InitializingBean, DisposableBean
+{
+    public static final int DEFAULT_MAX_LANES = 32;
+    
+    private static final Pattern IDENTIFIER = Pattern.compile("[A-Za-z_$][A-Za-z0-9_$]*");
+    
+    protected final Log logger = LogFactory.getLog(getClass());
+    
+    private final String name;
+    private final String laneProperty;
+    private final LaneContainerFactory containerFactory;
+    private final Map<String, BackoffDefaultMessageListeningContainer> lanes =
+        new ConcurrentHashMap<String, BackoffDefaultMessageListeningContainer>();
+    private final Set<String> pendingLanes = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    private final Object lifecycleLock = new Object();
+    private Set<String> laneKeys = Collections.emptySet();
+    private boolean dynamicLanes = true;
+    private int maxLanes = DEFAULT_MAX_LANES;
+    private TaskScheduler taskScheduler;
+    private TaskExecutor laneShutdownExecutor;
+    private volatile BackoffDefaultMessageListeningContainer defaultLane;
+    private boolean running = false;
+    
+    /**
+     * Create the partitioned container.
+     * @param name the name, used in logging and as the prefix of the bean names of the lanes.
+     * @param laneProperty the string message property the lanes are keyed by.
+     * @param containerFactory creates the container for each lane.
+     */
+    public LanePartitionedContainer(String name, String laneProperty, LaneContainerFactory containerFactory)
+    {
+        this.name = Preconditions.checkNotNull(name);
+        Assert.isTrue(laneProperty != null && IDENTIFIER.matcher(laneProperty).matches(),
+            "laneProperty must be a valid message property name");
+        this.laneProperty = laneProperty;
+        this.containerFactory = Preconditions.checkNotNull(containerFactory);
+    }
+    
+    /**
+     * Set the keys that have a lane from the start.
+     * @param laneKeys the keys.  Defaults to none, every key is consumed by the default lane until paused.
+     */
+    public void setLaneKeys(Set<String> laneKeys)
+    {
+        this.laneKeys = new LinkedHashSet<String>(Preconditions.checkNotNull(laneKeys));
+    }
+    
+    /**
+     * Set whether a lane is created for a key without one when it is paused.
+     * @param dynamicLanes {@code true} to create lanes.  Defaults to {@code true}.
+     */
+    public void setDynamicLanes(boolean dynamicLanes)
+    {
+        this.dynamicLanes = dynamicLanes;
+    }
+    
+    /**
+     * Set the max number of lanes, not counting the default lane.  Each lane is a container with its own consumers and adds a
+     * term to the selector of the default lane.
+     * @param maxLanes the max, at least 1.  Defaults to {@value #DEFAULT_MAX_LANES}.
+     */
+    public void setMaxLanes(int maxLanes)
+    {
+        Assert.isTrue(maxLanes > 0, "maxLanes must be at least 1");
+        this.maxLanes = maxLanes;
+    }
+    
+    /**
+     * Set the scheduler the default lane is replaced on.
+     * @param taskScheduler the scheduler.  Defaults to the {@link HashedWheelTaskScheduler#getSharedInstance() shared}
+     * timer wheel.
+     */
+    public void setTaskScheduler(TaskScheduler taskScheduler)
+    {
+        this.taskScheduler = taskScheduler;
+    }
+    
+    /**
+     * Set the executor a replaced default lane is stopped and shut down on.
+     * @param laneShutdownExecutor the executor.  Defaults to a {@link SimpleAsyncTaskExecutor} with daemon threads.
+     */
+    public void setLaneShutdownExecutor(TaskExecutor laneShutdownExecutor)
+    {
+        this.laneShutdownExecutor = laneShutdownExecutor;
+    }
+    
+    @Override
+    public void afterPropertiesSet()
+    {
+        synchronized (lifecycleLock)
+        {
+            Assert.isTrue(laneKeys.size() <= maxLanes, "There are more lane keys than maxLanes");
+            if (taskScheduler == null)
+            {
+                taskScheduler = HashedWheelTaskScheduler.getSharedInstance();
+            }
+            if (laneShutdownExecutor == null)
+            {
+                SimpleAsyncTaskExecutor executor = new SimpleAsyncTaskExecutor(name + "-LaneShutdown-");
+                executor.setDaemon(true);
+                laneShutdownExecutor = executor;
+            }
+            for (String key : laneKeys)
+            {
+                lanes.put(key, createLane(key, false));
+            }
+            defaultLane = createLane(null, false);
+        }
+    }
+    
+    private BackoffDefaultMessageListeningContainer createLane(String key, boolean initiallyStopped)
+    {
+        BackoffDefaultMessageListeningContainer lane = containerFactory.createContainer(key);
+        Assert.notNull(lane, "The container factory returned null");
+        lane.setBeanName(name + "-" + ((key == null) ? "default" : key));
+        lane.setMessageSelector((key == null) ? buildDefaultSelector(laneProperty, lanes.keySet()) 
+            : buildLaneSelector(laneProperty, key));
+        if (initiallyStopped)
+        {
+            lane.setInitiallyStopped(true);
+        }
+        lane.joinLane(this, key);
+        lane.afterPropertiesSet();
+        return lane;
+    }
+    
+    static String buildLaneSelector(String property, String key)
+    {
+        return String.format("%s = %s", property, quote(key));
+    }
+    
+    static String buildDefaultSelector(String property, Set<String> keys)
+    {
+        if (keys.isEmpty())
+        {
+            return null;
+        }
+        StringBuilder builder = new StringBuilder(property).append(" IS NULL OR ").append(property).append(" NOT IN (");
+        boolean first = true;
+        for (String key : keys)
+        {
+            if (!first)
+            {
+                builder.append(", ");
+            }
+            builder.append(quote(key));
+            first = false;
+        }
+        return builder.append(')').toString();
+    }
+    
+    private static String quote(String key)
+    {
+        return "'" + key.replace("'", "''") + "'";
+    }
+    
+    /**
+     * Pause the lane for a key, called by a lane when its listener throws with a lane key.
+     * @param key the lane key.
+     * @param config the config to pause with.
+     */
+    void pauseLane(String key, PauseConfig config)
+    {
+        BackoffDefaultMessageListeningContainer lane = lanes.get(key);
+        if (lane != null)
+        {
+            logger.warn(String.format("[%s] pausing lane: [%s] with config: [%s]", name, key, config));
+            lane.pauseLane(config);
+        }
+        else if (!dynamicLanes || lanes.size() + pendingLanes.size() >= maxLanes)
+        {
+            logger.warn(String.format("[%s] no lane for key: [%s], pausing the default lane with config: [%s]", name, key,
+                config));
+            defaultLane.pauseLane(config);
+        }
+        else if (pendingLanes.add(key))
+        {
+            taskScheduler.schedule(new AddLaneTask(key, config), new Date());
+        }
+    }
+    
+    /**
+     * Create the lane for a key and replace the default lane with one that leaves the key out.
+     */
+    private class AddLaneTask implements Runnable
+    {
+        private final String key;
+        private final PauseConfig config;
+        
+        AddLaneTask(String key, PauseConfig config)
+        {
+            this.key = key;
+            this.config = config;
+        }
+        
+        @Override
+        public void run()
+        {
+            BackoffDefaultMessageListeningContainer replaced;
+            try
+            {
+                synchronized (lifecycleLock)
+                {
+                    if (!running || lanes.containsKey(key))
+                    {
+                        return;
+                    }
+                    logger.warn(String.format("[%s] creating paused lane: [%s] with config: [%s]", name, key, config));
+                    BackoffDefaultMessageListeningContainer lane = createLane(key, true);
+                    lanes.put(key, lane);
+                    lane.start();
+                    lane.pauseLane(config);
+                    replaced = replaceDefaultLane();
+                }
+            }
+            finally
+            {
+                pendingLanes.remove(key);
+            }
+            laneShutdownExecutor.execute(new ShutdownLaneTask(replaced));
+        }
+    }
+    
+    /*
+     * The new default lane is started before the old one is shut down so the other keys are consumed throughout, the old
+     * lane is returned to be shut down once the lock is released.
+     */
+    private BackoffDefaultMessageListeningContainer replaceDefaultLane()
+    {
+        BackoffDefaultMessageListeningContainer old = defaultLane;
+        defaultLane = createLane(null, false);
+        defaultLane.start();
+        return old;
+    }
+    
+    /**
+     * Stop and shut down a replaced default lane, waiting for its consumers to finish.
+     */
+    private class ShutdownLaneTask implements Runnable
+    {
+        private final BackoffDefaultMessageListeningContainer lane;
+        
+        ShutdownLaneTask(BackoffDefaultMessageListeningContainer lane)
+        {
+            this.lane = lane;
+        }
+        
+        @Override
+        public void run()
+        {
+            logger.info(String.format("[%s] shutting down the replaced default lane", name));
+            lane.stop();
+            lane.shutdown();
+        }
+    }
+    
+    @Override
+    public void start()
+    {
+        synchronized (lifecycleLock)
+        {
+            defaultLane.start();
+            for (BackoffDefaultMessageListeningContainer lane : lanes.values())
+            {
+                lane.start();
+            }
+            running = true;
+        }
+    }
+    
+    @Override
+    public void stop()
+    {
+        synchronized (lifecycleLock)
+        {
+            running = false;
+            defaultLane.stop();
+            for (BackoffDefaultMessageListeningContainer lane : lanes.values())
+            {
+                lane.stop();
+            }
+        }
+    }
+    
+    @Override
+    public void stop(Runnable callback)
+    {
+        stop();
+        callback.run();
+    }
+    
+    @Override
+    public boolean isRunning()
+    {
+        synchronized (lifecycleLock)
+        {
+            return running;
+        }
+    }
+    
+    @Override
+    public boolean isAutoStartup()
+    {
+        return true;
+    }
+    
+    @Override
+    public int getPhase()
+    {
+        return Integer.MAX_VALUE;
+    }
+    
+    /**
+     * Shut down every lane.
+     */
+    @Override
+    public void destroy()
+    {
+        synchronized (lifecycleLock)
+        {
+            running = false;
+            if (defaultLane != null)
+            {
+                defaultLane.shutdown();
+            }
+            for (BackoffDefaultMessageListeningContainer lane : lanes.values())
+            {
+                lane.shutdown();
+            }
+        }
+    }
+    
+    /**
+     * Get the keys that currently have a lane of their own.
+     * @return the keys.
+     */
+    public Set<String> getLaneKeys()
+    {
+        return Collections.unmodifiableSet(lanes.keySet());
+    }
+    
+    /**
+     * Get the container of a lane.
+     * @param key the lane key.
+     * @return the container, or {@code null} if the key has no lane of its own.
+     */
+    public BackoffDefaultMessageListeningContainer getLane(String key)
+    {
+        return lanes.get(key);
+    }
+    
+    public BackoffDefaultMessageListeningContainer getDefaultLane()
+    {
+        return defaultLane;
+    }
+    
+    @Override
+    public String toString()
+    {
+        return Objects.toStringHelper(this).add("name", name).add("laneProperty", laneProperty).add("lanes", lanes.keySet())
+            .toString();
+    }
+}
@@ -0,0 +1,16 @@
+package com.bvb.spring.jms.listener;
+
+/**
+ * What the {@link DmlcObserverDispatcher} does when an observer has fallen behind and its queue of pending events is full.
+ */
+public enum ObserverOverflowPolicy
+{
+    /**
+     * Drop the oldest pending event to make room for the new event.
+     */
+    DROP_OLDEST,
+    /**
+     * Drop all the pending events, so that the observer only receives the latest status.
+     */
+    COALESCE
+}
@@ -0,0 +1,98 @@
+package com.bvb.spring.jms.listener;
+
+import javax.jms.Destination;
+import javax.jms.IllegalStateException;
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.MessageConsumer;
+import javax.jms.MessageListener;
+import javax.jms.Session;
+
+import org.springframework.jms.support.JmsUtils;
+
+import com.bvb.spring.jms.listener.throttler.PriorityThrottle;
+import com.google.common.base.Objects;
+
+/**
+ * A consumer of a throttled container that consumes with the selector of the {@link PriorityThrottle} in force.  Before
+ * each receive the selector is checked and when the stage of the throttle has changed the consumer is closed and another
+ * created on the same session, so a cached consumer follows the throttle without the invoker noticing.  Consumers are only
+ * re-created when the throttle is engaged and at each stage as it relaxes, never for each message.
+ */
+class PrioritySelectingConsumer implements MessageConsumer
+{
+    private final Session session;
+    private final Destination destination;
+    private final String selector;
+    private final PriorityThrottle priorityThrottle;
+    private MessageConsumer consumer;
+    private String consumerSelector;
+    
+    PrioritySelectingConsumer(Session session, Destination destination, String selector, PriorityThrottle priorityThrottle)
+        throws JMSException
+    {
+        this.session = session;
+        this.destination = destination;
+        this.selector = selector;
+        this.priorityThrottle = priorityThrottle;
+        currentConsumer();
+    }
+    
+    private MessageConsumer currentConsumer() throws JMSException
+    {
+        String wanted = priorityThrottle.applyTo(selector);
+        if (consumer == null || !Objects.equal(wanted, consumerSelector))
+        {
+            JmsUtils.closeMessageConsumer(consumer);
+            consumer = session.createConsumer(destination, wanted);
+            consumerSelector = wanted;
+        }
+        return consumer;
+    }
+    
+    @Override
+    public String getMessageSelector() throws JMSException
+    {
+        return consumerSelector;
+    }
+    
+    @Override
+    public MessageListener getMessageListener() throws JMSException
+    {
+        return null;
+    }
+    
+    @Override
+    public void setMessageListener(MessageListener listener) throws JMSException
+    {
+        throw new IllegalStateException("The container receives from its consumers, they have no listener");
+    }
+    
+    @Override
+    public Message receive() throws JMSException
+    {
+        return currentConsumer().receive();
+    }
+    
+    @Override
+    public Message receive(long timeout) throws JMSException
+    {
+        return currentConsumer().receive(timeout);
+    }
+    
+    @Override
+    public Message receiveNoWait() throws JMSException
+    {
+        return currentConsumer().receiveNoWait();
+    }
+    
+    @Override
+    public void close() throws JMSException
+    {
+        if (consumer != null)
+        {
+            consumer.close();
+            consumer = null;
+        }
+    }
+}
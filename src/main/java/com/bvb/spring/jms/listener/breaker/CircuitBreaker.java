@@ -0,0 +1,316 @@
+package com.bvb.spring.jms.listener.breaker;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.springframework.util.Assert;
+
+import com.bvb.spring.jms.listener.config.PauseConfig;
+import com.bvb.spring.jms.listener.config.PauseConfigBuilder;
+import com.bvb.spring.jms.listener.utils.Clock;
+import com.google.common.base.Preconditions;
+
+/**
+ * A circuit breaker over the listener invocations of a container, so that consumption is paused when a dependency of the
+ * listener is failing even though the listener does not throw a
+ * {@link com.bvb.spring.jms.listener.exception.PauseConsumptionException}.
+ * <p>
+ * The outcomes are counted in a sliding window of time made of a ring of buckets.  Once the window holds at least the
+ * minimum number of calls and either the failure rate or the slow call rate reaches its threshold the breaker opens, and the
+ * container is paused with the {@link #setPauseConfig(PauseConfig) pause config}.  When the container is next started by its
+ * keep alive the breaker half opens and lets a number of calls through, if too many of those fail it opens again otherwise it
+ * closes with an empty window.
+ * <p>
+ * Recording is lock free.  A bucket is reset by the first call to land in it once its time has passed, calls recorded
+ * between that thread claiming the bucket and zeroing it are lost, so the counts are approximate at bucket boundaries.
+ */
+public class CircuitBreaker
+{
+    public enum State
+    {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    public static final long DEFAULT_WINDOW_MS = TimeUnit.SECONDS.toMillis(10);
+    public static final int DEFAULT_BUCKET_COUNT = 10;
+    public static final int DEFAULT_MINIMUM_CALLS = 20;
+    public static final double DEFAULT_FAILURE_RATE_THRESHOLD = 0.5;
+    public static final double DEFAULT_SLOW_CALL_RATE_THRESHOLD = 0.5;
+    public static final int DEFAULT_HALF_OPEN_CALLS = 10;
+
+    private static final int EPOCH = 0;
+    private static final int TOTAL = 1;
+    private static final int FAILED = 2;
+    private static final int SLOW = 3;
+    private static final int FIELDS = 4;
+    private static final long UNUSED_EPOCH = -1;
+
+    private final long bucketMs;
+    private final int bucketCount;
+    private final AtomicLongArray buckets;
+    private final AtomicReference<State> state = new AtomicReference<State>(State.CLOSED);
+    private final AtomicInteger halfOpenCalls = new AtomicInteger();
+    private final AtomicInteger halfOpenFailures = new AtomicInteger();
+    private final AtomicLong tripCount = new AtomicLong();
+    private Clock clock = Clock.SYSTEM;
+    private int minimumCalls = DEFAULT_MINIMUM_CALLS;
+    private double failureRateThreshold = DEFAULT_FAILURE_RATE_THRESHOLD;
+    private long slowCallNanos = 0;
+    private double slowCallRateThreshold = DEFAULT_SLOW_CALL_RATE_THRESHOLD;
+    private int halfOpenPermittedCalls = DEFAULT_HALF_OPEN_CALLS;
+    private PauseConfig pauseConfig = PauseConfigBuilder.newBuilder().withDelayConsumptionForXSeconds(30).build();
+
+    /**
+     * Create a breaker with a window of {@value #DEFAULT_BUCKET_COUNT} buckets covering 10 seconds.
+     */
+    public CircuitBreaker()
+    {
+        this(DEFAULT_WINDOW_MS, DEFAULT_BUCKET_COUNT);
+    }
+
+    /**
+     * Create a breaker.
+     * @param windowMs the length of the sliding window in milliseconds.
+     * @param bucketCount the number of buckets the window is split into, the window slides a bucket at a time.
+     */
+    public CircuitBreaker(long windowMs, int bucketCount)
+    {
+        Assert.isTrue(bucketCount > 0, "bucketCount must be at least 1");
+        Assert.isTrue(windowMs >= bucketCount, "windowMs must be at least 1 ms per bucket");
+        this.bucketMs = windowMs / bucketCount;
+        this.bucketCount = bucketCount;
+        this.buckets = new AtomicLongArray(bucketCount * FIELDS);
+        clearWindow();
+    }
+
+    /**
+     * Record a listener invocation that completed normally.
+     * @param durationNanos how long it took.
+     * @return {@code true} if this call opened the breaker, only one caller sees {@code true} for each opening.
+     */
+    public boolean recordSuccess(long durationNanos)
+    {
+        return record(false, slowCallNanos > 0 && durationNanos >= slowCallNanos);
+    }
+
+    /**
+     * Record a listener invocation that threw.
+     * @return {@code true} if this call opened the breaker, only one caller sees {@code true} for each opening.
+     */
+    public boolean recordFailure()
+    {
+        return record(true, false);
+    }
+
+    private boolean record(boolean failed, boolean slow)
+    {
+        switch (state.get())
+        {
+            case OPEN:
+                // calls still completing after the container was paused
+                return false;
+            case HALF_OPEN:
+                return recordHalfOpen(failed || slow);
+            default:
+                return recordClosed(failed, slow);
+        }
+    }
+
+    private boolean recordClosed(boolean failed, boolean slow)
+    {
+        long epoch = clock.currentTimeMillis() / bucketMs;
+        int base = bucketFor(epoch);
+        buckets.incrementAndGet(base + TOTAL);
+        if (failed)
+        {
+            buckets.incrementAndGet(base + FAILED);
+        }
+        if (slow)
+        {
+            buckets.incrementAndGet(base + SLOW);
+        }
+        // only a bad call can push the rates over their thresholds
+        return (failed || slow) && isOverThreshold(epoch) && trip(State.CLOSED);
+    }
+
+    private int bucketFor(long epoch)
+    {
+        int base = (int) (epoch % bucketCount) * FIELDS;
+        long bucketEpoch = buckets.get(base + EPOCH);
+        if (bucketEpoch < epoch && buckets.compareAndSet(base + EPOCH, bucketEpoch, epoch))
+        {
+            buckets.set(base + TOTAL, 0);
+            buckets.set(base + FAILED, 0);
+            buckets.set(base + SLOW, 0);
+        }
+        return base;
+    }
+
+    private boolean isOverThreshold(long epoch)
+    {
+        long total = 0;
+        long failed = 0;
+        long slow = 0;
+        for (int base = 0; base < buckets.length(); base += FIELDS)
+        {
+            long bucketEpoch = buckets.get(base + EPOCH);
+            if (bucketEpoch > epoch - bucketCount && bucketEpoch <= epoch)
+            {
+                total += buckets.get(base + TOTAL);
+                failed += buckets.get(base + FAILED);
+                slow += buckets.get(base + SLOW);
+            }
+        }
+        if (total < minimumCalls)
+        {
+            return false;
+        }
+        return ((double) failed / total) >= failureRateThreshold
+            || (slowCallNanos > 0 && ((double) slow / total) >= slowCallRateThreshold);
+    }
+
+    private boolean recordHalfOpen(boolean bad)
+    {
+        int calls = halfOpenCalls.incrementAndGet();
+        int failures = bad ? halfOpenFailures.incrementAndGet() : halfOpenFailures.get();
+        // open as soon as the trial can no longer pass rather than waiting for all of it
+        int maxFailures = Math.max(1, (int) Math.ceil(failureRateThreshold * halfOpenPermittedCalls));
+        if (failures >= maxFailures)
+        {
+            return trip(State.HALF_OPEN);
+        }
+        if (calls >= halfOpenPermittedCalls && state.compareAndSet(State.HALF_OPEN, State.CLOSED))
+        {
+            clearWindow();
+        }
+        return false;
+    }
+
+    private boolean trip(State from)
+    {
+        if (state.compareAndSet(from, State.OPEN))
+        {
+            tripCount.incrementAndGet();
+            return true;
+        }
+        return false;
+    }
+
+    private void clearWindow()
+    {
+        for (int base = 0; base < buckets.length(); base += FIELDS)
+        {
+            buckets.set(base + EPOCH, UNUSED_EPOCH);
+            buckets.set(base + TOTAL, 0);
+            buckets.set(base + FAILED, 0);
+            buckets.set(base + SLOW, 0);
+        }
+    }
+
+    /**
+     * Let a trial of calls through after the container has been resumed.  Does nothing unless the breaker is open.
+     */
+    public void halfOpen()
+    {
+        if (state.get() == State.OPEN)
+        {
+            // nothing records while open so the trial counts can be reset before the state changes
+            halfOpenCalls.set(0);
+            halfOpenFailures.set(0);
+            state.compareAndSet(State.OPEN, State.HALF_OPEN);
+        }
+    }
+
+    public State getState()
+    {
+        return state.get();
+    }
+
+    /**
+     * Get the number of times the breaker has opened.
+     * @return the count.
+     */
+    public long getTripCount()
+    {
+        return tripCount.get();
+    }
+
+    public PauseConfig getPauseConfig()
+    {
+        return pauseConfig;
+    }
+
+    /**
+     * Set the config the container is paused with when the breaker opens.  It should delay consumption so the dependency has
+     * time to recover before the keep alive resumes the container.
+     * @param pauseConfig the config.  Defaults to delaying consumption for 30 seconds.
+     * @throws NullPointerException if the config is null.
+     */
+    public void setPauseConfig(PauseConfig pauseConfig)
+    {
+        this.pauseConfig = Preconditions.checkNotNull(pauseConfig);
+    }
+
+    /**
+     * Set the clock the window of calls moves on by.
+     * @param clock the clock.  Defaults to {@link Clock#SYSTEM}.
+     * @throws NullPointerException if the clock is null.
+     */
+    public void setClock(Clock clock)
+    {
+        this.clock = Preconditions.checkNotNull(clock);
+    }
+
+    /**
+     * Set the number of calls the window must hold before the rates are acted on.
+     * @param minimumCalls the minimum, at least 1.  Defaults to {@value #DEFAULT_MINIMUM_CALLS}.
+     */
+    public void setMinimumCalls(int minimumCalls)
+    {
+        Assert.isTrue(minimumCalls > 0, "minimumCalls must be at least 1");
+        this.minimumCalls = minimumCalls;
+    }
+
+    /**
+     * Set the ratio of failed calls at which the breaker opens, also used for the trial when half open.
+     * @param failureRateThreshold the ratio, greater than 0 and at most 1.  Defaults to 0.5.
+     */
+    public void setFailureRateThreshold(double failureRateThreshold)
+    {
+        Assert.isTrue(failureRateThreshold > 0 && failureRateThreshold <= 1, "failureRateThreshold must be in (0, 1]");
+        this.failureRateThreshold = failureRateThreshold;
+    }
+
+    /**
+     * Set how long a call must take to count as slow.
+     * @param slowCallDurationMs the duration in milliseconds, {@code 0} to not count slow calls.  Defaults to 0.
+     */
+    public void setSlowCallDurationMs(long slowCallDurationMs)
+    {
+        Assert.isTrue(slowCallDurationMs >= 0, "slowCallDurationMs must not be negative");
+        this.slowCallNanos = TimeUnit.MILLISECONDS.toNanos(slowCallDurationMs);
+    }
+
+    /**
+     * Set the ratio of slow calls at which the breaker opens.
+     * @param slowCallRateThreshold the ratio, greater than 0 and at most 1.  Defaults to 0.5.
+     */
+    public void setSlowCallRateThreshold(double slowCallRateThreshold)
+    {
+        Assert.isTrue(slowCallRateThreshold > 0 && slowCallRateThreshold <= 1, "slowCallRateThreshold must be in (0, 1]");
+        this.slowCallRateThreshold = slowCallRateThreshold;
+    }
+
+    /**
+     * Set the number of calls let through when half open before the breaker closes.
+     * @param halfOpenPermittedCalls the number of calls, at least 1.  Defaults to {@value #DEFAULT_HALF_OPEN_CALLS}.
+     */
+    public void setHalfOpenPermittedCalls(int halfOpenPermittedCalls)
+    {
+        Assert.isTrue(halfOpenPermittedCalls > 0, "halfOpenPermittedCalls must be at least 1");
+        this.halfOpenPermittedCalls = halfOpenPermittedCalls;
+    }
+}
@@ -2,6 +2,8 @@ package com.bvb.spring.jms.listener.config;
 
 import java.util.concurrent.TimeUnit;
 
+import com.bvb.spring.jms.listener.throttler.LinearRampStrategy;
+import com.bvb.spring.jms.listener.throttler.RampStrategy;
 import com.google.common.base.Objects;
 
 /**
@@ -12,25 +14,30 @@ public class PauseConfig
 {
     public static final long THROTTLE_DELIVERY_PERIOD_10_MINS = TimeUnit.MINUTES.toMillis(10);
     public static final long THROTTLE_RELAX_MIN_INTERVAL = TimeUnit.MINUTES.toMillis(1);
+    public static final RampStrategy DEFAULT_RAMP_STRATEGY = new LinearRampStrategy();
     public static final int THROTTLE_MIN_CONCURRENT_COUNT = 1;
     
     private final Long throttleDeliveryForMs;
     private final Long throttleRelaxEveryMs;
     private final Long delayConsumptionForMs;
     private final Integer throttleMaxConcurrent;
+    private final Double throttleMaxRatePerSecond;
+    private final RampStrategy rampStrategy;
     
     public PauseConfig()
     {
-        this(null, null, null, null);
+        this(null, null, null, null, null, null);
     }
     
     PauseConfig(Long delayConsumptionForMs, Long throttleDeliveryForPeriodMs, Long throttleRelaxIntervalMs,
-            Integer throttleMaxConcurrent)
+            Integer throttleMaxConcurrent, Double throttleMaxRatePerSecond, RampStrategy rampStrategy)
     {
         this.throttleDeliveryForMs = throttleDeliveryForPeriodMs;
         this.throttleRelaxEveryMs = throttleRelaxIntervalMs;
         this.throttleMaxConcurrent = throttleMaxConcurrent;
         this.delayConsumptionForMs = delayConsumptionForMs;
+        this.throttleMaxRatePerSecond = throttleMaxRatePerSecond;
+        this.rampStrategy = rampStrategy;
     }
     
     /**
@@ -45,6 +52,8 @@ public class PauseConfig
         this.throttleDeliveryForMs = other.throttleDeliveryForMs;
         this.throttleRelaxEveryMs = other.throttleRelaxEveryMs;
         this.delayConsumptionForMs = other.delayConsumptionForMs;
+        this.throttleMaxRatePerSecond = other.throttleMaxRatePerSecond;
+        this.rampStrategy = other.rampStrategy;
         this.throttleMaxConcurrent = (maxConcurrentAllowed < other.getThrottleMaxConcurrent()) ? maxConcurrentAllowed : 
             other.getThrottleMaxConcurrent();
     }
@@ -75,6 +84,15 @@ public class PauseConfig
         return throttleRelaxEveryMs == null ? THROTTLE_RELAX_MIN_INTERVAL : throttleRelaxEveryMs;
     }
 
+    /**
+     * Get the curve the throttling is relaxed along over the runs of the relaxer.
+     * @return the strategy, by default {@link #DEFAULT_RAMP_STRATEGY} which relaxes in equal steps.
+     */
+    public RampStrategy getRampStrategy()
+    {
+        return rampStrategy == null ? DEFAULT_RAMP_STRATEGY : rampStrategy;
+    }
+
     /**
      * Get the number of max concurrent consumers to use when throttling.  This is the value used for the  initial phase of
      * throttling.
@@ -95,6 +113,16 @@ public class PauseConfig
         return delayConsumptionForMs;
     }
     
+    /**
+     * Get the max number of messages per second to consume across all consumers when throttling.  This is the rate used
+     * for the initial phase of throttling.
+     * @return the max messages per second, or {@code null} if the rate is not throttled.
+     */
+    public Double getThrottleMaxRatePerSecond()
+    {
+        return throttleMaxRatePerSecond;
+    }
+    
     /**
      * Are any of the throttling parameters set.  If not then throttling will be skipped but it is still possible for the
      * delay consumption value to be set.
@@ -102,7 +130,27 @@ public class PauseConfig
      */
     public boolean isThrottled()
     {
-        return throttleDeliveryForMs != null || throttleMaxConcurrent != null || throttleRelaxEveryMs != null;
+        return isConcurrencyThrottled() || isRateThrottled();
+    }
+    
+    /**
+     * Should the max concurrent consumers be throttled.  This is the case if the max concurrency is set, or if only the
+     * throttle period or relax interval are set without a max rate.
+     * @return {@code true} if the concurrent consumers are throttled, otherwise {@code false}.
+     */
+    public boolean isConcurrencyThrottled()
+    {
+        return throttleMaxConcurrent != null || 
+                (throttleMaxRatePerSecond == null && (throttleDeliveryForMs != null || throttleRelaxEveryMs != null));
+    }
+    
+    /**
+     * Should the rate of consumption be throttled.
+     * @return {@code true} if the max rate per second is set, otherwise {@code false}.
+     */
+    public boolean isRateThrottled()
+    {
+        return throttleMaxRatePerSecond != null;
     }
     
     @Override
@@ -121,14 +169,16 @@ public class PauseConfig
         return Objects.equal(getDelayConsumptionForMs(), other.getDelayConsumptionForMs()) &&
                 Objects.equal(getThrottleDeliveryForPeriodMs(), other.getThrottleDeliveryForPeriodMs()) &&
                 Objects.equal(getThrottleMaxConcurrent(), other.getThrottleMaxConcurrent()) &&
-                Objects.equal(getThrottleRelaxIntervalMs(), other.getThrottleRelaxIntervalMs());
+                Objects.equal(getThrottleRelaxIntervalMs(), other.getThrottleRelaxIntervalMs()) &&
+                Objects.equal(getThrottleMaxRatePerSecond(), other.getThrottleMaxRatePerSecond()) &&
+                Objects.equal(getRampStrategy(), other.getRampStrategy());
     }
     
     @Override
     public int hashCode()
     {
         return Objects.hashCode(getDelayConsumptionForMs(), getThrottleDeliveryForPeriodMs(), getThrottleMaxConcurrent(),
-            getThrottleRelaxIntervalMs());
+            getThrottleRelaxIntervalMs(), getThrottleMaxRatePerSecond(), getRampStrategy());
     }
     
     @Override
@@ -136,6 +186,7 @@ public class PauseConfig
     {
         return Objects.toStringHelper(this).add("throttleDeliveryForMs", throttleDeliveryForMs)
                 .add("throttleRelaxEveryMs", throttleRelaxEveryMs).add("throttleMaxConcurrent", throttleMaxConcurrent)
+                .add("throttleMaxRatePerSecond", throttleMaxRatePerSecond).add("rampStrategy", rampStrategy)
                 .add("delayConsumptionForMs", delayConsumptionForMs).toString();
     }
 }
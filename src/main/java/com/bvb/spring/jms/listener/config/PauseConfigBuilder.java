@@ -2,6 +2,10 @@ package com.bvb.spring.jms.listener.config;
 
 import java.util.concurrent.TimeUnit;
 
+import org.springframework.util.Assert;
+
+import com.bvb.spring.jms.listener.throttler.RampStrategy;
+
 /**
  * Build a {@link PauseConfig}.
  */
@@ -11,6 +15,8 @@ public class PauseConfigBuilder
     private Long throttleRelaxEveryMs;
     private Long delayConsumptionForMs;
     private Integer throttleMaxConcurrent;
+    private Double throttleMaxRatePerSecond;
+    private RampStrategy rampStrategy;
 
     /**
      * Get a new instance of the builder to use.
@@ -55,8 +61,20 @@ public class PauseConfigBuilder
     }
 
     /**
-     * The throttling will be relaxed gradually, specify how often this should occur.  The minimum value allowed here is
-     * 1 minute.
+     * The throttling will be relaxed gradually, specify how often this should occur.  Defaults to 1 minute.
+     * @param relaxMs the number of milliseconds between relaxing the throttle, greater than 0.
+     * @return the builder.
+     * @throws IllegalArgumentException if the interval is not greater than 0.
+     */
+    public PauseConfigBuilder withThrottleRelaxEveryXMs(long relaxMs)
+    {
+        Assert.isTrue(relaxMs > 0, "relaxMs must be greater than 0");
+        this.throttleRelaxEveryMs = relaxMs;
+        return this;
+    }
+    
+    /**
+     * The throttling will be relaxed gradually, specify how often this should occur.  Defaults to 1 minute.
      * @param relaxSeconds the number of seconds between relaxing the throttle. 
      * @return the builder.
      */
@@ -67,9 +85,8 @@ public class PauseConfigBuilder
     }
     
     /**
-     * The throttling will be relaxed gradually, specify how often this should occur.  The minimum value allowed here is
-     * 1 minute.
-     * @param relaxSeconds the number of seconds between relaxing the throttle. 
+     * The throttling will be relaxed gradually, specify how often this should occur.  Defaults to 1 minute.
+     * @param relaxMinutes the number of minutes between relaxing the throttle. 
      * @return the builder.
      */
     public PauseConfigBuilder withThrottleRelaxEveryXMinutes(long relaxMinutes)
@@ -78,6 +95,20 @@ public class PauseConfigBuilder
         return this;
     }
     
+    /**
+     * Set the curve the throttling is relaxed along, from the throttled values back to the full values over the throttle
+     * period.  Not used by a {@link com.bvb.spring.jms.listener.throttler.ConcurrencyController} that decides the growth
+     * itself, such as the AIMD controller.
+     * @param rampStrategy the strategy.  Defaults to relaxing in equal steps.
+     * @return the builder.
+     */
+    public PauseConfigBuilder withRampStrategy(RampStrategy rampStrategy)
+    {
+        Assert.notNull(rampStrategy, "rampStrategy must not be null");
+        this.rampStrategy = rampStrategy;
+        return this;
+    }
+    
     /**
      * Set the max concurrent consumers to use when throttling.  This is the initial throttled value and then the
      * throttling is relaxed gradually.
@@ -90,6 +121,21 @@ public class PauseConfigBuilder
         return this;
     }
     
+    /**
+     * Set the max number of messages per second to consume across all consumers when throttling.  This is the initial
+     * throttled rate and then the throttling is relaxed gradually, in the same way as the max concurrency.  If only the
+     * rate is set the concurrent consumers are not throttled.
+     * @param ratePerSecond the max messages per second, greater than 0.
+     * @return the builder.
+     * @throws IllegalArgumentException if the rate is not greater than 0.
+     */
+    public PauseConfigBuilder withThrottleMaxRatePerSecond(double ratePerSecond)
+    {
+        Assert.isTrue(ratePerSecond > 0, "ratePerSecond must be greater than 0");
+        this.throttleMaxRatePerSecond = ratePerSecond;
+        return this;
+    }
+    
     /**
      * Delay consumption of messages for this length of time in milliseconds.
      * @param delayConsumptionForMs delay for these milliseconds.
@@ -126,7 +172,8 @@ public class PauseConfigBuilder
     
     public PauseConfig build()
     {
-        return new PauseConfig(delayConsumptionForMs, throttleDeliveryForMs, throttleRelaxEveryMs, throttleMaxConcurrent);
+        return new PauseConfig(delayConsumptionForMs, throttleDeliveryForMs, throttleRelaxEveryMs, throttleMaxConcurrent,
+            throttleMaxRatePerSecond, rampStrategy);
     }
     
 }
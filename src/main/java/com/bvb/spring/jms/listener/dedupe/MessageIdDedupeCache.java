@@ -0,0 +1,297 @@
+package com.bvb.spring.jms.listener.dedupe;
+
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+
+import org.springframework.util.Assert;
+
+import com.bvb.spring.jms.listener.utils.Clock;
+
+/**
+ * A bounded set of the ids of the messages a container has processed, so a duplicate delivery of one, such as a redelivery
+ * after a pause or a rollback, is acknowledged without the listener being invoked.  Only a 64 bit FNV-1a hash of each
+ * {@code JMSMessageID} is kept, 16 bytes for the id and the time it was added.  The index is four times the highest power of
+ * two in the capacity in ints, between 8 and 16 bytes per id, so a million ids take at most 32 MB while at
+ * {@link #MAX_CAPACITY} the ring and the index take 1 GB each.  Two ids with the same hash would have the second skipped,
+ * with ten million ids held the chance of any such collision is around one in three hundred thousand.
+ * <p>
+ * The ids are held in the order they were added in a ring of a fixed capacity, the oldest is evicted to make room once it
+ * is full and, with a time to live, ids older than it are evicted as well.  The ring is indexed by an open addressing hash
+ * table.  Both can be held off heap in direct buffers, so a window of many millions of ids adds nothing to the work of the
+ * garbage collector.
+ * <p>
+ * The cache is thread safe, the consumers of a container share it.
+ */
+public class MessageIdDedupeCache
+{
+    public static final long NO_TTL = 0;
+    public static final int MAX_CAPACITY = 1 << 26;
+    
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+    
+    private final int capacity;
+    private final long ttlMs;
+    private final LongBuffer ringHashes;
+    private final LongBuffer ringTimes;
+    private final IntBuffer table;
+    private final int mask;
+    private Clock clock = Clock.SYSTEM;
+    private int head;
+    private int size;
+    private long hits;
+    private long misses;
+    private long evictions;
+    
+    /**
+     * Create a cache on the heap evicting by size only.
+     * @param capacity the most ids held.
+     */
+    public MessageIdDedupeCache(int capacity)
+    {
+        this(capacity, NO_TTL, false);
+    }
+    
+    /**
+     * Create a cache.
+     * @param capacity the most ids held, at least 1.
+     * @param ttlMs how long an id is held in milliseconds, or {@link #NO_TTL} to evict by size only.
+     * @param offHeap {@code true} to hold the ids in direct buffers off the heap.
+     */
+    public MessageIdDedupeCache(int capacity, long ttlMs, boolean offHeap)
+    {
+        Assert.isTrue(capacity > 0, "capacity must be at least 1");
+        Assert.isTrue(capacity <= MAX_CAPACITY, "capacity must be at most 2^26");
+        Assert.isTrue(ttlMs >= 0, "ttlMs must not be negative");
+        this.capacity = capacity;
+        this.ttlMs = ttlMs;
+        // at most half full, so probes stay short
+        int tableSize = Integer.highestOneBit(capacity) << 2;
+        this.mask = tableSize - 1;
+        if (offHeap)
+        {
+            this.ringHashes = ByteBuffer.allocateDirect(capacity * 8).asLongBuffer();
+            this.ringTimes = ByteBuffer.allocateDirect(capacity * 8).asLongBuffer();
+            this.table = ByteBuffer.allocateDirect(tableSize * 4).asIntBuffer();
+        }
+        else
+        {
+            this.ringHashes = LongBuffer.allocate(capacity);
+            this.ringTimes = LongBuffer.allocate(capacity);
+            this.table = IntBuffer.allocate(tableSize);
+        }
+    }
+    
+    /**
+     * Hash a message id with 64 bit FNV-1a over its UTF-16 code units.
+     * @param messageId the id.
+     * @return the hash.
+     */
+    public static long hash(String messageId)
+    {
+        long hash = FNV_OFFSET_BASIS;
+        for (int i = 0; i < messageId.length(); i++)
+        {
+            char c = messageId.charAt(i);
+            hash ^= (c & 0xff);
+            hash *= FNV_PRIME;
+            hash ^= (c >>> 8);
+            hash *= FNV_PRIME;
+        }
+        return hash;
+    }
+    
+    /**
+     * Whether the message has already been processed, counted as a hit or a miss.
+     * @param messageId the {@code JMSMessageID} of the message.
+     * @return {@code true} if the id is held.
+     */
+    public boolean isDuplicate(String messageId)
+    {
+        long hash = hash(messageId);
+        synchronized (this)
+        {
+            evictExpired();
+            if (find(hash) >= 0)
+            {
+                hits++;
+                return true;
+            }
+            misses++;
+            return false;
+        }
+    }
+    
+    /**
+     * Record that the message has been processed, evicting the oldest id if the cache is full.
+     * @param messageId the {@code JMSMessageID} of the message.
+     */
+    public void add(String messageId)
+    {
+        long hash = hash(messageId);
+        synchronized (this)
+        {
+            evictExpired();
+            if (find(hash) >= 0)
+            {
+                return;
+            }
+            if (size == capacity)
+            {
+                evictOldest();
+            }
+            int index = (head + size) % capacity;
+            ringHashes.put(index, hash);
+            ringTimes.put(index, clock.currentTimeMillis());
+            size++;
+            int slot = home(hash);
+            while (table.get(slot) != 0)
+            {
+                slot = (slot + 1) & mask;
+            }
+            table.put(slot, index + 1);
+        }
+    }
+    
+    /*
+     * The slot of the table holding the hash, or -1.
+     */
+    private int find(long hash)
+    {
+        int slot = home(hash);
+        int entry;
+        while ((entry = table.get(slot)) != 0)
+        {
+            if (ringHashes.get(entry - 1) == hash)
+            {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+    
+    private int home(long hash)
+    {
+        // the low bits of FNV-1a are poorly mixed, fold the high bits in
+        return (int) (hash ^ (hash >>> 32) ^ (hash >>> 17)) & mask;
+    }
+    
+    private void evictExpired()
+    {
+        if (ttlMs == NO_TTL)
+        {
+            return;
+        }
+        long expiredBefore = clock.currentTimeMillis() - ttlMs;
+        while (size > 0 && ringTimes.get(head) <= expiredBefore)
+        {
+            evictOldest();
+        }
+    }
+    
+    private void evictOldest()
+    {
+        long hash = ringHashes.get(head);
+        int slot = home(hash);
+        while (table.get(slot) != head + 1)
+        {
+            slot = (slot + 1) & mask;
+        }
+        remove(slot);
+        head = (head + 1) % capacity;
+        size--;
+        evictions++;
+    }
+    
+    /*
+     * Removes the entry by shifting back the entries after it that would otherwise no longer be found.
+     */
+    private void remove(int slot)
+    {
+        int free = slot;
+        int next = slot;
+        while (true)
+        {
+            next = (next + 1) & mask;
+            int entry = table.get(next);
+            if (entry == 0)
+            {
+                table.put(free, 0);
+                return;
+            }
+            int home = home(ringHashes.get(entry - 1));
+            // the entry stays if its home lies cyclically after the free slot and at or before where it is
+            boolean stays = (free <= next) ? (free < home && home <= next) : (free < home || home <= next);
+            if (!stays)
+            {
+                table.put(free, entry);
+                free = next;
+            }
+        }
+    }
+    
+    /**
+     * Set the clock the ids are timed by.
+     * @param clock the clock.  Defaults to {@link Clock#SYSTEM}.
+     */
+    public void setClock(Clock clock)
+    {
+        Assert.notNull(clock, "clock must not be null");
+        this.clock = clock;
+    }
+    
+    public int getCapacity()
+    {
+        return capacity;
+    }
+    
+    public long getTtlMs()
+    {
+        return ttlMs;
+    }
+    
+    /**
+     * Get the number of ids held.
+     * @return the size.
+     */
+    public synchronized int size()
+    {
+        return size;
+    }
+    
+    /**
+     * Get the number of messages found to be duplicates.
+     * @return the hits.
+     */
+    public synchronized long getHits()
+    {
+        return hits;
+    }
+    
+    /**
+     * Get the number of messages not found to be duplicates.
+     * @return the misses.
+     */
+    public synchronized long getMisses()
+    {
+        return misses;
+    }
+    
+    /**
+     * Get the number of ids evicted, by size or by age.
+     * @return the evictions.
+     */
+    public synchronized long getEvictions()
+    {
+        return evictions;
+    }
+    
+    @Override
+    public String toString()
+    {
+        return String.format("MessageIdDedupeCache{capacity=%d, ttlMs=%d, size=%d, hits=%d, misses=%d, evictions=%d}",
+            capacity, ttlMs, size(), getHits(), getMisses(), getEvictions());
+    }
+}
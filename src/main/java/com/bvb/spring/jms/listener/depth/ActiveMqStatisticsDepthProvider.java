@@ -0,0 +1,100 @@
+package com.bvb.spring.jms.listener.depth;
+
+import javax.jms.ConnectionFactory;
+import javax.jms.JMSException;
+import javax.jms.MapMessage;
+import javax.jms.Message;
+import javax.jms.MessageConsumer;
+import javax.jms.MessageProducer;
+import javax.jms.Queue;
+import javax.jms.Session;
+import javax.jms.TemporaryQueue;
+
+import org.springframework.jms.JmsException;
+import org.springframework.jms.core.JmsTemplate;
+import org.springframework.jms.core.SessionCallback;
+import org.springframework.jms.support.JmsUtils;
+import org.springframework.util.Assert;
+
+/**
+ * Finds the depth of a queue from the statistics of an ActiveMQ broker, which reads nothing from the queue and is exact.  The
+ * broker must have the statistics plugin enabled, {@code <statisticsBrokerPlugin/>} in its config.  A request is sent to the
+ * statistics destination of the queue and the broker replies with the size of the queue.  Only the JMS API is used so there
+ * is no dependency on the ActiveMQ client.
+ */
+public class ActiveMqStatisticsDepthProvider implements QueueDepthProvider
+{
+    public static final String STATISTICS_PREFIX = "ActiveMQ.Statistics.Destination.";
+    public static final long DEFAULT_TIMEOUT_MS = 2000;
+    
+    private final JmsTemplate jmsTemplate;
+    private long timeoutMs = DEFAULT_TIMEOUT_MS;
+    
+    /**
+     * Create the provider.
+     * @param connectionFactory the factory of the ActiveMQ broker, ideally caching its connection.
+     */
+    public ActiveMqStatisticsDepthProvider(ConnectionFactory connectionFactory)
+    {
+        this.jmsTemplate = new JmsTemplate(connectionFactory);
+    }
+    
+    @Override
+    public long getDepth(final String queueName) throws JMSException
+    {
+        try
+        {
+            return jmsTemplate.execute(new SessionCallback<Long>()
+            {
+                @Override
+                public Long doInJms(Session session) throws JMSException
+                {
+                    return requestSize(session, queueName);
+                }
+            }, true);
+        }
+        catch (JmsException ex)
+        {
+            throw QueueBrowserDepthProvider.toJmsException(ex);
+        }
+    }
+    
+    private long requestSize(Session session, String queueName) throws JMSException
+    {
+        TemporaryQueue replyTo = session.createTemporaryQueue();
+        MessageConsumer consumer = null;
+        MessageProducer producer = null;
+        try
+        {
+            consumer = session.createConsumer(replyTo);
+            Queue statistics = session.createQueue(STATISTICS_PREFIX + queueName);
+            producer = session.createProducer(statistics);
+            Message request = session.createMessage();
+            request.setJMSReplyTo(replyTo);
+            producer.send(request);
+            Message reply = consumer.receive(timeoutMs);
+            if (!(reply instanceof MapMessage))
+            {
+                throw new JMSException(String.format("No statistics for queue: [%s] within: [%s ms], is the statistics "
+                    + "plugin enabled on the broker?", queueName, timeoutMs));
+            }
+            return ((MapMessage) reply).getLong("size");
+        }
+        finally
+        {
+            JmsUtils.closeMessageProducer(producer);
+            JmsUtils.closeMessageConsumer(consumer);
+            replyTo.delete();
+        }
+    }
+    
+    /**
+     * Set how long to wait for the broker to reply with the statistics.
+     * @param timeoutMs the timeout in milliseconds, greater than 0.  Defaults to {@value #DEFAULT_TIMEOUT_MS}.
+     */
+    public void setTimeoutMs(long timeoutMs)
+    {
+        Assert.isTrue(timeoutMs > 0, "timeoutMs must be greater than 0");
+        this.timeoutMs = timeoutMs;
+    }
+}
@@ -0,0 +1,84 @@
+package com.bvb.spring.jms.listener.depth;
+
+import java.util.Enumeration;
+
+import javax.jms.ConnectionFactory;
+import javax.jms.JMSException;
+import javax.jms.QueueBrowser;
+import javax.jms.Session;
+
+import org.springframework.jms.JmsException;
+import org.springframework.jms.core.BrowserCallback;
+import org.springframework.jms.core.JmsTemplate;
+import org.springframework.util.Assert;
+
+/**
+ * Finds the depth of a queue by browsing it with a {@link QueueBrowser}, which works with any JMS provider.  Browsing reads
+ * the messages so the count is capped at the max browsed, which only needs to be large enough to scale the consumers to
+ * their max.  Some providers only browse the messages they have in memory, so the depth may be lower than the real backlog.
+ */
+public class QueueBrowserDepthProvider implements QueueDepthProvider
+{
+    public static final int DEFAULT_MAX_BROWSED = 1000;
+    
+    private final JmsTemplate jmsTemplate;
+    private int maxBrowsed = DEFAULT_MAX_BROWSED;
+    
+    /**
+     * Create the provider.
+     * @param connectionFactory the factory to browse with, ideally caching its connection.
+     */
+    public QueueBrowserDepthProvider(ConnectionFactory connectionFactory)
+    {
+        this.jmsTemplate = new JmsTemplate(connectionFactory);
+    }
+    
+    @Override
+    public long getDepth(String queueName) throws JMSException
+    {
+        try
+        {
+            Long depth = jmsTemplate.browse(queueName, new BrowserCallback<Long>()
+            {
+                @Override
+                public Long doInJms(Session session, QueueBrowser browser) throws JMSException
+                {
+                    long count = 0;
+                    Enumeration<?> messages = browser.getEnumeration();
+                    while (count < maxBrowsed && messages.hasMoreElements())
+                    {
+                        messages.nextElement();
+                        count++;
+                    }
+                    return count;
+                }
+            });
+            return depth;
+        }
+        catch (JmsException ex)
+        {
+            throw toJmsException(ex);
+        }
+    }
+    
+    static JMSException toJmsException(JmsException ex)
+    {
+        if (ex.getCause() instanceof JMSException)
+        {
+            return (JMSException) ex.getCause();
+        }
+        JMSException result = new JMSException(ex.getMessage());
+        result.initCause(ex);
+        return result;
+    }
+    
+    /**
+     * Set the most messages browsed for one depth.
+     * @param maxBrowsed the max, at least 1.  Defaults to {@value #DEFAULT_MAX_BROWSED}.
+     */
+    public void setMaxBrowsed(int maxBrowsed)
+    {
+        Assert.isTrue(maxBrowsed > 0, "maxBrowsed must be at least 1");
+        this.maxBrowsed = maxBrowsed;
+    }
+}
@@ -0,0 +1,149 @@
+package com.bvb.spring.jms.listener.depth;
+
+import java.util.concurrent.TimeUnit;
+
+import javax.jms.JMSException;
+
+import org.springframework.util.Assert;
+
+/**
+ * Scales the consumers of a container to the depth of its queue, so a backlog is met with consumers as soon as it is seen
+ * rather than once the running consumers have been busy long enough for the DMLC to add more.  The container samples the
+ * depth from a {@link QueueDepthProvider} once every sample interval and sets its concurrent consumers to the target.
+ * <p>
+ * The target is one consumer for every messages per consumer of backlog, within the bounds.  While the backlog is draining the
+ * consumers are held rather than shrunk with it, so the last of the backlog is not left to fewer consumers, and once the depth
+ * falls to the drained depth they drop back to the min.  While the container is throttled by a
+ * {@link com.bvb.spring.jms.listener.config.PauseConfig} the throttle decides the consumers and the probe holds.
+ */
+public class QueueDepthProbe
+{
+    public static final long DEFAULT_MESSAGES_PER_CONSUMER = 100;
+    public static final long DEFAULT_SAMPLE_INTERVAL_MS = TimeUnit.SECONDS.toMillis(5);
+    public static final long DEFAULT_DRAINED_DEPTH = 0;
+    
+    private final QueueDepthProvider provider;
+    private final int minConsumers;
+    private final int maxConsumers;
+    private long messagesPerConsumer = DEFAULT_MESSAGES_PER_CONSUMER;
+    private long sampleIntervalMs = DEFAULT_SAMPLE_INTERVAL_MS;
+    private long drainedDepth = DEFAULT_DRAINED_DEPTH;
+    private String queueName;
+    private volatile long lastDepth = -1;
+    
+    /**
+     * Create the probe.
+     * @param provider the provider of the queue depth.
+     * @param minConsumers the consumers to drop back to once the backlog is drained, at least 1.
+     * @param maxConsumers the most consumers to scale up to.
+     */
+    public QueueDepthProbe(QueueDepthProvider provider, int minConsumers, int maxConsumers)
+    {
+        Assert.notNull(provider, "provider must not be null");
+        Assert.isTrue(minConsumers > 0, "minConsumers must be at least 1");
+        Assert.isTrue(maxConsumers >= minConsumers, "maxConsumers must be at least minConsumers");
+        this.provider = provider;
+        this.minConsumers = minConsumers;
+        this.maxConsumers = maxConsumers;
+    }
+    
+    /**
+     * Sample the depth of the queue and work out the consumers it needs.
+     * @param queueName the queue of the container, used unless a queue name has been set on the probe.
+     * @param current the current concurrent consumers.
+     * @return the consumers to use, within the bounds.
+     * @throws JMSException if the depth could not be found.
+     */
+    public int nextConsumers(String queueName, int current) throws JMSException
+    {
+        long depth = provider.getDepth((this.queueName == null) ? queueName : this.queueName);
+        lastDepth = depth;
+        return targetConsumers(current, depth);
+    }
+    
+    /**
+     * Work out the consumers a depth of queue needs.
+     * @param current the current concurrent consumers.
+     * @param depth the number of messages waiting on the queue.
+     * @return the consumers to use, within the bounds.
+     */
+    public int targetConsumers(int current, long depth)
+    {
+        if (depth <= drainedDepth)
+        {
+            return minConsumers;
+        }
+        long needed = (depth + messagesPerConsumer - 1) / messagesPerConsumer;
+        // hold while the backlog drains
+        return Math.max(bound(needed), bound(current));
+    }
+    
+    private int bound(long consumers)
+    {
+        return (int) Math.max(minConsumers, Math.min(maxConsumers, consumers));
+    }
+    
+    /**
+     * Get the depth seen by the last sample.
+     * @return the depth, {@code -1} before the first sample.
+     */
+    public long getLastDepth()
+    {
+        return lastDepth;
+    }
+    
+    public int getMinConsumers()
+    {
+        return minConsumers;
+    }
+    
+    public int getMaxConsumers()
+    {
+        return maxConsumers;
+    }
+    
+    /**
+     * Set how many messages of backlog each consumer is given.
+     * @param messagesPerConsumer the messages, at least 1.  Defaults to {@value #DEFAULT_MESSAGES_PER_CONSUMER}.
+     */
+    public void setMessagesPerConsumer(long messagesPerConsumer)
+    {
+        Assert.isTrue(messagesPerConsumer > 0, "messagesPerConsumer must be at least 1");
+        this.messagesPerConsumer = messagesPerConsumer;
+    }
+    
+    public long getSampleIntervalMs()
+    {
+        return sampleIntervalMs;
+    }
+    
+    /**
+     * Set how often the container samples the depth and adjusts the consumers.
+     * @param sampleIntervalMs the interval in milliseconds, greater than 0.  Defaults to 5 seconds.
+     */
+    public void setSampleIntervalMs(long sampleIntervalMs)
+    {
+        Assert.isTrue(sampleIntervalMs > 0, "sampleIntervalMs must be greater than 0");
+        this.sampleIntervalMs = sampleIntervalMs;
+    }
+    
+    /**
+     * Set the depth at or under which the backlog is drained and the consumers drop back to the min.
+     * @param drainedDepth the depth, at least 0.  Defaults to {@value #DEFAULT_DRAINED_DEPTH}.
+     */
+    public void setDrainedDepth(long drainedDepth)
+    {
+        Assert.isTrue(drainedDepth >= 0, "drainedDepth must not be negative");
+        this.drainedDepth = drainedDepth;
+    }
+    
+    /**
+     * Set the queue to probe, needed when the destination of the container is not a queue name, for example when it is
+     * resolved from a {@link javax.jms.Destination} of another type.
+     * @param queueName the name of the queue.
+     */
+    public void setQueueName(String queueName)
+    {
+        this.queueName = queueName;
+    }
+}
@@ -0,0 +1,19 @@
+package com.bvb.spring.jms.listener.depth;
+
+import javax.jms.JMSException;
+
+/**
+ * Provides the number of messages waiting on a queue, so a container can scale its consumers for a backlog before its
+ * consumers have seen it.  See {@link QueueBrowserDepthProvider} for any JMS provider and
+ * {@link ActiveMqStatisticsDepthProvider} for ActiveMQ.
+ */
+public interface QueueDepthProvider
+{
+    /**
+     * Get the depth of a queue.
+     * @param queueName the name of the queue.
+     * @return the number of messages waiting, which may be capped by the provider.
+     * @throws JMSException if the depth could not be found.
+     */
+    long getDepth(String queueName) throws JMSException;
+}
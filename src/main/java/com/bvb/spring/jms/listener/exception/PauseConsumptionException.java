@@ -14,12 +14,15 @@ import com.bvb.spring.jms.listener.config.PauseConfig;
  * configured for the DMLC then the keep alive will be fired first and success tested for before consuming any more messages.
  * This exception also allows a listener to indicate that the number of concurrent messages consumers should be throttled for
  * a period.
+ * When the DMLC is a lane of a {@link com.bvb.spring.jms.listener.LanePartitionedContainer} the exception can carry a lane key
+ * so that only the lane for that key is paused, leaving the other lanes consuming.
  */
 public class PauseConsumptionException extends RuntimeException
 {
     private static final long serialVersionUID = -658143139189477898L;
     
     private final PauseConfig pauseConfig;
+    private final String laneKey;
 
     /**
      * Build providing the pause config and the cause of the exception. 
@@ -28,10 +31,23 @@ public class PauseConsumptionException extends RuntimeException
      * @throws NullPointerException if the pauseConfig is null.
      */
     public PauseConsumptionException(PauseConfig pauseConfig, Throwable cause)
+    {
+        this(pauseConfig, null, cause);
+    }
+
+    /**
+     * Build providing the pause config, the lane to pause and the cause of the exception.
+     * @param pauseConfig the config for pausing or throttling the lane.
+     * @param laneKey the key of the lane to pause, {@code null} to pause the DMLC the listener belongs to.
+     * @param cause the original cause of the exception.
+     * @throws NullPointerException if the pauseConfig is null.
+     */
+    public PauseConsumptionException(PauseConfig pauseConfig, String laneKey, Throwable cause)
     {
         super(cause);
         Assert.notNull(pauseConfig, "pauseConfig cannot be null");
         this.pauseConfig = pauseConfig;
+        this.laneKey = laneKey;
     }
 
     /**
@@ -43,4 +59,13 @@ public class PauseConsumptionException extends RuntimeException
         return pauseConfig;
     }
     
+    /**
+     * Get the key of the lane to pause.
+     * @return the lane key, or {@code null} to pause the DMLC the listener belongs to.
+     */
+    public String getLaneKey()
+    {
+        return laneKey;
+    }
+    
 }
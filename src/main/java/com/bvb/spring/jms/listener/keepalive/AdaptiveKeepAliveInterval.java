@@ -0,0 +1,130 @@
+package com.bvb.spring.jms.listener.keepalive;
+
+import java.util.Random;
+
+import org.springframework.util.Assert;
+
+/**
+ * Works out the next keep alive interval from the outcome of the last one, for a {@link KeepAliveManager}.
+ * <p>
+ * On consecutive failures the interval backs off exponentially with decorrelated jitter, each interval is picked at random
+ * between the base interval and three times the previous interval, up to the max failure interval.  Containers that lost the
+ * same upstream at the same moment therefore spread their probes out rather than calling it in lockstep, and resume at
+ * different times.  The first failure after a success always uses the base interval so an outage is noticed quickly.
+ * <p>
+ * On sustained success the interval is stretched by the stretch factor after each run of successes, up to the max success
+ * interval, so a healthy upstream is probed less often.
+ * <p>
+ * The base interval is the one asked for in the {@link KeepAliveResponse} or pause config, or the configured keep alive
+ * interval.  An instance holds the state of one container and is not thread safe, the {@link KeepAliveManager} calls it under
+ * its own lock.
+ */
+public class AdaptiveKeepAliveInterval
+{
+    private final long maxFailureIntervalMs;
+    private final long maxSuccessIntervalMs;
+    private final Random random;
+    private double stretchFactor = 1.5;
+    private int successesPerStretch = 3;
+    private int consecutiveFailures;
+    private int consecutiveSuccesses;
+    private long lastFailureIntervalMs;
+
+    /**
+     * Create the adaptive interval.
+     * @param maxFailureIntervalMs the most the interval backs off to on consecutive failures.
+     * @param maxSuccessIntervalMs the most the interval is stretched to on sustained success.
+     */
+    public AdaptiveKeepAliveInterval(long maxFailureIntervalMs, long maxSuccessIntervalMs)
+    {
+        this(maxFailureIntervalMs, maxSuccessIntervalMs, new Random());
+    }
+
+    AdaptiveKeepAliveInterval(long maxFailureIntervalMs, long maxSuccessIntervalMs, Random random)
+    {
+        Assert.isTrue(maxFailureIntervalMs > 0, "maxFailureIntervalMs must be greater than 0");
+        Assert.isTrue(maxSuccessIntervalMs > 0, "maxSuccessIntervalMs must be greater than 0");
+        this.maxFailureIntervalMs = maxFailureIntervalMs;
+        this.maxSuccessIntervalMs = maxSuccessIntervalMs;
+        this.random = random;
+    }
+
+    /**
+     * Get the interval after a failed keep alive.
+     * @param baseIntervalMs the base interval.
+     * @return the interval to wait before the next keep alive, never less than the base interval.
+     */
+    public long nextAfterFailure(long baseIntervalMs)
+    {
+        consecutiveSuccesses = 0;
+        consecutiveFailures++;
+        long cap = Math.max(baseIntervalMs, maxFailureIntervalMs);
+        if (consecutiveFailures == 1)
+        {
+            lastFailureIntervalMs = baseIntervalMs;
+        }
+        else
+        {
+            long upper = Math.max(baseIntervalMs, Math.min(cap, saturatedMultiply(lastFailureIntervalMs, 3)));
+            lastFailureIntervalMs = baseIntervalMs + (long) (random.nextDouble() * (upper - baseIntervalMs));
+        }
+        return lastFailureIntervalMs;
+    }
+
+    /**
+     * Get the interval after a successful keep alive.
+     * @param baseIntervalMs the base interval.
+     * @return the interval to wait before the next keep alive, never less than the base interval.
+     */
+    public long nextAfterSuccess(long baseIntervalMs)
+    {
+        consecutiveFailures = 0;
+        // stop counting once there are enough successes to reach any cap
+        if (consecutiveSuccesses < Integer.MAX_VALUE / 2)
+        {
+            consecutiveSuccesses++;
+        }
+        long cap = Math.max(baseIntervalMs, maxSuccessIntervalMs);
+        double interval = baseIntervalMs;
+        for (int stretches = consecutiveSuccesses / successesPerStretch; stretches > 0 && interval < cap; stretches--)
+        {
+            interval *= stretchFactor;
+        }
+        return (long) Math.min(cap, interval);
+    }
+
+    private static long saturatedMultiply(long value, int factor)
+    {
+        return (value > Long.MAX_VALUE / factor) ? Long.MAX_VALUE : value * factor;
+    }
+
+    /**
+     * Set how much the interval is stretched by after each run of successes.
+     * @param stretchFactor the factor, greater than 1.  Defaults to 1.5.
+     */
+    public void setStretchFactor(double stretchFactor)
+    {
+        Assert.isTrue(stretchFactor > 1, "stretchFactor must be greater than 1");
+        this.stretchFactor = stretchFactor;
+    }
+
+    /**
+     * Set how many consecutive successes there must be for each stretch of the interval.
+     * @param successesPerStretch the number of successes, at least 1.  Defaults to 3.
+     */
+    public void setSuccessesPerStretch(int successesPerStretch)
+    {
+        Assert.isTrue(successesPerStretch > 0, "successesPerStretch must be at least 1");
+        this.successesPerStretch = successesPerStretch;
+    }
+
+    public int getConsecutiveFailures()
+    {
+        return consecutiveFailures;
+    }
+
+    public int getConsecutiveSuccesses()
+    {
+        return consecutiveSuccesses;
+    }
+}
@@ -0,0 +1,20 @@
+package com.bvb.spring.jms.listener.keepalive;
+
+import com.bvb.spring.jms.listener.BackoffDefaultMessageListeningContainer;
+import com.google.common.util.concurrent.ListenableFuture;
+
+/**
+ * An asynchronous variant of the {@link KeepAliveService} for clients whose keep alive test involves I/O that may hang.  The
+ * {@link BackoffDefaultMessageListeningContainer} does not wait on the returned future, it acts on the response when the
+ * future completes.  If the future does not complete within the keep alive timeout it is cancelled and treated as a failure.
+ * A further keep alive is never started while the previous one is still in flight.
+ */
+public interface AsyncKeepAliveService
+{
+    /**
+     * The keep alive interval has expired and the client has been called to start a keep alive test.  This must not block.
+     * @return the future response of the keep alive test and what the DMLC should do.  Implementors should abandon the test
+     * if the future is cancelled.
+     */
+    ListenableFuture<KeepAliveResponse> keepAlive();
+}
@@ -5,7 +5,10 @@ import java.util.concurrent.ScheduledFuture;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
-import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
+import org.springframework.scheduling.TaskScheduler;
+
+import com.bvb.spring.jms.listener.utils.Clock;
+import com.bvb.spring.jms.listener.utils.DateUtils;
 
 /**
  * Handles the scheduling of the keep alive service and stopping/starting the keep alive.
@@ -15,16 +18,81 @@ public class KeepAliveManager
     protected final Log logger = LogFactory.getLog(getClass());
     
     private long keepAliveIntervalMs = 30000;
-    private ThreadPoolTaskScheduler scheduler;
+    private final long baseIntervalMs;
+    private AdaptiveKeepAliveInterval adaptiveInterval;
+    private TaskScheduler scheduler;
+    private final Clock clock;
     private ScheduledFuture<?> taskKeepAlive;
     private Runnable runnableOnKeepAlive;
     private boolean started = false;
     
-    public KeepAliveManager(ThreadPoolTaskScheduler scheduler, Runnable runnableOnKeepAlive, long keepAliveIntervalMs)
+    public KeepAliveManager(TaskScheduler scheduler, Runnable runnableOnKeepAlive, long keepAliveIntervalMs)
+    {
+        this(scheduler, runnableOnKeepAlive, keepAliveIntervalMs, Clock.SYSTEM);
+    }
+    
+    /**
+     * Create the manager.
+     * @param scheduler the scheduler to run the keep alive on.
+     * @param runnableOnKeepAlive the keep alive.
+     * @param keepAliveIntervalMs the interval between keep alives.
+     * @param clock the clock the keep alive is rescheduled from, which must tell the time of the scheduler.
+     */
+    public KeepAliveManager(TaskScheduler scheduler, Runnable runnableOnKeepAlive, long keepAliveIntervalMs, Clock clock)
     {
         this.scheduler = scheduler;
+        this.clock = clock;
         this.runnableOnKeepAlive = runnableOnKeepAlive;
         this.keepAliveIntervalMs = keepAliveIntervalMs;
+        this.baseIntervalMs = keepAliveIntervalMs;
+    }
+    
+    /**
+     * Set the adaptive interval used by {@link #rescheduleAfterFailure(Long)} and {@link #rescheduleAfterSuccess(Long)}.
+     * @param adaptiveInterval the adaptive interval, {@code null} to use the intervals as given.
+     */
+    public synchronized void setAdaptiveInterval(AdaptiveKeepAliveInterval adaptiveInterval)
+    {
+        this.adaptiveInterval = adaptiveInterval;
+    }
+    
+    /**
+     * Reschedule the keep alive after a failure, starting from the time the request is received.  Without an adaptive
+     * interval this is the same as {@link #rescheduleAlways(Long)}, otherwise the interval backs off from the base interval.
+     * @param keepAliveIntervalMs the interval asked for, or {@code null} to use the configured interval as the base.
+     */
+    public synchronized void rescheduleAfterFailure(Long keepAliveIntervalMs)
+    {
+        if (adaptiveInterval == null)
+        {
+            rescheduleAlways(keepAliveIntervalMs);
+        }
+        else
+        {
+            reschedule(adaptiveInterval.nextAfterFailure(getBaseInterval(keepAliveIntervalMs)), true);
+        }
+    }
+    
+    /**
+     * Reschedule the keep alive after a success, but only if the interval changes.  Without an adaptive interval this is the
+     * same as {@link #rescheduleIfDifferent(Long)}, otherwise the interval is stretched from the base interval.
+     * @param keepAliveIntervalMs the interval asked for, or {@code null} to use the configured interval as the base.
+     */
+    public synchronized void rescheduleAfterSuccess(Long keepAliveIntervalMs)
+    {
+        if (adaptiveInterval == null)
+        {
+            rescheduleIfDifferent(keepAliveIntervalMs);
+        }
+        else
+        {
+            reschedule(adaptiveInterval.nextAfterSuccess(getBaseInterval(keepAliveIntervalMs)), false);
+        }
+    }
+    
+    private long getBaseInterval(Long keepAliveIntervalMs)
+    {
+        return (keepAliveIntervalMs == null) ? baseIntervalMs : keepAliveIntervalMs;
     }
     
     /**
@@ -90,8 +158,7 @@ public class KeepAliveManager
     
     private Date getDatePlusInterval()
     {
-        Date date = new Date();
-        return new Date(date.getTime() + keepAliveIntervalMs);
+        return DateUtils.getNowPlusMs(clock, keepAliveIntervalMs);
     }
     
     private void cancel()
@@ -117,4 +184,19 @@ public class KeepAliveManager
         schedule(!started);
         started = true;
     }
+    
+    /**
+     * Start the keep alive with the first run held back, such as until a pause saved before a restart ends, then run at the
+     * interval.
+     * @param initialDelayMs the time to the first run in milliseconds.
+     */
+    public synchronized void startAfter(long initialDelayMs)
+    {
+        logger.info(String.format("KeepAlive Start called, first run in: [%d ms] then: [%d ms]", initialDelayMs,
+            keepAliveIntervalMs));
+        cancel();
+        taskKeepAlive = scheduler.scheduleWithFixedDelay(runnableOnKeepAlive, DateUtils.getNowPlusMs(clock, initialDelayMs),
+            keepAliveIntervalMs);
+        started = true;
+    }
 }
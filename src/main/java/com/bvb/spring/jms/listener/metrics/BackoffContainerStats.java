@@ -0,0 +1,168 @@
+package com.bvb.spring.jms.listener.metrics;
+
+import com.bvb.spring.jms.listener.BackoffDefaultMessageListeningContainer;
+import com.bvb.spring.jms.listener.breaker.CircuitBreaker;
+import com.bvb.spring.jms.listener.dedupe.MessageIdDedupeCache;
+
+/**
+ * Exposes the {@link ContainerMetrics} and the throttling state of a container as an MXBean.
+ */
+public class BackoffContainerStats implements BackoffContainerStatsMXBean
+{
+    private static final double P50 = 50;
+    private static final double P99 = 99;
+    private static final double P999 = 99.9;
+    private static final double MAX = 100;
+    
+    private final BackoffDefaultMessageListeningContainer container;
+    private final ContainerMetrics metrics;
+    
+    public BackoffContainerStats(BackoffDefaultMessageListeningContainer container)
+    {
+        this.container = container;
+        this.metrics = container.getMetrics();
+    }
+
+    @Override
+    public long getMessagesReceived()
+    {
+        return metrics.getMessagesReceived();
+    }
+
+    @Override
+    public long getListenerFailures()
+    {
+        return metrics.getListenerFailures();
+    }
+
+    @Override
+    public double getMessagesPerSecond()
+    {
+        return metrics.getWindowMessagesPerSecond();
+    }
+
+    @Override
+    public long getListenerLatencyP50Micros()
+    {
+        return metrics.getWindowListenerLatencyMicros(P50);
+    }
+
+    @Override
+    public long getListenerLatencyP99Micros()
+    {
+        return metrics.getWindowListenerLatencyMicros(P99);
+    }
+
+    @Override
+    public long getListenerLatencyP999Micros()
+    {
+        return metrics.getWindowListenerLatencyMicros(P999);
+    }
+
+    @Override
+    public long getListenerLatencyMaxMicros()
+    {
+        return metrics.getWindowListenerLatencyMicros(MAX);
+    }
+
+    @Override
+    public long getDwellTimeP50Ms()
+    {
+        return metrics.getWindowDwellTimeMs(P50);
+    }
+
+    @Override
+    public long getDwellTimeP99Ms()
+    {
+        return metrics.getWindowDwellTimeMs(P99);
+    }
+
+    @Override
+    public long getDwellTimeP999Ms()
+    {
+        return metrics.getWindowDwellTimeMs(P999);
+    }
+
+    @Override
+    public boolean isPaused()
+    {
+        return metrics.isPaused();
+    }
+
+    @Override
+    public long getPauseCount()
+    {
+        return metrics.getPauseCount();
+    }
+
+    @Override
+    public long getTotalPausedMs()
+    {
+        return metrics.getTotalPausedMs();
+    }
+
+    @Override
+    public boolean isThrottled()
+    {
+        return container.isThrottled();
+    }
+
+    @Override
+    public int getConcurrentConsumers()
+    {
+        return container.getConcurrentConsumers();
+    }
+
+    @Override
+    public int getMaxConcurrentConsumers()
+    {
+        return container.getMaxConcurrentConsumers();
+    }
+
+    @Override
+    public int getActiveConsumerCount()
+    {
+        return container.getActiveConsumerCount();
+    }
+
+    @Override
+    public double getCurrentMaxMessagesPerSecond()
+    {
+        return container.getCurrentMaxMessagesPerSecond();
+    }
+
+    @Override
+    public String getCircuitBreakerState()
+    {
+        CircuitBreaker breaker = container.getCircuitBreaker();
+        return (breaker == null) ? "NONE" : breaker.getState().name();
+    }
+
+    @Override
+    public long getDedupeHits()
+    {
+        MessageIdDedupeCache cache = container.getDedupeCache();
+        return (cache == null) ? 0 : cache.getHits();
+    }
+
+    @Override
+    public long getDedupeMisses()
+    {
+        MessageIdDedupeCache cache = container.getDedupeCache();
+        return (cache == null) ? 0 : cache.getMisses();
+    }
+
+    @Override
+    public long getDedupeEvictions()
+    {
+        MessageIdDedupeCache cache = container.getDedupeCache();
+        return (cache == null) ? 0 : cache.getEvictions();
+    }
+
+    @Override
+    public int getDedupeSize()
+    {
+        MessageIdDedupeCache cache = container.getDedupeCache();
+        return (cache == null) ? 0 : cache.size();
+    }
+}
@@ -0,0 +1,70 @@
+package com.bvb.spring.jms.listener.metrics;
+
+/**
+ * The statistics of a {@link com.bvb.spring.jms.listener.BackoffDefaultMessageListeningContainer} exposed over JMX.  The
+ * counts are totals since the container was built, the rate and the latencies are over the last metrics window closed.
+ */
+public interface BackoffContainerStatsMXBean
+{
+    long getMessagesReceived();
+    
+    long getListenerFailures();
+    
+    /**
+     * Get the messages received per second over the last metrics window.
+     * @return the messages per second.
+     */
+    double getMessagesPerSecond();
+    
+    long getListenerLatencyP50Micros();
+    
+    long getListenerLatencyP99Micros();
+    
+    long getListenerLatencyP999Micros();
+    
+    long getListenerLatencyMaxMicros();
+    
+    long getDwellTimeP50Ms();
+    
+    long getDwellTimeP99Ms();
+    
+    long getDwellTimeP999Ms();
+    
+    boolean isPaused();
+    
+    long getPauseCount();
+    
+    long getTotalPausedMs();
+    
+    boolean isThrottled();
+    
+    int getConcurrentConsumers();
+    
+    int getMaxConcurrentConsumers();
+    
+    int getActiveConsumerCount();
+    
+    /**
+     * Get the current max messages per second.
+     * @return the max rate, {@code Infinity} if there is no limit.
+     */
+    double getCurrentMaxMessagesPerSecond();
+    
+    /**
+     * Get the state of the circuit breaker.
+     * @return the state, or {@code NONE} if the container has no circuit breaker.
+     */
+    String getCircuitBreakerState();
+    
+    /**
+     * Get the number of duplicate deliveries acknowledged without invoking the listener.
+     * @return the hits of the dedupe cache, {@code 0} if the container has none.
+     */
+    long getDedupeHits();
+    
+    long getDedupeMisses();
+    
+    long getDedupeEvictions();
+    
+    int getDedupeSize();
+}
@@ -0,0 +1,228 @@
+package com.bvb.spring.jms.listener.metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.jms.JMSException;
+import javax.jms.Message;
+
+import com.bvb.spring.jms.listener.utils.Clock;
+
+/**
+ * Records what a container has consumed: the number of messages and listener failures, the latency of the listener, how
+ * long messages waited on the queue before being received and the time spent paused.  Everything recorded on the message
+ * path uses {@link StripedCounter}s and {@link LatencyHistogram}s so recording allocates nothing and rarely contends.
+ * The pauses and rates are timed by the {@link Clock} of the container, the dwell time by the system clock as it is measured
+ * from the timestamp the producer gave the message.
+ * <p>
+ * The counts are totals since the container was built.  The message rate and the latency percentiles are taken over a
+ * window, closed by {@link #rollWindow()} on the task scheduler of the container while its MBean is registered, so they
+ * describe the recent traffic rather than the whole life of the container and reading them never changes what another
+ * reader sees.
+ */
+public class ContainerMetrics
+{
+    public static final long DEFAULT_WINDOW_MS = TimeUnit.MINUTES.toMillis(1);
+    
+    private final StripedCounter messagesReceived = new StripedCounter();
+    private final StripedCounter listenerFailures = new StripedCounter();
+    private final LatencyHistogram listenerLatencyMicros = new LatencyHistogram();
+    private final LatencyHistogram dwellTimeMs = new LatencyHistogram();
+    private final AtomicLong totalPausedMs = new AtomicLong();
+    private final AtomicLong pauseCount = new AtomicLong();
+    private final Object pauseLock = new Object();
+    private long pausedSinceMs;
+    private volatile Clock clock = Clock.SYSTEM;
+    // the state at the start of the current window, only touched while holding the lock of this
+    private long windowStartCount;
+    private long windowStartNanos = clock.nanoTime();
+    private final long[] listenerLatencyAtWindowStart = new long[listenerLatencyMicros.getBucketCount()];
+    private final long[] dwellTimeAtWindowStart = new long[dwellTimeMs.getBucketCount()];
+    // the last window closed, replaced rather than changed so a reader always sees one whole window
+    private volatile double windowMessagesPerSecond;
+    private volatile long[] windowListenerLatencyMicros = new long[0];
+    private volatile long[] windowDwellTimeMs = new long[0];
+    
+    /**
+     * Set the clock the pauses and rates are timed by, before anything is recorded.
+     * @param clock the clock.
+     */
+    public synchronized void setClock(Clock clock)
+    {
+        this.clock = clock;
+        windowStartNanos = clock.nanoTime();
+    }
+    
+    /**
+     * A message has been received, record it and how long it waited on the queue.
+     * @param message the message.
+     */
+    public void messageReceived(Message message)
+    {
+        messagesReceived.increment();
+        try
+        {
+            long timestamp = message.getJMSTimestamp();
+            // producers may disable timestamps
+            if (timestamp > 0)
+            {
+                dwellTimeMs.record(System.currentTimeMillis() - timestamp);
+            }
+        }
+        catch (JMSException ex)
+        {
+            /* Dwell time is not available */
+        }
+    }
+    
+    /**
+     * The listener has completed.
+     * @param durationNanos how long the listener took.
+     * @param success {@code true} if it completed successfully, {@code false} if it threw an exception.
+     */
+    public void listenerCompleted(long durationNanos, boolean success)
+    {
+        listenerLatencyMicros.record(TimeUnit.NANOSECONDS.toMicros(durationNanos));
+        if (!success)
+        {
+            listenerFailures.increment();
+        }
+    }
+    
+    /**
+     * The container has been paused.
+     */
+    public void paused()
+    {
+        synchronized (pauseLock)
+        {
+            if (pausedSinceMs == 0)
+            {
+                pausedSinceMs = clock.currentTimeMillis();
+                pauseCount.incrementAndGet();
+            }
+        }
+    }
+    
+    /**
+     * The container has resumed, nothing is recorded if it was not paused.
+     */
+    public void resumed()
+    {
+        synchronized (pauseLock)
+        {
+            if (pausedSinceMs != 0)
+            {
+                totalPausedMs.addAndGet(clock.currentTimeMillis() - pausedSinceMs);
+                pausedSinceMs = 0;
+            }
+        }
+    }
+    
+    public boolean isPaused()
+    {
+        synchronized (pauseLock)
+        {
+            return pausedSinceMs != 0;
+        }
+    }
+    
+    /**
+     * Get the total time spent paused, including the current pause.
+     * @return the time paused in milliseconds.
+     */
+    public long getTotalPausedMs()
+    {
+        synchronized (pauseLock)
+        {
+            long current = (pausedSinceMs == 0) ? 0 : clock.currentTimeMillis() - pausedSinceMs;
+            return totalPausedMs.get() + current;
+        }
+    }
+    
+    public long getPauseCount()
+    {
+        return pauseCount.get();
+    }
+    
+    public long getMessagesReceived()
+    {
+        return messagesReceived.sum();
+    }
+    
+    public long getListenerFailures()
+    {
+        return listenerFailures.sum();
+    }
+    
+    /**
+     * Close the current window and start the next.  The rate and percentiles of the window closed are reported until the
+     * next one is closed.
+     */
+    public synchronized void rollWindow()
+    {
+        long count = messagesReceived.sum();
+        long now = clock.nanoTime();
+        double seconds = (now - windowStartNanos) / (double) TimeUnit.SECONDS.toNanos(1);
+        windowMessagesPerSecond = (seconds <= 0) ? 0 : (count - windowStartCount) / seconds;
+        windowStartCount = count;
+        windowStartNanos = now;
+        windowListenerLatencyMicros = rollHistogram(listenerLatencyMicros, listenerLatencyAtWindowStart);
+        windowDwellTimeMs = rollHistogram(dwellTimeMs, dwellTimeAtWindowStart);
+    }
+    
+    /*
+     * Returns the counts recorded since the start of the window and moves the start up to now.
+     */
+    private static long[] rollHistogram(LatencyHistogram histogram, long[] atWindowStart)
+    {
+        long[] window = new long[atWindowStart.length];
+        histogram.copyCounts(window);
+        for (int i = 0; i < window.length; i++)
+        {
+            long total = window[i];
+            window[i] = total - atWindowStart[i];
+            atWindowStart[i] = total;
+        }
+        return window;
+    }
+    
+    /**
+     * Get the messages received per second over the last window closed.
+     * @return the messages per second, {@code 0} until the first window is closed.
+     */
+    public double getWindowMessagesPerSecond()
+    {
+        return windowMessagesPerSecond;
+    }
+    
+    /**
+     * Get the listener latency at a percentile of the invocations completed in the last window closed.
+     * @param percentile the percentile between 0 and 100, 100 for the max.
+     * @return the latency in microseconds, {@code 0} if there were none.
+     */
+    public long getWindowListenerLatencyMicros(double percentile)
+    {
+        return LatencyHistogram.getValueAtPercentile(windowListenerLatencyMicros, percentile);
+    }
+    
+    /**
+     * Get the dwell time at a percentile of the messages received in the last window closed.
+     * @param percentile the percentile between 0 and 100, 100 for the max.
+     * @return the dwell time in milliseconds, {@code 0} if there were none.
+     */
+    public long getWindowDwellTimeMs(double percentile)
+    {
+        return LatencyHistogram.getValueAtPercentile(windowDwellTimeMs, percentile);
+    }
+    
+    public LatencyHistogram getListenerLatencyMicros()
+    {
+        return listenerLatencyMicros;
+    }
+    
+    public LatencyHistogram getDwellTimeMs()
+    {
+        return dwellTimeMs;
+    }
+}
@@ -0,0 +1,146 @@
+package com.bvb.spring.jms.listener.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A fixed memory histogram of non negative values with log-linear buckets, each power of 2 range is split into 64 linear
+ * buckets, so any value is reported within about 1.5% of its real value.  Values larger than the max trackable value are
+ * counted in the highest bucket.  Recording a value allocates nothing and takes a single atomic increment, so it is cheap
+ * enough to call for every message.  The unit of the values is decided by the caller.
+ */
+public class LatencyHistogram
+{
+    private static final int SUB_BUCKET_BITS = 7;
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+    private static final int SUB_BUCKET_HALF = SUB_BUCKET_COUNT >> 1;
+    private static final int MAX_BITS = 40;
+    
+    private final AtomicLongArray counts = new AtomicLongArray(indexFor(Long.MAX_VALUE) + 1);
+    
+    /**
+     * Record a value, negative values are recorded as 0.
+     * @param value the value to record.
+     */
+    public void record(long value)
+    {
+        counts.incrementAndGet(indexFor(value));
+    }
+    
+    /**
+     * Get the number of values recorded.
+     * @return the count.
+     */
+    public long getCount()
+    {
+        long total = 0;
+        for (int i = 0; i < counts.length(); i++)
+        {
+            total += counts.get(i);
+        }
+        return total;
+    }
+    
+    /**
+     * Get the value at a percentile of the values recorded.
+     * @param percentile the percentile between 0 and 100, e.g. 99.9.
+     * @return the highest value equivalent to the value at the percentile, or {@code 0} if nothing has been recorded.
+     */
+    public long getValueAtPercentile(double percentile)
+    {
+        long[] snapshot = new long[counts.length()];
+        copyCounts(snapshot);
+        return getValueAtPercentile(snapshot, percentile);
+    }
+    
+    /**
+     * Get the highest value recorded.
+     * @return the highest value equivalent to the max recorded, or {@code 0} if nothing has been recorded.
+     */
+    public long getMax()
+    {
+        for (int i = counts.length() - 1; i >= 0; i--)
+        {
+            if (counts.get(i) > 0)
+            {
+                return highestValueAt(i);
+            }
+        }
+        return 0;
+    }
+    
+    /**
+     * Copy the count of each bucket into an array, which can be compared against an earlier copy to find the values
+     * recorded during an interval.
+     * @param into the array to copy into, of at least {@link #getBucketCount()} length.
+     */
+    public void copyCounts(long[] into)
+    {
+        for (int i = 0; i < counts.length(); i++)
+        {
+            into[i] = counts.get(i);
+        }
+    }
+    
+    /**
+     * Get the number of buckets.
+     * @return the number of buckets.
+     */
+    public int getBucketCount()
+    {
+        return counts.length();
+    }
+    
+    /**
+     * Get the value at a percentile from bucket counts copied with {@link #copyCounts(long[])}.
+     * @param bucketCounts the counts of each bucket.
+     * @param percentile the percentile between 0 and 100.
+     * @return the highest value equivalent to the value at the percentile, or {@code 0} if the counts are all 0.
+     */
+    public static long getValueAtPercentile(long[] bucketCounts, double percentile)
+    {
+        long total = 0;
+        for (long count : bucketCounts)
+        {
+            total += count;
+        }
+        if (total == 0)
+        {
+            return 0;
+        }
+        long target = Math.max(1, (long) Math.ceil(total * (percentile / 100.0)));
+        long seen = 0;
+        for (int i = 0; i < bucketCounts.length; i++)
+        {
+            seen += bucketCounts[i];
+            if (seen >= target)
+            {
+                return highestValueAt(i);
+            }
+        }
+        return highestValueAt(bucketCounts.length - 1);
+    }
+    
+    static int indexFor(long value)
+    {
+        long capped = Math.min(Math.max(value, 0), (1L << MAX_BITS) - 1);
+        if (capped < SUB_BUCKET_COUNT)
+        {
+            return (int) capped;
+        }
+        int shift = (63 - Long.numberOfLeadingZeros(capped)) - (SUB_BUCKET_BITS - 1);
+        int top = (int) (capped >>> shift);
+        return SUB_BUCKET_COUNT + (shift - 1) * SUB_BUCKET_HALF + (top - SUB_BUCKET_HALF);
+    }
+    
+    static long highestValueAt(int index)
+    {
+        if (index < SUB_BUCKET_COUNT)
+        {
+            return index;
+        }
+        int offset = index - SUB_BUCKET_COUNT;
+        int shift = offset / SUB_BUCKET_HALF + 1;
+        long top = offset % SUB_BUCKET_HALF + SUB_BUCKET_HALF;
+        return ((top + 1) << shift) - 1;
+    }
+}
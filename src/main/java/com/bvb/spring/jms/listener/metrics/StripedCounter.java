@@ -0,0 +1,62 @@
+package com.bvb.spring.jms.listener.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A counter spread over several cells, each on its own cache line, so that threads incrementing it concurrently rarely
+ * contend on the same cell.  Reading the counter sums the cells and is more expensive than incrementing it.
+ */
+public class StripedCounter
+{
+    /*
+     * Longs between the cells used, so each used cell sits on its own 64 byte cache line.
+     */
+    private static final int PADDING = 8;
+    
+    private final AtomicLongArray cells;
+    private final int mask;
+    
+    public StripedCounter()
+    {
+        this(Runtime.getRuntime().availableProcessors() * 2);
+    }
+    
+    /**
+     * Build with the number of stripes, which is rounded up to a power of 2.
+     * @param stripes the number of stripes.
+     */
+    public StripedCounter(int stripes)
+    {
+        int size = Integer.highestOneBit(Math.max(1, stripes - 1)) << 1;
+        this.mask = size - 1;
+        this.cells = new AtomicLongArray(size * PADDING);
+    }
+    
+    public void increment()
+    {
+        add(1);
+    }
+    
+    public void add(long value)
+    {
+        cells.getAndAdd(index() * PADDING, value);
+    }
+    
+    public long sum()
+    {
+        long sum = 0;
+        for (int i = 0; i <= mask; i++)
+        {
+            sum += cells.get(i * PADDING);
+        }
+        return sum;
+    }
+    
+    private int index()
+    {
+        long id = Thread.currentThread().getId();
+        // spread the sequential thread ids over the stripes
+        id *= 0x9E3779B97F4A7C15L;
+        return (int) (id >>> 32) & mask;
+    }
+}
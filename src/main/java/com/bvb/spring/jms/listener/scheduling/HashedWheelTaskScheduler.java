@@ -0,0 +1,680 @@
+package com.bvb.spring.jms.listener.scheduling;
+
+import java.util.Date;
+import java.util.Queue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.scheduling.TaskScheduler;
+import org.springframework.scheduling.Trigger;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.scheduling.support.SimpleTriggerContext;
+import org.springframework.util.Assert;
+
+/**
+ * A {@link TaskScheduler} backed by a hashed timer wheel, so that many containers can share one ticker thread and a small
+ * pool of worker threads for their keep alive and throttle relax tasks rather than each building its own scheduler.
+ * <p>
+ * The wheel is an array of buckets, each covering one tick.  A task is placed in the bucket its deadline falls in along with
+ * the number of full turns of the wheel still to go, so adding, cancelling and expiring a task are all constant time however
+ * many tasks are scheduled.  The price is precision, a task runs up to one tick after its deadline but never before it.  The
+ * tasks are run on the worker threads so that a slow keep alive service does not hold up the wheel, a repeating task is
+ * placed back on the wheel once its run has finished so it never runs concurrently with itself.  The worker threads can be
+ * replaced by any executor with {@link #setTaskExecutor(Executor)}, such as one starting a virtual thread per task.
+ * <p>
+ * The threads are only started when the first task is scheduled.  Exceptions thrown by repeating tasks are logged and the
+ * task carries on repeating, as with the Spring schedulers.
+ * <p>
+ * Every container given the same scheduler shares its workers, so a task that blocks, such as a keep alive service waiting
+ * on a slow upstream, holds up the tasks of the others once every worker is blocked.  Share one between containers whose
+ * tasks do not block, for example with an {@link com.bvb.spring.jms.listener.keepalive.AsyncKeepAliveService}, or run the
+ * tasks on an executor starting a thread per task.  A scheduler built by {@link #createShared(String, Executor)} ignores
+ * {@link #shutdown()} so that no one container can stop the scheduling of the rest.
+ */
+public class HashedWheelTaskScheduler implements TaskScheduler, DisposableBean
+{
+    public static final long DEFAULT_TICK_MS = 100;
+    public static final int DEFAULT_WHEEL_SIZE = 512;
+    public static final int DEFAULT_WORKER_COUNT = 4;
+
+    private static final String SHARED_THREAD_NAME_PREFIX = "BackoffDmlcScheduler-";
+    // nanoTime() may be negative, so no deadline value can double as "does not run again" except one it never reaches
+    private static final long NO_NEXT_DEADLINE = Long.MIN_VALUE;
+
+    protected final Log logger = LogFactory.getLog(getClass());
+
+    private final long tickNanos;
+    private final Bucket[] wheel;
+    private final int mask;
+    private final int workerCount;
+    private final Queue<WheelTimeout> pending = new ConcurrentLinkedQueue<WheelTimeout>();
+    private final Object lifecycleLock = new Object();
+    private String threadNamePrefix = "WheelScheduler-";
+    private Thread ticker;
+    private Executor taskExecutor;
+    private ThreadPoolTaskExecutor workers;
+    private Executor executor;
+    private volatile boolean shutdown = false;
+    private long startNanos;
+    private long tick;
+
+    /**
+     * Build a scheduler with the default tick of {@value #DEFAULT_TICK_MS} ms, {@value #DEFAULT_WHEEL_SIZE} buckets and
+     * {@value #DEFAULT_WORKER_COUNT} worker threads.
+     */
+    public HashedWheelTaskScheduler()
+    {
+        this(DEFAULT_TICK_MS, DEFAULT_WHEEL_SIZE, DEFAULT_WORKER_COUNT);
+    }
+
+    /**
+     * Build a scheduler.
+     * @param tickMs the length of a tick in milliseconds, the precision of the scheduling.
+     * @param wheelSize the number of buckets, rounded up to a power of two.  Tasks further away than the ticks in one turn of
+     * the wheel are still scheduled, they are passed over until their last turn.
+     * @param workerCount the number of threads that run the tasks, unless they are given an executor to run on.
+     */
+    public HashedWheelTaskScheduler(long tickMs, int wheelSize, int workerCount)
+    {
+        Assert.isTrue(tickMs > 0, "tickMs must be greater than 0");
+        Assert.isTrue(wheelSize > 0 && wheelSize <= (1 << 30), "wheelSize must be between 1 and 2^30");
+        Assert.isTrue(workerCount > 0, "workerCount must be at least 1");
+        this.tickNanos = TimeUnit.MILLISECONDS.toNanos(tickMs);
+        this.workerCount = workerCount;
+        int size = Integer.highestOneBit(wheelSize);
+        if (size < wheelSize)
+        {
+            size <<= 1;
+        }
+        this.wheel = new Bucket[size];
+        for (int i = 0; i < size; i++)
+        {
+            wheel[i] = new Bucket();
+        }
+        this.mask = size - 1;
+    }
+
+    /**
+     * Get a scheduler for the containers of the JVM to share, given to each with
+     * {@link com.bvb.spring.jms.listener.BackoffDefaultMessageListeningContainer#setTaskScheduler(TaskScheduler)}.  It uses
+     * the defaults and daemon threads, it is never shut down and its tasks should not block.
+     * @return the shared scheduler.
+     */
+    public static HashedWheelTaskScheduler getSharedInstance()
+    {
+        return SharedHolder.INSTANCE;
+    }
+    
+    /**
+     * Build a scheduler with the defaults to be shared by many containers.  It cannot be shut down or reconfigured once
+     * built, {@link #shutdown()} and {@link #destroy()} are ignored, and its threads are daemon threads.
+     * @param threadNamePrefix the prefix of the names of the ticker and worker threads.
+     * @param taskExecutor the executor the tasks are run on, or {@code null} for the pool of worker threads.
+     * @return the scheduler.
+     */
+    public static HashedWheelTaskScheduler createShared(String threadNamePrefix, Executor taskExecutor)
+    {
+        SharedHashedWheelTaskScheduler scheduler = new SharedHashedWheelTaskScheduler();
+        scheduler.setThreadNamePrefix(threadNamePrefix);
+        scheduler.setTaskExecutor(taskExecutor);
+        scheduler.sealed = true;
+        return scheduler;
+    }
+
+    /**
+     * Set the prefix of the names of the ticker and worker threads.
+     * @param threadNamePrefix the prefix.
+     */
+    public void setThreadNamePrefix(String threadNamePrefix)
+    {
+        this.threadNamePrefix = threadNamePrefix;
+    }
+
+    /**
+     * Set the executor the tasks are run on in place of the pool of worker threads, for example one running each task on a
+     * thread of its own.  It is not shut down with the scheduler.  Must be set before the first task is scheduled.
+     * @param taskExecutor the executor.
+     */
+    public void setTaskExecutor(Executor taskExecutor)
+    {
+        this.taskExecutor = taskExecutor;
+    }
+
+    /**
+     * Get the length of a tick, the precision of the scheduling.
+     * @return the tick in milliseconds.
+     */
+    public long getTickMs()
+    {
+        return TimeUnit.NANOSECONDS.toMillis(tickNanos);
+    }
+
+    /**
+     * Get the number of buckets in the wheel.
+     * @return the number of buckets.
+     */
+    public int getWheelSize()
+    {
+        return wheel.length;
+    }
+
+    @Override
+    public ScheduledFuture<?> schedule(Runnable task, Trigger trigger)
+    {
+        Assert.notNull(trigger, "trigger must not be null");
+        TriggerTimeout timeout = new TriggerTimeout(task, trigger);
+        Date first = trigger.nextExecutionTime(timeout.triggerContext);
+        if (first == null)
+        {
+            return null;
+        }
+        timeout.scheduledFor = first;
+        return submit(timeout, toNanoTime(first));
+    }
+
+    @Override
+    public ScheduledFuture<?> schedule(Runnable task, Date startTime)
+    {
+        return submit(new WheelTimeout(task, 0), toNanoTime(startTime));
+    }
+
+    @Override
+    public ScheduledFuture<?> scheduleAtFixedRate(Runnable task, Date startTime, long period)
+    {
+        Assert.isTrue(period > 0, "period must be greater than 0");
+        return submit(new WheelTimeout(task, TimeUnit.MILLISECONDS.toNanos(period)), toNanoTime(startTime));
+    }
+
+    @Override
+    public ScheduledFuture<?> scheduleAtFixedRate(Runnable task, long period)
+    {
+        return scheduleAtFixedRate(task, new Date(), period);
+    }
+
+    @Override
+    public ScheduledFuture<?> scheduleWithFixedDelay(Runnable task, Date startTime, long delay)
+    {
+        Assert.isTrue(delay > 0, "delay must be greater than 0");
+        return submit(new WheelTimeout(task, -TimeUnit.MILLISECONDS.toNanos(delay)), toNanoTime(startTime));
+    }
+
+    @Override
+    public ScheduledFuture<?> scheduleWithFixedDelay(Runnable task, long delay)
+    {
+        return scheduleWithFixedDelay(task, new Date(), delay);
+    }
+
+    private long toNanoTime(Date date)
+    {
+        Assert.notNull(date, "startTime must not be null");
+        return nanoTime() + TimeUnit.MILLISECONDS.toNanos(date.getTime() - System.currentTimeMillis());
+    }
+
+    /*
+     * The clock of every deadline, only overridden by the tests to move its origin.
+     */
+    long nanoTime()
+    {
+        return System.nanoTime();
+    }
+
+    private WheelTimeout submit(WheelTimeout timeout, long deadlineNanos)
+    {
+        synchronized (lifecycleLock)
+        {
+            if (shutdown)
+            {
+                throw new TaskRejectedException("The scheduler has been shut down, task not scheduled");
+            }
+            startIfRequired();
+        }
+        timeout.deadlineNanos = deadlineNanos;
+        pending.add(timeout);
+        return timeout;
+    }
+
+    private void startIfRequired()
+    {
+        if (ticker == null)
+        {
+            if (taskExecutor == null)
+            {
+                workers = new ThreadPoolTaskExecutor();
+                workers.setThreadNamePrefix(threadNamePrefix + "Worker-");
+                workers.setCorePoolSize(workerCount);
+                workers.setMaxPoolSize(workerCount);
+                workers.setDaemon(true);
+                workers.initialize();
+                executor = workers;
+            }
+            else
+            {
+                executor = taskExecutor;
+            }
+
+            startNanos = nanoTime();
+            ticker = new Thread(new Ticker(), threadNamePrefix + "Ticker");
+            ticker.setDaemon(true);
+            ticker.start();
+        }
+    }
+
+    /**
+     * Stop the ticker and worker threads.  Tasks already running are left to finish, no further tasks are run and any attempt
+     * to schedule a task is rejected.
+     */
+    public void shutdown()
+    {
+        synchronized (lifecycleLock)
+        {
+            shutdown = true;
+            if (ticker != null)
+            {
+                ticker.interrupt();
+            }
+            if (workers != null)
+            {
+                workers.shutdown();
+            }
+            pending.clear();
+        }
+    }
+
+    @Override
+    public void destroy()
+    {
+        shutdown();
+    }
+
+    /*
+     * Called on a worker thread once a repeating task has run, the ticker picks it up on its next tick.
+     */
+    private void reschedule(WheelTimeout timeout, long deadlineNanos)
+    {
+        if (!shutdown)
+        {
+            timeout.deadlineNanos = deadlineNanos;
+            pending.add(timeout);
+        }
+    }
+
+    private void expire(WheelTimeout timeout)
+    {
+        try
+        {
+            executor.execute(timeout);
+        }
+        catch (RejectedExecutionException ex)
+        {
+            logger.debug("Scheduler shut down while expiring tasks", ex);
+        }
+    }
+
+    private class Ticker implements Runnable
+    {
+
+        @Override
+        public void run()
+        {
+            while (!shutdown)
+            {
+                if (!waitForNextTick())
+                {
+                    return;
+                }
+                transferPending();
+                expireBucket(wheel[(int) (tick & mask)]);
+                tick++;
+            }
+        }
+
+        /*
+         * Tick n is processed once n + 1 ticks have passed since the start, so no task runs before its deadline.
+         */
+        private boolean waitForNextTick()
+        {
+            long tickEnd = startNanos + (tick + 1) * tickNanos;
+            long sleepNanos;
+            while ((sleepNanos = tickEnd - nanoTime()) > 0)
+            {
+                try
+                {
+                    TimeUnit.NANOSECONDS.sleep(sleepNanos);
+                }
+                catch (InterruptedException ex)
+                {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private void transferPending()
+        {
+            WheelTimeout timeout;
+            while ((timeout = pending.poll()) != null)
+            {
+                if (timeout.isCancelled())
+                {
+                    continue;
+                }
+                // a deadline already passed is run on this tick
+                long deadlineTick = Math.max(tick, (timeout.deadlineNanos - startNanos) / tickNanos);
+                timeout.remainingRounds = (deadlineTick - tick) / wheel.length;
+                wheel[(int) (deadlineTick & mask)].add(timeout);
+            }
+        }
+
+        private void expireBucket(Bucket bucket)
+        {
+            WheelTimeout timeout = bucket.head;
+            while (timeout != null)
+            {
+                WheelTimeout next = timeout.next;
+                if (timeout.isCancelled())
+                {
+                    bucket.remove(timeout);
+                }
+                else if (timeout.remainingRounds <= 0)
+                {
+                    bucket.remove(timeout);
+                    expire(timeout);
+                }
+                else
+                {
+                    timeout.remainingRounds--;
+                }
+                timeout = next;
+            }
+        }
+
+    }
+
+    /*
+     * A doubly linked list of the tasks in one bucket, only touched by the ticker thread.
+     */
+    private static class Bucket
+    {
+        private WheelTimeout head;
+        private WheelTimeout tail;
+
+        void add(WheelTimeout timeout)
+        {
+            timeout.prev = tail;
+            timeout.next = null;
+            if (tail == null)
+            {
+                head = timeout;
+            }
+            else
+            {
+                tail.next = timeout;
+            }
+            tail = timeout;
+        }
+
+        void remove(WheelTimeout timeout)
+        {
+            if (timeout.prev == null)
+            {
+                head = timeout.next;
+            }
+            else
+            {
+                timeout.prev.next = timeout.next;
+            }
+            if (timeout.next == null)
+            {
+                tail = timeout.prev;
+            }
+            else
+            {
+                timeout.next.prev = timeout.prev;
+            }
+            timeout.prev = null;
+            timeout.next = null;
+        }
+    }
+
+    /**
+     * A task on the wheel and its future.  The period is {@code 0} for a task that runs once, positive for a fixed rate and
+     * negative for a fixed delay, as with the JDK {@link java.util.concurrent.ScheduledThreadPoolExecutor}.
+     */
+    private class WheelTimeout implements ScheduledFuture<Object>, Runnable
+    {
+        private final Runnable task;
+        private final long periodNanos;
+        private volatile long deadlineNanos;
+        private boolean cancelled;
+        private boolean done;
+        private Throwable failure;
+        // only touched by the ticker thread
+        private long remainingRounds;
+        private WheelTimeout prev;
+        private WheelTimeout next;
+
+        WheelTimeout(Runnable task, long periodNanos)
+        {
+            Assert.notNull(task, "task must not be null");
+            this.task = task;
+            this.periodNanos = periodNanos;
+        }
+
+        @Override
+        public void run()
+        {
+            if (isCancelled())
+            {
+                return;
+            }
+            long started = nanoTime();
+            Throwable thrown = null;
+            try
+            {
+                task.run();
+            }
+            catch (Throwable ex)
+            {
+                logger.error(String.format("Unexpected error running scheduled task: [%s]", task), ex);
+                thrown = ex;
+            }
+            long nextDeadline = isRepeating() ? nextDeadlineNanos(started, nanoTime()) : NO_NEXT_DEADLINE;
+            if (nextDeadline == NO_NEXT_DEADLINE)
+            {
+                completed(thrown);
+            }
+            else if (!isCancelled())
+            {
+                reschedule(this, nextDeadline);
+            }
+        }
+
+        protected boolean isRepeating()
+        {
+            return periodNanos != 0;
+        }
+
+        /*
+         * Only called for a repeating task, returns the next deadline or NO_NEXT_DEADLINE if the task does not run again.
+         */
+        protected long nextDeadlineNanos(long startedNanos, long finishedNanos)
+        {
+            if (periodNanos > 0)
+            {
+                return deadlineNanos + periodNanos;
+            }
+            return finishedNanos - periodNanos;
+        }
+
+        private synchronized void completed(Throwable thrown)
+        {
+            done = true;
+            failure = thrown;
+            notifyAll();
+        }
+
+        @Override
+        public synchronized boolean cancel(boolean mayInterruptIfRunning)
+        {
+            if (done || cancelled)
+            {
+                return false;
+            }
+            // removed from its bucket when the ticker next passes over it
+            cancelled = true;
+            notifyAll();
+            return true;
+        }
+
+        @Override
+        public synchronized boolean isCancelled()
+        {
+            return cancelled;
+        }
+
+        @Override
+        public synchronized boolean isDone()
+        {
+            return done || cancelled;
+        }
+
+        @Override
+        public synchronized Object get() throws InterruptedException, ExecutionException
+        {
+            while (!isDone())
+            {
+                wait();
+            }
+            return result();
+        }
+
+        @Override
+        public synchronized Object get(long timeout, TimeUnit unit)
+            throws InterruptedException, ExecutionException, TimeoutException
+        {
+            long waitUntil = nanoTime() + unit.toNanos(timeout);
+            long remaining;
+            while (!isDone())
+            {
+                remaining = waitUntil - nanoTime();
+                if (remaining <= 0)
+                {
+                    throw new TimeoutException();
+                }
+                TimeUnit.NANOSECONDS.timedWait(this, remaining);
+            }
+            return result();
+        }
+
+        private Object result() throws ExecutionException
+        {
+            if (cancelled)
+            {
+                throw new CancellationException();
+            }
+            if (failure != null)
+            {
+                throw new ExecutionException(failure);
+            }
+            return null;
+        }
+
+        @Override
+        public long getDelay(TimeUnit unit)
+        {
+            return unit.convert(deadlineNanos - nanoTime(), TimeUnit.NANOSECONDS);
+        }
+
+        @Override
+        public int compareTo(Delayed other)
+        {
+            if (other == this)
+            {
+                return 0;
+            }
+            long diff = getDelay(TimeUnit.NANOSECONDS) - other.getDelay(TimeUnit.NANOSECONDS);
+            return (diff < 0) ? -1 : ((diff > 0) ? 1 : 0);
+        }
+    }
+
+    private class TriggerTimeout extends WheelTimeout
+    {
+        private final Trigger trigger;
+        private final SimpleTriggerContext triggerContext = new SimpleTriggerContext();
+        private volatile Date scheduledFor;
+
+        TriggerTimeout(Runnable task, Trigger trigger)
+        {
+            super(task, 0);
+            this.trigger = trigger;
+        }
+
+        @Override
+        protected boolean isRepeating()
+        {
+            return true;
+        }
+
+        @Override
+        protected long nextDeadlineNanos(long startedNanos, long finishedNanos)
+        {
+            long now = System.currentTimeMillis();
+            Date started = new Date(now - TimeUnit.NANOSECONDS.toMillis(finishedNanos - startedNanos));
+            triggerContext.update(scheduledFor, started, new Date(now));
+            scheduledFor = trigger.nextExecutionTime(triggerContext);
+            return (scheduledFor == null) ? NO_NEXT_DEADLINE : toNanoTime(scheduledFor);
+        }
+    }
+
+    /**
+     * A scheduler shared by many containers, which no one of them can shut down or reconfigure.
+     */
+    private static class SharedHashedWheelTaskScheduler extends HashedWheelTaskScheduler
+    {
+        private volatile boolean sealed = false;
+
+        @Override
+        public void setThreadNamePrefix(String threadNamePrefix)
+        {
+            checkNotSealed();
+            super.setThreadNamePrefix(threadNamePrefix);
+        }
+
+        @Override
+        public void setTaskExecutor(Executor taskExecutor)
+        {
+            checkNotSealed();
+            super.setTaskExecutor(taskExecutor);
+        }
+
+        private void checkNotSealed()
+        {
+            if (sealed)
+            {
+                throw new IllegalStateException("A shared scheduler cannot be reconfigured");
+            }
+        }
+
+        @Override
+        public void shutdown()
+        {
+            logger.warn("Ignoring shutdown of a shared scheduler, it runs the tasks of other containers");
+        }
+    }
+
+    private static class SharedHolder
+    {
+        private static final HashedWheelTaskScheduler INSTANCE = createShared(SHARED_THREAD_NAME_PREFIX, null);
+    }
+}
@@ -0,0 +1,411 @@
+package com.bvb.spring.jms.listener.scheduling;
+
+import java.util.Date;
+import java.util.PriorityQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.scheduling.TaskScheduler;
+import org.springframework.scheduling.Trigger;
+import org.springframework.scheduling.support.SimpleTriggerContext;
+import org.springframework.util.Assert;
+
+import com.bvb.spring.jms.listener.utils.Clock;
+
+/**
+ * A {@link TaskScheduler} and {@link Clock} that run in virtual time, for tests.  Time only moves when the test calls
+ * {@link #advance(long)}, which runs every task falling due in the period on the calling thread in the order of their
+ * deadlines, with the clock set to each deadline as its task runs.  Given to a container as its task scheduler the keep
+ * alive and throttle schedules of an hour run in milliseconds and the same way every time:
+ * <pre>
+ * VirtualTimeTaskScheduler time = new VirtualTimeTaskScheduler();
+ * container.setTaskScheduler(time);
+ * container.start();
+ * time.advance(TimeUnit.MINUTES.toMillis(10));
+ * </pre>
+ * Tasks may be scheduled from any thread, a task falling due before the end of the period it is scheduled in runs in that
+ * same period.  Exceptions thrown by repeating tasks are logged and the task carries on repeating, as with the Spring
+ * schedulers.
+ */
+public class VirtualTimeTaskScheduler implements TaskScheduler, Clock
+{
+    protected final Log logger = LogFactory.getLog(getClass());
+
+    private final Object lock = new Object();
+    private final PriorityQueue<VirtualTask> tasks = new PriorityQueue<VirtualTask>();
+    private long nowMillis;
+    private long sequence;
+
+    /**
+     * Build a scheduler starting at the current time of the system, so dates from the system clock are still meaningful.
+     */
+    public VirtualTimeTaskScheduler()
+    {
+        this(System.currentTimeMillis());
+    }
+
+    /**
+     * Build a scheduler.
+     * @param startMillis the time to start at, in milliseconds since the epoch.
+     */
+    public VirtualTimeTaskScheduler(long startMillis)
+    {
+        this.nowMillis = startMillis;
+    }
+
+    @Override
+    public long currentTimeMillis()
+    {
+        synchronized (lock)
+        {
+            return nowMillis;
+        }
+    }
+
+    @Override
+    public long nanoTime()
+    {
+        return TimeUnit.MILLISECONDS.toNanos(currentTimeMillis());
+    }
+
+    /**
+     * Move the time on, running the tasks that fall due.
+     * @param ms the milliseconds to move the time on by, at least 0.
+     * @return the number of task runs.
+     */
+    public int advance(long ms)
+    {
+        Assert.isTrue(ms >= 0, "ms must not be negative");
+        return advanceTo(currentTimeMillis() + ms);
+    }
+
+    /**
+     * Run the tasks already due without moving the time on.
+     * @return the number of task runs.
+     */
+    public int runDueTasks()
+    {
+        return advance(0);
+    }
+
+    private int advanceTo(long targetMillis)
+    {
+        int runs = 0;
+        VirtualTask task;
+        while ((task = nextDue(targetMillis)) != null)
+        {
+            task.run();
+            runs++;
+        }
+        synchronized (lock)
+        {
+            nowMillis = Math.max(nowMillis, targetMillis);
+        }
+        return runs;
+    }
+
+    private VirtualTask nextDue(long targetMillis)
+    {
+        synchronized (lock)
+        {
+            VirtualTask task = tasks.peek();
+            if (task == null || task.deadlineMillis > targetMillis)
+            {
+                return null;
+            }
+            tasks.poll();
+            nowMillis = Math.max(nowMillis, task.deadlineMillis);
+            return task;
+        }
+    }
+
+    /**
+     * Get the number of tasks waiting to run.
+     * @return the number of tasks, a repeating task counts once.
+     */
+    public int getScheduledTaskCount()
+    {
+        synchronized (lock)
+        {
+            return tasks.size();
+        }
+    }
+
+    @Override
+    public ScheduledFuture<?> schedule(Runnable task, Trigger trigger)
+    {
+        Assert.notNull(trigger, "trigger must not be null");
+        TriggerTask triggerTask = new TriggerTask(task, trigger);
+        Date first = trigger.nextExecutionTime(triggerTask.triggerContext);
+        if (first == null)
+        {
+            return null;
+        }
+        triggerTask.scheduledFor = first;
+        return submit(triggerTask, first.getTime());
+    }
+
+    @Override
+    public ScheduledFuture<?> schedule(Runnable task, Date startTime)
+    {
+        return submit(new VirtualTask(task, 0), toMillis(startTime));
+    }
+
+    @Override
+    public ScheduledFuture<?> scheduleAtFixedRate(Runnable task, Date startTime, long period)
+    {
+        Assert.isTrue(period > 0, "period must be greater than 0");
+        return submit(new VirtualTask(task, period), toMillis(startTime));
+    }
+
+    @Override
+    public ScheduledFuture<?> scheduleAtFixedRate(Runnable task, long period)
+    {
+        return scheduleAtFixedRate(task, new Date(currentTimeMillis()), period);
+    }
+
+    @Override
+    public ScheduledFuture<?> scheduleWithFixedDelay(Runnable task, Date startTime, long delay)
+    {
+        Assert.isTrue(delay > 0, "delay must be greater than 0");
+        return submit(new VirtualTask(task, -delay), toMillis(startTime));
+    }
+
+    @Override
+    public ScheduledFuture<?> scheduleWithFixedDelay(Runnable task, long delay)
+    {
+        return scheduleWithFixedDelay(task, new Date(currentTimeMillis()), delay);
+    }
+
+    private static long toMillis(Date date)
+    {
+        Assert.notNull(date, "startTime must not be null");
+        return date.getTime();
+    }
+
+    private VirtualTask submit(VirtualTask task, long deadlineMillis)
+    {
+        synchronized (lock)
+        {
+            task.deadlineMillis = deadlineMillis;
+            task.sequence = sequence++;
+            tasks.add(task);
+        }
+        return task;
+    }
+
+    private void remove(VirtualTask task)
+    {
+        synchronized (lock)
+        {
+            tasks.remove(task);
+        }
+    }
+
+    /**
+     * A task waiting for its deadline and its future.  The period is {@code 0} for a task that runs once, positive for a
+     * fixed rate and negative for a fixed delay, as with the {@link HashedWheelTaskScheduler}.  Tasks with the same deadline
+     * run in the order they were scheduled.
+     */
+    private class VirtualTask implements ScheduledFuture<Object>, Runnable
+    {
+        private final Runnable task;
+        private final long periodMillis;
+        private volatile long deadlineMillis;
+        private long sequence;
+        private boolean cancelled;
+        private boolean done;
+        private Throwable failure;
+        
+        VirtualTask(Runnable task, long periodMillis)
+        {
+            Assert.notNull(task, "task must not be null");
+            this.task = task;
+            this.periodMillis = periodMillis;
+        }
+        
+        @Override
+        public void run()
+        {
+            if (isCancelled())
+            {
+                return;
+            }
+            long started = currentTimeMillis();
+            Throwable thrown = null;
+            try
+            {
+                task.run();
+            }
+            catch (Throwable ex)
+            {
+                logger.error(String.format("Unexpected error running scheduled task: [%s]", task), ex);
+                thrown = ex;
+            }
+            long nextDeadline = isRepeating() ? nextDeadlineMillis(started, currentTimeMillis()) : -1;
+            if (nextDeadline < 0)
+            {
+                completed(thrown);
+            }
+            else if (!isCancelled())
+            {
+                submit(this, nextDeadline);
+            }
+        }
+        
+        protected boolean isRepeating()
+        {
+            return periodMillis != 0;
+        }
+        
+        /*
+         * Only called for a repeating task, returns the next deadline or a negative value if the task does not run again.
+         */
+        protected long nextDeadlineMillis(long startedMillis, long finishedMillis)
+        {
+            if (periodMillis > 0)
+            {
+                return deadlineMillis + periodMillis;
+            }
+            return finishedMillis - periodMillis;
+        }
+        
+        private synchronized void completed(Throwable thrown)
+        {
+            done = true;
+            failure = thrown;
+            notifyAll();
+        }
+        
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning)
+        {
+            synchronized (this)
+            {
+                if (done || cancelled)
+                {
+                    return false;
+                }
+                cancelled = true;
+                notifyAll();
+            }
+            remove(this);
+            return true;
+        }
+        
+        @Override
+        public synchronized boolean isCancelled()
+        {
+            return cancelled;
+        }
+        
+        @Override
+        public synchronized boolean isDone()
+        {
+            return done || cancelled;
+        }
+        
+        @Override
+        public synchronized Object get() throws InterruptedException, ExecutionException
+        {
+            while (!isDone())
+            {
+                wait();
+            }
+            return result();
+        }
+        
+        /*
+         * The timeout is in real time, as another thread has to advance the virtual time for the task to complete.
+         */
+        @Override
+        public synchronized Object get(long timeout, TimeUnit unit)
+            throws InterruptedException, ExecutionException, TimeoutException
+        {
+            long waitUntil = System.nanoTime() + unit.toNanos(timeout);
+            long remaining;
+            while (!isDone())
+            {
+                remaining = waitUntil - System.nanoTime();
+                if (remaining <= 0)
+                {
+                    throw new TimeoutException();
+                }
+                TimeUnit.NANOSECONDS.timedWait(this, remaining);
+            }
+            return result();
+        }
+        
+        private Object result() throws ExecutionException
+        {
+            if (cancelled)
+            {
+                throw new CancellationException();
+            }
+            if (failure != null)
+            {
+                throw new ExecutionException(failure);
+            }
+            return null;
+        }
+        
+        @Override
+        public long getDelay(TimeUnit unit)
+        {
+            return unit.convert(deadlineMillis - currentTimeMillis(), TimeUnit.MILLISECONDS);
+        }
+        
+        @Override
+        public int compareTo(Delayed other)
+        {
+            if (other == this)
+            {
+                return 0;
+            }
+            if (other instanceof VirtualTask)
+            {
+                VirtualTask task = (VirtualTask) other;
+                if (deadlineMillis != task.deadlineMillis)
+                {
+                    return (deadlineMillis < task.deadlineMillis) ? -1 : 1;
+                }
+                return (sequence < task.sequence) ? -1 : ((sequence > task.sequence) ? 1 : 0);
+            }
+            long diff = getDelay(TimeUnit.MILLISECONDS) - other.getDelay(TimeUnit.MILLISECONDS);
+            return (diff < 0) ? -1 : ((diff > 0) ? 1 : 0);
+        }
+    }
+
+    private class TriggerTask extends VirtualTask
+    {
+        private final Trigger trigger;
+        private final SimpleTriggerContext triggerContext = new SimpleTriggerContext();
+        private volatile Date scheduledFor;
+        
+        TriggerTask(Runnable task, Trigger trigger)
+        {
+            super(task, 0);
+            this.trigger = trigger;
+        }
+        
+        @Override
+        protected boolean isRepeating()
+        {
+            return true;
+        }
+        
+        @Override
+        protected long nextDeadlineMillis(long startedMillis, long finishedMillis)
+        {
+            triggerContext.update(scheduledFor, new Date(startedMillis), new Date(finishedMillis));
+            scheduledFor = trigger.nextExecutionTime(triggerContext);
+            return (scheduledFor == null) ? -1 : scheduledFor.getTime();
+        }
+    }
+}
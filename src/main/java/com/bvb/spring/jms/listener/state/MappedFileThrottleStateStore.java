@@ -0,0 +1,117 @@
+package com.bvb.spring.jms.listener.state;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.zip.CRC32;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.util.Assert;
+
+/**
+ * Keeps the {@link ThrottleState} of a container in a small memory mapped file, {@code <beanName>.state} in a directory, so a
+ * save is a few writes to memory and the page cache.  The mapping is not forced to disk, the state survives the process being
+ * killed but not the host losing power, which is enough for a container restarted after a deploy or a crash.
+ * <p>
+ * The file holds a magic number, a version, the state and a checksum of them.  A file that is too short, from another version
+ * or with a checksum that does not match, such as one torn by a crash during a save, loads as no state so the container starts
+ * at full capacity as it would without a store.
+ */
+public class MappedFileThrottleStateStore implements ThrottleStateStore
+{
+    public static final String FILE_SUFFIX = ".state";
+    
+    private static final int MAGIC = 0x544852;
+    private static final int VERSION = 1;
+    // magic, version, saved at, paused until, max consumers, rate, throttle ends at, relax every, checksum
+    private static final int STATE_SIZE = 4 + 4 + 8 + 8 + 4 + 8 + 8 + 8;
+    private static final int FILE_SIZE = STATE_SIZE + 8;
+    
+    protected final Log logger = LogFactory.getLog(getClass());
+    
+    private final File file;
+    private final RandomAccessFile raf;
+    private final MappedByteBuffer buffer;
+    
+    /**
+     * Create the store, mapping the file of the container and creating it and the directory if they do not exist.
+     * @param directory the directory the state files of the containers are kept in.
+     * @param beanName the bean name of the container, unique among the containers sharing the directory.
+     * @throws IOException if the file cannot be created or mapped.
+     */
+    public MappedFileThrottleStateStore(File directory, String beanName) throws IOException
+    {
+        Assert.notNull(directory, "directory must not be null");
+        Assert.hasText(beanName, "beanName must not be empty");
+        if (!directory.isDirectory() && !directory.mkdirs())
+        {
+            throw new IOException(String.format("Unable to create state directory: [%s]", directory));
+        }
+        this.file = new File(directory, beanName + FILE_SUFFIX);
+        this.raf = new RandomAccessFile(file, "rw");
+        try
+        {
+            this.buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, FILE_SIZE);
+        }
+        catch (IOException e)
+        {
+            raf.close();
+            throw e;
+        }
+    }
+    
+    @Override
+    public synchronized ThrottleState load()
+    {
+        buffer.clear();
+        if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION || buffer.getLong(STATE_SIZE) != checksum())
+        {
+            return null;
+        }
+        buffer.position(8);
+        return new ThrottleState(buffer.getLong(), buffer.getLong(), buffer.getInt(), buffer.getDouble(), buffer.getLong(),
+            buffer.getLong());
+    }
+    
+    @Override
+    public synchronized void save(ThrottleState state)
+    {
+        Assert.notNull(state, "state must not be null");
+        buffer.clear();
+        buffer.putInt(MAGIC).putInt(VERSION).putLong(state.getSavedAtMs()).putLong(state.getPausedUntilMs())
+            .putInt(state.getThrottledMaxConsumers()).putDouble(state.getThrottledRatePerSecond())
+            .putLong(state.getThrottleEndsAtMs()).putLong(state.getThrottleRelaxEveryMs());
+        buffer.putLong(STATE_SIZE, checksum());
+    }
+    
+    private long checksum()
+    {
+        CRC32 crc = new CRC32();
+        for (int i = 0; i < STATE_SIZE; i++)
+        {
+            crc.update(buffer.get(i));
+        }
+        return crc.getValue();
+    }
+    
+    @Override
+    public synchronized void close()
+    {
+        try
+        {
+            raf.close();
+        }
+        catch (IOException e)
+        {
+            logger.warn(String.format("Unable to close state file: [%s]", file), e);
+        }
+    }
+    
+    public File getFile()
+    {
+        return file;
+    }
+}
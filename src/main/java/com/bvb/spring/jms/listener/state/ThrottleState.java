@@ -0,0 +1,121 @@
+package com.bvb.spring.jms.listener.state;
+
+import com.google.common.base.Objects;
+
+/**
+ * The pause and throttling of a container at a point in time, kept by a {@link ThrottleStateStore} so a restarted container
+ * carries on from where it was rather than from full capacity.  The throttle is held as the max it has been relaxed to and
+ * the time it is fully relaxed by, so a restarted container relaxes from the same position over the time remaining.
+ */
+public final class ThrottleState
+{
+    private final long savedAtMs;
+    private final long pausedUntilMs;
+    private final int throttledMaxConsumers;
+    private final double throttledRatePerSecond;
+    private final long throttleEndsAtMs;
+    private final long throttleRelaxEveryMs;
+    
+    /**
+     * Create the state.
+     * @param savedAtMs when the state was taken, in milliseconds since the epoch.
+     * @param pausedUntilMs when the pause ends, {@code 0} if not paused.
+     * @param throttledMaxConsumers the max consumers the throttle has relaxed to, {@code 0} if the consumers are not throttled.
+     * @param throttledRatePerSecond the rate the throttle has relaxed to, {@code 0} if the rate is not throttled.
+     * @param throttleEndsAtMs when the throttle is fully relaxed, {@code 0} if not throttled.
+     * @param throttleRelaxEveryMs the interval the throttle is relaxed at.
+     */
+    public ThrottleState(long savedAtMs, long pausedUntilMs, int throttledMaxConsumers, double throttledRatePerSecond,
+        long throttleEndsAtMs, long throttleRelaxEveryMs)
+    {
+        this.savedAtMs = savedAtMs;
+        this.pausedUntilMs = pausedUntilMs;
+        this.throttledMaxConsumers = throttledMaxConsumers;
+        this.throttledRatePerSecond = throttledRatePerSecond;
+        this.throttleEndsAtMs = throttleEndsAtMs;
+        this.throttleRelaxEveryMs = throttleRelaxEveryMs;
+    }
+    
+    /**
+     * Whether the container is still paused.
+     * @param nowMs the time now.
+     * @return {@code true} if the pause has not ended.
+     */
+    public boolean isPaused(long nowMs)
+    {
+        return pausedUntilMs > nowMs;
+    }
+    
+    /**
+     * Whether the container is still throttled.
+     * @param nowMs the time now.
+     * @return {@code true} if the throttle has not been fully relaxed.
+     */
+    public boolean isThrottled(long nowMs)
+    {
+        return (throttledMaxConsumers > 0 || throttledRatePerSecond > 0) && throttleEndsAtMs > nowMs;
+    }
+    
+    public long getSavedAtMs()
+    {
+        return savedAtMs;
+    }
+    
+    public long getPausedUntilMs()
+    {
+        return pausedUntilMs;
+    }
+    
+    public int getThrottledMaxConsumers()
+    {
+        return throttledMaxConsumers;
+    }
+    
+    public double getThrottledRatePerSecond()
+    {
+        return throttledRatePerSecond;
+    }
+    
+    public long getThrottleEndsAtMs()
+    {
+        return throttleEndsAtMs;
+    }
+    
+    public long getThrottleRelaxEveryMs()
+    {
+        return throttleRelaxEveryMs;
+    }
+    
+    @Override
+    public boolean equals(Object object)
+    {
+        if (this == object)
+        {
+            return true;
+        }
+        else if (!(object instanceof ThrottleState))
+        {
+            return false;
+        }
+        ThrottleState other = (ThrottleState) object;
+        return savedAtMs == other.savedAtMs && pausedUntilMs == other.pausedUntilMs
+            && throttledMaxConsumers == other.throttledMaxConsumers
+            && Double.compare(throttledRatePerSecond, other.throttledRatePerSecond) == 0
+            && throttleEndsAtMs == other.throttleEndsAtMs && throttleRelaxEveryMs == other.throttleRelaxEveryMs;
+    }
+    
+    @Override
+    public int hashCode()
+    {
+        return Objects.hashCode(savedAtMs, pausedUntilMs, throttledMaxConsumers, throttledRatePerSecond, throttleEndsAtMs,
+            throttleRelaxEveryMs);
+    }
+    
+    @Override
+    public String toString()
+    {
+        return Objects.toStringHelper(this).add("savedAtMs", savedAtMs).add("pausedUntilMs", pausedUntilMs)
+            .add("throttledMaxConsumers", throttledMaxConsumers).add("throttledRatePerSecond", throttledRatePerSecond)
+            .add("throttleEndsAtMs", throttleEndsAtMs).add("throttleRelaxEveryMs", throttleRelaxEveryMs).toString();
+    }
+}
@@ -0,0 +1,26 @@
+package com.bvb.spring.jms.listener.state;
+
+/**
+ * Keeps the {@link ThrottleState} of a single container across restarts.  The container saves its state from its task
+ * scheduler whenever it pauses, resumes or relaxes a throttle, never from a consumer, and loads it when it starts.  See
+ * {@link MappedFileThrottleStateStore}.
+ */
+public interface ThrottleStateStore
+{
+    /**
+     * Load the last state saved.
+     * @return the state, or {@code null} if none has been saved or it cannot be read.
+     */
+    ThrottleState load();
+    
+    /**
+     * Save the state, replacing the last state saved.
+     * @param state the state.
+     */
+    void save(ThrottleState state);
+    
+    /**
+     * Release the resources of the store, called when the container is shut down.
+     */
+    void close();
+}
@@ -0,0 +1,199 @@
+package com.bvb.spring.jms.listener.throttler;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.util.Assert;
+
+import com.bvb.spring.jms.listener.config.PauseConfig;
+
+/**
+ * An additive-increase/multiplicative-decrease controller.  Each throttle cuts the max concurrent consumers by the decrease
+ * factor of the level at which the failure happened, ignoring the throttle max concurrency of the {@link PauseConfig}.  On
+ * each run of the relaxer the consumers only grow if the listener was healthy since the last run, otherwise the level is held.
+ * <p>
+ * The highest level that stayed healthy for a full relax interval is remembered as the safe level.  After a throttle the
+ * consumers climb back quickly, doubling each run, to the safe level and then probe above it by the increase step.  Repeated
+ * outages therefore converge on the real capacity of the upstream rather than overshooting back into failure.  The
+ * container throttles from the max before an outage for as long as it lasts, so many consumers failing together cut the
+ * consumers once.
+ * <p>
+ * A single instance must be used by a single container as it holds the state between throttles.
+ */
+public class AimdConcurrencyController implements ConcurrencyController
+{
+    protected final Log logger = LogFactory.getLog(getClass());
+
+    private double decreaseFactor = 0.5;
+    private int increaseStep = 1;
+    private double maxFailureRatio = 0.1;
+    private long maxAverageLatencyNanos = 0;
+    private int minConcurrent = PauseConfig.THROTTLE_MIN_CONCURRENT_COUNT;
+
+    private final AtomicLong successes = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+    private final AtomicLong totalDurationNanos = new AtomicLong();
+    private int current;
+    private int target;
+    private int safeLevel;
+
+    @Override
+    public synchronized ThrottlerCounter throttle(int currentMax, int fullMax, PauseConfig config)
+    {
+        int decreased = Math.max(minConcurrent, (int) (currentMax * decreaseFactor));
+        // the safe level failed, so it was not safe
+        if (safeLevel >= currentMax)
+        {
+            safeLevel = decreased;
+        }
+        current = Math.min(decreased, fullMax);
+        target = fullMax;
+        resetWindow();
+        logger.info(String.format("AIMD throttling from: [%d] to: [%d], safe level: [%d]", currentMax, current, safeLevel));
+        return new AimdCounter();
+    }
+
+    @Override
+    public void listenerSucceeded(long durationNanos)
+    {
+        successes.incrementAndGet();
+        totalDurationNanos.addAndGet(durationNanos);
+    }
+
+    @Override
+    public void listenerFailed(long durationNanos)
+    {
+        failures.incrementAndGet();
+        totalDurationNanos.addAndGet(durationNanos);
+    }
+
+    private synchronized int increment()
+    {
+        if (!isHealthy())
+        {
+            logger.info(String.format("AIMD holding at: [%d], listener unhealthy", current));
+            return current;
+        }
+        safeLevel = Math.max(safeLevel, current);
+        int next = (current < safeLevel) ? Math.min(safeLevel, current * 2) : current + increaseStep;
+        current = Math.min(next, target);
+        return current;
+    }
+
+    private boolean isHealthy()
+    {
+        long succeeded = successes.getAndSet(0);
+        long failed = failures.getAndSet(0);
+        long duration = totalDurationNanos.getAndSet(0);
+        long total = succeeded + failed;
+        if (total == 0)
+        {
+            // nothing consumed, so nothing has indicated a problem
+            return true;
+        }
+        boolean failureRatioOk = ((double) failed / total) <= maxFailureRatio;
+        boolean latencyOk = maxAverageLatencyNanos <= 0 || (duration / total) <= maxAverageLatencyNanos;
+        return failureRatioOk && latencyOk;
+    }
+
+    private void resetWindow()
+    {
+        successes.set(0);
+        failures.set(0);
+        totalDurationNanos.set(0);
+    }
+
+    private synchronized int getCurrent()
+    {
+        return current;
+    }
+
+    private synchronized boolean isAtTarget()
+    {
+        return current >= target;
+    }
+
+    /**
+     * Get the highest level that has been healthy for a full relax interval.
+     * @return the safe level, {@code 0} before the first throttle.
+     */
+    public synchronized int getSafeLevel()
+    {
+        return safeLevel;
+    }
+
+    /**
+     * Set the factor the max concurrent consumers is multiplied by on each throttle.
+     * @param decreaseFactor the factor, greater than 0 and less than 1.  Defaults to 0.5.
+     */
+    public void setDecreaseFactor(double decreaseFactor)
+    {
+        Assert.isTrue(decreaseFactor > 0 && decreaseFactor < 1, "decreaseFactor must be between 0 and 1");
+        this.decreaseFactor = decreaseFactor;
+    }
+
+    /**
+     * Set how many consumers are added on each healthy run of the relaxer once the safe level has been reached.
+     * @param increaseStep the step, at least 1.  Defaults to 1.
+     */
+    public void setIncreaseStep(int increaseStep)
+    {
+        Assert.isTrue(increaseStep > 0, "increaseStep must be at least 1");
+        this.increaseStep = increaseStep;
+    }
+
+    /**
+     * Set the ratio of failed to total listener invocations above which the listener is unhealthy.
+     * @param maxFailureRatio the ratio between 0 and 1.  Defaults to 0.1.
+     */
+    public void setMaxFailureRatio(double maxFailureRatio)
+    {
+        Assert.isTrue(maxFailureRatio >= 0 && maxFailureRatio <= 1, "maxFailureRatio must be between 0 and 1");
+        this.maxFailureRatio = maxFailureRatio;
+    }
+
+    /**
+     * Set the average listener latency in milliseconds above which the listener is unhealthy.
+     * @param maxAverageLatencyMs the latency, {@code 0} to ignore latency.  Defaults to 0.
+     */
+    public void setMaxAverageLatencyMs(long maxAverageLatencyMs)
+    {
+        this.maxAverageLatencyNanos = TimeUnit.MILLISECONDS.toNanos(maxAverageLatencyMs);
+    }
+
+    /**
+     * Set the lowest the max concurrent consumers will be cut to.
+     * @param minConcurrent the minimum, at least 1.  Defaults to 1.
+     */
+    public void setMinConcurrent(int minConcurrent)
+    {
+        Assert.isTrue(minConcurrent > 0, "minConcurrent must be at least 1");
+        this.minConcurrent = minConcurrent;
+    }
+
+    private class AimdCounter implements ThrottlerCounter
+    {
+
+        @Override
+        public int get()
+        {
+            return getCurrent();
+        }
+
+        @Override
+        public int incrementAndGet()
+        {
+            return increment();
+        }
+
+        @Override
+        public boolean isDone()
+        {
+            return isAtTarget();
+        }
+
+    }
+
+}
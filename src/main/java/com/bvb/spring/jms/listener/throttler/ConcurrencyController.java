@@ -0,0 +1,33 @@
+package com.bvb.spring.jms.listener.throttler;
+
+import com.bvb.spring.jms.listener.config.PauseConfig;
+
+/**
+ * Decides how far to throttle the concurrent consumers when a throttling {@link PauseConfig} is received and how they grow
+ * back afterwards.  The container reports the outcome of every listener invocation so that implementations can take the
+ * health of the listener into account.
+ */
+public interface ConcurrencyController
+{
+    /**
+     * Throttling has been requested.
+     * @param currentMax the max concurrent consumers at the time throttling was requested, or at the time consumption was
+     * paused when requested while paused, so every throttle of one outage is given the same max.
+     * @param fullMax the max concurrent consumers configured on the container, the target to grow back to.
+     * @param config the config that requested the throttling.
+     * @return the counter, whose current value is the throttled max, that the relaxer uses to grow the consumers back.
+     */
+    ThrottlerCounter throttle(int currentMax, int fullMax, PauseConfig config);
+    
+    /**
+     * The listener completed successfully.
+     * @param durationNanos how long the listener took.
+     */
+    void listenerSucceeded(long durationNanos);
+    
+    /**
+     * The listener threw an exception.
+     * @param durationNanos how long the listener took.
+     */
+    void listenerFailed(long durationNanos);
+}
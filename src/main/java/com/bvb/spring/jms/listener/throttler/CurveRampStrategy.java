@@ -0,0 +1,29 @@
+package com.bvb.spring.jms.listener.throttler;
+
+/**
+ * A {@link RampStrategy} following a continuous curve over the throttle period.  The run is turned into the fraction of the
+ * period that has passed, which the curve maps to how far back the throttling should be.
+ */
+public abstract class CurveRampStrategy implements RampStrategy
+{
+    @Override
+    public double fractionAt(int run, int numberOfRuns)
+    {
+        if (run <= 0)
+        {
+            return 0;
+        }
+        if (run >= numberOfRuns)
+        {
+            return 1;
+        }
+        return Math.min(1, Math.max(0, curve((double) run / numberOfRuns)));
+    }
+    
+    /**
+     * Map the time passed to how far back the throttling should be.
+     * @param elapsed the fraction of the throttle period that has passed, greater than 0 and less than 1.
+     * @return the fraction of the way back, increasing with the time passed, from 0 at the start to 1 at the end.
+     */
+    protected abstract double curve(double elapsed);
+}
@@ -0,0 +1,58 @@
+package com.bvb.spring.jms.listener.throttler;
+
+import org.springframework.util.Assert;
+
+import com.google.common.base.Objects;
+
+/**
+ * Relaxes the throttling slowly at first and faster as the throttle period goes on, each step grows by the same factor.
+ * Suits an upstream that should be probed gently until it has shown it copes.
+ */
+public class ExponentialRampStrategy extends CurveRampStrategy
+{
+    public static final double DEFAULT_GROWTH = 10;
+    
+    private final double growth;
+    
+    /**
+     * Create the strategy with a growth of {@value #DEFAULT_GROWTH}.
+     */
+    public ExponentialRampStrategy()
+    {
+        this(DEFAULT_GROWTH);
+    }
+    
+    /**
+     * Create the strategy.
+     * @param growth how much steeper the curve is at the end of the period than at the start, greater than 1.
+     */
+    public ExponentialRampStrategy(double growth)
+    {
+        Assert.isTrue(growth > 1, "growth must be greater than 1");
+        this.growth = growth;
+    }
+    
+    @Override
+    protected double curve(double elapsed)
+    {
+        return (Math.pow(growth, elapsed) - 1) / (growth - 1);
+    }
+    
+    @Override
+    public boolean equals(Object object)
+    {
+        return (object instanceof ExponentialRampStrategy) && ((ExponentialRampStrategy) object).growth == growth;
+    }
+    
+    @Override
+    public int hashCode()
+    {
+        return Objects.hashCode(getClass(), growth);
+    }
+    
+    @Override
+    public String toString()
+    {
+        return Objects.toStringHelper(this).add("growth", growth).toString();
+    }
+}
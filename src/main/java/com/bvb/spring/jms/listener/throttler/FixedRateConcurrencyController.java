@@ -0,0 +1,30 @@
+package com.bvb.spring.jms.listener.throttler;
+
+import com.bvb.spring.jms.listener.config.PauseConfig;
+
+/**
+ * The default controller, throttles to the max concurrent in the {@link PauseConfig} and grows back using a
+ * {@link FixedRateThrottlerCounter} regardless of how the listener is coping.
+ */
+public class FixedRateConcurrencyController implements ConcurrencyController
+{
+
+    @Override
+    public ThrottlerCounter throttle(int currentMax, int fullMax, PauseConfig config)
+    {
+        return new FixedRateThrottlerCounter(fullMax, new PauseConfig(currentMax, config));
+    }
+
+    @Override
+    public void listenerSucceeded(long durationNanos)
+    {
+        /* The fixed rate ignores the listener */
+    }
+
+    @Override
+    public void listenerFailed(long durationNanos)
+    {
+        /* The fixed rate ignores the listener */
+    }
+    
+}
@@ -2,37 +2,57 @@ package com.bvb.spring.jms.listener.throttler;
 
 import com.bvb.spring.jms.listener.config.PauseConfig;
 
-public class FixedRateThrottlerCounter
+/**
+ * Grows the max concurrent consumers from the throttled value to the target over a fixed number of runs, along the
+ * {@link RampStrategy} of the config, in equal steps by default.
+ */
+public class FixedRateThrottlerCounter implements ThrottlerCounter
 {
+    private final int startConsumerCount;
     private final int endConsumerCount;
-    private final int growByEachRun;
+    private final int numberOfRuns;
+    private final RampStrategy rampStrategy;
+    private int runs;
     private int current;
     
     public FixedRateThrottlerCounter(int starting, int target, int numberOfRuns)
     {
-        int diff = target - starting;
-        growByEachRun = (int) Math.ceil((double) diff / numberOfRuns);
+        this(starting, target, numberOfRuns, new LinearRampStrategy());
+    }
+    
+    public FixedRateThrottlerCounter(int starting, int target, int numberOfRuns, RampStrategy rampStrategy)
+    {
+        this.startConsumerCount = starting;
         this.endConsumerCount = target;
+        this.numberOfRuns = Math.max(1, numberOfRuns);
+        this.rampStrategy = rampStrategy;
         this.current = starting;
     }
     
     public FixedRateThrottlerCounter(int target, PauseConfig config)
     {
         this(config.getThrottleMaxConcurrent(), target, 
-            (int) (config.getThrottleDeliveryForPeriodMs()  / config.getThrottleRelaxIntervalMs()));
+            (int) (config.getThrottleDeliveryForPeriodMs()  / config.getThrottleRelaxIntervalMs()), config.getRampStrategy());
+    }
+
+    @Override
+    public int get()
+    {
+        return current;
     }
 
+    @Override
     public int incrementAndGet()
     {
-        current += growByEachRun;
-        // on the last run we may not have an exact number to increase by
-        if (current > endConsumerCount)
-        {
-            current = endConsumerCount;
-        }
+        runs++;
+        double fraction = rampStrategy.fractionAt(runs, numberOfRuns);
+        // round up so that each run that moves along the curve adds at least one consumer
+        int next = startConsumerCount + (int) Math.ceil(fraction * (endConsumerCount - startConsumerCount));
+        current = (runs >= numberOfRuns) ? endConsumerCount : Math.min(Math.max(current, next), endConsumerCount);
         return current;
     }
     
+    @Override
     public boolean isDone()
     {
         return current == endConsumerCount;
@@ -0,0 +1,247 @@
+package com.bvb.spring.jms.listener.throttler;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.util.Assert;
+
+import com.bvb.spring.jms.listener.metrics.LatencyHistogram;
+import com.bvb.spring.jms.listener.utils.Clock;
+
+/**
+ * Scales the consumers of a container to keep a percentile of the listener latency under a target, so the concurrency does
+ * not have to be chosen by hand.  The container samples it once every sample interval with the listener latencies and
+ * messages received during the interval.
+ * <p>
+ * The controller is gradient based.  The consumers are multiplied by the ratio of the target to the observed latency, at most
+ * doubled or halved in one interval, and smoothed so only part of the change is made at once.  Within the tolerance below the
+ * target the consumers are held, so the controller settles rather than hunting around the target.  Growing is held as well
+ * when the last growth did not raise the throughput, as more consumers then only add load to whatever the listener is
+ * waiting on, growth is tried again on the following interval.  Intervals with too few samples to trust the percentile leave
+ * the consumers as they are.
+ * <p>
+ * While the container is throttled by a {@link com.bvb.spring.jms.listener.config.PauseConfig} the throttle decides the
+ * consumers and the autoscaler holds, so a throttle always caps it.  A single instance must be used by a single container
+ * as it holds the state between samples.
+ */
+public class LatencyTargetAutoscaler
+{
+    public static final double DEFAULT_PERCENTILE = 99;
+    public static final long DEFAULT_SAMPLE_INTERVAL_MS = TimeUnit.SECONDS.toMillis(5);
+    public static final int DEFAULT_MIN_SAMPLES = 20;
+    public static final double DEFAULT_SMOOTHING = 0.5;
+    public static final double DEFAULT_TOLERANCE = 0.1;
+    public static final double DEFAULT_MIN_THROUGHPUT_GAIN = 0.05;
+
+    private static final double MAX_GROWTH = 2;
+    private static final double MAX_SHRINK = 0.5;
+
+    protected final Log logger = LogFactory.getLog(getClass());
+
+    private final long targetLatencyMicros;
+    private final int minConsumers;
+    private final int maxConsumers;
+    private double percentile = DEFAULT_PERCENTILE;
+    private long sampleIntervalMs = DEFAULT_SAMPLE_INTERVAL_MS;
+    private int minSamples = DEFAULT_MIN_SAMPLES;
+    private double smoothing = DEFAULT_SMOOTHING;
+    private double tolerance = DEFAULT_TOLERANCE;
+    private double minThroughputGain = DEFAULT_MIN_THROUGHPUT_GAIN;
+    private Clock clock = Clock.SYSTEM;
+
+    private long[] lastCounts;
+    private long[] intervalCounts;
+    private long lastMessagesReceived;
+    private long lastSampleNanos;
+    private long lastLatencyMicros;
+    private double lastThroughput;
+    private boolean lastGrew;
+
+    /**
+     * Create the autoscaler.
+     * @param targetLatencyMs the latency the percentile of the listener latency should be kept under, in milliseconds.
+     * @param minConsumers the fewest consumers to scale down to, at least 1.
+     * @param maxConsumers the most consumers to scale up to.
+     */
+    public LatencyTargetAutoscaler(long targetLatencyMs, int minConsumers, int maxConsumers)
+    {
+        Assert.isTrue(targetLatencyMs > 0, "targetLatencyMs must be greater than 0");
+        Assert.isTrue(minConsumers > 0, "minConsumers must be at least 1");
+        Assert.isTrue(maxConsumers >= minConsumers, "maxConsumers must be at least minConsumers");
+        this.targetLatencyMicros = TimeUnit.MILLISECONDS.toMicros(targetLatencyMs);
+        this.minConsumers = minConsumers;
+        this.maxConsumers = maxConsumers;
+    }
+
+    /**
+     * Sample the listener and work out the consumers for the next interval.  The first call only takes the baseline.
+     * @param current the current max concurrent consumers.
+     * @param latencyMicros the histogram of listener latencies in microseconds, since the container started.
+     * @param messagesReceived the messages received since the container started.
+     * @return the consumers to use, within the bounds.
+     */
+    public synchronized int nextConsumers(int current, LatencyHistogram latencyMicros, long messagesReceived)
+    {
+        long now = clock.nanoTime();
+        if (lastCounts == null)
+        {
+            lastCounts = new long[latencyMicros.getBucketCount()];
+            intervalCounts = new long[lastCounts.length];
+            latencyMicros.copyCounts(lastCounts);
+            lastMessagesReceived = messagesReceived;
+            lastSampleNanos = now;
+            return bound(current);
+        }
+        latencyMicros.copyCounts(intervalCounts);
+        long samples = 0;
+        for (int i = 0; i < intervalCounts.length; i++)
+        {
+            long total = intervalCounts[i];
+            intervalCounts[i] = total - lastCounts[i];
+            lastCounts[i] = total;
+            samples += intervalCounts[i];
+        }
+        double seconds = (now - lastSampleNanos) / (double) TimeUnit.SECONDS.toNanos(1);
+        double throughput = (seconds <= 0) ? 0 : (messagesReceived - lastMessagesReceived) / seconds;
+        lastMessagesReceived = messagesReceived;
+        lastSampleNanos = now;
+        return nextConsumers(current, LatencyHistogram.getValueAtPercentile(intervalCounts, percentile), samples, throughput);
+    }
+
+    /**
+     * Work out the consumers for the next interval from the samples of the last.
+     * @param current the current max concurrent consumers.
+     * @param latencyMicros the percentile of the listener latency during the interval, in microseconds.
+     * @param samples the number of listener invocations during the interval.
+     * @param throughput the messages received per second during the interval.
+     * @return the consumers to use, within the bounds.
+     */
+    public synchronized int nextConsumers(int current, long latencyMicros, long samples, double throughput)
+    {
+        if (samples < minSamples)
+        {
+            lastGrew = false;
+            return bound(current);
+        }
+        lastLatencyMicros = latencyMicros;
+        double ratio = (latencyMicros <= 0) ? MAX_GROWTH : (double) targetLatencyMicros / latencyMicros;
+        int next = current;
+        if (ratio < 1 || ratio > 1 + tolerance)
+        {
+            double desired = current * Math.max(MAX_SHRINK, Math.min(MAX_GROWTH, ratio));
+            double smoothed = current + smoothing * (desired - current);
+            // move at least one consumer, rounding towards the desired value
+            next = (int) ((ratio > 1) ? Math.ceil(smoothed) : Math.floor(smoothed));
+        }
+        if (next > current && lastGrew && throughput < lastThroughput * (1 + minThroughputGain))
+        {
+            logger.debug(String.format("Autoscaler holding at: [%d], throughput did not grow with the consumers: [%.1f/s]",
+                current, throughput));
+            next = current;
+        }
+        next = bound(next);
+        lastGrew = next > current;
+        lastThroughput = throughput;
+        return next;
+    }
+
+    private int bound(int consumers)
+    {
+        return Math.max(minConsumers, Math.min(maxConsumers, consumers));
+    }
+
+    /**
+     * Get the percentile of the listener latency seen in the last interval with enough samples.
+     * @return the latency in microseconds, {@code 0} before the first such interval.
+     */
+    public synchronized long getLastLatencyMicros()
+    {
+        return lastLatencyMicros;
+    }
+
+    public long getTargetLatencyMicros()
+    {
+        return targetLatencyMicros;
+    }
+
+    public double getPercentile()
+    {
+        return percentile;
+    }
+
+    /**
+     * Set the percentile of the listener latency kept under the target.
+     * @param percentile the percentile, greater than 0 and at most 100.  Defaults to {@value #DEFAULT_PERCENTILE}.
+     */
+    public void setPercentile(double percentile)
+    {
+        Assert.isTrue(percentile > 0 && percentile <= 100, "percentile must be in (0, 100]");
+        this.percentile = percentile;
+    }
+
+    public long getSampleIntervalMs()
+    {
+        return sampleIntervalMs;
+    }
+
+    /**
+     * Set how often the container samples the listener and adjusts the consumers.
+     * @param sampleIntervalMs the interval in milliseconds, greater than 0.  Defaults to 5 seconds.
+     */
+    public void setSampleIntervalMs(long sampleIntervalMs)
+    {
+        Assert.isTrue(sampleIntervalMs > 0, "sampleIntervalMs must be greater than 0");
+        this.sampleIntervalMs = sampleIntervalMs;
+    }
+
+    /**
+     * Set the clock the throughput of an interval is timed by.
+     * @param clock the clock.  Defaults to {@link Clock#SYSTEM}.
+     */
+    public void setClock(Clock clock)
+    {
+        Assert.notNull(clock, "clock must not be null");
+        this.clock = clock;
+    }
+
+    /**
+     * Set the fewest listener invocations in an interval for the consumers to be adjusted.
+     * @param minSamples the number of invocations, at least 1.  Defaults to {@value #DEFAULT_MIN_SAMPLES}.
+     */
+    public void setMinSamples(int minSamples)
+    {
+        Assert.isTrue(minSamples > 0, "minSamples must be at least 1");
+        this.minSamples = minSamples;
+    }
+
+    /**
+     * Set how much of the change the gradient asks for is made in one interval.
+     * @param smoothing the share of the change, greater than 0 and at most 1.  Defaults to 0.5.
+     */
+    public void setSmoothing(double smoothing)
+    {
+        Assert.isTrue(smoothing > 0 && smoothing <= 1, "smoothing must be in (0, 1]");
+        this.smoothing = smoothing;
+    }
+
+    /**
+     * Set how far under the target the latency must be before the consumers grow.
+     * @param tolerance the share of the target, at least 0.  Defaults to 0.1.
+     */
+    public void setTolerance(double tolerance)
+    {
+        Assert.isTrue(tolerance >= 0, "tolerance must not be negative");
+        this.tolerance = tolerance;
+    }
+
+    /**
+     * Set how much the throughput must rise after the consumers grow for them to grow again.
+     * @param minThroughputGain the share of the previous throughput, at least 0.  Defaults to 0.05.
+     */
+    public void setMinThroughputGain(double minThroughputGain)
+    {
+        Assert.isTrue(minThroughputGain >= 0, "minThroughputGain must not be negative");
+        this.minThroughputGain = minThroughputGain;
+    }
+}
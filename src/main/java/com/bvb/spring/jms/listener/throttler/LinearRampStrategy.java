@@ -0,0 +1,31 @@
+package com.bvb.spring.jms.listener.throttler;
+
+/**
+ * Relaxes the throttling in equal steps, the default.
+ */
+public class LinearRampStrategy extends CurveRampStrategy
+{
+    @Override
+    protected double curve(double elapsed)
+    {
+        return elapsed;
+    }
+    
+    @Override
+    public boolean equals(Object object)
+    {
+        return object instanceof LinearRampStrategy;
+    }
+    
+    @Override
+    public int hashCode()
+    {
+        return LinearRampStrategy.class.hashCode();
+    }
+    
+    @Override
+    public String toString()
+    {
+        return "LinearRampStrategy";
+    }
+}
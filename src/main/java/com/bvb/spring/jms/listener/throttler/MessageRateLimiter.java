@@ -0,0 +1,56 @@
+package com.bvb.spring.jms.listener.throttler;
+
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.util.concurrent.RateLimiter;
+
+/**
+ * A token bucket limiting the rate at which the consumers of a container receive messages.  Consumers take a permit before
+ * each receive, waiting for one if the bucket is empty.  When the rate is {@link RateThrottlerCounter#UNLIMITED} no bucket
+ * is used and taking a permit is a single volatile read.
+ */
+public class MessageRateLimiter
+{
+    private volatile RateLimiter limiter;
+    
+    /**
+     * Try to take a permit to receive a message, waiting up to the timeout for one to become available.
+     * @param timeoutMs the max time to wait in milliseconds.
+     * @return {@code true} if a permit was taken, otherwise {@code false}.
+     */
+    public boolean tryAcquire(long timeoutMs)
+    {
+        RateLimiter current = limiter;
+        return current == null || current.tryAcquire(timeoutMs, TimeUnit.MILLISECONDS);
+    }
+    
+    /**
+     * Set the rate permits are made available at.
+     * @param permitsPerSecond the rate, {@link RateThrottlerCounter#UNLIMITED} to remove the limit.
+     */
+    public synchronized void setRate(double permitsPerSecond)
+    {
+        if (permitsPerSecond == RateThrottlerCounter.UNLIMITED)
+        {
+            limiter = null;
+        }
+        else if (limiter == null)
+        {
+            limiter = RateLimiter.create(permitsPerSecond);
+        }
+        else
+        {
+            limiter.setRate(permitsPerSecond);
+        }
+    }
+    
+    /**
+     * Get the rate permits are made available at.
+     * @return the rate, {@link RateThrottlerCounter#UNLIMITED} if there is no limit.
+     */
+    public double getRate()
+    {
+        RateLimiter current = limiter;
+        return current == null ? RateThrottlerCounter.UNLIMITED : current.getRate();
+    }
+}
@@ -0,0 +1,93 @@
+package com.bvb.spring.jms.listener.throttler;
+
+import org.springframework.util.Assert;
+
+/**
+ * Narrows the messages a throttled container consumes to those of a minimum priority or above, so the reduced concurrency
+ * is spent on the high priority traffic while the low priority backlog waits on the destination.
+ * <p>
+ * The minimum is applied in full when the container is throttled and lowered in stages as the throttling relaxes, until at
+ * full relaxation the normal selector is restored.  The priority is read from {@code JMSPriority} by default or from a
+ * custom numeric message property.
+ */
+public class PriorityThrottle
+{
+    public static final String JMS_PRIORITY = "JMSPriority";
+    
+    private final String property;
+    private final int minPriority;
+    private volatile int current = 0;
+    
+    /**
+     * Create the throttle on {@code JMSPriority}.
+     * @param minPriority the min priority consumed when fully throttled, 1 to 9.
+     */
+    public PriorityThrottle(int minPriority)
+    {
+        this(JMS_PRIORITY, minPriority);
+    }
+    
+    /**
+     * Create the throttle.
+     * @param property the numeric message property holding the priority.
+     * @param minPriority the min priority consumed when fully throttled, at least 1.
+     */
+    public PriorityThrottle(String property, int minPriority)
+    {
+        Assert.hasText(property, "property must not be empty");
+        Assert.isTrue(minPriority > 0, "minPriority must be at least 1");
+        this.property = property;
+        this.minPriority = minPriority;
+    }
+    
+    /**
+     * Apply the min priority in full, the container has been throttled.
+     */
+    public synchronized void engage()
+    {
+        current = minPriority;
+    }
+    
+    /**
+     * Lower the min priority in line with how far the throttling has relaxed, it is never raised.
+     * @param progress how far the throttling has relaxed, from 0 for fully throttled to 1 for fully relaxed.
+     */
+    public synchronized void relax(double progress)
+    {
+        int stage = (progress >= 1) ? 0 : (int) Math.ceil(minPriority * (1 - Math.max(progress, 0)));
+        current = Math.min(current, stage);
+    }
+    
+    /**
+     * Restore the normal selector.
+     */
+    public synchronized void release()
+    {
+        current = 0;
+    }
+    
+    /**
+     * Get the min priority currently consumed.
+     * @return the min priority, {@code 0} if every message is consumed.
+     */
+    public int getCurrentMinPriority()
+    {
+        return current;
+    }
+    
+    /**
+     * Add the current min priority to a selector.
+     * @param selector the normal selector of the container, may be {@code null}.
+     * @return the selector to consume with, which is the normal selector when the throttle is not engaged.
+     */
+    public String applyTo(String selector)
+    {
+        int priority = current;
+        if (priority <= 0)
+        {
+            return selector;
+        }
+        String clause = String.format("%s >= %d", property, priority);
+        return (selector == null || selector.trim().isEmpty()) ? clause : String.format("(%s) AND %s", selector, clause);
+    }
+}
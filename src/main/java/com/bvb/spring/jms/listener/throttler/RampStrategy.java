@@ -0,0 +1,19 @@
+package com.bvb.spring.jms.listener.throttler;
+
+/**
+ * The curve the throttling is relaxed along, from the throttled value back to the full value over the runs of the relaxer.
+ * Set on a {@link com.bvb.spring.jms.listener.config.PauseConfig} with
+ * {@link com.bvb.spring.jms.listener.config.PauseConfigBuilder#withRampStrategy(RampStrategy)}, the default is a
+ * {@link LinearRampStrategy}.  Implementations must be stateless as one strategy may be shared by many configs.
+ */
+public interface RampStrategy
+{
+    /**
+     * Get how far back to the full value the throttling should be after a run of the relaxer.
+     * @param run the run of the relaxer, from 1.
+     * @param numberOfRuns the number of runs over the throttle period, at least 1.
+     * @return the fraction of the way from the throttled value to the full value, from 0 to 1.  Never lower than the
+     * fraction of an earlier run and 1 once the run reaches the number of runs.
+     */
+    double fractionAt(int run, int numberOfRuns);
+}
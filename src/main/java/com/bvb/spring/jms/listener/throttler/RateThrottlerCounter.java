@@ -0,0 +1,84 @@
+package com.bvb.spring.jms.listener.throttler;
+
+import com.bvb.spring.jms.listener.config.PauseConfig;
+
+/**
+ * Grows the max messages per second from the throttled rate to the target over a fixed number of runs, along the
+ * {@link RampStrategy} of the config in the same way as the {@link FixedRateThrottlerCounter} grows the concurrent
+ * consumers.  When the target is {@link #UNLIMITED} the rate grows towards the throttled rate times the number of runs and
+ * the limit is removed on the last run.
+ */
+public class RateThrottlerCounter
+{
+    public static final double UNLIMITED = Double.POSITIVE_INFINITY;
+    
+    private final double startRate;
+    private final double endRate;
+    private final int numberOfRuns;
+    private final RampStrategy rampStrategy;
+    private int runs;
+    private double fraction;
+    private double current;
+    
+    public RateThrottlerCounter(double starting, double target, int numberOfRuns)
+    {
+        this(starting, target, numberOfRuns, new LinearRampStrategy());
+    }
+    
+    public RateThrottlerCounter(double starting, double target, int numberOfRuns, RampStrategy rampStrategy)
+    {
+        this.numberOfRuns = Math.max(1, numberOfRuns);
+        this.endRate = target;
+        this.startRate = Math.min(starting, target);
+        this.rampStrategy = rampStrategy;
+        this.current = startRate;
+    }
+    
+    /**
+     * Build from the config, starting at the throttle max rate or the current rate if that is lower.
+     * @param current the current rate.
+     * @param target the rate to grow back to.
+     * @param config the config containing the throttle max rate, period and ramp strategy.
+     */
+    public RateThrottlerCounter(double current, double target, PauseConfig config)
+    {
+        this(Math.min(current, config.getThrottleMaxRatePerSecond()), target,
+            (int) (config.getThrottleDeliveryForPeriodMs() / config.getThrottleRelaxIntervalMs()), config.getRampStrategy());
+    }
+    
+    public double get()
+    {
+        return current;
+    }
+    
+    public double incrementAndGet()
+    {
+        runs++;
+        fraction = rampStrategy.fractionAt(runs, numberOfRuns);
+        if (runs >= numberOfRuns)
+        {
+            current = endRate;
+        }
+        else
+        {
+            // an unlimited target has no end to ramp to, so ramp to the throttled rate times the number of runs
+            double span = (endRate == UNLIMITED) ? startRate * numberOfRuns : endRate - startRate;
+            current = Math.min(Math.max(current, startRate + fraction * span), endRate);
+        }
+        return current;
+    }
+    
+    public boolean isDone()
+    {
+        return current >= endRate;
+    }
+    
+    /**
+     * Get how far the rate has grown back.
+     * @return the progress, from 0 when throttled to 1 when done.
+     */
+    public double getProgress()
+    {
+        return isDone() ? 1 : fraction;
+    }
+}
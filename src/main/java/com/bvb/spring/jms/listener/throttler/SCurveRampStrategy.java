@@ -0,0 +1,68 @@
+package com.bvb.spring.jms.listener.throttler;
+
+import org.springframework.util.Assert;
+
+import com.google.common.base.Objects;
+
+/**
+ * Relaxes the throttling along a logistic curve, slowly at the start and the end of the throttle period and fastest in the
+ * middle.  The upstream is probed gently, then most of the capacity comes back, then the last of it is added with care.
+ */
+public class SCurveRampStrategy extends CurveRampStrategy
+{
+    public static final double DEFAULT_STEEPNESS = 10;
+    
+    private final double steepness;
+    private final double start;
+    private final double range;
+    
+    /**
+     * Create the strategy with a steepness of {@value #DEFAULT_STEEPNESS}.
+     */
+    public SCurveRampStrategy()
+    {
+        this(DEFAULT_STEEPNESS);
+    }
+    
+    /**
+     * Create the strategy.
+     * @param steepness how sharply the curve rises in the middle of the period, greater than 0.
+     */
+    public SCurveRampStrategy(double steepness)
+    {
+        Assert.isTrue(steepness > 0, "steepness must be greater than 0");
+        this.steepness = steepness;
+        // scale the logistic curve so it runs from exactly 0 to 1 over the period
+        this.start = logistic(0);
+        this.range = logistic(1) - start;
+    }
+    
+    private double logistic(double elapsed)
+    {
+        return 1 / (1 + Math.exp(-steepness * (elapsed - 0.5)));
+    }
+    
+    @Override
+    protected double curve(double elapsed)
+    {
+        return (logistic(elapsed) - start) / range;
+    }
+    
+    @Override
+    public boolean equals(Object object)
+    {
+        return (object instanceof SCurveRampStrategy) && ((SCurveRampStrategy) object).steepness == steepness;
+    }
+    
+    @Override
+    public int hashCode()
+    {
+        return Objects.hashCode(getClass(), steepness);
+    }
+    
+    @Override
+    public String toString()
+    {
+        return Objects.toStringHelper(this).add("steepness", steepness).toString();
+    }
+}
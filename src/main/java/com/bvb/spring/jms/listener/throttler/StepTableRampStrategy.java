@@ -0,0 +1,63 @@
+package com.bvb.spring.jms.listener.throttler;
+
+import java.util.Arrays;
+
+import org.springframework.util.Assert;
+
+/**
+ * Relaxes the throttling through a table of steps, one for each run of the relaxer.  After the last step the throttling is
+ * held there until the throttle period ends and the full value is restored, so for example steps of {@code 0.25, 0.5} with a
+ * period of four runs give a quarter, a half, a half and then all of the full value.
+ */
+public class StepTableRampStrategy implements RampStrategy
+{
+    private final double[] steps;
+    
+    /**
+     * Create the strategy.
+     * @param steps the fraction of the way back to reach on each run, from 0 to 1 and never decreasing.
+     */
+    public StepTableRampStrategy(double... steps)
+    {
+        Assert.isTrue(steps.length > 0, "steps must not be empty");
+        double previous = 0;
+        for (double step : steps)
+        {
+            Assert.isTrue(step >= previous && step <= 1, "steps must be from 0 to 1 and never decrease");
+            previous = step;
+        }
+        this.steps = steps.clone();
+    }
+    
+    @Override
+    public double fractionAt(int run, int numberOfRuns)
+    {
+        if (run <= 0)
+        {
+            return 0;
+        }
+        if (run >= numberOfRuns)
+        {
+            return 1;
+        }
+        return steps[Math.min(run, steps.length) - 1];
+    }
+    
+    @Override
+    public boolean equals(Object object)
+    {
+        return (object instanceof StepTableRampStrategy) && Arrays.equals(((StepTableRampStrategy) object).steps, steps);
+    }
+    
+    @Override
+    public int hashCode()
+    {
+        return Arrays.hashCode(steps);
+    }
+    
+    @Override
+    public String toString()
+    {
+        return "StepTableRampStrategy" + Arrays.toString(steps);
+    }
+}
@@ -0,0 +1,26 @@
+package com.bvb.spring.jms.listener.throttler;
+
+/**
+ * Counts the max concurrent consumers allowed while consumption is throttled.  The throttling relaxer calls
+ * {@link #incrementAndGet()} each time it runs, growing the consumers until the counter is done.
+ */
+public interface ThrottlerCounter
+{
+    /**
+     * Get the current max concurrent consumers without changing it.
+     * @return the current value.
+     */
+    int get();
+    
+    /**
+     * Move on to the next value, which may be the same as the current value if the counter has decided to hold.
+     * @return the new max concurrent consumers.
+     */
+    int incrementAndGet();
+    
+    /**
+     * Is the counter done and the throttling finished.
+     * @return {@code true} if the target has been reached, otherwise {@code false}.
+     */
+    boolean isDone();
+}
@@ -0,0 +1,25 @@
+package com.bvb.spring.jms.listener.utils;
+
+/**
+ * The source of the time for the timing decisions of a container, so that tests can run its keep alive and throttle
+ * schedules in virtual time.  See {@link com.bvb.spring.jms.listener.scheduling.VirtualTimeTaskScheduler}.
+ */
+public interface Clock
+{
+    /**
+     * The clock of the system.
+     */
+    Clock SYSTEM = new SystemClock();
+    
+    /**
+     * Get the wall clock time.
+     * @return the time in milliseconds since the epoch, as {@link System#currentTimeMillis()}.
+     */
+    long currentTimeMillis();
+    
+    /**
+     * Get the time for measuring elapsed time.
+     * @return the time in nanoseconds from an arbitrary origin, as {@link System#nanoTime()}.
+     */
+    long nanoTime();
+}
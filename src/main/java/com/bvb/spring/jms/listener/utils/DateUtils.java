@@ -11,7 +11,11 @@ public class DateUtils
     
     public static Date getNowPlusMs(long ms)
     {
-        Date date = new Date();
-        return new Date(date.getTime() + ms);
+        return getNowPlusMs(Clock.SYSTEM, ms);
+    }
+    
+    public static Date getNowPlusMs(Clock clock, long ms)
+    {
+        return new Date(clock.currentTimeMillis() + ms);
     }
 }
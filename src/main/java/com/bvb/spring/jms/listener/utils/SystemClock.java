@@ -0,0 +1,19 @@
+package com.bvb.spring.jms.listener.utils;
+
+/**
+ * The {@link Clock} of the system, use {@link Clock#SYSTEM}.
+ */
+final class SystemClock implements Clock
+{
+    @Override
+    public long currentTimeMillis()
+    {
+        return System.currentTimeMillis();
+    }
+    
+    @Override
+    public long nanoTime()
+    {
+        return System.nanoTime();
+    }
+}
@@ -0,0 +1,35 @@
+package com.bvb.spring.jms.listener;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.bvb.spring.jms.listener.keepalive.AsyncKeepAliveService;
+import com.bvb.spring.jms.listener.keepalive.KeepAliveResponse;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+
+/**
+ * An async keep alive whose responses never arrive.
+ */
+public class AsyncKeepAliveHanging extends AbstractKeepAlive implements AsyncKeepAliveService
+{
+    private final AtomicInteger count = new AtomicInteger();
+    private volatile SettableFuture<KeepAliveResponse> last;
+
+    @Override
+    public ListenableFuture<KeepAliveResponse> keepAlive()
+    {
+        log("Async keep alive called, count=" + count.incrementAndGet());
+        last = SettableFuture.create();
+        return last;
+    }
+
+    public int getCount()
+    {
+        return count.get();
+    }
+
+    public boolean isLastCancelled()
+    {
+        return last != null && last.isCancelled();
+    }
+}
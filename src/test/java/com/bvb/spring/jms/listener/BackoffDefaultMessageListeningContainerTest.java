@@ -1,31 +1,58 @@
 package com.bvb.spring.jms.listener;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
+import java.io.File;
 import java.io.Serializable;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
 
-import javax.jms.ConnectionFactory;
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.MessageListener;
+import javax.jms.Session;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
 
 import org.junit.After;
 import org.junit.AfterClass;
 import org.junit.Before;
 import org.junit.BeforeClass;
 import org.junit.Test;
+import org.springframework.jms.connection.CachingConnectionFactory;
+import org.springframework.jms.connection.JmsTransactionManager;
 import org.springframework.jms.listener.DefaultMessageListenerContainer;
+import org.springframework.jms.listener.SessionAwareMessageListener;
 import org.springframework.jms.listener.adapter.MessageListenerAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
 import com.bvb.spring.jms.listener.activemq.Broker;
 import com.bvb.spring.jms.listener.activemq.ConnectionFactoryCreator;
+import com.bvb.spring.jms.listener.breaker.CircuitBreaker;
 import com.bvb.spring.jms.listener.config.PauseConfig;
 import com.bvb.spring.jms.listener.config.PauseConfigBuilder;
+import com.bvb.spring.jms.listener.dedupe.MessageIdDedupeCache;
+import com.bvb.spring.jms.listener.depth.ActiveMqStatisticsDepthProvider;
+import com.bvb.spring.jms.listener.depth.QueueBrowserDepthProvider;
+import com.bvb.spring.jms.listener.depth.QueueDepthProbe;
 import com.bvb.spring.jms.listener.exception.PauseConsumptionException;
 import com.bvb.spring.jms.listener.keepalive.KeepAliveResponse;
+import com.bvb.spring.jms.listener.scheduling.VirtualTimeTaskScheduler;
+import com.bvb.spring.jms.listener.state.MappedFileThrottleStateStore;
+import com.bvb.spring.jms.listener.throttler.AimdConcurrencyController;
+import com.bvb.spring.jms.listener.throttler.LatencyTargetAutoscaler;
+import com.bvb.spring.jms.listener.throttler.PriorityThrottle;
+import com.bvb.spring.jms.listener.throttler.SCurveRampStrategy;
 
 /**
  * Test the {@link BackoffDefaultMessageListeningContainer} by using an embedded ActiveMQ broker.
@@ -36,9 +63,11 @@ public class BackoffDefaultMessageListeningContainerTest implements MessageObser
     private static final int DEFAULT_CONSUMERS = 5;
     private static final String QUEUE1 = "queue1";
     private static final String QUEUE2 = "queue2";
+    private static final String QUEUE3 = "queue3";
     
     private static Broker broker;
     private static String brokerUrl;
+    private static CachingConnectionFactory connectionFactory;
     private static MessageListenerAdapter listener;
     private static Set<String> messagesReceived;
     private static Service service;
@@ -58,7 +87,7 @@ public class BackoffDefaultMessageListeningContainerTest implements MessageObser
         broker.start();
         brokerUrl = broker.getConnectionUrl();
         
-        ConnectionFactory connectionFactory = ConnectionFactoryCreator.build(brokerUrl);
+        connectionFactory = ConnectionFactoryCreator.build(brokerUrl);
         dmlcFactory = new DmlcFactory(connectionFactory);
                 
         messagesReceived = Collections.synchronizedSet(new HashSet<String>());
@@ -91,6 +120,8 @@ public class BackoffDefaultMessageListeningContainerTest implements MessageObser
     {
         dmlc.stop();
         dmlc.shutdown();
+        // close the cached sessions, so messages rolled back onto their consumers go back to the broker and are cleared
+        connectionFactory.resetConnection();
         waitFor(2);
         System.out.println("Pending: " + broker.getMessagePendingCount(QUEUE1));
         broker.clearAllMessages();
@@ -187,6 +218,159 @@ public class BackoffDefaultMessageListeningContainerTest implements MessageObser
         assertEquals(DEFAULT_MAX_CONSUMERS, dmlc.getMaxConcurrentConsumers());
     }
     
+    @Test
+    public void testGivenVirtualTimeAssertTenMinuteThrottleRelaxedEveryMinuteWithoutWaiting()
+    {
+        VirtualTimeTaskScheduler time = new VirtualTimeTaskScheduler();
+        dmlc.setTaskScheduler(time);
+        dmlc.setKeepAliveInterval(1000);
+        PauseConfig config = PauseConfigBuilder.newBuilder().withThrottleDeliveryForXMinutes(10)
+                .withThrottleRelaxEveryXSeconds(60).withThrottleMaxConcurrency(1).build();
+        KeepAliveMutable keepAlive = new KeepAliveMutable(new KeepAliveResponse(false, config));
+        dmlc.setKeepAliveService(keepAlive);
+        long started = System.nanoTime();
+        
+        launch(dmlc);
+        time.runDueTasks();
+        keepAlive.setResponse(new KeepAliveResponse(true));
+        time.advance(1000);
+        
+        assertTrue(dmlc.isConsuming());
+        assertConsumers(1, 1);
+        
+        time.advance(TimeUnit.MINUTES.toMillis(5));
+        
+        assertTrue(dmlc.isThrottled());
+        assertEquals(6, dmlc.getMaxConcurrentConsumers());
+        
+        time.advance(TimeUnit.MINUTES.toMillis(5));
+        
+        assertFalse(dmlc.isThrottled());
+        assertEquals(DEFAULT_MAX_CONSUMERS, dmlc.getMaxConcurrentConsumers());
+        assertTrue(System.nanoTime() - started < TimeUnit.SECONDS.toNanos(10));
+    }
+    
+    @Test
+    public void testGivenConsumersFailingTogetherAssertAimdCutsOncePerOutage() throws Exception
+    {
+        VirtualTimeTaskScheduler time = new VirtualTimeTaskScheduler();
+        dmlc.setTaskScheduler(time);
+        dmlc.setKeepAliveInterval(1000);
+        dmlc.setKeepAliveService(new KeepAliveMutable(new KeepAliveResponse(true)));
+        dmlc.setConcurrencyController(new AimdConcurrencyController());
+        final PauseConfig config = PauseConfigBuilder.newBuilder().withThrottleDeliveryForXMinutes(10)
+                .withThrottleRelaxEveryXSeconds(60).withThrottleMaxConcurrency(1).build();
+        
+        launch(dmlc);
+        time.runDueTasks();
+        
+        // every consumer fails in the same outage
+        final CountDownLatch go = new CountDownLatch(1);
+        List<Thread> consumers = new ArrayList<>();
+        for (int i = 0; i < DEFAULT_CONSUMERS; i++)
+        {
+            Thread consumer = new Thread(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    try
+                    {
+                        go.await();
+                    }
+                    catch (InterruptedException ex)
+                    {
+                        return;
+                    }
+                    dmlc.handlePauseConsumptionException(new PauseConsumptionException(config,
+                        new RuntimeException("Error")));
+                }
+            });
+            consumer.start();
+            consumers.add(consumer);
+        }
+        go.countDown();
+        for (Thread consumer : consumers)
+        {
+            consumer.join();
+        }
+        
+        assertFalse(dmlc.isRunning());
+        assertEquals(DEFAULT_MAX_CONSUMERS / 2, dmlc.getMaxConcurrentConsumers());
+        
+        time.advance(1000);
+        assertTrue(dmlc.isConsuming());
+        
+        // the next outage cuts again
+        dmlc.handlePauseConsumptionException(new PauseConsumptionException(config, new RuntimeException("Error")));
+        
+        assertEquals(DEFAULT_MAX_CONSUMERS / 4, dmlc.getMaxConcurrentConsumers());
+    }
+    
+    @Test
+    public void testGivenThrottledWhenRestartedAssertNewContainerResumesThrottlingFromSavedState() throws Exception
+    {
+        VirtualTimeTaskScheduler time = new VirtualTimeTaskScheduler();
+        File directory = new File("target/throttle-state");
+        new File(directory, "restarted" + MappedFileThrottleStateStore.FILE_SUFFIX).delete();
+        dmlc.setTaskScheduler(time);
+        dmlc.setKeepAliveInterval(1000);
+        dmlc.setThrottleStateStore(new MappedFileThrottleStateStore(directory, "restarted"));
+        PauseConfig config = PauseConfigBuilder.newBuilder().withThrottleDeliveryForXMinutes(10)
+                .withThrottleRelaxEveryXSeconds(60).withThrottleMaxConcurrency(1).build();
+        KeepAliveMutable keepAlive = new KeepAliveMutable(new KeepAliveResponse(false, config));
+        dmlc.setKeepAliveService(keepAlive);
+        
+        launch(dmlc);
+        time.runDueTasks();
+        keepAlive.setResponse(new KeepAliveResponse(true));
+        time.advance(TimeUnit.MINUTES.toMillis(5) + 1000);
+        
+        assertEquals(6, dmlc.getMaxConcurrentConsumers());
+        
+        dmlc.stop();
+        dmlc.shutdown();
+        dmlc = buildDefault();
+        dmlc.setTaskScheduler(time);
+        dmlc.setKeepAliveInterval(1000);
+        dmlc.setThrottleStateStore(new MappedFileThrottleStateStore(directory, "restarted"));
+        dmlc.setKeepAliveService(keepAlive);
+        
+        launch(dmlc);
+        
+        // carries on from where it was rather than full capacity, relaxing over the rest of the throttle period
+        assertTrue(dmlc.isThrottled());
+        assertEquals(6, dmlc.getMaxConcurrentConsumers());
+        
+        time.advance(TimeUnit.MINUTES.toMillis(5));
+        
+        assertFalse(dmlc.isThrottled());
+        assertEquals(DEFAULT_MAX_CONSUMERS, dmlc.getMaxConcurrentConsumers());
+    }
+    
+    @Test
+    public void testGivenThrottleRelaxedEveryXMsAssertFullyRelaxedWithinSeconds()
+    {
+        dmlc.setInitiallyStopped(false);
+        dmlc.setKeepAliveInterval(1000);
+        PauseConfig config = PauseConfigBuilder.newBuilder().withThrottleDeliveryForXSeconds(2)
+                .withThrottleRelaxEveryXMs(500).withThrottleMaxConcurrency(1).withRampStrategy(new SCurveRampStrategy())
+                .build();
+        KeepAliveMutable keepAlive = new KeepAliveMutable(new KeepAliveResponse(false, config));
+        dmlc.setKeepAliveService(keepAlive);
+        
+        launch(dmlc);
+        waitFor(1);
+        keepAlive.setResponse(new KeepAliveResponse(true));
+        
+        assertTrue(dmlc.isThrottled());
+        
+        waitFor(5);
+        
+        assertFalse(dmlc.isThrottled());
+        assertEquals(DEFAULT_MAX_CONSUMERS, dmlc.getMaxConcurrentConsumers());
+    }
+    
     @Test
     public void testGivenThrottlingMaxLargerThanStandardMaxThrottlingIgnored()
     {
@@ -236,6 +420,582 @@ public class BackoffDefaultMessageListeningContainerTest implements MessageObser
         assertEquals(1, countAfter - countBefore);
     }
 
+    @Test
+    public void testGivenBatchListenerAssertMessagesDeliveredInBatchesOfMaxSize()
+    {
+        BatchCollector collector = new BatchCollector();
+        dmlc = dmlcFactory.build(1, 1, collector, QUEUE1, false);
+        dmlc.setBatchSize(10);
+        dmlc.setBatchLingerMs(500);
+        dmlc.setKeepAliveInterval(1000);
+        addMessages(25);
+        
+        launch(dmlc);
+        waitFor(5);
+        
+        assertEquals(25, collector.getMessageCount());
+        assertEquals(0, broker.getMessagePendingCount(QUEUE1));
+        for (List<Serializable> batch : collector.getBatches())
+        {
+            assertTrue(batch.size() <= 10);
+        }
+        assertEquals(10, collector.getBatches().get(0).size());
+    }
+    
+    @Test
+    public void testGivenBatchListenerThrowsPauseConsumptionAssertWholeBatchRolledBackAndRedelivered()
+    {
+        BatchCollector collector = new BatchCollector();
+        dmlc = dmlcFactory.build(1, 1, collector, QUEUE1, false);
+        // the rolled back batch is redelivered to the consumer that received it, so keep that consumer across the restart
+        dmlc.setCacheLevelName("CACHE_CONSUMER");
+        dmlc.setBatchSize(5);
+        dmlc.setKeepAliveInterval(1000);
+        PauseConfig config = PauseConfigBuilder.newBuilder().withDelayConsumptionForXSeconds(5).build();
+        collector.addExceptionToThrow(new PauseConsumptionException(config, new RuntimeException("Error")));
+        addMessages(5);
+        
+        launch(dmlc);
+        waitFor(2);
+        
+        // the batch was rolled back and the container paused
+        assertEquals(1, collector.getBatches().size());
+        assertEquals(5, broker.getMessagePendingCount(QUEUE1));
+        
+        waitFor(8);
+        
+        assertEquals(collector.getBatches().get(0), collector.getBatches().get(1));
+        assertEquals(0, broker.getMessagePendingCount(QUEUE1));
+    }
+
+    @Test
+    public void testGivenMBeanRegisteredAssertMessagesReceivedExposedOverJmx() throws Exception
+    {
+        addMessages(QUEUE1, "001", "002");
+        dmlc.setRegisterMBean(true);
+        dmlc.setKeepAliveInterval(1000);
+        
+        launch(dmlc);
+        waitOnLatch(15, 2);
+        
+        ObjectName name = new ObjectName(BackoffDefaultMessageListeningContainer.MBEAN_DOMAIN 
+            + ":type=BackoffDefaultMessageListeningContainer,name=\"Dmlc\"");
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        assertEquals(2L, server.getAttribute(name, "MessagesReceived"));
+        assertEquals(0L, server.getAttribute(name, "ListenerFailures"));
+        
+        dmlc.shutdown();
+        assertFalse(server.isRegistered(name));
+    }
+
+    @Test
+    public void testGivenAsyncKeepAliveHangsAssertNoOverlapAndConsumptionStoppedOnTimeout()
+    {
+        dmlc.setInitiallyStopped(false);
+        dmlc.setKeepAliveInterval(500);
+        AsyncKeepAliveHanging keepAlive = new AsyncKeepAliveHanging();
+        dmlc.setAsyncKeepAliveService(keepAlive);
+        dmlc.setKeepAliveTimeoutMs(2000);
+        dmlc.setKeepAliveTimeoutPauseConfig(PauseConfigBuilder.newBuilder().withDelayConsumptionForXSeconds(30).build());
+        
+        launch(dmlc);
+        waitFor(1);
+        
+        // the keep alive runs every 500 ms but the first is still in flight
+        assertEquals(1, keepAlive.getCount());
+        assertTrue(dmlc.isRunning());
+        
+        waitFor(2);
+        
+        assertTrue(keepAlive.isLastCancelled());
+        assertFalse(dmlc.isRunning());
+    }
+
+    @Test
+    public void testGivenListenerKeepsFailingAssertCircuitBreakerOpensAndStopsConsumption()
+    {
+        dmlc.setInitiallyStopped(false);
+        dmlc.setKeepAliveInterval(1000);
+        CircuitBreaker breaker = new CircuitBreaker();
+        breaker.setMinimumCalls(3);
+        dmlc.setCircuitBreaker(breaker);
+        for (int i = 0; i < 3; i++)
+        {
+            service.addExceptionToThrow(new IllegalStateException("Downstream unavailable"));
+        }
+        addMessages(1);
+        
+        launch(dmlc);
+        for (int i = 0; i < 15 && dmlc.isRunning(); i++)
+        {
+            waitFor(1);
+        }
+        
+        assertFalse(dmlc.isRunning());
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        assertEquals(1, broker.getMessagePendingCount(QUEUE1));
+    }
+
+    @Test
+    public void testGivenSoftPauseAssertConsumerKeptOpenWhilePausedAndMessageRedelivered()
+    {
+        dmlc = dmlcFactory.build(1, 1, listener, QUEUE2, false);
+        dmlc.setCacheLevelName("CACHE_CONSUMER");
+        dmlc.setSoftPause(true);
+        dmlc.setKeepAliveInterval(1000);
+        PauseConfig config = PauseConfigBuilder.newBuilder().withDelayConsumptionForXSeconds(5).build();
+        service.addExceptionToThrow(new PauseConsumptionException(config, new RuntimeException("Error")));
+        // a queue of its own so no consumers of the other tests are counted
+        broker.addMessages(QUEUE2, "001");
+        
+        launch(dmlc);
+        for (int i = 0; i < 10 && dmlc.isConsuming(); i++)
+        {
+            waitFor(1);
+        }
+        
+        // paused but still running, with the consumer still open on the broker
+        assertFalse(dmlc.isConsuming());
+        assertTrue(dmlc.isRunning());
+        assertEquals(1, broker.getConsumersCount(QUEUE2));
+        assertEquals(1, broker.getMessagePendingCount(QUEUE2));
+        
+        waitOnLatch(15, 1);
+        
+        assertTrue(dmlc.isConsuming());
+        assertTrue(messagesReceived.contains("001"));
+        assertEquals(0, broker.getMessagePendingCount(QUEUE2));
+    }
+
+    @Test
+    public void testGivenListenerPausesOneNodeAssertSameContainerOnOtherNodePausedAndResumedOverControlTopic()
+    {
+        FleetControlChannel nodeA = new FleetControlChannel(connectionFactory, "fleet.control", "nodeA");
+        FleetControlChannel nodeB = new FleetControlChannel(connectionFactory, "fleet.control", "nodeB");
+        // the same bean on another node, on a queue of its own so only the first node sees the failure
+        BackoffDefaultMessageListeningContainer other = dmlcFactory.build(DEFAULT_CONSUMERS, DEFAULT_MAX_CONSUMERS, listener,
+            QUEUE2, false);
+        other.setKeepAliveInterval(1000);
+        other.setFleetControlChannel(nodeB);
+        dmlc.setKeepAliveInterval(1000);
+        dmlc.setFleetControlChannel(nodeA);
+        PauseConfig config = PauseConfigBuilder.newBuilder().withDelayConsumptionForXSeconds(30)
+                .withThrottleDeliveryForXMinutes(1).withThrottleMaxConcurrency(1).build();
+        try
+        {
+            launch(other);
+            launch(dmlc);
+            for (int i = 0; i < 10 && !(nodeA.isSubscribed() && nodeB.isSubscribed()); i++)
+            {
+                waitFor(1);
+            }
+            
+            service.addExceptionToThrow(new PauseConsumptionException(config, new RuntimeException("Error")));
+            addMessages(1);
+            for (int i = 0; i < 10 && other.isConsuming(); i++)
+            {
+                waitFor(1);
+            }
+            
+            assertFalse(dmlc.isConsuming());
+            assertFalse(other.isConsuming());
+            assertEquals(1, other.getMaxConcurrentConsumers());
+            
+            // an operator resumes the other node ahead of its keep alive
+            nodeA.publish("Dmlc", FleetControlChannel.Command.RESUME, null);
+            for (int i = 0; i < 10 && !other.isConsuming(); i++)
+            {
+                waitFor(1);
+            }
+            
+            assertTrue(other.isConsuming());
+            assertFalse(dmlc.isConsuming());
+            
+            // the node that failed stays paused until its own keep alive succeeds
+            nodeB.publish("Dmlc", FleetControlChannel.Command.RESUME, null);
+            waitFor(2);
+            
+            assertFalse(dmlc.isConsuming());
+        }
+        finally
+        {
+            other.stop();
+            other.shutdown();
+            nodeA.shutdown();
+            nodeB.shutdown();
+        }
+    }
+    
+    @Test
+    public void testGivenConsumerBudgetAssertPausedContainersShareLentToOtherAndTakenBackOnResume()
+    {
+        VirtualTimeTaskScheduler time = new VirtualTimeTaskScheduler();
+        ConsumerBudget budget = new ConsumerBudget("pod", 12);
+        BackoffDefaultMessageListeningContainer other = dmlcFactory.build(DEFAULT_CONSUMERS, DEFAULT_MAX_CONSUMERS, listener,
+            QUEUE2, false);
+        KeepAliveMutable keepAlive = new KeepAliveMutable(new KeepAliveResponse(true));
+        other.setKeepAliveService(keepAlive);
+        for (BackoffDefaultMessageListeningContainer container : Arrays.asList(dmlc, other))
+        {
+            container.setTaskScheduler(time);
+            container.setKeepAliveInterval(1000);
+            container.setConsumerBudget(budget);
+        }
+        dmlc.setConsumerBudgetWeight(2);
+        try
+        {
+            launch(dmlc);
+            launch(other);
+            time.runDueTasks();
+            
+            assertConsumers(DEFAULT_CONSUMERS, 8);
+            assertEquals(4, other.getConcurrentConsumers());
+            assertEquals(4, other.getMaxConcurrentConsumers());
+            
+            keepAlive.setResponse(new KeepAliveResponse(false));
+            time.advance(1000);
+            
+            assertFalse(other.isConsuming());
+            assertDefaultConsumers();
+            
+            keepAlive.setResponse(new KeepAliveResponse(true));
+            time.advance(1000);
+            
+            assertTrue(other.isConsuming());
+            assertConsumers(DEFAULT_CONSUMERS, 8);
+            assertEquals(4, other.getMaxConcurrentConsumers());
+        }
+        finally
+        {
+            other.stop();
+            other.shutdown();
+        }
+    }
+    
+    @Test
+    public void testGivenParkOnPauseAssertMessageReplayedOnResumeWithoutBeingRedelivered() throws Exception
+    {
+        final PauseConfig config = PauseConfigBuilder.newBuilder().withDelayConsumptionForXSeconds(3).build();
+        final List<Boolean> deliveries = Collections.synchronizedList(new ArrayList<Boolean>());
+        MessageListener parkingListener = new MessageListener()
+        {
+            @Override
+            public void onMessage(Message message)
+            {
+                try
+                {
+                    deliveries.add(message.getJMSRedelivered());
+                }
+                catch (JMSException ex)
+                {
+                    throw new RuntimeException(ex);
+                }
+                if (deliveries.size() == 1)
+                {
+                    throw new PauseConsumptionException(config, new RuntimeException("Error"));
+                }
+            }
+        };
+        dmlc = dmlcFactory.build(1, 1, parkingListener, QUEUE2, false);
+        dmlc.setKeepAliveInterval(1000);
+        dmlc.setParkOnPause(true);
+        broker.addMessages(QUEUE2, "001");
+        
+        launch(dmlc);
+        for (int i = 0; i < 10 && dmlc.getParkedConsumerCount() == 0; i++)
+        {
+            waitFor(1);
+        }
+        
+        // paused with the message held by its consumer rather than rolled back
+        assertEquals(1, dmlc.getParkedConsumerCount());
+        assertFalse(dmlc.isRunning());
+        
+        for (int i = 0; i < 10 && deliveries.size() < 2; i++)
+        {
+            waitFor(1);
+        }
+        waitFor(1);
+        
+        assertEquals(Arrays.asList(false, false), deliveries);
+        assertEquals(0, dmlc.getParkedConsumerCount());
+        assertEquals(0, broker.getMessagePendingCount(QUEUE2));
+    }
+    
+    @Test
+    public void testGivenProcessedMessageRedeliveredAssertDedupeCacheAcksItWithoutInvokingListener() throws Exception
+    {
+        final List<String> deliveries = Collections.synchronizedList(new ArrayList<String>());
+        SessionAwareMessageListener<Message> rollingBackListener = new SessionAwareMessageListener<Message>()
+        {
+            @Override
+            public void onMessage(Message message, Session session) throws JMSException
+            {
+                deliveries.add(message.getJMSMessageID());
+                if (deliveries.size() == 1)
+                {
+                    // processed but not committed, as if the commit had failed
+                    session.rollback();
+                }
+            }
+        };
+        MessageIdDedupeCache cache = new MessageIdDedupeCache(1000);
+        dmlc = dmlcFactory.build(1, 1, rollingBackListener, QUEUE2, false);
+        dmlc.setKeepAliveInterval(1000);
+        dmlc.setDedupeCache(cache);
+        broker.addMessages(QUEUE2, "001");
+        
+        launch(dmlc);
+        for (int i = 0; i < 10 && cache.getHits() == 0; i++)
+        {
+            waitFor(1);
+        }
+        waitFor(1);
+        
+        assertEquals(1, deliveries.size());
+        assertEquals(1, cache.getHits());
+        assertEquals(1, cache.getMisses());
+        assertEquals(0, broker.getMessagePendingCount(QUEUE2));
+    }
+    
+    @Test
+    public void testGivenTransactionRolledBackAfterListenerReturnsAssertDedupeCacheDeliversItAgain() throws Exception
+    {
+        final List<String> deliveries = Collections.synchronizedList(new ArrayList<String>());
+        MessageListener failingCommitListener = new MessageListener()
+        {
+            @Override
+            public void onMessage(Message message)
+            {
+                deliveries.add("delivered");
+                if (deliveries.size() == 1)
+                {
+                    // the listener returns normally but the transaction then fails to commit
+                    TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter()
+                    {
+                        @Override
+                        public void beforeCommit(boolean readOnly)
+                        {
+                            throw new IllegalStateException("Commit failed");
+                        }
+                    });
+                }
+            }
+        };
+        MessageIdDedupeCache cache = new MessageIdDedupeCache(1000);
+        dmlc = dmlcFactory.build(1, 1, failingCommitListener, QUEUE2, false);
+        dmlc.setKeepAliveInterval(1000);
+        dmlc.setRecoveryInterval(100);
+        dmlc.setTransactionManager(new JmsTransactionManager(connectionFactory));
+        dmlc.setDedupeCache(cache);
+        broker.addMessages(QUEUE2, "001");
+        
+        launch(dmlc);
+        for (int i = 0; i < 10 && deliveries.size() < 2; i++)
+        {
+            waitFor(1);
+        }
+        waitFor(1);
+        
+        assertEquals(2, deliveries.size());
+        assertEquals(0, cache.getHits());
+        assertEquals(1, cache.size());
+        assertEquals(0, broker.getMessagePendingCount(QUEUE2));
+    }
+    
+    @Test
+    public void testGivenPartnerPausedByLaneKeyAssertOnlyItsLanePausedAndOtherPartnersConsumed()
+    {
+        final PartnerListener partnerListener = new PartnerListener(
+            PauseConfigBuilder.newBuilder().withDelayConsumptionForXSeconds(30).build());
+        partnerListener.addFailingPartner("C");
+        LanePartitionedContainer partitioned = new LanePartitionedContainer("Partners", PartnerListener.PARTNER_PROPERTY,
+            new LaneContainerFactory()
+            {
+                @Override
+                public BackoffDefaultMessageListeningContainer createContainer(String laneKey)
+                {
+                    BackoffDefaultMessageListeningContainer lane = dmlcFactory.build(1, 1, partnerListener, QUEUE3, false);
+                    lane.setKeepAliveInterval(1000);
+                    return lane;
+                }
+            });
+        partitioned.afterPropertiesSet();
+        try
+        {
+            BackoffDefaultMessageListeningContainer initialDefaultLane = partitioned.getDefaultLane();
+            broker.addMessagesWithProperty(QUEUE3, PartnerListener.PARTNER_PROPERTY, "C", "c1");
+            partitioned.start();
+            // wait for the default lane to be replaced by one that leaves C out
+            for (int i = 0; i < 15 && partitioned.getDefaultLane() == initialDefaultLane; i++)
+            {
+                waitFor(1);
+            }
+            waitFor(2);
+            broker.addMessagesWithProperty(QUEUE3, PartnerListener.PARTNER_PROPERTY, "B", "b1", "b2");
+            // a message is received before its transaction commits, so wait for it to leave the queue as well
+            for (int i = 0; i < 10
+                && (partnerListener.getReceived().size() < 2 || broker.getMessagePendingCount(QUEUE3) > 1); i++)
+            {
+                waitFor(1);
+            }
+            
+            // the lane for C was created paused, the default lane carries on with B
+            assertFalse(partitioned.getLane("C").isConsuming());
+            assertTrue(partitioned.getDefaultLane().isConsuming());
+            assertEquals(new HashSet<String>(Arrays.asList("b1", "b2")), partnerListener.getReceived());
+            assertEquals(1, broker.getMessagePendingCount(QUEUE3));
+        }
+        finally
+        {
+            partitioned.destroy();
+        }
+    }
+
+    @Test
+    public void testGivenPriorityThrottleAssertOnlyHighPriorityConsumedWhileThrottled()
+    {
+        dmlc.setInitiallyStopped(false);
+        dmlc.setKeepAliveInterval(1000);
+        dmlc.setPriorityThrottle(new PriorityThrottle(7));
+        PauseConfig config = PauseConfigBuilder.newBuilder().withThrottleDeliveryForXMinutes(1)
+                .withThrottleRelaxEveryXSeconds(60).withThrottleMaxConcurrency(1).build();
+        KeepAliveMutable keepAlive = new KeepAliveMutable(new KeepAliveResponse(false, config));
+        dmlc.setKeepAliveService(keepAlive);
+        
+        launch(dmlc);
+        waitFor(1);
+        // the keep alive now responds everything is working, the throttling carries on until relaxed
+        keepAlive.setResponse(new KeepAliveResponse(true));
+        waitFor(2);
+        
+        assertTrue(dmlc.isThrottled());
+        assertEquals(7, dmlc.getPriorityThrottle().getCurrentMinPriority());
+        
+        broker.addMessagesWithPriority(QUEUE1, 2, "low1", "low2");
+        broker.addMessagesWithPriority(QUEUE1, 9, "high1");
+        waitFor(3);
+        
+        // the low priority messages wait on the queue while throttled
+        assertEquals(Collections.singleton("high1"), messagesReceived);
+        assertEquals(2, broker.getMessagePendingCount(QUEUE1));
+    }
+
+    @Test
+    public void testGivenListenerSlowerThanLatencyTargetAssertAutoscalerShrinksConsumersToMin()
+    {
+        MessageListener slowListener = new MessageListener()
+        {
+            @Override
+            public void onMessage(Message message)
+            {
+                try
+                {
+                    Thread.sleep(50);
+                }
+                catch (InterruptedException ex)
+                {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        };
+        dmlc = dmlcFactory.build(5, 5, slowListener, QUEUE1, false);
+        LatencyTargetAutoscaler autoscaler = new LatencyTargetAutoscaler(20, 1, 5);
+        autoscaler.setSampleIntervalMs(1000);
+        autoscaler.setMinSamples(5);
+        dmlc.setLatencyTargetAutoscaler(autoscaler);
+        addMessages(1000);
+        
+        launch(dmlc);
+        waitFor(6);
+        
+        assertConsumers(1, 1);
+        assertTrue(autoscaler.getLastLatencyMicros() > TimeUnit.MILLISECONDS.toMicros(20));
+    }
+
+    @Test
+    public void testGivenMessagesOnQueueAssertDepthProvidersReportDepth() throws Exception
+    {
+        broker.addMessages(QUEUE2, "001", "002", "003");
+        
+        assertEquals(3, new ActiveMqStatisticsDepthProvider(connectionFactory).getDepth(QUEUE2));
+        assertEquals(3, new QueueBrowserDepthProvider(connectionFactory).getDepth(QUEUE2));
+        QueueBrowserDepthProvider capped = new QueueBrowserDepthProvider(connectionFactory);
+        capped.setMaxBrowsed(2);
+        assertEquals(2, capped.getDepth(QUEUE2));
+    }
+    
+    @Test
+    public void testGivenBacklogAssertDepthProbeScalesConsumersUpThenBackToMinOnceDrained()
+    {
+        MessageListener slowListener = new MessageListener()
+        {
+            @Override
+            public void onMessage(Message message)
+            {
+                try
+                {
+                    Thread.sleep(20);
+                }
+                catch (InterruptedException ex)
+                {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        };
+        dmlc = dmlcFactory.build(1, 2, slowListener, QUEUE1, false);
+        QueueDepthProbe probe = new QueueDepthProbe(new ActiveMqStatisticsDepthProvider(connectionFactory), 1, 5);
+        probe.setMessagesPerConsumer(10);
+        probe.setSampleIntervalMs(500);
+        dmlc.setQueueDepthProbe(probe);
+        addMessages(1000);
+        
+        launch(dmlc);
+        waitFor(2);
+        
+        assertConsumers(5, 5);
+        assertTrue(probe.getLastDepth() > 0);
+        
+        waitFor(10);
+        
+        assertEquals(0, broker.getMessagePendingCount(QUEUE1));
+        assertEquals(0, probe.getLastDepth());
+        assertConsumers(1, 5);
+    }
+    
+    @Test
+    public void testGivenConsumerBudgetAssertDepthProbeScalesNoFurtherThanShare()
+    {
+        MessageListener slowListener = new MessageListener()
+        {
+            @Override
+            public void onMessage(Message message)
+            {
+                try
+                {
+                    Thread.sleep(20);
+                }
+                catch (InterruptedException ex)
+                {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        };
+        dmlc = dmlcFactory.build(1, 5, slowListener, QUEUE1, false);
+        QueueDepthProbe probe = new QueueDepthProbe(new ActiveMqStatisticsDepthProvider(connectionFactory), 1, 5);
+        probe.setMessagesPerConsumer(10);
+        probe.setSampleIntervalMs(500);
+        dmlc.setQueueDepthProbe(probe);
+        dmlc.setConsumerBudget(new ConsumerBudget("pod", 3));
+        addMessages(1000);
+        
+        launch(dmlc);
+        waitFor(2);
+        
+        assertTrue(probe.getLastDepth() > 0);
+        assertConsumers(3, 3);
+    }
+    
     private void assertDefaultConsumers()
     {
         assertConsumers(DEFAULT_CONSUMERS, DEFAULT_MAX_CONSUMERS);
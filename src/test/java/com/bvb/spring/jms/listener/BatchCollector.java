@@ -0,0 +1,57 @@
+package com.bvb.spring.jms.listener;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.ObjectMessage;
+
+/**
+ * Batch listener that records each batch it receives and throws an exception if required.
+ */
+public class BatchCollector implements BatchMessageListener
+{
+    private List<List<Serializable>> batches = Collections.synchronizedList(new ArrayList<List<Serializable>>());
+    private List<RuntimeException> toThrow = Collections.synchronizedList(new ArrayList<RuntimeException>());
+
+    @Override
+    public void onMessages(List<Message> messages) throws JMSException
+    {
+        List<Serializable> batch = new ArrayList<>();
+        for (Message message : messages)
+        {
+            batch.add(((ObjectMessage) message).getObject());
+        }
+        batches.add(batch);
+        if (!toThrow.isEmpty())
+        {
+            throw toThrow.remove(0);
+        }
+    }
+    
+    public List<List<Serializable>> getBatches()
+    {
+        return batches;
+    }
+    
+    public int getMessageCount()
+    {
+        int count = 0;
+        synchronized (batches)
+        {
+            for (List<Serializable> batch : batches)
+            {
+                count += batch.size();
+            }
+        }
+        return count;
+    }
+    
+    public void addExceptionToThrow(RuntimeException ex)
+    {
+        toThrow.add(ex);
+    }
+}
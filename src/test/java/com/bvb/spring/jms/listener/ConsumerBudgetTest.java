@@ -0,0 +1,28 @@
+package com.bvb.spring.jms.listener;
+
+import static org.junit.Assert.assertArrayEquals;
+
+import org.junit.Test;
+
+public class ConsumerBudgetTest
+{
+    @Test
+    public void testGivenBusyMembersAssertBudgetDividedByWeight()
+    {
+        assertArrayEquals(new int[] { 8, 4 }, ConsumerBudget.allocate(12, new int[] { 10, 10 }, new int[] { 2, 1 }));
+        assertArrayEquals(new int[] { 4, 4, 4 }, ConsumerBudget.allocate(12, new int[] { 10, 10, 10 }, new int[] { 1, 1, 1 }));
+    }
+
+    @Test
+    public void testGivenMemberPausedAssertItsShareLentToTheOthers()
+    {
+        assertArrayEquals(new int[] { 0, 6, 6 }, ConsumerBudget.allocate(12, new int[] { 0, 10, 10 }, new int[] { 1, 1, 1 }));
+    }
+
+    @Test
+    public void testGivenMemberThrottledBelowShareAssertRestLentAndNoneGivenMoreThanAsked()
+    {
+        assertArrayEquals(new int[] { 2, 10 }, ConsumerBudget.allocate(20, new int[] { 2, 10 }, new int[] { 1, 1 }));
+        assertArrayEquals(new int[] { 1, 9 }, ConsumerBudget.allocate(10, new int[] { 1, 20 }, new int[] { 4, 1 }));
+    }
+}
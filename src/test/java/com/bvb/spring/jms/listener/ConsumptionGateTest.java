@@ -0,0 +1,58 @@
+package com.bvb.spring.jms.listener;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class ConsumptionGateTest
+{
+    private final ConsumptionGate gate = new ConsumptionGate();
+
+    @Test
+    public void testGivenOpenGateAssertPassesWithoutWaiting()
+    {
+        assertTrue(gate.await(0));
+    }
+
+    @Test
+    public void testGivenClosedGateAssertTimesOut()
+    {
+        assertTrue(gate.close());
+        assertFalse(gate.close());
+
+        long start = System.currentTimeMillis();
+        assertFalse(gate.await(100));
+        assertTrue(System.currentTimeMillis() - start >= 100);
+    }
+
+    @Test
+    public void testGivenParkedConsumersAssertAllWokenWhenOpened() throws Exception
+    {
+        gate.close();
+        final CountDownLatch passed = new CountDownLatch(3);
+        for (int i = 0; i < 3; i++)
+        {
+            new Thread(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    if (gate.await(TimeUnit.SECONDS.toMillis(10)))
+                    {
+                        passed.countDown();
+                    }
+                }
+            }).start();
+        }
+        assertFalse(passed.await(100, TimeUnit.MILLISECONDS));
+
+        assertTrue(gate.open());
+
+        assertTrue(passed.await(1, TimeUnit.SECONDS));
+        assertFalse(gate.open());
+    }
+}
@@ -0,0 +1,231 @@
+package com.bvb.spring.jms.listener;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import com.bvb.spring.jms.listener.config.PauseConfig;
+import com.bvb.spring.jms.listener.config.PauseConfigBuilder;
+import com.bvb.spring.jms.listener.keepalive.KeepAliveResponse;
+import com.bvb.spring.jms.listener.keepalive.KeepAliveService;
+
+public class DependencyGroupTest
+{
+    private static final PauseConfig CONFIG = PauseConfigBuilder.newBuilder().withDelayConsumptionForXSeconds(5).build();
+    private static final KeepAliveResponse SUCCESS = new KeepAliveResponse(true);
+    private static final KeepAliveResponse FAILURE = new KeepAliveResponse(false, CONFIG);
+
+    private KeepAliveService service;
+    private DependencyGroup group;
+    private BackoffDefaultMessageListeningContainer member1;
+    private BackoffDefaultMessageListeningContainer member2;
+
+    @Before
+    public void setUp()
+    {
+        service = mock(KeepAliveService.class);
+        group = new DependencyGroup("gateway", service);
+        member1 = mock(BackoffDefaultMessageListeningContainer.class);
+        member2 = mock(BackoffDefaultMessageListeningContainer.class);
+        group.register(member1);
+        group.register(member2);
+    }
+
+    @Test
+    public void testGivenResponseCachedAssertServiceCalledOnceWithinTtl()
+    {
+        when(service.keepAlive()).thenReturn(SUCCESS);
+
+        assertEquals(SUCCESS, group.keepAlive());
+        assertEquals(SUCCESS, group.keepAlive());
+        assertEquals(SUCCESS, group.keepAlive());
+
+        verify(service, times(1)).keepAlive();
+    }
+
+    @Test
+    public void testGivenZeroTtlAssertServiceCalledEachTime()
+    {
+        when(service.keepAlive()).thenReturn(SUCCESS);
+        group.setCacheTtlMs(0);
+
+        group.keepAlive();
+        group.keepAlive();
+
+        verify(service, times(2)).keepAlive();
+    }
+
+    @Test
+    public void testGivenPauseAssertAllMembersStoppedOnceForSameConfig()
+    {
+        group.pause(CONFIG);
+        group.pause(CONFIG);
+
+        assertTrue(group.isPaused());
+        verify(member1, times(1)).stopDmlc(CONFIG);
+        verify(member2, times(1)).stopDmlc(CONFIG);
+    }
+
+    @Test
+    public void testGivenKeepAliveFailsAssertAllMembersStopped()
+    {
+        when(service.keepAlive()).thenReturn(FAILURE);
+
+        group.keepAlive();
+
+        verify(member1).stopDmlc(CONFIG);
+        verify(member2).stopDmlc(CONFIG);
+    }
+
+    @Test
+    public void testGivenPausedAndKeepAliveSucceedsAssertAllMembersResumed()
+    {
+        when(service.keepAlive()).thenReturn(SUCCESS);
+        group.keepAlive();
+        group.pause(CONFIG);
+
+        // the pause discards the cached success so the service is called again
+        group.keepAlive();
+
+        assertFalse(group.isPaused());
+        verify(service, times(2)).keepAlive();
+        verify(member1).resumeFromGroup();
+        verify(member2).resumeFromGroup();
+    }
+
+    @Test
+    public void testGivenNotPausedAndKeepAliveSucceedsAssertMembersNotResumed()
+    {
+        when(service.keepAlive()).thenReturn(SUCCESS);
+
+        group.keepAlive();
+
+        verify(member1, never()).resumeFromGroup();
+    }
+
+    @Test
+    public void testGivenPausedRemotelyAssertRemoteResumeResumesMembers()
+    {
+        group.pauseRemotely(CONFIG);
+
+        assertTrue(group.resumeRemotely());
+
+        assertFalse(group.isPaused());
+        verify(member1).resumeFromGroup();
+        verify(member2).resumeFromGroup();
+    }
+
+    @Test
+    public void testGivenPausedLocallyAssertRemoteResumeIgnored()
+    {
+        group.pause(CONFIG);
+        // the other node paused for the same failure
+        group.pauseRemotely(PauseConfigBuilder.newBuilder().withDelayConsumptionForXSeconds(10).build());
+
+        assertFalse(group.resumeRemotely());
+
+        assertTrue(group.isPaused());
+        verify(member1, never()).resumeFromGroup();
+    }
+
+    @Test(timeout = 10000)
+    public void testGivenServiceCallInProgressAssertPauseDoesNotWaitAndSuccessIsNotCached() throws Exception
+    {
+        final CountDownLatch calling = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        when(service.keepAlive()).thenAnswer(new Answer<KeepAliveResponse>()
+        {
+            @Override
+            public KeepAliveResponse answer(InvocationOnMock invocation) throws Throwable
+            {
+                calling.countDown();
+                release.await();
+                return SUCCESS;
+            }
+        });
+        Thread caller = new Thread(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                group.keepAlive();
+            }
+        });
+        caller.start();
+        assertTrue(calling.await(5, TimeUnit.SECONDS));
+
+        group.pause(CONFIG);
+        release.countDown();
+        caller.join();
+
+        // the success was asked for before the pause so it neither resumes the group nor is reused
+        assertTrue(group.isPaused());
+        verify(member1, never()).resumeFromGroup();
+        group.keepAlive();
+        verify(service, times(2)).keepAlive();
+    }
+
+    @Test(timeout = 10000)
+    public void testGivenServiceCallInProgressAssertOtherMembersShareItsResponse() throws Exception
+    {
+        final CountDownLatch calling = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        when(service.keepAlive()).thenAnswer(new Answer<KeepAliveResponse>()
+        {
+            @Override
+            public KeepAliveResponse answer(InvocationOnMock invocation) throws Throwable
+            {
+                calling.countDown();
+                release.await();
+                return SUCCESS;
+            }
+        });
+        group.setCacheTtlMs(0);
+        final KeepAliveResponse[] shared = new KeepAliveResponse[1];
+        Thread caller = new Thread(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                group.keepAlive();
+            }
+        });
+        Thread waiter = new Thread(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                shared[0] = group.keepAlive();
+            }
+        });
+        caller.start();
+        assertTrue(calling.await(5, TimeUnit.SECONDS));
+        waiter.start();
+        while (waiter.getState() != Thread.State.WAITING)
+        {
+            Thread.sleep(10);
+        }
+        assertNull(shared[0]);
+
+        release.countDown();
+        caller.join();
+        waiter.join();
+
+        assertEquals(SUCCESS, shared[0]);
+        verify(service, times(1)).keepAlive();
+    }
+}
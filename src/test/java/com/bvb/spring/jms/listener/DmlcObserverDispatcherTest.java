@@ -0,0 +1,204 @@
+package com.bvb.spring.jms.listener;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.bvb.spring.jms.listener.config.PauseConfig;
+import com.bvb.spring.jms.listener.config.PauseConfigBuilder;
+
+public class DmlcObserverDispatcherTest
+{
+    private static final PauseConfig CONFIG = PauseConfigBuilder.newBuilder().withDelayConsumptionForXSeconds(1).build();
+    
+    private DmlcObserverDispatcher dispatcher;
+    private RecordingObserver observer;
+    
+    @Before
+    public void setUp()
+    {
+        dispatcher = new DmlcObserverDispatcher();
+        observer = new RecordingObserver();
+        dispatcher.register(observer);
+    }
+    
+    @After
+    public void tearDown()
+    {
+        observer.release();
+        dispatcher.shutdown();
+    }
+    
+    @Test
+    public void testGivenBlockedObserverAssertDispatchDoesNotWait()
+    {
+        observer.block();
+        long start = System.nanoTime();
+        
+        dispatcher.running();
+        dispatcher.stopped(null);
+        
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 1000);
+    }
+    
+    @Test
+    public void testGivenManyEventsAssertDeliveredInOrder() throws Exception
+    {
+        List<String> expected = new ArrayList<>();
+        for (int i = 0; i < 5; i++)
+        {
+            dispatcher.running();
+            dispatcher.stopped(CONFIG);
+            expected.add("running");
+            expected.add("stopped-config");
+        }
+        
+        observer.awaitEvents(10);
+        
+        assertEquals(expected, observer.getEvents());
+    }
+    
+    @Test
+    public void testGivenObserverFallsBehindWithCoalesceAssertOnlyLatestDelivered() throws Exception
+    {
+        dispatcher.setQueueCapacity(1);
+        observer.block();
+        
+        dispatcher.running();
+        observer.awaitEvents(1);
+        dispatcher.stopped(null);
+        dispatcher.running();
+        dispatcher.stopped(CONFIG);
+        observer.release();
+        observer.awaitEvents(2);
+        
+        assertEquals(Arrays.asList("running", "stopped-config"), observer.getEvents());
+    }
+    
+    @Test
+    public void testGivenObserverFallsBehindWithDropOldestAssertNewestKept() throws Exception
+    {
+        dispatcher.setQueueCapacity(2);
+        dispatcher.setOverflowPolicy(ObserverOverflowPolicy.DROP_OLDEST);
+        observer.block();
+        
+        dispatcher.running();
+        observer.awaitEvents(1);
+        dispatcher.stopped(null);
+        dispatcher.running();
+        dispatcher.stopped(CONFIG);
+        observer.release();
+        observer.awaitEvents(3);
+        
+        assertEquals(Arrays.asList("running", "running", "stopped-config"), observer.getEvents());
+    }
+    
+    @Test
+    public void testGivenObserverThrowsAssertLaterEventsStillDelivered() throws Exception
+    {
+        observer.throwOnNext();
+        
+        dispatcher.running();
+        dispatcher.stopped(null);
+        observer.awaitEvents(2);
+        
+        assertEquals(Arrays.asList("running", "stopped"), observer.getEvents());
+    }
+    
+    /**
+     * Records the events received and can be blocked to simulate a slow observer.
+     */
+    private static class RecordingObserver implements DmlcStartObserver
+    {
+        private final List<String> events = Collections.synchronizedList(new ArrayList<String>());
+        private volatile CountDownLatch blocker = new CountDownLatch(0);
+        private volatile boolean throwOnNext;
+        
+        @Override
+        public void running()
+        {
+            record("running");
+        }
+
+        @Override
+        public void stopped()
+        {
+            record("stopped");
+        }
+
+        @Override
+        public void stopped(PauseConfig config)
+        {
+            record("stopped-config");
+        }
+        
+        private void record(String event)
+        {
+            synchronized (events)
+            {
+                events.add(event);
+                events.notifyAll();
+            }
+            try
+            {
+                blocker.await();
+            }
+            catch (InterruptedException ex)
+            {
+                Thread.currentThread().interrupt();
+            }
+            if (throwOnNext)
+            {
+                throwOnNext = false;
+                throw new IllegalStateException("Observer failure");
+            }
+        }
+        
+        void block()
+        {
+            blocker = new CountDownLatch(1);
+        }
+        
+        void release()
+        {
+            blocker.countDown();
+        }
+        
+        void throwOnNext()
+        {
+            throwOnNext = true;
+        }
+        
+        void awaitEvents(int count) throws InterruptedException
+        {
+            long until = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(5);
+            synchronized (events)
+            {
+                while (events.size() < count && System.currentTimeMillis() < until)
+                {
+                    events.wait(100);
+                }
+            }
+            // allow any extra events that should not arrive the chance to do so
+            Thread.sleep(100);
+        }
+        
+        List<String> getEvents()
+        {
+            synchronized (events)
+            {
+                return new ArrayList<>(events);
+            }
+        }
+    }
+}
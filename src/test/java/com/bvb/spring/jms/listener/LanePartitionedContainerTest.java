@@ -0,0 +1,34 @@
+package com.bvb.spring.jms.listener;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+
+import org.junit.Test;
+
+public class LanePartitionedContainerTest
+{
+    @Test
+    public void testGivenKeyWithQuoteAssertLaneSelectorEscapesIt()
+    {
+        assertEquals("partnerId = 'O''Brien'", LanePartitionedContainer.buildLaneSelector("partnerId", "O'Brien"));
+    }
+
+    @Test
+    public void testGivenNoLanesAssertDefaultLaneHasNoSelector()
+    {
+        assertNull(LanePartitionedContainer.buildDefaultSelector("partnerId", Collections.<String>emptySet()));
+    }
+
+    @Test
+    public void testGivenLanesAssertDefaultSelectorLeavesThemOutButKeepsMessagesWithoutTheProperty()
+    {
+        String selector = LanePartitionedContainer.buildDefaultSelector("partnerId",
+            new LinkedHashSet<String>(Arrays.asList("A", "B")));
+
+        assertEquals("partnerId IS NULL OR partnerId NOT IN ('A', 'B')", selector);
+    }
+}
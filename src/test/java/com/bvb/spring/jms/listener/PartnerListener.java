@@ -0,0 +1,58 @@
+package com.bvb.spring.jms.listener;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.MessageListener;
+import javax.jms.ObjectMessage;
+
+import com.bvb.spring.jms.listener.config.PauseConfig;
+import com.bvb.spring.jms.listener.exception.PauseConsumptionException;
+
+/**
+ * Listener for messages keyed by partner, that pauses the lane of any partner set as failing.
+ */
+public class PartnerListener implements MessageListener
+{
+    public static final String PARTNER_PROPERTY = "partnerId";
+    
+    private final Set<String> received = Collections.synchronizedSet(new HashSet<String>());
+    private final Set<String> failingPartners = Collections.synchronizedSet(new HashSet<String>());
+    private final PauseConfig config;
+    
+    public PartnerListener(PauseConfig config)
+    {
+        this.config = config;
+    }
+    
+    @Override
+    public void onMessage(Message message)
+    {
+        try
+        {
+            String partner = message.getStringProperty(PARTNER_PROPERTY);
+            if (failingPartners.contains(partner))
+            {
+                throw new PauseConsumptionException(config, partner, new IllegalStateException("Partner down: " + partner));
+            }
+            received.add((String) ((ObjectMessage) message).getObject());
+        }
+        catch (JMSException ex)
+        {
+            throw new IllegalStateException(ex);
+        }
+    }
+    
+    public void addFailingPartner(String partner)
+    {
+        failingPartners.add(partner);
+    }
+    
+    public Set<String> getReceived()
+    {
+        return received;
+    }
+}
@@ -7,15 +7,18 @@ import javax.jms.Connection;
 import javax.jms.DeliveryMode;
 import javax.jms.Destination;
 import javax.jms.JMSException;
+import javax.jms.Message;
 import javax.jms.MessageProducer;
 import javax.jms.ObjectMessage;
 import javax.jms.Session;
 
 import org.apache.activemq.ActiveMQConnectionFactory;
+import org.apache.activemq.broker.BrokerPlugin;
 import org.apache.activemq.broker.BrokerService;
 import org.apache.activemq.broker.region.DestinationStatistics;
 import org.apache.activemq.command.ActiveMQDestination;
 import org.apache.activemq.command.ActiveMQQueue;
+import org.apache.activemq.plugin.StatisticsBrokerPlugin;
 
 public class Broker
 {
@@ -30,6 +33,8 @@ public class Broker
         try
         {
             broker.addConnector(URL + "?jms.prefetchPolicy.all=0");
+            // answers the queue depth requests of the ActiveMqStatisticsDepthProvider
+            broker.setPlugins(new BrokerPlugin[] { new StatisticsBrokerPlugin() });
             if (dataDirectory != null)
             {
                 broker.setDataDirectory(dataDirectory);
@@ -116,6 +121,21 @@ public class Broker
     }
     
     public void addMessages(String queue, Serializable... objects)
+    {
+        addMessagesWithProperty(queue, null, null, objects);
+    }
+    
+    public void addMessagesWithProperty(String queue, String property, String value, Serializable... objects)
+    {
+        sendMessages(queue, property, value, Message.DEFAULT_PRIORITY, objects);
+    }
+    
+    public void addMessagesWithPriority(String queue, int priority, Serializable... objects)
+    {
+        sendMessages(queue, null, null, priority, objects);
+    }
+    
+    private void sendMessages(String queue, String property, String value, int priority, Serializable... objects)
     {
         try
         {
@@ -135,10 +155,11 @@ public class Broker
             // Create a MessageProducer from the Session to the Topic or Queue
             MessageProducer producer = session.createProducer(destination);
             producer.setDeliveryMode(DeliveryMode.NON_PERSISTENT);
+            producer.setPriority(priority);
     
             for (Serializable object : objects)
             {
-                doSendMessage(session, producer, object);
+                doSendMessage(session, producer, object, property, value);
             }
     
             // Clean up
@@ -151,11 +172,16 @@ public class Broker
         }
     }
     
-    private void doSendMessage(Session session, MessageProducer producer, Serializable object)
+    private void doSendMessage(Session session, MessageProducer producer, Serializable object, String property,
+        String value)
     {
         try
         {
             ObjectMessage message = session.createObjectMessage(object);
+            if (property != null)
+            {
+                message.setStringProperty(property, value);
+            }
             producer.send(message);
         }
         catch (JMSException ex)
@@ -1,13 +1,11 @@
 package com.bvb.spring.jms.listener.activemq;
 
-import javax.jms.ConnectionFactory;
-
 import org.apache.activemq.ActiveMQConnectionFactory;
 import org.springframework.jms.connection.CachingConnectionFactory;
 
 public class ConnectionFactoryCreator
 {
-    public static ConnectionFactory build(String url)
+    public static CachingConnectionFactory build(String url)
     {
         ActiveMQConnectionFactory amqFactory = new ActiveMQConnectionFactory(url);
         CachingConnectionFactory cachingFactory = new CachingConnectionFactory();
@@ -0,0 +1,135 @@
+package com.bvb.spring.jms.listener.breaker;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.bvb.spring.jms.listener.breaker.CircuitBreaker.State;
+
+public class CircuitBreakerTest
+{
+    private static final long FAST = TimeUnit.MILLISECONDS.toNanos(1);
+    private static final long SLOW = TimeUnit.MILLISECONDS.toNanos(500);
+
+    private CircuitBreaker breaker;
+
+    @Before
+    public void setUp()
+    {
+        breaker = new CircuitBreaker(TimeUnit.MINUTES.toMillis(1), 6);
+        breaker.setMinimumCalls(10);
+        breaker.setFailureRateThreshold(0.5);
+        breaker.setHalfOpenPermittedCalls(4);
+    }
+
+    @Test
+    public void testGivenFailuresBelowMinimumCallsAssertStaysClosed()
+    {
+        for (int i = 0; i < 9; i++)
+        {
+            assertFalse(breaker.recordFailure());
+        }
+        assertEquals(State.CLOSED, breaker.getState());
+    }
+
+    @Test
+    public void testGivenFailureRateReachedAssertOpensOnce()
+    {
+        record(5, 4);
+
+        assertTrue(breaker.recordFailure());
+        assertEquals(State.OPEN, breaker.getState());
+        // further calls completing after the pause do not open it again
+        assertFalse(breaker.recordFailure());
+        assertEquals(1, breaker.getTripCount());
+    }
+
+    @Test
+    public void testGivenFailureRateBelowThresholdAssertStaysClosed()
+    {
+        record(20, 9);
+
+        assertEquals(State.CLOSED, breaker.getState());
+    }
+
+    @Test
+    public void testGivenSlowCallRateReachedAssertOpens()
+    {
+        breaker.setSlowCallDurationMs(100);
+        breaker.setSlowCallRateThreshold(0.8);
+        for (int i = 0; i < 2; i++)
+        {
+            breaker.recordSuccess(FAST);
+        }
+        boolean opened = false;
+        for (int i = 0; i < 8; i++)
+        {
+            opened |= breaker.recordSuccess(SLOW);
+        }
+
+        assertTrue(opened);
+        assertEquals(State.OPEN, breaker.getState());
+    }
+
+    @Test
+    public void testGivenHalfOpenTrialSucceedsAssertClosedWithEmptyWindow()
+    {
+        open();
+        breaker.halfOpen();
+        assertEquals(State.HALF_OPEN, breaker.getState());
+
+        record(4, 0);
+        assertEquals(State.CLOSED, breaker.getState());
+
+        // the failures from before the trial no longer count
+        for (int i = 0; i < 9; i++)
+        {
+            assertFalse(breaker.recordFailure());
+        }
+    }
+
+    @Test
+    public void testGivenHalfOpenTrialFailsAssertOpensAgain()
+    {
+        open();
+        breaker.halfOpen();
+
+        breaker.recordSuccess(FAST);
+        assertFalse(breaker.recordFailure());
+        assertTrue(breaker.recordFailure());
+
+        assertEquals(State.OPEN, breaker.getState());
+        assertEquals(2, breaker.getTripCount());
+    }
+
+    @Test
+    public void testGivenClosedAssertHalfOpenDoesNothing()
+    {
+        breaker.halfOpen();
+
+        assertEquals(State.CLOSED, breaker.getState());
+    }
+
+    private void open()
+    {
+        record(0, 10);
+        assertEquals(State.OPEN, breaker.getState());
+    }
+
+    private void record(int successes, int failures)
+    {
+        for (int i = 0; i < successes; i++)
+        {
+            breaker.recordSuccess(FAST);
+        }
+        for (int i = 0; i < failures; i++)
+        {
+            breaker.recordFailure();
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package com.bvb.spring.jms.listener.dedupe;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Test;
+
+import com.bvb.spring.jms.listener.scheduling.VirtualTimeTaskScheduler;
+
+public class MessageIdDedupeCacheTest
+{
+    @Test
+    public void testGivenIdAddedAssertDuplicateCountedAsHit()
+    {
+        MessageIdDedupeCache cache = new MessageIdDedupeCache(10);
+
+        assertFalse(cache.isDuplicate("ID:node-1:1:1:1"));
+        cache.add("ID:node-1:1:1:1");
+
+        assertTrue(cache.isDuplicate("ID:node-1:1:1:1"));
+        assertFalse(cache.isDuplicate("ID:node-1:1:1:2"));
+        assertEquals(1, cache.getHits());
+        assertEquals(2, cache.getMisses());
+    }
+
+    @Test
+    public void testGivenCacheFullAssertOldestEvicted()
+    {
+        MessageIdDedupeCache cache = new MessageIdDedupeCache(2, MessageIdDedupeCache.NO_TTL, true);
+        cache.add("a");
+        cache.add("b");
+        cache.add("c");
+
+        assertFalse(cache.isDuplicate("a"));
+        assertTrue(cache.isDuplicate("b"));
+        assertTrue(cache.isDuplicate("c"));
+        assertEquals(2, cache.size());
+        assertEquals(1, cache.getEvictions());
+    }
+
+    @Test
+    public void testGivenTtlAssertIdsEvictedOnceOlderThanIt()
+    {
+        VirtualTimeTaskScheduler time = new VirtualTimeTaskScheduler();
+        MessageIdDedupeCache cache = new MessageIdDedupeCache(10, 1000, false);
+        cache.setClock(time);
+        cache.add("a");
+        time.advance(500);
+        cache.add("b");
+        time.advance(500);
+
+        assertFalse(cache.isDuplicate("a"));
+        assertTrue(cache.isDuplicate("b"));
+        assertEquals(1, cache.getEvictions());
+    }
+
+    @Test
+    public void testGivenManyIdsAddedAndEvictedAssertSameAnswersAsWindowOfLastIds()
+    {
+        for (boolean offHeap : new boolean[] { false, true })
+        {
+            MessageIdDedupeCache cache = new MessageIdDedupeCache(1000, MessageIdDedupeCache.NO_TTL, offHeap);
+            Deque<String> window = new ArrayDeque<String>();
+            Set<String> held = new HashSet<String>();
+            Random random = new Random(42);
+            for (int i = 0; i < 20000; i++)
+            {
+                String id = "ID:" + random.nextInt(5000);
+                assertEquals(id, held.contains(id), cache.isDuplicate(id));
+                if (!held.contains(id))
+                {
+                    cache.add(id);
+                    window.addLast(id);
+                    held.add(id);
+                    if (window.size() > 1000)
+                    {
+                        held.remove(window.removeFirst());
+                    }
+                }
+            }
+            assertEquals(held.size(), cache.size());
+        }
+    }
+
+    @Test
+    public void testGivenKnownVectorsAssertFnv1a64()
+    {
+        // the empty string hashes to the offset basis
+        assertEquals(0xcbf29ce484222325L, MessageIdDedupeCache.hash(""));
+        // "a" is hashed as the UTF-16LE bytes 0x61 0x00
+        assertEquals(0x089be207b544f1e4L, MessageIdDedupeCache.hash("a"));
+    }
+}
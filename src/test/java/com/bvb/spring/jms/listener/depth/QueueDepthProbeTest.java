@@ -0,0 +1,60 @@
+package com.bvb.spring.jms.listener.depth;
+
+import static org.junit.Assert.assertEquals;
+
+import javax.jms.JMSException;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class QueueDepthProbeTest
+{
+    private QueueDepthProbe probe;
+    private long depth;
+
+    @Before
+    public void setUp()
+    {
+        probe = new QueueDepthProbe(new QueueDepthProvider()
+        {
+            @Override
+            public long getDepth(String queueName) throws JMSException
+            {
+                return depth;
+            }
+        }, 2, 10);
+        probe.setMessagesPerConsumer(100);
+    }
+
+    @Test
+    public void testGivenBacklogAssertOneConsumerPerMessagesPerConsumerWithinBounds()
+    {
+        assertEquals(4, probe.targetConsumers(2, 350));
+        assertEquals(10, probe.targetConsumers(2, 5000));
+        assertEquals(2, probe.targetConsumers(2, 50));
+    }
+
+    @Test
+    public void testGivenBacklogDrainingAssertConsumersHeld()
+    {
+        assertEquals(8, probe.targetConsumers(8, 150));
+    }
+
+    @Test
+    public void testGivenBacklogDrainedAssertConsumersBackToMin()
+    {
+        assertEquals(2, probe.targetConsumers(8, 0));
+        probe.setDrainedDepth(10);
+        assertEquals(2, probe.targetConsumers(8, 10));
+    }
+
+    @Test
+    public void testGivenSampleAssertDepthOfProviderUsedAndKept() throws Exception
+    {
+        assertEquals(-1, probe.getLastDepth());
+        depth = 600;
+
+        assertEquals(6, probe.nextConsumers("queue", 2));
+        assertEquals(600, probe.getLastDepth());
+    }
+}
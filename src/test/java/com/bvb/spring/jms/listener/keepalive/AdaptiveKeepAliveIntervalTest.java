@@ -0,0 +1,89 @@
+package com.bvb.spring.jms.listener.keepalive;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class AdaptiveKeepAliveIntervalTest
+{
+    private static final long BASE = 1000;
+    private static final long MAX_FAILURE = 60000;
+    private static final long MAX_SUCCESS = 4000;
+
+    private AdaptiveKeepAliveInterval interval;
+
+    @Before
+    public void setUp()
+    {
+        interval = new AdaptiveKeepAliveInterval(MAX_FAILURE, MAX_SUCCESS, new Random(42));
+        interval.setStretchFactor(2);
+        interval.setSuccessesPerStretch(2);
+    }
+
+    @Test
+    public void testGivenFirstFailureAssertBaseInterval()
+    {
+        assertEquals(BASE, interval.nextAfterFailure(BASE));
+    }
+
+    @Test
+    public void testGivenConsecutiveFailuresAssertBacksOffWithinBoundsUpToCap()
+    {
+        long previous = interval.nextAfterFailure(BASE);
+        for (int i = 0; i < 50; i++)
+        {
+            long next = interval.nextAfterFailure(BASE);
+            assertTrue(next >= BASE);
+            assertTrue(next <= Math.min(MAX_FAILURE, previous * 3));
+            previous = next;
+        }
+        assertEquals(51, interval.getConsecutiveFailures());
+    }
+
+    @Test
+    public void testGivenManyContainersFailingAssertIntervalsSpreadOut()
+    {
+        Set<Long> intervals = new HashSet<Long>();
+        Random seeds = new Random(7);
+        for (int i = 0; i < 10; i++)
+        {
+            AdaptiveKeepAliveInterval container = new AdaptiveKeepAliveInterval(MAX_FAILURE, MAX_SUCCESS,
+                new Random(seeds.nextLong()));
+            container.nextAfterFailure(BASE);
+            intervals.add(container.nextAfterFailure(BASE));
+        }
+        assertTrue(intervals.size() > 5);
+    }
+
+    @Test
+    public void testGivenSustainedSuccessAssertIntervalStretchedUpToCap()
+    {
+        assertEquals(BASE, interval.nextAfterSuccess(BASE));
+        assertEquals(2000, interval.nextAfterSuccess(BASE));
+        assertEquals(2000, interval.nextAfterSuccess(BASE));
+        assertEquals(4000, interval.nextAfterSuccess(BASE));
+        for (int i = 0; i < 10; i++)
+        {
+            assertEquals(MAX_SUCCESS, interval.nextAfterSuccess(BASE));
+        }
+    }
+
+    @Test
+    public void testGivenFailureAfterStretchedSuccessAssertSnapsBackToBase()
+    {
+        for (int i = 0; i < 10; i++)
+        {
+            interval.nextAfterSuccess(BASE);
+        }
+
+        assertEquals(BASE, interval.nextAfterFailure(BASE));
+        // and the success stretching starts again from the base
+        assertEquals(BASE, interval.nextAfterSuccess(BASE));
+    }
+}
@@ -0,0 +1,87 @@
+package com.bvb.spring.jms.listener.metrics;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.concurrent.TimeUnit;
+
+import javax.jms.Message;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import com.bvb.spring.jms.listener.scheduling.VirtualTimeTaskScheduler;
+
+public class ContainerMetricsTest
+{
+    private VirtualTimeTaskScheduler time;
+    private ContainerMetrics metrics;
+    private Message message;
+
+    @Before
+    public void setUp()
+    {
+        time = new VirtualTimeTaskScheduler();
+        metrics = new ContainerMetrics();
+        metrics.setClock(time);
+        message = Mockito.mock(Message.class);
+    }
+
+    @Test
+    public void testGivenWindowClosedAssertRateReadRepeatedlyWithoutChanging()
+    {
+        receive(100);
+        time.advance(10000);
+        metrics.rollWindow();
+
+        assertEquals(10.0, metrics.getWindowMessagesPerSecond(), 0.001);
+        assertEquals(10.0, metrics.getWindowMessagesPerSecond(), 0.001);
+        assertEquals(100, metrics.getMessagesReceived());
+    }
+
+    @Test
+    public void testGivenLatencyImprovesAssertPercentilesOnlyCoverLastWindow()
+    {
+        completeListener(120, 100);
+        time.advance(10000);
+        metrics.rollWindow();
+
+        assertEquals(120, metrics.getWindowListenerLatencyMicros(99));
+
+        completeListener(20, 100);
+        time.advance(10000);
+        metrics.rollWindow();
+
+        assertEquals(20, metrics.getWindowListenerLatencyMicros(99));
+        assertEquals(20, metrics.getWindowListenerLatencyMicros(100));
+        assertEquals(200, metrics.getListenerLatencyMicros().getCount());
+    }
+
+    @Test
+    public void testGivenNothingInWindowAssertZeroReported()
+    {
+        completeListener(120, 10);
+        metrics.rollWindow();
+        time.advance(10000);
+        metrics.rollWindow();
+
+        assertEquals(0, metrics.getWindowListenerLatencyMicros(50));
+        assertEquals(0.0, metrics.getWindowMessagesPerSecond(), 0.001);
+    }
+
+    private void receive(int count)
+    {
+        for (int i = 0; i < count; i++)
+        {
+            metrics.messageReceived(message);
+        }
+    }
+
+    private void completeListener(long micros, int count)
+    {
+        for (int i = 0; i < count; i++)
+        {
+            metrics.listenerCompleted(TimeUnit.MICROSECONDS.toNanos(micros), true);
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package com.bvb.spring.jms.listener.metrics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class LatencyHistogramTest
+{
+    private LatencyHistogram histogram;
+    
+    @Before
+    public void setUp()
+    {
+        histogram = new LatencyHistogram();
+    }
+    
+    @Test
+    public void testGivenNothingRecordedAssertZeroReturned()
+    {
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getValueAtPercentile(99));
+        assertEquals(0, histogram.getMax());
+    }
+    
+    @Test
+    public void testGivenSmallValuesAssertRecordedExactly()
+    {
+        for (int i = 1; i <= 100; i++)
+        {
+            histogram.record(i);
+        }
+        
+        assertEquals(100, histogram.getCount());
+        assertEquals(50, histogram.getValueAtPercentile(50));
+        assertEquals(99, histogram.getValueAtPercentile(99));
+        assertEquals(100, histogram.getMax());
+    }
+    
+    @Test
+    public void testGivenLargeValuesAssertWithinPrecision()
+    {
+        for (int i = 1; i <= 1000; i++)
+        {
+            histogram.record(i * 1000L);
+        }
+        
+        assertWithinPrecision(500000, histogram.getValueAtPercentile(50));
+        assertWithinPrecision(990000, histogram.getValueAtPercentile(99));
+        assertWithinPrecision(999000, histogram.getValueAtPercentile(99.9));
+        assertWithinPrecision(1000000, histogram.getMax());
+    }
+    
+    @Test
+    public void testGivenEveryIndexAssertHighestValueMapsBackToSameIndex()
+    {
+        for (int i = 0; i < histogram.getBucketCount() - 1; i++)
+        {
+            long highest = LatencyHistogram.highestValueAt(i);
+            assertEquals(i, LatencyHistogram.indexFor(highest));
+            assertEquals(i + 1, LatencyHistogram.indexFor(highest + 1));
+        }
+    }
+    
+    @Test
+    public void testGivenNegativeAndHugeValuesAssertClamped()
+    {
+        histogram.record(-5);
+        histogram.record(Long.MAX_VALUE);
+        
+        assertEquals(2, histogram.getCount());
+        assertEquals(0, histogram.getValueAtPercentile(50));
+        assertTrue(histogram.getMax() > 0);
+    }
+    
+    @Test
+    public void testGivenCopiedCountsAssertIntervalPercentileOnlyIncludesNewValues()
+    {
+        histogram.record(10);
+        long[] before = new long[histogram.getBucketCount()];
+        histogram.copyCounts(before);
+        histogram.record(1000);
+        long[] after = new long[histogram.getBucketCount()];
+        histogram.copyCounts(after);
+        for (int i = 0; i < after.length; i++)
+        {
+            after[i] -= before[i];
+        }
+        
+        assertWithinPrecision(1000, LatencyHistogram.getValueAtPercentile(after, 50));
+    }
+    
+    private static void assertWithinPrecision(long expected, long found)
+    {
+        assertTrue(String.format("expected: [%d] found: [%d]", expected, found), 
+            found >= expected && found <= expected + expected / 50);
+    }
+}
@@ -0,0 +1,210 @@
+package com.bvb.spring.jms.listener.scheduling;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Date;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.core.task.SimpleAsyncTaskExecutor;
+import org.springframework.core.task.TaskRejectedException;
+
+public class HashedWheelTaskSchedulerTest
+{
+    private static final long TICK_MS = 10;
+
+    private HashedWheelTaskScheduler scheduler;
+
+    @Before
+    public void setUp()
+    {
+        // a small wheel so that the tasks in the tests need more than one turn
+        scheduler = new HashedWheelTaskScheduler(TICK_MS, 8, 2);
+    }
+
+    @After
+    public void tearDown()
+    {
+        scheduler.shutdown();
+    }
+
+    @Test
+    public void testGivenWheelSizeNotPowerOfTwoAssertRoundedUp()
+    {
+        assertEquals(16, new HashedWheelTaskScheduler(TICK_MS, 9, 1).getWheelSize());
+    }
+
+    @Test
+    public void testGivenTaskBeyondOneTurnAssertRunsNoEarlierThanDeadline() throws Exception
+    {
+        CountingTask task = new CountingTask(1);
+        long start = System.currentTimeMillis();
+
+        scheduler.schedule(task, new Date(start + 300));
+
+        assertTrue(task.await(2000));
+        assertTrue(task.firstRunMs - start >= 300);
+    }
+
+    @Test
+    public void testGivenCancelledTaskAssertNeverRuns() throws Exception
+    {
+        CountingTask task = new CountingTask(1);
+        ScheduledFuture<?> future = scheduler.schedule(task, new Date(System.currentTimeMillis() + 100));
+
+        assertTrue(future.cancel(false));
+
+        assertFalse(task.await(300));
+        assertTrue(future.isCancelled());
+        assertTrue(future.isDone());
+    }
+
+    @Test
+    public void testGivenFixedDelayAssertRepeatsUntilCancelled() throws Exception
+    {
+        CountingTask task = new CountingTask(3);
+        ScheduledFuture<?> future = scheduler.scheduleWithFixedDelay(task, 50);
+
+        assertTrue(task.await(2000));
+        future.cancel(false);
+        int count = task.count.get();
+        Thread.sleep(200);
+
+        assertTrue(count >= 3);
+        // at most the run in progress when cancelled
+        assertTrue(task.count.get() <= count + 1);
+    }
+
+    @Test
+    public void testGivenNegativeNanoTimeAssertRepeatingTasksKeepRepeating() throws Exception
+    {
+        scheduler.shutdown();
+        // the JDK allows nanoTime() to be negative, so every deadline here is
+        scheduler = new HashedWheelTaskScheduler(TICK_MS, 8, 2)
+        {
+            @Override
+            long nanoTime()
+            {
+                return System.nanoTime() + Long.MIN_VALUE / 2;
+            }
+        };
+        CountingTask fixedRate = new CountingTask(3);
+        CountingTask fixedDelay = new CountingTask(3);
+
+        scheduler.scheduleAtFixedRate(fixedRate, 50);
+        scheduler.scheduleWithFixedDelay(fixedDelay, 50);
+
+        assertTrue(fixedRate.await(2000));
+        assertTrue(fixedDelay.await(2000));
+    }
+
+    @Test
+    public void testGivenRepeatingTaskThrowsAssertKeepsRepeating() throws Exception
+    {
+        final CountDownLatch latch = new CountDownLatch(2);
+        scheduler.scheduleAtFixedRate(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                latch.countDown();
+                throw new IllegalStateException("Expected");
+            }
+        }, 20);
+
+        assertTrue(latch.await(2, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testGivenOneOffTaskAssertFutureCompletes() throws Exception
+    {
+        CountingTask task = new CountingTask(1);
+        ScheduledFuture<?> future = scheduler.schedule(task, new Date());
+
+        future.get(2, TimeUnit.SECONDS);
+
+        assertTrue(future.isDone());
+        assertEquals(1, task.count.get());
+    }
+
+    @Test
+    public void testGivenTaskExecutorAssertTasksRunOnIt() throws Exception
+    {
+        scheduler.setTaskExecutor(new SimpleAsyncTaskExecutor("Given-"));
+        final CountDownLatch latch = new CountDownLatch(1);
+        final AtomicReference<String> threadName = new AtomicReference<String>();
+        scheduler.schedule(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                threadName.set(Thread.currentThread().getName());
+                latch.countDown();
+            }
+        }, new Date());
+
+        assertTrue(latch.await(2, TimeUnit.SECONDS));
+        assertTrue(threadName.get().startsWith("Given-"));
+    }
+
+    @Test(expected = TaskRejectedException.class)
+    public void testGivenShutdownAssertScheduleRejected()
+    {
+        scheduler.shutdown();
+        scheduler.schedule(new CountingTask(1), new Date());
+    }
+
+    @Test
+    public void testGivenSharedSchedulerShutdownAssertStillSchedulesTasks() throws Exception
+    {
+        HashedWheelTaskScheduler shared = HashedWheelTaskScheduler.createShared("Shared-", null);
+        shared.shutdown();
+        shared.destroy();
+        CountingTask task = new CountingTask(1);
+
+        shared.schedule(task, new Date());
+
+        assertTrue(task.await(2000));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testGivenSharedSchedulerReconfiguredAssertRejected()
+    {
+        HashedWheelTaskScheduler.getSharedInstance().setTaskExecutor(new SimpleAsyncTaskExecutor("Given-"));
+    }
+
+    private static class CountingTask implements Runnable
+    {
+        private final AtomicInteger count = new AtomicInteger();
+        private final CountDownLatch latch;
+        private volatile long firstRunMs;
+
+        CountingTask(int expectedRuns)
+        {
+            latch = new CountDownLatch(expectedRuns);
+        }
+
+        @Override
+        public void run()
+        {
+            if (count.incrementAndGet() == 1)
+            {
+                firstRunMs = System.currentTimeMillis();
+            }
+            latch.countDown();
+        }
+
+        boolean await(long timeoutMs) throws InterruptedException
+        {
+            return latch.await(timeoutMs, TimeUnit.MILLISECONDS);
+        }
+    }
+}
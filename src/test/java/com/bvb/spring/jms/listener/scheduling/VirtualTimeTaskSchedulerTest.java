@@ -0,0 +1,147 @@
+package com.bvb.spring.jms.listener.scheduling;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.scheduling.Trigger;
+import org.springframework.scheduling.TriggerContext;
+
+public class VirtualTimeTaskSchedulerTest
+{
+    private static final long START = 1000000;
+
+    private VirtualTimeTaskScheduler scheduler;
+    private List<String> runs;
+
+    @Before
+    public void setUp()
+    {
+        scheduler = new VirtualTimeTaskScheduler(START);
+        runs = new ArrayList<String>();
+    }
+
+    @Test
+    public void testGivenTasksAssertRunInDeadlineOrderWithClockAtDeadline()
+    {
+        scheduler.schedule(new Recording("b"), new Date(START + 200));
+        scheduler.schedule(new Recording("a"), new Date(START + 100));
+        scheduler.schedule(new Recording("c"), new Date(START + 200));
+
+        assertEquals(0, scheduler.advance(99));
+        assertEquals(3, scheduler.advance(101));
+
+        assertEquals("[a@100, b@200, c@200]", runs.toString());
+        assertEquals(START + 200, scheduler.currentTimeMillis());
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(START + 200), scheduler.nanoTime());
+    }
+
+    @Test
+    public void testGivenHourOfRepeatingTasksAssertEveryRunMadeWithoutWaiting()
+    {
+        scheduler.scheduleAtFixedRate(new Recording("rate"), 15000);
+        scheduler.scheduleWithFixedDelay(new Recording("delay"), new Date(START + 60000), 60000);
+
+        long started = System.nanoTime();
+        scheduler.advance(TimeUnit.HOURS.toMillis(1));
+
+        assertTrue(System.nanoTime() - started < TimeUnit.SECONDS.toNanos(1));
+        // a run at the start of the hour and one at the end
+        assertEquals(241 + 60, runs.size());
+        assertEquals(2, scheduler.getScheduledTaskCount());
+    }
+
+    @Test
+    public void testGivenTaskScheduledByRunningTaskAssertRunInSamePeriod()
+    {
+        scheduler.schedule(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                scheduler.schedule(new Recording("child"), new Date(scheduler.currentTimeMillis() + 50));
+            }
+        }, new Date(START + 50));
+
+        scheduler.advance(100);
+
+        assertEquals("[child@100]", runs.toString());
+    }
+
+    @Test
+    public void testGivenCancelledTaskAssertNeverRuns()
+    {
+        ScheduledFuture<?> future = scheduler.scheduleWithFixedDelay(new Recording("x"), new Date(START + 10), 10);
+
+        assertTrue(future.cancel(false));
+        scheduler.advance(1000);
+
+        assertTrue(runs.isEmpty());
+        assertTrue(future.isDone());
+        assertEquals(0, scheduler.getScheduledTaskCount());
+    }
+
+    @Test
+    public void testGivenFailingRepeatingTaskAssertCarriesOnRepeating()
+    {
+        scheduler.scheduleAtFixedRate(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                runs.add("run");
+                throw new IllegalStateException("Expected");
+            }
+        }, 10);
+
+        scheduler.advance(30);
+
+        assertEquals(4, runs.size());
+    }
+
+    @Test
+    public void testGivenTriggerAssertRunsAtEachExecutionTime() throws Exception
+    {
+        // the Spring triggers start from the system clock, so one starting from the virtual time
+        Trigger trigger = new Trigger()
+        {
+            @Override
+            public Date nextExecutionTime(TriggerContext context)
+            {
+                Date last = context.lastScheduledExecutionTime();
+                return new Date((last == null) ? START : last.getTime() + 100);
+            }
+        };
+        ScheduledFuture<?> future = scheduler.schedule(new Recording("t"), trigger);
+
+        scheduler.advance(250);
+        future.cancel(false);
+
+        assertEquals("[t@0, t@100, t@200]", runs.toString());
+        assertFalse(future.getDelay(TimeUnit.MILLISECONDS) > 100);
+    }
+
+    private class Recording implements Runnable
+    {
+        private final String name;
+
+        Recording(String name)
+        {
+            this.name = name;
+        }
+
+        @Override
+        public void run()
+        {
+            runs.add(name + "@" + (scheduler.currentTimeMillis() - START));
+        }
+    }
+}
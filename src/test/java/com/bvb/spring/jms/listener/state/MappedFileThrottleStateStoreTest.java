@@ -0,0 +1,64 @@
+package com.bvb.spring.jms.listener.state;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class MappedFileThrottleStateStoreTest
+{
+    private static final long NOW = 1000000;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testGivenStateSavedAssertLoadedByNewStoreForSameBeanName() throws Exception
+    {
+        ThrottleState state = new ThrottleState(NOW, NOW + 5000, 3, 12.5, NOW + 60000, 1000);
+        MappedFileThrottleStateStore store = new MappedFileThrottleStateStore(folder.getRoot(), "orders");
+        store.save(state);
+        store.close();
+
+        MappedFileThrottleStateStore reopened = new MappedFileThrottleStateStore(folder.getRoot(), "orders");
+        assertEquals(state, reopened.load());
+        assertNull(new MappedFileThrottleStateStore(folder.getRoot(), "payments").load());
+        reopened.close();
+    }
+
+    @Test
+    public void testGivenStateAssertPausedAndThrottledUntilDeadlines()
+    {
+        ThrottleState state = new ThrottleState(NOW, NOW + 5000, 3, 0, NOW + 60000, 1000);
+
+        assertTrue(state.isPaused(NOW));
+        assertFalse(state.isPaused(NOW + 5000));
+        assertTrue(state.isThrottled(NOW + 5000));
+        assertFalse(state.isThrottled(NOW + 60000));
+        assertFalse(new ThrottleState(NOW, 0, 0, 0, 0, 1000).isThrottled(NOW));
+    }
+
+    @Test
+    public void testGivenFileCorruptedAssertNoStateLoaded() throws Exception
+    {
+        MappedFileThrottleStateStore store = new MappedFileThrottleStateStore(folder.getRoot(), "orders");
+        store.save(new ThrottleState(NOW, 0, 3, 0, NOW + 60000, 1000));
+        store.close();
+        File file = new File(folder.getRoot(), "orders" + MappedFileThrottleStateStore.FILE_SUFFIX);
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        raf.seek(20);
+        raf.write(0xFF);
+        raf.close();
+
+        store = new MappedFileThrottleStateStore(folder.getRoot(), "orders");
+        assertNull(store.load());
+        store.close();
+    }
+}
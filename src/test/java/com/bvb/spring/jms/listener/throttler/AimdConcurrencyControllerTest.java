@@ -0,0 +1,102 @@
+package com.bvb.spring.jms.listener.throttler;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.bvb.spring.jms.listener.config.PauseConfig;
+import com.bvb.spring.jms.listener.config.PauseConfigBuilder;
+
+public class AimdConcurrencyControllerTest
+{
+    private static final int FULL_MAX = 10;
+    private static final PauseConfig CONFIG = PauseConfigBuilder.newBuilder().withThrottleMaxConcurrency(1).build();
+    
+    private AimdConcurrencyController controller;
+    
+    @Before
+    public void setUp()
+    {
+        controller = new AimdConcurrencyController();
+    }
+    
+    @Test
+    public void testGivenThrottleAssertMaxCutByDecreaseFactor()
+    {
+        ThrottlerCounter counter = controller.throttle(FULL_MAX, FULL_MAX, CONFIG);
+        
+        assertEquals(5, counter.get());
+        assertFalse(counter.isDone());
+    }
+    
+    @Test
+    public void testGivenHealthyListenerAssertConsumersGrowAdditivelyToTarget()
+    {
+        ThrottlerCounter counter = controller.throttle(FULL_MAX, FULL_MAX, CONFIG);
+        
+        assertEquals(6, succeedAndIncrement(counter));
+        assertEquals(7, succeedAndIncrement(counter));
+        assertEquals(8, succeedAndIncrement(counter));
+        assertEquals(9, succeedAndIncrement(counter));
+        assertEquals(10, succeedAndIncrement(counter));
+        assertTrue(counter.isDone());
+    }
+    
+    @Test
+    public void testGivenUnhealthyListenerAssertConsumersHeld()
+    {
+        ThrottlerCounter counter = controller.throttle(FULL_MAX, FULL_MAX, CONFIG);
+        controller.listenerSucceeded(1);
+        controller.listenerFailed(1);
+        
+        assertEquals(5, counter.incrementAndGet());
+        assertFalse(counter.isDone());
+    }
+    
+    @Test
+    public void testGivenSlowListenerAssertConsumersHeld()
+    {
+        controller.setMaxAverageLatencyMs(100);
+        ThrottlerCounter counter = controller.throttle(FULL_MAX, FULL_MAX, CONFIG);
+        controller.listenerSucceeded(200000000L);
+        
+        assertEquals(5, counter.incrementAndGet());
+    }
+    
+    @Test
+    public void testGivenRepeatedOutageAssertClimbsQuicklyBackToSafeLevel()
+    {
+        controller.setMaxFailureRatio(0);
+        ThrottlerCounter counter = controller.throttle(FULL_MAX, FULL_MAX, CONFIG);
+        // 5 -> 6 -> 7 -> 8 and then fail at 8, which leaves 7 as the last safe level
+        succeedAndIncrement(counter);
+        succeedAndIncrement(counter);
+        succeedAndIncrement(counter);
+        assertEquals(7, controller.getSafeLevel());
+        
+        counter = controller.throttle(8, FULL_MAX, CONFIG);
+        assertEquals(4, counter.get());
+        assertEquals(7, succeedAndIncrement(counter));
+        assertEquals(8, succeedAndIncrement(counter));
+    }
+    
+    @Test
+    public void testGivenFailureAtSafeLevelAssertSafeLevelLowered()
+    {
+        ThrottlerCounter counter = controller.throttle(FULL_MAX, FULL_MAX, CONFIG);
+        succeedAndIncrement(counter);
+        assertEquals(5, controller.getSafeLevel());
+        
+        controller.throttle(4, FULL_MAX, CONFIG);
+        assertEquals(2, controller.getSafeLevel());
+    }
+    
+    private int succeedAndIncrement(ThrottlerCounter counter)
+    {
+        controller.listenerSucceeded(1);
+        return counter.incrementAndGet();
+    }
+}
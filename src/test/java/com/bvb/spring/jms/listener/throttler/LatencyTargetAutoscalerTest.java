@@ -0,0 +1,78 @@
+package com.bvb.spring.jms.listener.throttler;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.bvb.spring.jms.listener.metrics.LatencyHistogram;
+
+public class LatencyTargetAutoscalerTest
+{
+    private static final long TARGET_MICROS = 200000;
+    private static final long SAMPLES = 100;
+
+    private LatencyTargetAutoscaler autoscaler;
+
+    @Before
+    public void setUp()
+    {
+        autoscaler = new LatencyTargetAutoscaler(200, 2, 20);
+    }
+
+    @Test
+    public void testGivenLatencyOverTargetAssertConsumersShrinkAtMostByHalfAndNotBelowMin()
+    {
+        // four times over the target asks for a quarter, but only half the change is made and never more than halving
+        assertEquals(7, autoscaler.nextConsumers(10, TARGET_MICROS * 4, SAMPLES, 100));
+        assertEquals(2, autoscaler.nextConsumers(3, TARGET_MICROS * 4, SAMPLES, 100));
+    }
+
+    @Test
+    public void testGivenLatencyWellUnderTargetAssertConsumersGrowUpToMax()
+    {
+        assertEquals(15, autoscaler.nextConsumers(10, TARGET_MICROS / 4, SAMPLES, 100));
+        assertEquals(20, autoscaler.nextConsumers(18, TARGET_MICROS / 4, SAMPLES, 200));
+    }
+
+    @Test
+    public void testGivenLatencyJustUnderTargetAssertConsumersHeld()
+    {
+        assertEquals(10, autoscaler.nextConsumers(10, TARGET_MICROS - 1000, SAMPLES, 100));
+    }
+
+    @Test
+    public void testGivenTooFewSamplesAssertConsumersHeld()
+    {
+        assertEquals(10, autoscaler.nextConsumers(10, TARGET_MICROS * 4, 5, 100));
+    }
+
+    @Test
+    public void testGivenThroughputNotGrowingWithConsumersAssertGrowthHeldThenRetried()
+    {
+        assertEquals(15, autoscaler.nextConsumers(10, TARGET_MICROS / 4, SAMPLES, 100));
+        // the extra consumers did not add throughput
+        assertEquals(15, autoscaler.nextConsumers(15, TARGET_MICROS / 4, SAMPLES, 101));
+        assertEquals(20, autoscaler.nextConsumers(15, TARGET_MICROS / 4, SAMPLES, 101));
+    }
+
+    @Test
+    public void testGivenHistogramAssertOnlyLatenciesOfLastIntervalUsed()
+    {
+        LatencyHistogram histogram = new LatencyHistogram();
+        record(histogram, TARGET_MICROS * 4, 100);
+        // the baseline is taken first
+        assertEquals(10, autoscaler.nextConsumers(10, histogram, 100));
+
+        record(histogram, TARGET_MICROS / 4, 100);
+        assertEquals(15, autoscaler.nextConsumers(10, histogram, 200));
+    }
+
+    private static void record(LatencyHistogram histogram, long value, int count)
+    {
+        for (int i = 0; i < count; i++)
+        {
+            histogram.record(value);
+        }
+    }
+}
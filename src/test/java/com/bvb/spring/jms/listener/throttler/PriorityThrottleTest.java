@@ -0,0 +1,54 @@
+package com.bvb.spring.jms.listener.throttler;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Test;
+
+public class PriorityThrottleTest
+{
+    private final PriorityThrottle throttle = new PriorityThrottle(8);
+
+    @Test
+    public void testGivenNotEngagedAssertNormalSelectorUsed()
+    {
+        assertNull(throttle.applyTo(null));
+        assertEquals("region = 'EU'", throttle.applyTo("region = 'EU'"));
+    }
+
+    @Test
+    public void testGivenEngagedAssertMinPriorityAddedToSelector()
+    {
+        throttle.engage();
+
+        assertEquals("JMSPriority >= 8", throttle.applyTo(null));
+        assertEquals("(region = 'EU') AND JMSPriority >= 8", throttle.applyTo("region = 'EU'"));
+    }
+
+    @Test
+    public void testGivenRelaxingAssertMinPriorityLoweredInStagesUntilReleased()
+    {
+        throttle.engage();
+
+        throttle.relax(0.25);
+        assertEquals(6, throttle.getCurrentMinPriority());
+        throttle.relax(0.5);
+        assertEquals(4, throttle.getCurrentMinPriority());
+        // a slower measure of the progress does not raise it again
+        throttle.relax(0.25);
+        assertEquals(4, throttle.getCurrentMinPriority());
+        throttle.relax(0.99);
+        assertEquals(1, throttle.getCurrentMinPriority());
+        throttle.relax(1);
+        assertEquals(0, throttle.getCurrentMinPriority());
+    }
+
+    @Test
+    public void testGivenCustomPropertyAssertUsedInSelector()
+    {
+        PriorityThrottle custom = new PriorityThrottle("urgency", 3);
+        custom.engage();
+
+        assertEquals("urgency >= 3", custom.applyTo(null));
+    }
+}
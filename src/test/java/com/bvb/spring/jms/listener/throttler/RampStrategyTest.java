@@ -0,0 +1,90 @@
+package com.bvb.spring.jms.listener.throttler;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import com.bvb.spring.jms.listener.config.PauseConfig;
+import com.bvb.spring.jms.listener.config.PauseConfigBuilder;
+
+public class RampStrategyTest
+{
+    private static final double DELTA = 0.0001;
+    private static final int RUNS = 10;
+
+    @Test
+    public void testGivenEachStrategyAssertRisesFromZeroToOneWithoutFalling()
+    {
+        RampStrategy[] strategies = { new LinearRampStrategy(), new ExponentialRampStrategy(), new SCurveRampStrategy(),
+            new StepTableRampStrategy(0.1, 0.2, 0.5) };
+        for (RampStrategy strategy : strategies)
+        {
+            assertEquals(0, strategy.fractionAt(0, RUNS), DELTA);
+            double previous = 0;
+            for (int run = 1; run < RUNS; run++)
+            {
+                double fraction = strategy.fractionAt(run, RUNS);
+                assertTrue(strategy + " fell at run " + run, fraction >= previous);
+                assertTrue(fraction < 1);
+                previous = fraction;
+            }
+            assertEquals(1, strategy.fractionAt(RUNS, RUNS), DELTA);
+        }
+    }
+
+    @Test
+    public void testGivenCurvesAssertShapeAtQuarterAndHalfOfPeriod()
+    {
+        assertEquals(0.5, new LinearRampStrategy().fractionAt(5, RUNS), DELTA);
+        // slow to start then faster
+        assertTrue(new ExponentialRampStrategy().fractionAt(5, RUNS) < 0.25);
+        // slow at the start, half way at the middle
+        assertTrue(new SCurveRampStrategy().fractionAt(2, RUNS) < 0.1);
+        assertEquals(0.5, new SCurveRampStrategy().fractionAt(5, RUNS), DELTA);
+    }
+
+    @Test
+    public void testGivenStepTableShorterThanPeriodAssertHeldAtLastStep()
+    {
+        RampStrategy strategy = new StepTableRampStrategy(0.25, 0.5);
+
+        assertEquals(0.25, strategy.fractionAt(1, 4), DELTA);
+        assertEquals(0.5, strategy.fractionAt(2, 4), DELTA);
+        assertEquals(0.5, strategy.fractionAt(3, 4), DELTA);
+        assertEquals(1, strategy.fractionAt(4, 4), DELTA);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testGivenStepTableDecreasingAssertRejected()
+    {
+        new StepTableRampStrategy(0.5, 0.25);
+    }
+
+    @Test
+    public void testGivenConfigWithRampStrategyAssertCounterGrowsAlongIt()
+    {
+        PauseConfig config = PauseConfigBuilder.newBuilder().withThrottleMaxConcurrency(1).withThrottleDeliveryForXSeconds(4)
+            .withThrottleRelaxEveryXMs(1000).withRampStrategy(new StepTableRampStrategy(0, 0.5)).build();
+        ThrottlerCounter counter = new FixedRateThrottlerCounter(11, config);
+
+        assertEquals(1, counter.incrementAndGet());
+        assertEquals(6, counter.incrementAndGet());
+        assertEquals(6, counter.incrementAndGet());
+        assertFalse(counter.isDone());
+        assertEquals(11, counter.incrementAndGet());
+        assertTrue(counter.isDone());
+    }
+
+    @Test
+    public void testGivenUnlimitedTargetAssertRateGrowsByThrottledRateThenLimitRemoved()
+    {
+        RateThrottlerCounter counter = new RateThrottlerCounter(10, RateThrottlerCounter.UNLIMITED, 3);
+
+        assertEquals(20, counter.incrementAndGet(), DELTA);
+        assertEquals(30, counter.incrementAndGet(), DELTA);
+        assertEquals(RateThrottlerCounter.UNLIMITED, counter.incrementAndGet(), DELTA);
+        assertTrue(counter.isDone());
+    }
+}
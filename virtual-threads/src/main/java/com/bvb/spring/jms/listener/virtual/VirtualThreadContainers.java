@@ -0,0 +1,73 @@
+package com.bvb.spring.jms.listener.virtual;
+
+import org.springframework.util.Assert;
+
+import com.bvb.spring.jms.listener.BackoffDefaultMessageListeningContainer;
+import com.bvb.spring.jms.listener.scheduling.HashedWheelTaskScheduler;
+
+/**
+ * Configures a {@link BackoffDefaultMessageListeningContainer} to run on virtual threads.
+ * <p>
+ * The consumers run on a {@link VirtualThreadTaskExecutor}, one virtual thread per consumer.  The keep alive and throttle
+ * relax tasks run on a {@link HashedWheelTaskScheduler} shared between the containers configured here, its single ticker is
+ * a platform thread but each task it fires runs on a virtual thread of its own, so a slow keep alive service no longer holds
+ * up the keep alives of the other containers.
+ * <p>
+ * Nothing else about the container changes, pausing, throttling, the keep alive and the observers behave as they do on
+ * platform threads.  Requires Java 24 or later, consumers block in {@link javax.jms.MessageConsumer#receive(long)} and
+ * while paused, inside a {@code synchronized} block or {@link Object#wait()} as JMS clients and the container both do, and
+ * before Java 24 that pins the carrier thread so the consumers starve for carriers.
+ */
+public final class VirtualThreadContainers
+{
+    private static final String SCHEDULER_THREAD_NAME_PREFIX = "VirtualBackoffDmlcScheduler-";
+    
+    private VirtualThreadContainers()
+    {
+        /* Static methods only */
+    }
+    
+    /**
+     * Get the scheduler shared by the containers configured here, it is started on first use and runs every task on a new
+     * virtual thread.  It cannot be shut down or reconfigured, a container shutting down leaves it running for the others.
+     * @return the shared scheduler.
+     */
+    public static HashedWheelTaskScheduler getSharedTaskScheduler()
+    {
+        return SharedSchedulerHolder.INSTANCE;
+    }
+    
+    /**
+     * Create a scheduler that runs every task on a new virtual thread, for containers that should not share the scheduler.
+     * The caller is responsible for shutting it down.
+     * @param threadNamePrefix the prefix of the names of the ticker and task threads.
+     * @return the scheduler.
+     */
+    public static HashedWheelTaskScheduler createTaskScheduler(String threadNamePrefix)
+    {
+        HashedWheelTaskScheduler scheduler = new HashedWheelTaskScheduler();
+        scheduler.setThreadNamePrefix(threadNamePrefix);
+        scheduler.setTaskExecutor(new VirtualThreadTaskExecutor(threadNamePrefix + "Task-"));
+        return scheduler;
+    }
+    
+    /**
+     * Run the consumers of the container on virtual threads and its scheduled tasks on the
+     * {@link #getSharedTaskScheduler() shared scheduler}.  Must be called before the container is initialised.
+     * @param container the container to configure.
+     * @param threadNamePrefix the prefix of the names of the consumer threads, typically the bean name of the container.
+     */
+    public static void configure(BackoffDefaultMessageListeningContainer container, String threadNamePrefix)
+    {
+        Assert.notNull(container, "container must not be null");
+        Assert.hasText(threadNamePrefix, "threadNamePrefix must not be empty");
+        container.setTaskExecutor(new VirtualThreadTaskExecutor(threadNamePrefix + "-"));
+        container.setTaskScheduler(getSharedTaskScheduler());
+    }
+    
+    private static final class SharedSchedulerHolder
+    {
+        private static final HashedWheelTaskScheduler INSTANCE = HashedWheelTaskScheduler.createShared(
+            SCHEDULER_THREAD_NAME_PREFIX, new VirtualThreadTaskExecutor(SCHEDULER_THREAD_NAME_PREFIX + "Task-"));
+    }
+}
@@ -0,0 +1,36 @@
+package com.bvb.spring.jms.listener.virtual;
+
+import org.springframework.core.task.SimpleAsyncTaskExecutor;
+
+/**
+ * A {@link SimpleAsyncTaskExecutor} that starts a new virtual thread for each task rather than a platform thread.
+ * <p>
+ * The {@link org.springframework.jms.listener.DefaultMessageListenerContainer} uses a {@link SimpleAsyncTaskExecutor} when it
+ * is not given an executor, extending it keeps the same behaviour: the executor is not a
+ * {@link org.springframework.scheduling.SchedulingTaskExecutor} so each consumer stays on its thread for the life of the
+ * invoker, the container grows and shrinks the consumers in the same way and a paused container parks its consumers as it
+ * would on platform threads.  Only the thread they are parked on is cheaper.
+ */
+public class VirtualThreadTaskExecutor extends SimpleAsyncTaskExecutor
+{
+    private static final long serialVersionUID = 1L;
+    
+    /**
+     * Create the executor with the default thread name prefix.
+     */
+    public VirtualThreadTaskExecutor()
+    {
+        super();
+        setThreadFactory(Thread.ofVirtual().name(getThreadNamePrefix(), 0).factory());
+    }
+    
+    /**
+     * Create the executor.
+     * @param threadNamePrefix the prefix of the names of the threads, each is followed by a count.
+     */
+    public VirtualThreadTaskExecutor(String threadNamePrefix)
+    {
+        super(threadNamePrefix);
+        setThreadFactory(Thread.ofVirtual().name(threadNamePrefix, 0).factory());
+    }
+}